@@ -3,6 +3,8 @@ package main.model.externalcomm;
 import java.io.*;
 import java.net.Socket;
 
+import javax.swing.SwingUtilities;
+
 import com.cedarsoftware.util.io.JsonReader;
 
 import main.model.tasks.TaskModel;
@@ -14,7 +16,7 @@ public class ClientTask implements Runnable {
     
     private DataInputStream inputStream;
     
-    private TaskModel taskModel;
+    private final TaskModel taskModel;
     
     public ClientTask(Socket clientSocket, TaskModel taskModel) {
         this.clientSocket = clientSocket;
@@ -33,9 +35,14 @@ public class ClientTask implements Runnable {
                     //get string from client
                     String taskString = inputStream.readUTF();
                     //convert it using json
-                    IExecuteTask newTask = (IExecuteTask) JsonReader.jsonToJava(taskString);
-                    //add that task to the queue
-                    taskModel.addExternalTask(newTask);
+                    final IExecuteTask newTask = (IExecuteTask) JsonReader.jsonToJava(taskString);
+                    //add that task to the queue, on the Swing thread like every other change to the models
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            taskModel.addExternalTask(newTask);
+                        }
+                    });
                 }
                 catch (EOFException e) {
                     //do nothing, normal execution
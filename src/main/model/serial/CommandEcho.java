@@ -0,0 +1,100 @@
+package main.model.serial;
+
+import main.model.serial.protocol.AsciiCommandEncoder;
+import main.model.serial.protocol.CommandType;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Prints serial traffic to the console on a background thread, so the thread sending commands never waits on
+ * System.out. Turned off, echoing costs nothing at all.
+ */
+public class CommandEcho {
+
+    /**
+     * Whether anything gets printed.
+     */
+    private volatile boolean enabled;
+
+    /**
+     * Lines waiting to be printed. Commands are kept as their type and operands and only turned into text here.
+     */
+    private final LinkedBlockingQueue<Object> lines = new LinkedBlockingQueue<Object>();
+
+    /**
+     * Thread doing the printing, started the first time something is echoed.
+     */
+    private Thread printer;
+
+    /**
+     * @param enabled - whether commands should be printed at all
+     */
+    public CommandEcho(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Queues a command to be printed.
+     */
+    public void echo(CommandType type, int operand0, int operand1) {
+        if (!enabled) return;
+        queue(new EchoedCommand(type, operand0, operand1));
+    }
+
+    /**
+     * Queues a line of text to be printed.
+     */
+    public void echo(String text) {
+        if (!enabled) return;
+        queue(text);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private void queue(Object line) {
+        lines.offer(line);
+        startPrinter();
+    }
+
+    private synchronized void startPrinter() {
+        if (printer != null) return;
+        printer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        System.out.println(lines.take());
+                    }
+                } catch (InterruptedException e) {
+                    //shutting down, nothing else to print
+                }
+            }
+        }, "Serial echo");
+        printer.setDaemon(true);
+        printer.start();
+    }
+
+    /**
+     * A command waiting to be printed, rendered as text only when it actually is.
+     */
+    private static class EchoedCommand {
+        private final CommandType type;
+        private final int operand0, operand1;
+
+        EchoedCommand(CommandType type, int operand0, int operand1) {
+            this.type = type;
+            this.operand0 = operand0;
+            this.operand1 = operand1;
+        }
+
+        public String toString() {
+            return AsciiCommandEncoder.render(type, operand0, operand1);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package main.model.serial;
+
+import main.model.serial.protocol.CommandType;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Times every command from the write that sends it to the "Done" that acknowledges it, with a histogram per kind of
+ * command, so time spent on the host can be told apart from time spent on the device. For each acknowledged command
+ * three things are kept:
+ * - round trip: from the write to the "Done" being handled, including time queued behind earlier commands
+ * - device time: from when the device could start on it, once it was written and the command before was done, to
+ * its "Done", roughly how long the device spent on it
+ * - turnaround: from a "Done" being handled to the next write, how long the host took to answer
+ * along with how many commands and bytes went out, for throughput.
+ *
+ * Commands are acknowledged in the order they were sent. Only commands that answer with "Done" are timed; the
+ * handshake and calibration answer with something else.
+ */
+public class CommandLatency {
+
+    /**
+     * Kinds of command that are timed, one histogram each.
+     */
+    private static final CommandType[] TIMED = {CommandType.MOVE, CommandType.DISPENSE, CommandType.NOZZLE_HEIGHT,
+            CommandType.DELAY, CommandType.PUMP_PARAMS, CommandType.RAW};
+
+    /**
+     * Where each command type's histograms are, by opcode, -1 for types that aren't timed.
+     */
+    private static final int[] SLOT = new int[128];
+    static {
+        Arrays.fill(SLOT, -1);
+        for (int i = 0; i < TIMED.length; i++) {
+            SLOT[TIMED[i].getOpcode()] = i;
+        }
+    }
+
+    private final LatencyHistogram[] roundTrip = new LatencyHistogram[TIMED.length];
+    private final LatencyHistogram[] deviceTime = new LatencyHistogram[TIMED.length];
+    private final LatencyHistogram turnaround = new LatencyHistogram();
+
+    /**
+     * Commands written or waiting to be, oldest first, as a growable ring of their histogram slots and write times.
+     * A write time of 0 means the command is still held back in a batch.
+     */
+    private int[] pendingSlots = new int[256];
+    private long[] pendingNanos = new long[256];
+    private int head = 0, size = 0, unwritten = 0;
+
+    /**
+     * When the last "Done" was handled, and whether a write has followed it yet.
+     */
+    private long lastAcknowledged = 0;
+    private boolean answered = true;
+
+    private long firstWrite = 0, lastEvent = 0, commandsWritten = 0, bytesWritten = 0, acknowledged = 0, unmatched = 0;
+
+    public CommandLatency() {
+        for (int i = 0; i < TIMED.length; i++) {
+            roundTrip[i] = new LatencyHistogram();
+            deviceTime[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Called as a command is encoded. It is timed from when it is actually written, see written.
+     */
+    public synchronized void queued(CommandType type) {
+        int slot = SLOT[type.getOpcode()];
+        if (slot < 0) return;
+        if (size == pendingSlots.length) grow();
+        int at = (head + size) & (pendingSlots.length - 1);
+        pendingSlots[at] = slot;
+        pendingNanos[at] = 0;
+        size++;
+        unwritten++;
+    }
+
+    /**
+     * Called once encoded bytes have gone out to the device, stamping the commands they held.
+     */
+    public synchronized void written(int bytes) {
+        long now = System.nanoTime();
+        if (firstWrite == 0) firstWrite = now;
+        lastEvent = now;
+        bytesWritten += bytes;
+        if (unwritten == 0) return;
+
+        if (!answered) {
+            turnaround.record(now - lastAcknowledged);
+            answered = true;
+        }
+        for (int i = size - unwritten; i < size; i++) {
+            pendingNanos[(head + i) & (pendingSlots.length - 1)] = now;
+        }
+        commandsWritten += unwritten;
+        unwritten = 0;
+    }
+
+    /**
+     * Called as a "Done" is handled, timing the oldest command written.
+     */
+    public synchronized void acknowledged() {
+        long now = System.nanoTime();
+        lastEvent = now;
+        if (size == unwritten) {
+            //a command typed in by hand, or one sent before this was watching
+            unmatched++;
+            return;
+        }
+        int slot = pendingSlots[head];
+        long sent = pendingNanos[head];
+        head = (head + 1) & (pendingSlots.length - 1);
+        size--;
+
+        roundTrip[slot].record(now - sent);
+        deviceTime[slot].record(now - Math.max(sent, lastAcknowledged));
+        lastAcknowledged = now;
+        answered = false;
+        acknowledged++;
+    }
+
+    /**
+     * Stops timing the oldest commands written, e.g. ones about to be sent again, which are then timed afresh.
+     */
+    public synchronized void forget(int count) {
+        int forgotten = Math.max(0, Math.min(count, size - unwritten));
+        head = (head + forgotten) & (pendingSlots.length - 1);
+        size -= forgotten;
+    }
+
+    /**
+     * Stops timing every command but the oldest few, e.g. once the device has thrown the rest away unrun.
+     */
+    public synchronized void retainOldest(int count) {
+        int kept = Math.max(0, Math.min(count, size));
+        unwritten = Math.max(0, unwritten - (size - kept));
+        size = kept;
+    }
+
+    /**
+     * Empties every histogram and counter, e.g. as a new run starts. Commands still in flight are still timed.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < TIMED.length; i++) {
+            roundTrip[i].reset();
+            deviceTime[i].reset();
+        }
+        turnaround.reset();
+        firstWrite = 0;
+        lastEvent = 0;
+        commandsWritten = 0;
+        bytesWritten = 0;
+        acknowledged = 0;
+        unmatched = 0;
+    }
+
+    private void grow() {
+        int capacity = pendingSlots.length;
+        int[] slots = new int[2 * capacity];
+        long[] nanos = new long[2 * capacity];
+        for (int i = 0; i < size; i++) {
+            slots[i] = pendingSlots[(head + i) & (capacity - 1)];
+            nanos[i] = pendingNanos[(head + i) & (capacity - 1)];
+        }
+        pendingSlots = slots;
+        pendingNanos = nanos;
+        head = 0;
+    }
+
+    /**
+     * @return round trip latencies of the given kind of command, null if it isn't timed
+     */
+    public synchronized LatencyHistogram getRoundTrip(CommandType type) {
+        int slot = SLOT[type.getOpcode()];
+        return slot < 0 ? null : roundTrip[slot];
+    }
+
+    /**
+     * @return device times of the given kind of command, null if it isn't timed
+     */
+    public synchronized LatencyHistogram getDeviceTime(CommandType type) {
+        int slot = SLOT[type.getOpcode()];
+        return slot < 0 ? null : deviceTime[slot];
+    }
+
+    /**
+     * @return how long the host took to write something after a "Done"
+     */
+    public synchronized LatencyHistogram getTurnaround() {
+        return turnaround;
+    }
+
+    /**
+     * @return number of commands acknowledged since the last reset
+     */
+    public synchronized long getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     * @return commands acknowledged per second, from the first write to the last write or "Done"
+     */
+    public synchronized double getCommandsPerSecond() {
+        double seconds = (lastEvent - firstWrite) / 1e9;
+        return seconds <= 0 ? 0 : acknowledged / seconds;
+    }
+
+    /**
+     * @return one line summary of throughput and turnaround
+     */
+    public synchronized String getSummary() {
+        double seconds = Math.max(0, (lastEvent - firstWrite) / 1e9);
+        return String.format("Commands: %d written, %d acknowledged in %.1f s (%.1f per s, %.0f bytes per s), "
+                        + "host turnaround p50 %.2f ms, p99 %.2f ms", commandsWritten, acknowledged, seconds,
+                getCommandsPerSecond(), seconds == 0 ? 0 : bytesWritten / seconds,
+                turnaround.getPercentileMillis(50), turnaround.getPercentileMillis(99));
+    }
+
+    /**
+     * @return table of every timed kind of command, round trip and device time, one line each
+     */
+    public synchronized String describe() {
+        StringBuilder listing = new StringBuilder(getSummary()).append('\n');
+        for (int i = 0; i < TIMED.length; i++) {
+            if (roundTrip[i].getCount() == 0) continue;
+            String name = TIMED[i] == CommandType.RAW ? "raw" : TIMED[i].getText();
+            listing.append(name).append(" round trip: ").append(roundTrip[i]).append('\n');
+            listing.append(name).append(" device time: ").append(deviceTime[i]).append('\n');
+        }
+        listing.append("host turnaround: ").append(turnaround).append('\n');
+        if (unmatched > 0) listing.append(unmatched).append(" \"Done\"(s) with nothing written to match\n");
+        return listing.toString();
+    }
+
+    /**
+     * Writes the table, followed by every histogram's buckets, to a file.
+     */
+    public synchronized void dump(File file) throws IOException {
+        Writer out = new FileWriter(file);
+        try {
+            out.write(describe());
+            out.write("\ncommand,measure,up to us,count\n");
+            for (int i = 0; i < TIMED.length; i++) {
+                String name = TIMED[i] == CommandType.RAW ? "raw" : TIMED[i].getText();
+                writeBuckets(out, name + ",round trip,", roundTrip[i]);
+                writeBuckets(out, name + ",device time,", deviceTime[i]);
+            }
+            writeBuckets(out, "any,host turnaround,", turnaround);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeBuckets(Writer out, String prefix, LatencyHistogram histogram) throws IOException {
+        for (String line : histogram.describeBuckets().split("\n")) {
+            if (!line.isEmpty()) out.write(prefix + line + "\n");
+        }
+    }
+}
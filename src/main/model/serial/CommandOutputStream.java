@@ -0,0 +1,311 @@
+package main.model.serial;
+
+import main.model.serial.protocol.AsciiCommandEncoder;
+import main.model.serial.protocol.CommandType;
+import main.model.serial.protocol.ICommandEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Output stream to the Arduino that also knows how to send whole commands. Tasks hand it a command type and its
+ * operands, and it encodes them with whichever protocol was negotiated with the device. Plain bytes written to it
+ * go straight through, so anything that just wants to send text still can.
+ *
+ * Commands are encoded into one reusable buffer and go out as a single write each, or as a single write for a whole
+ * batch between beginBatch and endBatch. Nothing on this path allocates or prints.
+ *
+ * Control commands (pause, resume, abort, stop) take a lane of their own: they skip any batch being held back and go
+ * out on the control stream, ahead of whatever is still queued for the device.
+ */
+public class CommandOutputStream extends OutputStream {
+
+    /**
+     * Size of the reusable encoding buffer. A batch that outgrows it is written out in pieces.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Room always kept free in the buffer, enough for the largest single command.
+     */
+    private static final int MAX_COMMAND_SIZE = 300;
+
+    /**
+     * Stream to the device.
+     */
+    private final OutputStream out;
+
+    /**
+     * Where traffic gets echoed to the console, if anywhere.
+     */
+    private final CommandEcho echo;
+
+    /**
+     * Buffer commands are encoded into before being written. Heap backed, since the RXTX stream takes a byte array.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Encoder for the protocol currently in use.
+     */
+    private volatile ICommandEncoder encoder = new AsciiCommandEncoder();
+
+    /**
+     * Where control commands go, straight to the device ahead of anything queued.
+     */
+    private volatile OutputStream control;
+
+    /**
+     * Buffer control commands are encoded into, apart from the main one so they never wait on a batch.
+     */
+    private final ByteBuffer controlBuffer = ByteBuffer.allocate(MAX_COMMAND_SIZE);
+
+    /**
+     * Sequence number given to the next command, taken atomically so control commands can read it without the lock.
+     * Wraps at 16 bits when used.
+     */
+    private final AtomicInteger nextSequence = new AtomicInteger();
+
+    /**
+     * How many beginBatch calls are waiting on their endBatch. Commands are only written once this is back to 0.
+     */
+    private int batchDepth = 0;
+
+    /**
+     * Number of commands sent through this stream.
+     */
+    private long commandsWritten = 0;
+
+    /**
+     * Times each command from being written to being acknowledged.
+     */
+    private final CommandLatency latency = new CommandLatency();
+
+    /**
+     * Watches for commands that are never acknowledged, null if nothing is watching.
+     */
+    private CommandWatchdog watchdog;
+
+    /**
+     * @param out - stream going to the device
+     * @param echo - where to echo commands to the console
+     */
+    public CommandOutputStream(OutputStream out, CommandEcho echo) {
+        this.out = out;
+        this.control = out;
+        this.echo = echo;
+    }
+
+    /**
+     * @param out - stream going to the device, nothing is echoed
+     */
+    public CommandOutputStream(OutputStream out) {
+        this(out, new CommandEcho(false));
+    }
+
+    /**
+     * Encodes and sends a command with no operands.
+     */
+    public void writeCommand(CommandType type) throws IOException {
+        writeCommand(type, 0, 0);
+    }
+
+    /**
+     * Encodes and sends a command with one operand.
+     */
+    public void writeCommand(CommandType type, int operand0) throws IOException {
+        writeCommand(type, operand0, 0);
+    }
+
+    /**
+     * Encodes and sends a single command.
+     * @param type - command to send
+     * @param operand0 - first fixed-point operand, ignored if the command takes none
+     * @param operand1 - second fixed-point operand, ignored if the command takes fewer than two
+     */
+    public synchronized void writeCommand(CommandType type, int operand0, int operand1) throws IOException {
+        makeRoom(MAX_COMMAND_SIZE);
+        int sequence = nextSequence();
+        encoder.encode(type, operand0, operand1, sequence, buffer);
+        commandsWritten++;
+        latency.queued(type);
+        if (watchdog != null) watchdog.queued(type, operand0, operand1, null, sequence);
+        echo.echo(type, operand0, operand1);
+        if (batchDepth == 0) flushBuffer();
+    }
+
+    /**
+     * Encodes and sends a raw, user-written command.
+     * @param text - command text, e.g. "blink(3)"
+     */
+    public synchronized void writeRaw(String text) throws IOException {
+        makeRoom(text.length() + 16);
+        int sequence = nextSequence();
+        encoder.encodeRaw(text, sequence, buffer);
+        commandsWritten++;
+        latency.queued(CommandType.RAW);
+        if (watchdog != null) watchdog.queued(CommandType.RAW, 0, 0, text, sequence);
+        echo.echo(text);
+        if (batchDepth == 0) flushBuffer();
+    }
+
+    /**
+     * Encodes and sends a control command ahead of everything else. On a control lane of its own it doesn't wait on the
+     * lock commands are sent under; with no control lane set it goes out on the stream to the device under that lock,
+     * so it is never written in the middle of another command. Abort and stop carry the sequence number the next
+     * ordinary command will get, so the device can tell which commands were sent before them and still arriving.
+     * @param type - PAUSE, RESUME, ABORT or STOP
+     */
+    public void writeControl(CommandType type) throws IOException {
+        OutputStream lane = control;
+        int sequence;
+        if (lane == out) {
+            synchronized (this) {
+                sequence = nextSequence.get() & 0xFFFF;
+                writeControl(type, sequence, out);
+            }
+        }
+        else {
+            sequence = nextSequence.get() & 0xFFFF;
+            writeControl(type, sequence, lane);
+        }
+        echo.echo(type, sequence, 0);
+    }
+
+    private void writeControl(CommandType type, int sequence, OutputStream lane) throws IOException {
+        synchronized (controlBuffer) {
+            controlBuffer.clear();
+            encoder.encode(type, sequence, 0, sequence, controlBuffer);
+            lane.write(controlBuffer.array(), 0, controlBuffer.position());
+        }
+    }
+
+    /**
+     * Sends text exactly as given, bypassing the encoder, in a single write.
+     * @param text - text to send
+     */
+    public synchronized void writeText(CharSequence text) throws IOException {
+        flushBuffer();
+        for (int i = 0; i < text.length(); i++) {
+            makeRoom(1);
+            buffer.put((byte) text.charAt(i));
+        }
+        echo.echo(text.toString());
+        if (batchDepth == 0) flushBuffer();
+    }
+
+    /**
+     * Starts holding commands back so a run of them can go out in one write. Batches can be nested.
+     */
+    public synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch, writing out everything held back once the outermost batch ends.
+     */
+    public synchronized void endBatch() throws IOException {
+        if (batchDepth > 0) batchDepth--;
+        if (batchDepth == 0) flushBuffer();
+    }
+
+    /**
+     * Sets where control commands go, e.g. the I/O engine's control stream; by default they go out on the stream to the
+     * device, in turn with everything else.
+     */
+    public void setControlLane(OutputStream control) {
+        this.control = control;
+    }
+
+    /**
+     * Switches the protocol commands are encoded with.
+     */
+    public void setEncoder(ICommandEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * @return encoder commands are currently sent with
+     */
+    public ICommandEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * @return latencies of commands sent through this stream, told about acknowledgements by whoever reads them
+     */
+    public CommandLatency getLatency() {
+        return latency;
+    }
+
+    /**
+     * Sets what watches the commands sent through this stream for ones never acknowledged, null for nothing.
+     */
+    public synchronized void setWatchdog(CommandWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * @return what watches for commands never acknowledged, null if nothing is
+     */
+    public synchronized CommandWatchdog getWatchdog() {
+        return watchdog;
+    }
+
+    /**
+     * @return number of commands that have been sent through this stream
+     */
+    public synchronized long getCommandsWritten() {
+        return commandsWritten;
+    }
+
+    private int nextSequence() {
+        return nextSequence.getAndIncrement() & 0xFFFF;
+    }
+
+    /**
+     * Writes out what is buffered so far if there isn't enough room left for the next piece.
+     */
+    private void makeRoom(int needed) throws IOException {
+        if (buffer.remaining() < needed) flushBuffer();
+    }
+
+    /**
+     * Writes everything in the buffer to the device in one go.
+     */
+    private void flushBuffer() throws IOException {
+        if (buffer.position() == 0) return;
+        out.write(buffer.array(), 0, buffer.position());
+        latency.written(buffer.position());
+        if (watchdog != null) watchdog.written();
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        flushBuffer();
+        out.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        flushBuffer();
+        out.write(b, off, len);
+        latency.written(len);
+        if (watchdog != null) watchdog.written();
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+}
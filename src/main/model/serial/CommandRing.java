@@ -0,0 +1,121 @@
+package main.model.serial;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded ring of encoded commands waiting to go out to the device. Slots are allocated once up front and reused, so
+ * queueing a command is just a copy into the next free slot. Exactly one thread may put into the ring and exactly one
+ * may take out of it; neither ever takes a lock.
+ */
+public class CommandRing {
+
+    /**
+     * Preallocated slots, each holding one write's worth of bytes.
+     */
+    private final byte[][] slots;
+
+    /**
+     * Number of bytes in use in each slot.
+     */
+    private final int[] lengths;
+
+    /**
+     * Capacity minus one, capacity being a power of two so a sequence number maps to its slot with a mask.
+     */
+    private final int mask;
+
+    /**
+     * Sequence number of the next slot to be taken. Only the consumer moves it.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Sequence number of the next slot to be filled. Only the producer moves it.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity - number of slots, rounded up to a power of two
+     * @param slotSize - largest number of bytes a single slot holds
+     */
+    public CommandRing(int capacity, int slotSize) {
+        int size = 1;
+        while (size < capacity) size <<= 1;
+        slots = new byte[size][slotSize];
+        lengths = new int[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Copies bytes into the next free slot. Producer side only.
+     * @return false if the ring is full and nothing was copied
+     */
+    public boolean offer(byte[] bytes, int offset, int length) {
+        if (length > slotSize()) {
+            throw new IllegalArgumentException("Write of " + length + " bytes does not fit in a ring slot");
+        }
+        long t = tail.get();
+        if (t - head.get() == slots.length) return false;
+
+        int index = (int) t & mask;
+        System.arraycopy(bytes, offset, slots[index], 0, length);
+        lengths[index] = length;
+        //a plain volatile write, so a consumer about to park is sure to either see it or be woken for it
+        tail.set(t + 1);
+        return true;
+    }
+
+    /**
+     * Writes every filled slot to the stream, oldest first, freeing each once it is written. Consumer side only.
+     * @return number of slots written
+     */
+    public int drainTo(OutputStream out) throws IOException {
+        return drainTo(out, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes up to the given number of filled slots to the stream, oldest first, freeing each once it is written.
+     * Consumer side only.
+     * @return number of slots written
+     */
+    public int drainTo(OutputStream out, int maxSlots) throws IOException {
+        long h = head.get();
+        long t = Math.min(tail.get(), h + maxSlots);
+        for (long i = h; i < t; i++) {
+            int index = (int) i & mask;
+            out.write(slots[index], 0, lengths[index]);
+            head.lazySet(i + 1);
+        }
+        return (int) (t - h);
+    }
+
+    /**
+     * @return true if there is nothing waiting in the ring
+     */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * @return number of slots filled and not yet taken
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * @return number of slots in the ring
+     */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return largest number of bytes a single offer can take
+     */
+    public int slotSize() {
+        return slots[0].length;
+    }
+}
@@ -0,0 +1,498 @@
+package main.model.serial;
+
+import main.model.serial.protocol.CommandType;
+import main.model.tasks.estimation.MotionModel;
+import main.model.tasks.scheduling.TimerWheel;
+
+import java.io.IOException;
+
+/**
+ * Watches for commands that are never acknowledged. A run only moves on when a "Done" comes back, so one garbled on
+ * the way, or a command garbled on its way out, would otherwise leave the run waiting forever.
+ *
+ * Every command that answers with "Done" gets a deadline as it is written: twice what the motion model expects it to
+ * take, plus a fixed allowance for the link, counted from when the device could start on it. Once the oldest command
+ * is past its deadline the watchdog works out what happened:
+ * - firmware that answers status() is asked how many commands it has acknowledged and finished, and the last frame it
+ * got. Any "Done" it sent that never arrived is made up for. If it is still working, the deadline is pushed back. If it
+ * is idle and never got the commands left, they are sent again.
+ * - otherwise, or if the status never comes back, the commands left are sent again only if running them twice does no
+ * harm (nozzle heights and pump settings). A delay isn't one of them: if only its "Done" was lost, waiting it out
+ * again would double an incubation.
+ * Anything else, or getting nowhere after a few tries, stalls the run and the listener is told, so someone can check
+ * the device before carrying on.
+ *
+ * Runs on the Swing event thread, like everything else that sends commands and handles what comes back.
+ */
+public class CommandWatchdog {
+
+    /**
+     * How often the oldest command's deadline is checked while anything is outstanding, in ms.
+     */
+    private static final int POLL_MILLIS = 100;
+
+    /**
+     * Number of times to try getting past a stuck command before giving up and stalling.
+     */
+    private static final int MAX_RECOVERIES = 3;
+
+    private final CommandOutputStream stream;
+    private final TimerWheel timerWheel;
+    private final MotionModel model;
+    private final IWatchdogListener listener;
+
+    /**
+     * Allowance on top of the expected time of every command, and how long to wait for a status, in ns.
+     */
+    private final long slackNanos;
+
+    /**
+     * Pump and nozzle as the commands written leave them, to work out how long the next one takes.
+     */
+    private final MotionModel.State state = new MotionModel.State();
+
+    /**
+     * Commands written or waiting to be, oldest first, as a growable ring. A write time of 0 means the command is
+     * still held back in a batch.
+     */
+    private CommandType[] types = new CommandType[64];
+    private int[] operands0 = new int[64], operands1 = new int[64], sequences = new int[64];
+    private String[] texts = new String[64];
+    private long[] writtenNanos = new long[64], expectedNanos = new long[64];
+    private int head = 0, size = 0, unwritten = 0;
+
+    /**
+     * When the last "Done" came in or was made up for, and when the device last said it was still busy.
+     */
+    private long lastAcknowledged = 0, busySince = 0;
+
+    /**
+     * Sequence number of the last command acknowledged, -1 before the first.
+     */
+    private int lastSequence = -1;
+
+    /**
+     * Acknowledgements counted so far, real and made up for, and how many the device had already given when it was
+     * first asked for its status.
+     */
+    private long acknowledgements = 0, baseline = 0;
+    private boolean statusSupported = false, baselineKnown = false;
+
+    /**
+     * When a status was asked for that hasn't come back yet, 0 if none was.
+     */
+    private long statusAsked = 0;
+
+    private int recoveries = 0;
+    private boolean stalled = false, stopped = false, paused = false;
+    private TimerWheel.Timeout timer;
+
+    private long madeUp = 0, resent = 0, stalls = 0;
+
+    private final Runnable check = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+
+    /**
+     * @param stream - stream the commands go out on, used to ask for the status and send commands again
+     * @param timerWheel - wheel to check deadlines on, firing on the Swing event thread
+     * @param model - how long commands take
+     * @param listener - told about lost acknowledgements and stalls
+     * @param slackMillis - allowance for the link on top of every command's expected time, in ms
+     */
+    public CommandWatchdog(CommandOutputStream stream, TimerWheel timerWheel, MotionModel model,
+                           IWatchdogListener listener, long slackMillis) {
+        this.stream = stream;
+        this.timerWheel = timerWheel;
+        this.model = model;
+        this.listener = listener;
+        this.slackNanos = Math.max(0, slackMillis) * 1000000L;
+    }
+
+    /**
+     * Called by the stream as a command is encoded. Only commands that answer with "Done" are watched.
+     * @param text - text of a raw command, null for the others
+     * @param sequence - sequence number the command was sent with
+     */
+    public synchronized void queued(CommandType type, int operand0, int operand1, String text, int sequence) {
+        if (!isAcknowledged(type) || stopped) return;
+        if (size == types.length) grow();
+        int at = (head + size) & (types.length - 1);
+        types[at] = type;
+        operands0[at] = operand0;
+        operands1[at] = operand1;
+        texts[at] = text;
+        sequences[at] = sequence;
+        writtenNanos[at] = 0;
+        expectedNanos[at] = (long) (model.wireMillis(type, operand0, operand1, state) * 1e6);
+        size++;
+        unwritten++;
+        if (timer == null && !stalled) timer = timerWheel.schedule(check, POLL_MILLIS);
+    }
+
+    /**
+     * Called by the stream once encoded bytes have gone out, starting the clock on the commands they held.
+     */
+    public synchronized void written() {
+        if (unwritten == 0) return;
+        long now = System.nanoTime();
+        for (int i = size - unwritten; i < size; i++) {
+            writtenNanos[(head + i) & (types.length - 1)] = now;
+        }
+        unwritten = 0;
+    }
+
+    /**
+     * Called as a "Done" is handled, for the oldest command written.
+     */
+    public synchronized void acknowledged() {
+        acknowledgements++;
+        if (size == unwritten) return;
+        pop();
+        recoveries = 0;
+        if (stalled) {
+            //the device came back by itself
+            stalled = false;
+            if (size > 0 && timer == null) timer = timerWheel.schedule(check, POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Called once the device has said it speaks frames, and so answers status(). Asks for a first status, to learn how
+     * many acknowledgements it had given before this connection was counting.
+     */
+    public void statusSupported() {
+        synchronized (this) {
+            statusSupported = true;
+            statusAsked = System.nanoTime();
+        }
+        askStatus();
+    }
+
+    /**
+     * Called with the device's answer to status().
+     * @param deviceAcknowledgements - number of "Done" answers the device has given
+     * @param unfinished - number of commands it has and hasn't finished
+     * @param deviceSequence - sequence number of the last frame it got
+     */
+    public void statusReceived(long deviceAcknowledgements, int unfinished, int deviceSequence) {
+        int lost = 0;
+        boolean again = false;
+        String reason = null;
+        synchronized (this) {
+            boolean asked = statusAsked != 0;
+            statusAsked = 0;
+            if (!baselineKnown) {
+                //answers come back in order with "Done", so every one given before this has been counted
+                baseline = deviceAcknowledgements - acknowledgements;
+                baselineKnown = true;
+                return;
+            }
+            if (!asked || stalled) return;
+
+            long now = System.nanoTime();
+            lost = (int) Math.max(0, Math.min(size - unwritten, deviceAcknowledgements - baseline - acknowledgements));
+            for (int i = 0; i < lost; i++) {
+                pop();
+            }
+            acknowledgements += lost;
+            madeUp += lost;
+            if (lost > 0) recoveries = 0;
+
+            if (size == unwritten) {
+                //every command is accounted for
+            }
+            else if (unfinished > 0) {
+                busySince = now;
+            }
+            else if (deviceSequence == lastSequence) {
+                //idle and never got anything after the last acknowledged command, so the rest can go again in order
+                again = true;
+            }
+            else {
+                reason = "A command in the middle of the run never reached the device, and the ones after it have "
+                        + "already run. Check the device before continuing.";
+                stall();
+            }
+        }
+        for (int i = 0; i < lost; i++) {
+            listener.acknowledgementLost();
+        }
+        if (again) resend();
+        if (reason != null) listener.stalled(reason);
+    }
+
+    /**
+     * Gives up on the commands outstanding as if they had been acknowledged, e.g. once someone has checked the device
+     * finished them, and starts watching again.
+     * @return number of commands given up on
+     */
+    public int skipOutstanding() {
+        int skipped;
+        synchronized (this) {
+            skipped = size - unwritten;
+            for (int i = 0; i < skipped; i++) {
+                pop();
+            }
+            acknowledgements += skipped;
+            recoveries = 0;
+            stalled = false;
+            if (size > 0 && timer == null && !stopped) timer = timerWheel.schedule(check, POLL_MILLIS);
+        }
+        for (int i = 0; i < skipped; i++) {
+            listener.acknowledgementLost();
+        }
+        return skipped;
+    }
+
+    /**
+     * Holds off while the device is paused, since nothing is acknowledged meanwhile. Deadlines start over from when it
+     * is resumed.
+     */
+    public synchronized void setPaused(boolean paused) {
+        this.paused = paused;
+        if (!paused) busySince = System.nanoTime();
+    }
+
+    /**
+     * Stops watching every command but the oldest few, e.g. once the device has thrown the rest away unrun.
+     */
+    public synchronized void retainOldest(int count) {
+        int kept = Math.max(0, Math.min(count, size));
+        for (int i = kept; i < size; i++) {
+            texts[(head + i) & (types.length - 1)] = null;
+        }
+        unwritten = Math.max(0, unwritten - (size - kept));
+        size = kept;
+        statusAsked = 0;
+    }
+
+    /**
+     * Stops watching, e.g. as the link is closed.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (timer != null) timer.cancel();
+        timer = null;
+    }
+
+    /**
+     * Called on the Swing event thread every so often while commands are outstanding.
+     */
+    private void check() {
+        boolean ask = false, again = false;
+        String reason = null;
+        synchronized (this) {
+            timer = null;
+            if (stopped || stalled || size == unwritten) return;
+            long now = System.nanoTime();
+            if (paused) {
+                timer = timerWheel.schedule(check, POLL_MILLIS);
+                return;
+            }
+
+            if (statusAsked != 0 && now - statusAsked < slackNanos) {
+                //still waiting on the answer
+            }
+            else if (statusAsked == 0 && now < deadline()) {
+                //nothing late yet
+            }
+            else if (++recoveries > MAX_RECOVERIES) {
+                reason = "The device hasn't acknowledged " + describe(head) + " after " + MAX_RECOVERIES
+                        + " tries. Check the device before continuing.";
+                stall();
+            }
+            else if (statusSupported && statusAsked == 0) {
+                statusAsked = now;
+                ask = true;
+            }
+            else if (repeatable()) {
+                statusAsked = 0;
+                again = true;
+            }
+            else {
+                reason = "The device hasn't acknowledged " + describe(head) + (statusSupported
+                        ? " and isn't answering status()." : ", and it isn't safe to send again.")
+                        + " Check the device before continuing.";
+                stall();
+            }
+            if (!stalled) timer = timerWheel.schedule(check, POLL_MILLIS);
+        }
+        if (ask) askStatus();
+        if (again) resend();
+        if (reason != null) listener.stalled(reason);
+    }
+
+    /**
+     * @return time the oldest written command should have been acknowledged by, in ns
+     */
+    private long deadline() {
+        long started = Math.max(writtenNanos[head], Math.max(lastAcknowledged, busySince));
+        return started + 2 * expectedNanos[head] + slackNanos;
+    }
+
+    /**
+     * @return true if every written command outstanding can be run twice without harm
+     */
+    private boolean repeatable() {
+        for (int i = 0; i < size - unwritten; i++) {
+            CommandType type = types[(head + i) & (types.length - 1)];
+            if (type != CommandType.NOZZLE_HEIGHT && type != CommandType.PUMP_PARAMS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void askStatus() {
+        try {
+            stream.writeCommand(CommandType.STATUS);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends every written command outstanding again, in order, in one write. They are watched and timed afresh.
+     */
+    private void resend() {
+        synchronized (stream) {
+            CommandType[] againTypes;
+            int[] again0, again1;
+            String[] againTexts;
+            int count;
+            synchronized (this) {
+                count = size - unwritten;
+                againTypes = new CommandType[count];
+                again0 = new int[count];
+                again1 = new int[count];
+                againTexts = new String[count];
+                for (int i = 0; i < count; i++) {
+                    int at = (head + i) & (types.length - 1);
+                    againTypes[i] = types[at];
+                    again0[i] = operands0[at];
+                    again1[i] = operands1[at];
+                    againTexts[i] = texts[at];
+                }
+                //take them out, anything still held back in a batch is then oldest and goes out first
+                for (int i = 0; i < count; i++) {
+                    texts[(head + i) & (types.length - 1)] = null;
+                }
+                head = (head + count) & (types.length - 1);
+                size -= count;
+                resent += count;
+            }
+            stream.getLatency().forget(count);
+            try {
+                stream.beginBatch();
+                for (int i = 0; i < count; i++) {
+                    if (againTypes[i] == CommandType.RAW) stream.writeRaw(againTexts[i]);
+                    else stream.writeCommand(againTypes[i], again0[i], again1[i]);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    stream.endBatch();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void stall() {
+        stalled = true;
+        stalls++;
+        statusAsked = 0;
+    }
+
+    private void pop() {
+        lastSequence = sequences[head];
+        texts[head] = null;
+        head = (head + 1) & (types.length - 1);
+        size--;
+        lastAcknowledged = System.nanoTime();
+    }
+
+    private void grow() {
+        int capacity = types.length;
+        CommandType[] newTypes = new CommandType[2 * capacity];
+        int[] new0 = new int[2 * capacity], new1 = new int[2 * capacity], newSequences = new int[2 * capacity];
+        String[] newTexts = new String[2 * capacity];
+        long[] newWritten = new long[2 * capacity], newExpected = new long[2 * capacity];
+        for (int i = 0; i < size; i++) {
+            int at = (head + i) & (capacity - 1);
+            newTypes[i] = types[at];
+            new0[i] = operands0[at];
+            new1[i] = operands1[at];
+            newTexts[i] = texts[at];
+            newSequences[i] = sequences[at];
+            newWritten[i] = writtenNanos[at];
+            newExpected[i] = expectedNanos[at];
+        }
+        types = newTypes;
+        operands0 = new0;
+        operands1 = new1;
+        texts = newTexts;
+        sequences = newSequences;
+        writtenNanos = newWritten;
+        expectedNanos = newExpected;
+        head = 0;
+    }
+
+    private String describe(int at) {
+        if (types[at] == CommandType.RAW) return "\"" + texts[at] + "\"";
+        return types[at].getText() + "(" + operands0[at] + ", " + operands1[at] + ")";
+    }
+
+    /**
+     * @return true for commands the device answers with "Done"
+     */
+    private static boolean isAcknowledged(CommandType type) {
+        switch (type) {
+            case MOVE:
+            case DISPENSE:
+            case NOZZLE_HEIGHT:
+            case DELAY:
+            case PUMP_PARAMS:
+            case RAW:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true while a run is stalled waiting for someone to check the device
+     */
+    public synchronized boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * @return true once the device has answered a first status, so lost acknowledgements can be told apart from
+     * lost commands
+     */
+    public synchronized boolean hasBaseline() {
+        return baselineKnown;
+    }
+
+    /**
+     * @return number of commands written and not acknowledged yet
+     */
+    public synchronized int getOutstanding() {
+        return size - unwritten;
+    }
+
+    /**
+     * @return one line summary of what the watchdog had to step in for
+     */
+    public synchronized String getSummary() {
+        return String.format("Watchdog: %d lost acknowledgement(s) made up for, %d command(s) sent again, %d stall(s)",
+                madeUp, resent, stalls);
+    }
+}
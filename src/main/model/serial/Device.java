@@ -0,0 +1,578 @@
+package main.model.serial;
+
+import main.model.plate.PlateModel;
+import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.BinaryCommandEncoder;
+import main.model.serial.protocol.CommandType;
+import main.model.serialization.SerializationModel;
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.estimation.MotionModel;
+import main.model.tasks.execution.ExecutionCursor;
+import main.model.tasks.execution.ExecutionPlan;
+import main.model.tasks.optimization.PeepholeOptimizer;
+import main.model.tasks.scheduling.TimerWheel;
+import main.model.tasks.taskvisitors.PlanCompileVisitor;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single controller in a DevicePool. Each device has its own link, arm and runs, so it sends its own commands and
+ * moves on as its own acknowledgements come back, without waiting on the others. Its acknowledgements arrive on the
+ * Swing event thread, like those of the main connection.
+ *
+ * A device sends one run at a time. With delays waited out on the host, a run waiting on one gives up the arm, so the
+ * device can get on with another run meanwhile; the waiting run gets the arm back once the delay is over and the run
+ * using it is over or waiting too. A run waiting with the nozzle lowered has it raised before another run moves the
+ * arm, and before it carries on it gets the arm, nozzle and pump back the way it left them.
+ */
+public class Device implements ISerialInputListener, IWatchdogListener {
+
+    /**
+     * Nozzle height or pump parameter the device hasn't been told, or may have lost to a raw command or a calibration.
+     */
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * Name to show for the device, numbered by its place in the pool.
+     */
+    private final String name;
+
+    /**
+     * Pool the device belongs to, told when the device finishes a run.
+     */
+    private final DevicePool pool;
+
+    /**
+     * Link to the controller, either a real serial port or a simulated device.
+     */
+    private final ISerialTransport transport;
+
+    /**
+     * Threads doing the actual reading and writing on the link.
+     */
+    private final SerialIOEngine engine;
+
+    /**
+     * Output stream to talk to the controller through, encoding commands with the negotiated protocol.
+     */
+    private final CommandOutputStream outputStream;
+
+    /**
+     * Watches for commands the controller never acknowledges, null when the ackTimeoutMs setting is off.
+     */
+    private final CommandWatchdog watchdog;
+
+    /**
+     * Echoes traffic to and from the controller to the console.
+     */
+    private final CommandEcho echo;
+
+    /**
+     * Handshake sent on connect, which tells its answers apart from a command finishing.
+     */
+    private final Handshake handshake;
+
+    /**
+     * Where this device's arm is. Devices are identical rigs, so they share the plate layout but not the arm.
+     */
+    private final ArmState armState;
+
+    /**
+     * Compiles the stages this device is given.
+     */
+    private final PlanCompileVisitor compiler;
+
+    /**
+     * Number of commands the controller says it can hold in its input buffer at once.
+     */
+    private volatile int bufferDepth = 1;
+
+    /**
+     * Runs started on this device and not over yet, in the order they were started.
+     */
+    private final ArrayList<Run> runs = new ArrayList<Run>();
+
+    /**
+     * Run whose commands are going out, null while there are none or every run is waiting out a delay.
+     */
+    private Run active;
+
+    /**
+     * Run started or picked back up last, for peeking at where the device is.
+     */
+    private Run latest;
+
+    /**
+     * Run whose commands went out last, null before the first.
+     */
+    private Run armUser;
+
+    /**
+     * Nozzle height and pump speed and acceleration the device was last told to use, UNKNOWN if it wasn't.
+     */
+    private int nozzleHeight = UNKNOWN, pumpSpeed = UNKNOWN, pumpAcceleration = UNKNOWN;
+
+    /**
+     * Number of commands sent to this device that have not been acknowledged with a "Done" yet.
+     */
+    private int commandsInFlight = 0;
+
+    /**
+     * Waits out delays on the host when the hostDelays setting is on, so another run can use the arm meanwhile.
+     */
+    private final TimerWheel timerWheel;
+
+    /**
+     * Number of runs picked back up after a delay, and the total and longest time they then waited for the arm to be
+     * free, in ns.
+     */
+    private long resumes = 0, totalResumeWaitNanos = 0, maxResumeWaitNanos = 0;
+
+    /**
+     * Connects to a controller and starts the protocol handshake.
+     */
+    Device(String name, DevicePool pool, ISerialTransport transport, PlateModel plateModel, CommandEcho echo,
+           TimerWheel timerWheel) throws IOException {
+        this.name = name;
+        this.pool = pool;
+        this.transport = transport;
+        this.echo = echo;
+        this.timerWheel = timerWheel;
+        this.armState = new ArmState(homePosition(), plateModel);
+        this.compiler = new PlanCompileVisitor(plateModel);
+
+        engine = new SerialIOEngine(transport, this, SerialIOEngine.EVENT_DISPATCH_THREAD);
+        engine.start();
+        outputStream = new CommandOutputStream(engine.getOutputStream(), echo);
+        outputStream.setControlLane(engine.getControlStream());
+        if (SerializationModel.userSettings != null && SerializationModel.userSettings.ackTimeoutMs > 0) {
+            watchdog = new CommandWatchdog(outputStream, timerWheel, new MotionModel(), this,
+                    SerializationModel.userSettings.ackTimeoutMs);
+            outputStream.setWatchdog(watchdog);
+        }
+        else {
+            watchdog = null;
+        }
+
+        //same handshake as the main connection: ask for the buffer size, offer binary frames
+        handshake = new Handshake(outputStream);
+        handshake.send(SerializationModel.userSettings != null && SerializationModel.userSettings.binaryProtocol);
+    }
+
+    /**
+     * Starts sending the given stages, in order. Runs already on the device go first; this one gets the arm once they
+     * are over or while they all wait out a delay on the host.
+     * @return true if the run has anything in it, in which case the pool is told when it is over; false if the stages
+     * had no commands in them
+     */
+    public boolean run(List<IExecuteTask> stages) {
+        synchronized (this) {
+            Run run = new Run(stages);
+            if (!run.cursor.hasNext()) return false;
+            runs.add(run);
+            latest = run;
+            //a new run can't be over before anything it sent is acknowledged, so there is nothing to tell the pool
+            fillCommandWindow();
+        }
+        return true;
+    }
+
+    /**
+     * Called by the I/O engine on the Swing event thread for every line the controller sends.
+     */
+    @Override
+    public void lineReceived(String line) {
+        echo.echo(name + ": " + line);
+        if (line.equals("Done") && handshake.done()) {
+            //older firmware acknowledging a handshake command it doesn't know
+        }
+        else if (line.equals("Done")) {
+            outputStream.getLatency().acknowledged();
+            if (watchdog != null) watchdog.acknowledged();
+            executeNext();
+        }
+        else if (line.equals("Finished Calibration")) {
+            Point2D home = homePosition();
+            armState.setLocation(home.getX(), home.getY());
+        }
+        else if (line.equals("Protocol 1")) {
+            handshake.answered();
+            outputStream.setEncoder(new BinaryCommandEncoder());
+            if (watchdog != null) watchdog.statusSupported();
+        }
+        else if (line.startsWith("Status ") && watchdog != null) {
+            String[] fields = line.substring(7).trim().split(" ");
+            try {
+                if (fields.length < 3) throw new NumberFormatException();
+                watchdog.statusReceived(Long.parseLong(fields[0]), Integer.parseInt(fields[1]),
+                        Integer.parseInt(fields[2]));
+            } catch (NumberFormatException e) {
+                System.out.println("Could not read status from " + name + ": " + line);
+            }
+        }
+        else if (line.startsWith("Buffer ")) {
+            handshake.answered();
+            try {
+                bufferDepth = Math.max(1, Integer.parseInt(line.substring(7).trim()));
+            } catch (NumberFormatException e) {
+                System.out.println("Could not read buffer size from " + name + ": " + line);
+            }
+        }
+    }
+
+    /**
+     * Called by the watchdog for a "Done" that never arrived, carries on as if it had.
+     */
+    @Override
+    public void acknowledgementLost() {
+        echo.echo(name + ": lost acknowledgement made up for.");
+        outputStream.getLatency().acknowledged();
+        executeNext();
+    }
+
+    /**
+     * Called by the watchdog when it can't get the device going again by itself.
+     */
+    @Override
+    public void stalled(String reason) {
+        System.out.println(name + " stalled: " + reason);
+    }
+
+    /**
+     * Carries on after a stall, taking the commands the controller never acknowledged as done.
+     * @return number of commands taken as done, -1 if nothing is being watched
+     */
+    public int continueStalledRun() {
+        return watchdog == null ? -1 : watchdog.skipOutstanding();
+    }
+
+    /**
+     * Frees up the slot of an acknowledged command and tops the window back up.
+     */
+    private void executeNext() {
+        List<Run> over;
+        boolean available;
+        synchronized (this) {
+            if (commandsInFlight > 0) commandsInFlight--;
+            over = fillCommandWindow();
+            available = active == null;
+        }
+        tellPool(over, available);
+    }
+
+    /**
+     * Called on the Swing event thread once a delay a run was waiting out on the host is over.
+     */
+    private void delayOver(Run run) {
+        List<Run> over;
+        boolean available;
+        synchronized (this) {
+            run.resumableSince = run.delay.getDeadlineNanos();
+            run.delay = null;
+            over = fillCommandWindow();
+            available = active == null;
+        }
+        tellPool(over, available);
+    }
+
+    /**
+     * Tells the pool about runs that are over, and that the device can take more if every run left is waiting. Done
+     * outside the lock, the pool takes its own.
+     */
+    private void tellPool(List<Run> over, boolean available) {
+        for (Run run : over) {
+            pool.runFinished(this, run.stages);
+        }
+        if (!over.isEmpty() || available) pool.deviceChanged(this);
+    }
+
+    /**
+     * Sends commands until as many are in flight as the execution mode allows, in a single write. Moves on to the
+     * next run when the active one is over or starts waiting out a delay.
+     * @return runs that finished
+     */
+    private List<Run> fillCommandWindow() {
+        List<Run> over = Collections.emptyList();
+        int window = 1;
+        if (SerializationModel.userSettings != null && SerializationModel.userSettings.streamCommands) {
+            window = bufferDepth;
+        }
+        boolean hostDelays = SerializationModel.userSettings != null && SerializationModel.userSettings.hostDelays;
+
+        outputStream.beginBatch();
+        try {
+            while (true) {
+                if (active == null) {
+                    //only change runs once everything the last one sent is done
+                    if (commandsInFlight > 0 || (active = nextRunnable()) == null) break;
+                    latest = active;
+                    if (active.resumableSince != 0) {
+                        long waited = Math.max(0, System.nanoTime() - active.resumableSince);
+                        resumes++;
+                        totalResumeWaitNanos += waited;
+                        maxResumeWaitNanos = Math.max(maxResumeWaitNanos, waited);
+                        active.resumableSince = 0;
+                    }
+                    if (active != armUser) handOver(active);
+                }
+                if (active.restore != null) {
+                    if (commandsInFlight >= window) break;
+                    ExecutionPlan restore = active.restore;
+                    int step = active.restored++;
+                    if (active.restored == restore.size()) active.restore = null;
+                    told(restore.getType(step), restore.getOperand0(step), restore.getOperand1(step));
+                    restore.send(step, armState, outputStream);
+                    commandsInFlight++;
+                    continue;
+                }
+                ExecutionCursor cursor = active.cursor;
+                if (!cursor.hasNext()) {
+                    if (commandsInFlight > 0) break;
+                    if (over.isEmpty()) over = new ArrayList<Run>(1);
+                    over.add(active);
+                    runs.remove(active);
+                    active = null;
+                    continue;
+                }
+                if (commandsInFlight >= window) break;
+                if (hostDelays && cursor.peekType(0) == CommandType.DELAY) {
+                    //a delay starts once everything before it is done, then the arm is free for another run
+                    if (commandsInFlight > 0) break;
+                    final Run waiting = active;
+                    waiting.delay = timerWheel.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            delayOver(waiting);
+                        }
+                    }, cursor.peekOperand0(0));
+                    cursor.skipNext();
+                    waiting.left = deviceState();
+                    active = null;
+                    continue;
+                }
+                told(cursor.peekType(0), cursor.peekOperand0(0), cursor.peekOperand1(0));
+                cursor.sendNext(armState, outputStream);
+                commandsInFlight++;
+            }
+        } finally {
+            try {
+                outputStream.endBatch();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return over;
+    }
+
+    /**
+     * Gets the device ready for a run taking the arm over from another one. The nozzle goes up if the run before left
+     * it lowered to wait out a delay, and a run picking back up after a delay gets the arm, nozzle and pump back the
+     * way it left them. Its optimizer forgets what it knew about the device, as the other run may have changed any of
+     * it.
+     */
+    private void handOver(Run run) {
+        int[] now = deviceState();
+        int[] wanted = run.left;
+        //the run that had the arm is still on the device only if it is waiting out a delay
+        boolean previousWaiting = runs.contains(armUser);
+        armUser = run;
+        if (wanted != null && run.cursor.getOptimizer() != null) run.cursor.getOptimizer().forgetDevice();
+        if (Arrays.equals(now, wanted)) return;
+
+        ExecutionPlan.Builder steps = new ExecutionPlan.Builder();
+        int raised = SerializationModel.userSettings == null ? UNKNOWN : SerializationModel.userSettings.defaultRaiseSteps;
+        boolean moving = wanted != null && (wanted[0] != now[0] || wanted[1] != now[1]);
+        if (raised != UNKNOWN && now[2] != UNKNOWN && now[2] != raised && (moving || previousWaiting)) {
+            steps.add(CommandType.NOZZLE_HEIGHT, raised, 0, null);
+            now[2] = raised;
+        }
+        if (wanted != null) {
+            if (moving) {
+                steps.add(CommandType.MOVE, wanted[0], wanted[1], null);
+            }
+            if (wanted[2] != UNKNOWN && wanted[2] != now[2]) {
+                steps.add(CommandType.NOZZLE_HEIGHT, wanted[2], 0, null);
+            }
+            if (wanted[3] != UNKNOWN && (wanted[3] != now[3] || wanted[4] != now[4])) {
+                steps.add(CommandType.PUMP_PARAMS, wanted[3], wanted[4], null);
+            }
+        }
+        if (steps.size() > 0) {
+            run.restore = steps.build();
+            run.restored = 0;
+        }
+    }
+
+    /**
+     * Keeps track of the nozzle height and pump parameters, for a command about to go out.
+     */
+    private void told(CommandType type, int operand0, int operand1) {
+        if (type == CommandType.NOZZLE_HEIGHT) {
+            nozzleHeight = operand0;
+        }
+        else if (type == CommandType.PUMP_PARAMS) {
+            pumpSpeed = operand0;
+            pumpAcceleration = operand1;
+        }
+        else if (type == CommandType.RAW || type == CommandType.CALIBRATE) {
+            nozzleHeight = pumpSpeed = pumpAcceleration = UNKNOWN;
+        }
+    }
+
+    /**
+     * @return arm x and y in hundredths of a cm, nozzle height, pump speed and acceleration, as the device is once
+     * everything sent so far is done
+     */
+    private int[] deviceState() {
+        return new int[] {(int) Math.round(armState.getX() * 100), (int) Math.round(armState.getY() * 100),
+                nozzleHeight, pumpSpeed, pumpAcceleration};
+    }
+
+    /**
+     * @return earliest started run that isn't waiting out a delay, null if there isn't one
+     */
+    private Run nextRunnable() {
+        for (Run run : runs) {
+            if (run.delay == null) return run;
+        }
+        return null;
+    }
+
+    /**
+     * Stops the link's threads and closes it.
+     */
+    void disconnect() {
+        engine.stop();
+        echo.echo(name + ": " + engine.getDecoder().getSummary());
+        echo.echo(name + ": " + outputStream.getLatency().getSummary());
+        if (watchdog != null) {
+            watchdog.stop();
+            echo.echo(name + ": " + watchdog.getSummary());
+        }
+        transport.close();
+    }
+
+    /**
+     * @return true while the device has runs not over yet, including ones waiting out a delay
+     */
+    public synchronized boolean isExecuting() {
+        return !runs.isEmpty() || commandsInFlight > 0;
+    }
+
+    /**
+     * @return true if the device's arm is free for another run: every run on it is over or waiting out a delay
+     */
+    public synchronized boolean isAvailable() {
+        return active == null;
+    }
+
+    /**
+     * @return position within the run the device started or picked back up last, null if it hasn't run anything
+     */
+    public synchronized ExecutionCursor getCursor() {
+        return latest == null ? null : latest.cursor;
+    }
+
+    /**
+     * @return how long runs waited for the arm after their delay on the host was over, on top of how late the timer
+     * itself was
+     */
+    public synchronized String getResumeSummary() {
+        return String.format("%s: %d run(s) picked back up after a delay, waiting %.1f ms on average and %.1f ms at worst for the arm.",
+                name, resumes, resumes == 0 ? 0 : totalResumeWaitNanos / 1e6 / resumes, maxResumeWaitNanos / 1e6);
+    }
+
+    /**
+     * @return latencies of the commands sent to this device
+     */
+    public CommandLatency getLatency() {
+        return outputStream.getLatency();
+    }
+
+    /**
+     * @return number of commands the device can buffer, 1 if it never told us
+     */
+    public int getBufferDepth() {
+        return bufferDepth;
+    }
+
+    /**
+     * @return where this device's arm is
+     */
+    public ArmState getArmState() {
+        return armState;
+    }
+
+    /**
+     * @return link to the controller
+     */
+    public ISerialTransport getTransport() {
+        return transport;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Stages sent one after the other with a cursor of their own.
+     */
+    private class Run {
+        private final List<IExecuteTask> stages;
+        private final ExecutionCursor cursor;
+
+        /**
+         * Delay the run is waiting out on the host, null if it isn't waiting.
+         */
+        private TimerWheel.Timeout delay;
+
+        /**
+         * Time the run's last delay was over, until it gets the arm back; 0 otherwise.
+         */
+        private long resumableSince = 0;
+
+        /**
+         * Arm location, nozzle height and pump parameters when the run last gave up the arm for a delay, as from
+         * deviceState; null if it never did.
+         */
+        private int[] left;
+
+        /**
+         * Steps putting the device back the way the run left it, sent ahead of the rest of the run; null once sent.
+         */
+        private ExecutionPlan restore;
+
+        /**
+         * Number of restore steps sent so far.
+         */
+        private int restored;
+
+        private Run(List<IExecuteTask> stages) {
+            this.stages = stages;
+            cursor = new ExecutionCursor(compiler);
+            if (SerializationModel.userSettings != null && SerializationModel.userSettings.peepholeOptimize) {
+                cursor.setOptimizer(new PeepholeOptimizer());
+            }
+            for (IExecuteTask stage : stages) {
+                cursor.append(stage);
+            }
+        }
+    }
+
+    private static Point2D homePosition() {
+        if (SerializationModel.userSettings != null && SerializationModel.userSettings.nozzleHomePos != null) {
+            Point2D home = SerializationModel.userSettings.nozzleHomePos;
+            return new Point2D.Double(home.getX(), home.getY());
+        }
+        return new Point2D.Double(0, 0);
+    }
+}
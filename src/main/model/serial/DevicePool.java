@@ -0,0 +1,257 @@
+package main.model.serial;
+
+import main.model.plate.PlateModel;
+import main.model.serial.simulation.SimulatedArduino;
+import main.model.serial.simulation.SimulatedTransport;
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.basictasks.MultiTask;
+import main.model.tasks.scheduling.DagScheduler;
+import main.model.tasks.scheduling.StageAssignment;
+import main.model.tasks.scheduling.StageBalancer;
+import main.model.tasks.scheduling.StageGraph;
+import main.model.tasks.scheduling.TimerWheel;
+import main.model.tasks.taskvisitors.PlanCompileVisitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several identical controllers driven side by side from one experiment. The experiment's top level stages are either
+ * split over the devices up front, where they are pinned or balanced by how long they are expected to take, or handed
+ * out one at a time as devices free up and the stages they wait on are done, see schedule.
+ */
+public class DevicePool {
+
+    /**
+     * Plate layout shared by every device.
+     */
+    private final PlateModel plateModel;
+
+    /**
+     * Echoes traffic to and from every device to the console.
+     */
+    private final CommandEcho echo;
+
+    /**
+     * Devices in the pool, in the order they were added.
+     */
+    private final ArrayList<Device> devices = new ArrayList<Device>();
+
+    /**
+     * Number of devices added so far, for naming them.
+     */
+    private int added = 0;
+
+    /**
+     * Hands out the stages of the graph being run, null unless running a graph.
+     */
+    private volatile DagScheduler scheduler;
+
+    /**
+     * Devices the graph being run is spread over, in the order the scheduler numbers them.
+     */
+    private volatile List<Device> scheduled;
+
+    /**
+     * Waits out delays on the host for every device, when the hostDelays setting is on.
+     */
+    private final TimerWheel timerWheel = new TimerWheel(5, 512, SerialIOEngine.EVENT_DISPATCH_THREAD);
+
+    /**
+     * @param plateModel - plate layout every device works on
+     * @param echo - where to echo traffic to and from the devices
+     */
+    public DevicePool(PlateModel plateModel, CommandEcho echo) {
+        this.plateModel = plateModel;
+        this.echo = echo;
+    }
+
+    /**
+     * Connects to the port with the given name and adds it to the pool.
+     * @param portName - serial port to connect to, or the simulated device's name for a new simulated device
+     */
+    public Device connect(String portName) throws IOException {
+        if (portName.equals(SimulatedTransport.PORT_NAME)) {
+            return add(new SimulatedTransport(new SimulatedArduino()));
+        }
+        try {
+            return add(new RxtxTransport(portName));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not open " + portName, e);
+        }
+    }
+
+    /**
+     * Adds a controller to the pool through the given link, and starts the handshake with it.
+     */
+    public synchronized Device add(ISerialTransport transport) throws IOException {
+        added++;
+        Device device = new Device("Device " + added + " (" + transport.getName() + ")", this, transport, plateModel, echo,
+                timerWheel);
+        devices.add(device);
+        return device;
+    }
+
+    /**
+     * Disconnects a device and takes it out of the pool.
+     */
+    public synchronized void remove(Device device) {
+        if (devices.remove(device)) device.disconnect();
+    }
+
+    /**
+     * Disconnects every device in the pool.
+     */
+    public synchronized void disconnectAll() {
+        for (Device device : devices) {
+            device.disconnect();
+        }
+        devices.clear();
+    }
+
+    /**
+     * Splits the stages of an experiment over the devices in the pool and starts every device on its share.
+     * @param experiment - experiment whose children are the stages to split
+     * @return which device got which stage
+     */
+    public StageAssignment run(MultiTask experiment) {
+        ArrayList<IExecuteTask> stages = new ArrayList<IExecuteTask>();
+        for (int i = 0; i < experiment.getChildCount(); i++) {
+            stages.add((IExecuteTask) experiment.getChildAt(i));
+        }
+        return run(stages);
+    }
+
+    /**
+     * Splits stages over the devices in the pool and starts every device on its share, in the order given.
+     * @return which device got which stage
+     */
+    public synchronized StageAssignment run(List<IExecuteTask> stages) {
+        if (devices.isEmpty()) throw new IllegalStateException("No devices in the pool to run on.");
+        scheduler = null;
+
+        StageAssignment assignment = new StageBalancer(new PlanCompileVisitor(plateModel)).balance(stages, devices.size());
+        for (int device = 0; device < devices.size(); device++) {
+            ArrayList<IExecuteTask> share = new ArrayList<IExecuteTask>();
+            for (int stage = 0; stage < stages.size(); stage++) {
+                if (assignment.getDevice(stage) == device) share.add(stages.get(stage));
+            }
+            if (!share.isEmpty()) devices.get(device).run(share);
+        }
+        return assignment;
+    }
+
+    /**
+     * Runs the stages of a graph over the devices in the pool. Each device takes a single stage at a time, and as soon
+     * as it is done takes the next one that is ready, so stages run in parallel as far as their dependencies allow.
+     * @return scheduler handing out the stages, which says how far the run has got
+     */
+    public DagScheduler schedule(StageGraph graph) {
+        DagScheduler started;
+        synchronized (this) {
+            if (devices.isEmpty()) throw new IllegalStateException("No devices in the pool to run on.");
+            scheduled = new ArrayList<Device>(devices);
+            started = new DagScheduler(graph, scheduled.size());
+            scheduler = started;
+        }
+        dispatch(started);
+        return started;
+    }
+
+    /**
+     * Gives every device whose arm is free the best ready stage it can run, until none can be given anything.
+     */
+    private void dispatch(DagScheduler scheduler) {
+        synchronized (scheduler) {
+            boolean handedOut = true;
+            while (handedOut) {
+                handedOut = false;
+                for (int index = 0; index < scheduled.size(); index++) {
+                    Device device = scheduled.get(index);
+                    int stage;
+                    while (device.isAvailable() && (stage = scheduler.next(index)) >= 0) {
+                        //a stage with nothing to send is done straight away, which may free up others
+                        if (!device.run(Collections.singletonList(scheduler.getStage(stage)))) {
+                            scheduler.finished(stage);
+                            handedOut = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by a device once one of its runs is over.
+     */
+    void runFinished(Device device, List<IExecuteTask> stages) {
+        DagScheduler current = scheduler;
+        if (current == null || !scheduled.contains(device)) {
+            System.out.println(device + " done executing its stages.");
+            return;
+        }
+        for (IExecuteTask stage : stages) {
+            synchronized (current) {
+                current.finished(current.getGraph().indexOf(stage));
+            }
+            System.out.println(device + " done executing " + stage + ".");
+        }
+    }
+
+    /**
+     * Called by a device once a run is over or its arm is free for another run, to hand out whatever is ready.
+     */
+    void deviceChanged(Device device) {
+        DagScheduler current = scheduler;
+        if (current != null) {
+            dispatch(current);
+        }
+        if (!isExecuting()) {
+            if (current != null) System.out.println(current);
+            if (timerWheel.getFired() > 0) System.out.println(timerWheel.getSummary());
+            System.out.println("Done executing all tasks on every device!");
+        }
+    }
+
+    /**
+     * @return timer wheel the devices wait out host side delays on, with how accurately they went off
+     */
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * @return true while any device has commands left to send or waiting on a "Done"
+     */
+    public synchronized boolean isExecuting() {
+        //between stages every device may be idle while some wait on the others
+        DagScheduler current = scheduler;
+        if (current != null) {
+            synchronized (current) {
+                if (!current.isFinished()) return true;
+            }
+        }
+        for (Device device : devices) {
+            if (device.isExecuting()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return devices in the pool, in the order they were added
+     */
+    public synchronized List<Device> getDevices() {
+        return Collections.unmodifiableList(new ArrayList<Device>(devices));
+    }
+
+    /**
+     * @return number of devices in the pool
+     */
+    public synchronized int size() {
+        return devices.size();
+    }
+}
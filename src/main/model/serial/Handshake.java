@@ -0,0 +1,78 @@
+package main.model.serial;
+
+import java.io.IOException;
+
+/**
+ * Handshake sent to a controller as it connects: asks how many commands it can buffer and, if the binaryProtocol
+ * setting is on, offers binary frames. Firmware that knows these commands answers with "Buffer n" and "Protocol 1".
+ * Older firmware answers a command it doesn't know with a plain "Done", which must not be taken for a command
+ * finishing, or may not answer at all: answers still owed once the handshake is TIMEOUT_MS old are given up on, so
+ * firmware that stays silent can't swallow the "Done" of a run.
+ *
+ * Shared by the main connection and the devices of a pool.
+ */
+class Handshake {
+
+    /**
+     * Time in ms the controller gets to answer the handshake before a "Done" is taken for a command's again.
+     */
+    private static final long TIMEOUT_MS = 2000;
+
+    /**
+     * Stream the handshake goes out on.
+     */
+    private final CommandOutputStream stream;
+
+    /**
+     * Handshake commands sent that haven't been answered yet.
+     */
+    private int owed = 0;
+
+    /**
+     * When the handshake went out, in ns.
+     */
+    private long sentNanos;
+
+    /**
+     * @param stream - stream to the controller
+     */
+    Handshake(CommandOutputStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Asks for the buffer size, and offers binary frames if asked to.
+     * @param binaryProtocol - whether to offer the binary protocol, the controller keeps talking text until it says
+     * it understands frames
+     */
+    synchronized void send(boolean binaryProtocol) throws IOException {
+        owed++;
+        sentNanos = System.nanoTime();
+        stream.writeText("bufferSize()");
+        if (binaryProtocol) {
+            owed++;
+            stream.writeText("protocol(1)");
+        }
+    }
+
+    /**
+     * Called for every "Done" the controller sends.
+     * @return true if it answers a handshake command, false if it acknowledges a command
+     */
+    synchronized boolean done() {
+        if (owed > 0 && System.nanoTime() - sentNanos > TIMEOUT_MS * 1000000) {
+            //the handshake is too old for this to answer it, so what is owed was never coming
+            owed = 0;
+        }
+        if (owed == 0) return false;
+        owed--;
+        return true;
+    }
+
+    /**
+     * Called for a "Buffer n" or "Protocol 1", the answers of firmware that knows the handshake.
+     */
+    synchronized void answered() {
+        if (owed > 0) owed--;
+    }
+}
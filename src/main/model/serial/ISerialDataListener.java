@@ -0,0 +1,12 @@
+package main.model.serial;
+
+/**
+ * Callback from a serial transport telling its owner that data from the controller is waiting to be read.
+ */
+public interface ISerialDataListener {
+
+    /**
+     * Called on the transport's own thread whenever new bytes arrive.
+     */
+    public void dataAvailable();
+}
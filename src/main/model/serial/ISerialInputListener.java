@@ -0,0 +1,14 @@
+package main.model.serial;
+
+/**
+ * Receives the lines the controller sends back, after they have been handed off from the serial I/O threads.
+ */
+public interface ISerialInputListener {
+
+    /**
+     * Called on the I/O engine's dispatch thread, never on a serial driver thread, once per line in the order the
+     * lines arrived.
+     * @param line - line from the controller, without its line ending
+     */
+    public void lineReceived(String line);
+}
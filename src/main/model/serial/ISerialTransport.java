@@ -0,0 +1,38 @@
+package main.model.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Byte-level link between the serial model and a controller, whether that is a physical Arduino on a serial port or
+ * a simulated one running in process.
+ */
+public interface ISerialTransport {
+
+    /**
+     * @return stream of bytes coming from the controller
+     */
+    public InputStream getInputStream() throws IOException;
+
+    /**
+     * @return stream of bytes going to the controller
+     */
+    public OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Registers the listener that is told whenever new data from the controller can be read. Only one listener is kept.
+     * @param listener - listener to notify, replacing any previous one
+     */
+    public void setDataListener(ISerialDataListener listener);
+
+    /**
+     * Closes the link, after which none of the streams should be used.
+     */
+    public void close();
+
+    /**
+     * @return name of the port or device this transport is connected to
+     */
+    public String getName();
+}
@@ -0,0 +1,20 @@
+package main.model.serial;
+
+/**
+ * Told by a CommandWatchdog what it found when a command took too long to be acknowledged.
+ */
+public interface IWatchdogListener {
+
+    /**
+     * Called once for every "Done" the device sent that never arrived, so the connection can carry on as if it had.
+     * Called on the watchdog's timer thread, the Swing event thread.
+     */
+    public void acknowledgementLost();
+
+    /**
+     * Called when the watchdog can't tell what happened to the commands in flight, or has tried to get them through
+     * too often, and the run needs someone to look at the device.
+     * @param reason - what was found, to show to the user
+     */
+    public void stalled(String reason);
+}
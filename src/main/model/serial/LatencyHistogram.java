@@ -0,0 +1,128 @@
+package main.model.serial;
+
+/**
+ * Histogram of latencies with a bounded relative error, laid out like an HdrHistogram: values are kept to a
+ * microsecond, in buckets that double in width with each power of two, each split into 64 sub-buckets. Any value is
+ * then known to within about one and a half percent, from a microsecond up to most of a day, in a few thousand
+ * counters that are allocated once. Recording is a couple of shifts and an increment.
+ *
+ * Not thread safe, callers are expected to hold a lock, see CommandLatency.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Sub-buckets per bucket as a power of two, and half that, which is how many new values each bucket after the
+     * first one adds.
+     */
+    private static final int SUB_BUCKET_BITS = 7, SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS,
+            SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1, SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_BITS;
+
+    /**
+     * Largest value tracked, in microseconds; anything longer counts as this. About 19 hours.
+     */
+    private static final long MAX_MICROS = (1L << 36) - 1;
+
+    private final long[] counts = new long[indexOf(MAX_MICROS) + 1];
+    private long total = 0, sumMicros = 0, minMicros = Long.MAX_VALUE, maxMicros = 0;
+
+    /**
+     * Adds a latency.
+     * @param nanos - latency in ns, negative values count as 0
+     */
+    public void record(long nanos) {
+        long micros = Math.min(MAX_MICROS, Math.max(0, nanos / 1000));
+        counts[indexOf(micros)]++;
+        total++;
+        sumMicros += micros;
+        minMicros = Math.min(minMicros, micros);
+        maxMicros = Math.max(maxMicros, micros);
+    }
+
+    /**
+     * Empties the histogram.
+     */
+    public void reset() {
+        java.util.Arrays.fill(counts, 0);
+        total = 0;
+        sumMicros = 0;
+        minMicros = Long.MAX_VALUE;
+        maxMicros = 0;
+    }
+
+    /**
+     * @return number of latencies recorded
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * @param percentile - from 0 to 100
+     * @return latency that the given share of recorded latencies are at or under, in ms
+     */
+    public double getPercentileMillis(double percentile) {
+        if (total == 0) return 0;
+        long wanted = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++) {
+            seen += counts[index];
+            if (seen >= wanted) {
+                return Math.max(minMicros, Math.min(maxMicros, highestEquivalent(index))) / 1000.0;
+            }
+        }
+        return maxMicros / 1000.0;
+    }
+
+    public double getMeanMillis() {
+        return total == 0 ? 0 : sumMicros / 1000.0 / total;
+    }
+
+    public double getMinMillis() {
+        return total == 0 ? 0 : minMicros / 1000.0;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros / 1000.0;
+    }
+
+    /**
+     * @return every non-empty bucket as "up to this many microseconds, this many latencies", one per line
+     */
+    public String describeBuckets() {
+        StringBuilder listing = new StringBuilder();
+        for (int index = 0; index < counts.length; index++) {
+            if (counts[index] > 0) {
+                listing.append(highestEquivalent(index)).append(',').append(counts[index]).append('\n');
+            }
+        }
+        return listing.toString();
+    }
+
+    public String toString() {
+        return String.format("%d, mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, max %.2f ms", total, getMeanMillis(),
+                getPercentileMillis(50), getPercentileMillis(90), getPercentileMillis(99), getMaxMillis());
+    }
+
+    /**
+     * @return counter the value goes in
+     */
+    private static int indexOf(long micros) {
+        //bucket 0 holds every value under the sub-bucket count one to one, each bucket after is twice as wide
+        int bucket = 63 - Long.numberOfLeadingZeros(micros | (SUB_BUCKET_COUNT - 1)) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (micros >>> bucket);
+        return (bucket << SUB_BUCKET_HALF_BITS) + subBucket;
+    }
+
+    /**
+     * @return largest value that goes in the given counter
+     */
+    private static long highestEquivalent(int index) {
+        int bucket = (index >> SUB_BUCKET_HALF_BITS) - 1;
+        long subBucket = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+        if (bucket < 0) {
+            bucket = 0;
+            subBucket -= SUB_BUCKET_HALF_COUNT;
+        }
+        return ((subBucket + 1) << bucket) - 1;
+    }
+}
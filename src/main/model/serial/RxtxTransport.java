@@ -0,0 +1,77 @@
+package main.model.serial;
+
+import gnu.io.CommPortIdentifier;
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
+import gnu.io.SerialPortEventListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.TooManyListenersException;
+
+/**
+ * Transport over a real serial port, using the RXTX library to talk to a physical Arduino.
+ */
+public class RxtxTransport implements ISerialTransport, SerialPortEventListener {
+
+    /**
+     * Serial port the Arduino is found on.
+     */
+    private SerialPort arduinoPort;
+
+    /**
+     * Listener told whenever data shows up on the port.
+     */
+    private ISerialDataListener listener;
+
+    /**
+     * Opens the port matching the input name.
+     * @param portName - name of the serial port to open
+     */
+    public RxtxTransport(String portName) throws Exception {
+        arduinoPort = (SerialPort) CommPortIdentifier.getPortIdentifier(portName).open("Arduino", 2000);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return arduinoPort.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return arduinoPort.getOutputStream();
+    }
+
+    @Override
+    public void setDataListener(ISerialDataListener listener) {
+        this.listener = listener;
+        try {
+            arduinoPort.addEventListener(this);
+            arduinoPort.notifyOnDataAvailable(true);
+        } catch (TooManyListenersException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Called by RXTX whenever something happens on the port, forwards data events on to the listener.
+     */
+    @Override
+    public void serialEvent(SerialPortEvent thisEvent) {
+        if (thisEvent.getEventType() == SerialPortEvent.DATA_AVAILABLE && listener != null) {
+            listener.dataAvailable();
+        }
+    }
+
+    @Override
+    public void close() {
+        arduinoPort.removeEventListener();
+        arduinoPort.close();
+    }
+
+    @Override
+    public String getName() {
+        return arduinoPort.getName();
+    }
+}
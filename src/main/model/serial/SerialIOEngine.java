@@ -0,0 +1,319 @@
+package main.model.serial;
+
+import main.model.serial.protocol.ResponseDecoder;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs all I/O on a serial link on threads of its own, so neither the driver's callback thread nor the Swing thread
+ * ever touches the device directly.
+ *
+ * A reader thread takes every byte the device has sent, decodes all the complete responses in them and queues those; the queued lines are then handed to the
+ * listener on the dispatch executor, by default the Swing event thread, so model code only ever runs there. Going the
+ * other way, writes to the engine's output stream are copied into a bounded ring of preallocated slots which a writer
+ * thread empties into the transport. Writes to the control stream jump that queue: the writer sends them before the
+ * next slot, so a pause or stop gets to the device without waiting on everything already queued.
+ */
+public class SerialIOEngine implements ISerialDataListener {
+
+    /**
+     * Runs dispatched lines on the Swing event thread, alongside everything else that touches the models.
+     */
+    public static final Executor EVENT_DISPATCH_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            SwingUtilities.invokeLater(command);
+        }
+    };
+
+    /**
+     * Number of writes that can wait in the ring before the writing thread is held back.
+     */
+    private static final int RING_CAPACITY = 256;
+
+    /**
+     * Largest single write the ring holds, bigger writes are split across slots.
+     */
+    private static final int SLOT_SIZE = 4096;
+
+    /**
+     * Most bytes taken off the line in a single read.
+     */
+    private static final int READ_SIZE = 4096;
+
+    /**
+     * How long an idle thread sleeps before checking again by itself, in case a wake-up was missed.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Link to the device.
+     */
+    private final ISerialTransport transport;
+
+    /**
+     * Who gets the lines the device sends.
+     */
+    private final ISerialInputListener listener;
+
+    /**
+     * Where lines are handed to the listener.
+     */
+    private final Executor dispatcher;
+
+    /**
+     * Encoded writes waiting for the writer thread.
+     */
+    private final CommandRing ring = new CommandRing(RING_CAPACITY, SLOT_SIZE);
+
+    /**
+     * Turns the bytes read into responses, keeping partial lines between reads.
+     */
+    private final ResponseDecoder decoder = new ResponseDecoder();
+
+    /**
+     * Lines read from the device, waiting to be dispatched.
+     */
+    private final ConcurrentLinkedQueue<String> received = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * Whether a dispatch of the received lines is already queued on the dispatcher.
+     */
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean(false);
+
+    /**
+     * Control commands waiting to go out ahead of the ring. Rare, so each is just copied into an array of its own.
+     */
+    private final ConcurrentLinkedQueue<byte[]> control = new ConcurrentLinkedQueue<byte[]>();
+
+    /**
+     * Whether the writer thread is about to park, in which case producers wake it up.
+     */
+    private volatile boolean writerWaiting = false;
+
+    private volatile boolean running = false;
+
+    private Thread readerThread;
+
+    private Thread writerThread;
+
+    /**
+     * Stream the rest of the program writes to, each write is queued on the ring.
+     */
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, ring.slotSize());
+                enqueue(b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+    };
+
+    /**
+     * Stream for control commands, each write goes out ahead of anything still in the ring. A write is never split
+     * up or put in the middle of another.
+     */
+    private final OutputStream controlStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!running) throw new IOException("Serial link to " + transport.getName() + " is closed");
+            byte[] copy = new byte[len];
+            System.arraycopy(b, off, copy, 0, len);
+            control.add(copy);
+            LockSupport.unpark(writerThread);
+        }
+    };
+
+    /**
+     * Hands all received lines to the listener, in order.
+     */
+    private final Runnable dispatchReceived = new Runnable() {
+        @Override
+        public void run() {
+            //cleared first, so a line arriving while we drain schedules another pass rather than getting stranded
+            dispatchScheduled.set(false);
+            String line;
+            while ((line = received.poll()) != null) {
+                listener.lineReceived(line);
+            }
+        }
+    };
+
+    /**
+     * @param transport - link to the device, whose streams should not be used by anything else
+     * @param listener - gets every line the device sends
+     * @param dispatcher - where the listener is called
+     */
+    public SerialIOEngine(ISerialTransport transport, ISerialInputListener listener, Executor dispatcher) {
+        this.transport = transport;
+        this.listener = listener;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Starts the reader and writer threads.
+     */
+    public void start() throws IOException {
+        final InputStream deviceInput = transport.getInputStream();
+        final OutputStream deviceStream = transport.getOutputStream();
+        running = true;
+
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop(deviceInput);
+            }
+        }, "Serial reader - " + transport.getName());
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop(deviceStream);
+            }
+        }, "Serial writer - " + transport.getName());
+        readerThread.setDaemon(true);
+        writerThread.setDaemon(true);
+
+        transport.setDataListener(this);
+        readerThread.start();
+        writerThread.start();
+    }
+
+    /**
+     * Stops both threads. Anything still waiting to be written is dropped.
+     */
+    public void stop() {
+        running = false;
+        stopThread(readerThread);
+        stopThread(writerThread);
+    }
+
+    /**
+     * @return stream that queues writes for the device without blocking on it
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @return stream whose writes go out ahead of everything queued on the output stream
+     */
+    public OutputStream getControlStream() {
+        return controlStream;
+    }
+
+    /**
+     * @return decoder for the device's responses, which keeps the decode timings
+     */
+    public ResponseDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @return number of writes waiting to go out to the device
+     */
+    public int getQueuedWrites() {
+        return ring.size();
+    }
+
+    /**
+     * Called by the transport on its own thread, just wakes the reader up.
+     */
+    @Override
+    public void dataAvailable() {
+        Thread reader = readerThread;
+        if (reader != null) LockSupport.unpark(reader);
+    }
+
+    /**
+     * Reads everything available and decodes every response in it, then waits to be told there is more. Nothing
+     * depends on how the driver splits its notifications: each wake-up drains the line, and a missed one is made up
+     * for by the idle timeout.
+     */
+    private void readLoop(InputStream deviceInput) {
+        byte[] buffer = new byte[READ_SIZE];
+        try {
+            while (running) {
+                int available = deviceInput.available();
+                if (available <= 0) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    continue;
+                }
+                int read = deviceInput.read(buffer, 0, Math.min(available, buffer.length));
+                if (read < 0) return;
+                if (decoder.decode(buffer, 0, read, received) > 0) scheduleDispatch();
+            }
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes out whatever is in the ring a slot at a time, any control command first, sleeping while both are empty.
+     */
+    private void writeLoop(OutputStream deviceStream) {
+        try {
+            while (running) {
+                byte[] urgent;
+                while ((urgent = control.poll()) != null) {
+                    deviceStream.write(urgent, 0, urgent.length);
+                }
+                if (ring.drainTo(deviceStream, 1) > 0) continue;
+
+                writerWaiting = true;
+                if (ring.isEmpty() && control.isEmpty() && running) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                writerWaiting = false;
+            }
+        } catch (IOException e) {
+            if (running) e.printStackTrace();
+        }
+    }
+
+    /**
+     * Puts one write on the ring, waiting for the writer to make room if it is full.
+     */
+    private void enqueue(byte[] b, int off, int len) throws IOException {
+        while (!ring.offer(b, off, len)) {
+            if (!running) throw new IOException("Serial link to " + transport.getName() + " is closed");
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(50));
+        }
+        if (writerWaiting) LockSupport.unpark(writerThread);
+    }
+
+    private void scheduleDispatch() {
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            dispatcher.execute(dispatchReceived);
+        }
+    }
+
+    private void stopThread(Thread thread) {
+        if (thread == null || thread == Thread.currentThread()) return;
+        thread.interrupt();
+        try {
+            thread.join(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,18 +1,17 @@
 package main.model.serial;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.TooManyListenersException;
 
 import gnu.io.CommPortIdentifier;
-import gnu.io.SerialPort;
-import gnu.io.SerialPortEvent;
-import gnu.io.SerialPortEventListener;
 import main.model.plate.PlateModel;
+import main.model.serial.protocol.BinaryCommandEncoder;
+import main.model.serial.protocol.CommandType;
+import main.model.serial.protocol.ResponseDecoder;
+import main.model.serial.simulation.SimulatedArduino;
+import main.model.serial.simulation.SimulatedTransport;
+import main.model.serialization.SerializationModel;
 import main.model.tasks.TaskModel;
 import main.view.dialogs.SimpleDialogs;
 import main.view.panels.MainPanel;
@@ -23,7 +22,7 @@ import main.view.panels.MainPanel;
  * @author Christian
  *
  */
-public class SerialModel implements SerialPortEventListener {
+public class SerialModel implements ISerialInputListener, IWatchdogListener {
 	
 	/**
 	 * Adapter from serial model to the main view.
@@ -41,19 +40,51 @@ public class SerialModel implements SerialPortEventListener {
 	private PlateModel plateModel;
 	
 	/**
-	 * Serial port the Arduino is found on.
+	 * Link to the Arduino, either a real serial port or a simulated device.
 	 */
-	private SerialPort arduinoPort;
+	private ISerialTransport transport;
 	
 	/**
-	 * Input stream is made a BufferedReader to more easily parse incoming data.
+	 * Threads doing the actual reading and writing on the link, handing what the device says back to us on the
+	 * Swing event thread.
 	 */
-	private BufferedReader inputStream;
+	private SerialIOEngine engine;
 	
 	/**
-	 * Output stream to talk to the Arduino through.
+	 * Output stream to talk to the Arduino through, encoding commands with the negotiated protocol.
 	 */
-	private OutputStream outputStream;
+	private CommandOutputStream outputStream;
+
+	/**
+	 * Number of commands the Arduino says it can hold in its input buffer at once. Stays at 1 (plain lock-step) unless
+	 * the device answers the buffer size query sent on connect.
+	 */
+	private volatile int deviceBufferDepth = 1;
+
+	/**
+	 * Whether the Arduino takes control commands (pause, resume, abort, stop), which firmware that speaks frames does.
+	 */
+	private volatile boolean controlSupported = false;
+
+	/**
+	 * Handshake sent on connect, which tells its answers apart from a task finishing. Null while disconnected.
+	 */
+	private volatile Handshake handshake;
+
+	/**
+	 * Watches for commands the Arduino never acknowledges, null when the ackTimeoutMs setting is off.
+	 */
+	private CommandWatchdog watchdog;
+
+	/**
+	 * Echoes traffic to and from the Arduino to the console, off the thread doing the sending.
+	 */
+	private final CommandEcho echo = new CommandEcho(false);
+
+	/**
+	 * Further controllers driven side by side with stages of the experiment, apart from the one connected above.
+	 */
+	private DevicePool devicePool;
 	
 	/**
 	 * Constructor that links the model to view via its adapter.
@@ -68,6 +99,11 @@ public class SerialModel implements SerialPortEventListener {
         this.view = view;
         this.taskModel = taskModel;
         this.plateModel = plateModel;
+        this.devicePool = new DevicePool(plateModel, echo);
+
+        if (SerializationModel.userSettings != null) {
+            echo.setEnabled(SerializationModel.userSettings.echoCommands);
+        }
 		scanForPorts();
 	}
 	
@@ -88,6 +124,8 @@ public class SerialModel implements SerialPortEventListener {
             	serialPorts.add(currPort.getName());
             }
         }
+        //the simulated device is always there to connect to
+        serialPorts.add(SimulatedTransport.PORT_NAME);
 
 		//ship it off to the view to be put in a combobox!
         return serialPorts;
@@ -100,76 +138,247 @@ public class SerialModel implements SerialPortEventListener {
 	 */
 	public void connectToPort(String _portName){
 		try {
-			arduinoPort = (SerialPort) CommPortIdentifier.getPortIdentifier(_portName).open("Arduino", 2000);
-			initIOStream();
+			if (_portName.equals(SimulatedTransport.PORT_NAME)) {
+				connect(new SimulatedTransport(new SimulatedArduino()));
+			}
+			else {
+				connect(new RxtxTransport(_portName));
+			}
 			System.out.println("Successfully connected to the Arduino on port " + _portName + "!");
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Connects to the Arduino through the given transport, closing any link that was already open.
+	 * @param transport - link to a real or simulated controller
+	 */
+	public void connect(ISerialTransport transport){
+		if (this.transport != null) {
+			disconnectPort();
+		}
+		this.transport = transport;
+		initIOStream();
+	}
 	
 	/**
 	 * Disconnects the current serial port. 
 	 */
 	public void disconnectPort(){
-		arduinoPort.removeEventListener();
-		arduinoPort.close();
+		if (transport == null) return;
+		engine.stop();
+		echo.echo(engine.getDecoder().getSummary());
+		echo.echo(outputStream.getLatency().getSummary());
+		if (watchdog != null) {
+			watchdog.stop();
+			echo.echo(watchdog.getSummary());
+		}
+		transport.close();
+		transport = null;
+		engine = null;
+		outputStream = null;
+		watchdog = null;
+		handshake = null;
 	}
 	
 	/**
 	 * Initializes the input and output streams on the pre-selected microcontroller port.
 	 */
 	public void initIOStream(){
+		engine = new SerialIOEngine(transport, this, SerialIOEngine.EVENT_DISPATCH_THREAD);
 		try {
-			inputStream = new BufferedReader(new InputStreamReader(arduinoPort.getInputStream()));
-			outputStream = arduinoPort.getOutputStream();
+			engine.start();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		outputStream = new CommandOutputStream(engine.getOutputStream(), echo);
+		outputStream.setControlLane(engine.getControlStream());
+		controlSupported = false;
+		watchdog = null;
+		if (SerializationModel.userSettings != null && SerializationModel.userSettings.ackTimeoutMs > 0) {
+			watchdog = new CommandWatchdog(outputStream, taskModel.getTimerWheel(), taskModel.getMotionModel(), this,
+					SerializationModel.userSettings.ackTimeoutMs);
+			outputStream.setWatchdog(watchdog);
+		}
+
+		//ask the device how many commands it can buffer and offer binary frames, we stay in lock-step and talk text
+		//until it says otherwise
+		deviceBufferDepth = 1;
+		handshake = new Handshake(outputStream);
 		try {
-			arduinoPort.addEventListener(this);
-			arduinoPort.notifyOnDataAvailable(true);
-		} catch (TooManyListenersException e){
+			handshake.send(SerializationModel.userSettings != null && SerializationModel.userSettings.binaryProtocol);
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Called whenever data is sent from the microcontroller through the serial port. Reads off the data
-	 * and processes it accordingly.
+	 * Called by the I/O engine on the Swing event thread for every line the microcontroller sends.
 	 */
 	@Override
-	public void serialEvent(SerialPortEvent thisEvent) {
-		if (thisEvent.getEventType() == SerialPortEvent.DATA_AVAILABLE) {
-			try {
-				if (inputStream.ready()){
-					processSerialInput(inputStream.readLine());
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+	public void lineReceived(String line) {
+		processSerialInput(line);
 	}
 	
 	/**
 	 * Called when we get a valid line of serial data. When the Arduino is done with its current command, it
 	 * sends "Done" back to queue up another one (if there is another one). When this is received, this serial
-	 * model tells the plate model to execute the next task in its list.
+	 * model tells the plate model to execute the next task in its list. A "Buffer n" line is the answer to the buffer
+	 * size query, and sets how many commands can be streamed to the device at once. "Protocol 1" means the device
+	 * accepted binary frames, so every command after that is framed. "Status a u s" is the answer to a status query
+	 * from the watchdog. "Aborted n" and "Stopped" answer the control commands that end a run: the device threw away
+	 * everything it hadn't started, apart from the n commands still running.
+	 * Older firmware answers the handshake commands sent on connect with a plain "Done", which is passed over, see
+	 * Handshake.
 	 */
 	public void processSerialInput(String serialInput){
-		System.out.println("From Arduino: " + serialInput);
-		if (serialInput.equals("Done")){
+		echo.echo("From Arduino: " + serialInput);
+		Handshake handshake = this.handshake;
+		if (serialInput.equals("Done") && handshake != null && handshake.done()){
+			//older firmware acknowledging a handshake command it doesn't know
+		}
+		else if (serialInput.equals("Done")){
+			if (outputStream != null) outputStream.getLatency().acknowledged();
+			if (watchdog != null) watchdog.acknowledged();
 			taskModel.executeNext();
 		}
 		if (serialInput.equals("Finished Calibration")){
 			plateModel.calibrate();
+			taskModel.calibrationFinished();
+		}
+		if (serialInput.equals("Protocol 1") && outputStream != null){
+			if (handshake != null) handshake.answered();
+			outputStream.setEncoder(new BinaryCommandEncoder());
+			//firmware that speaks frames also answers status() and takes control commands
+			controlSupported = true;
+			if (watchdog != null) watchdog.statusSupported();
+		}
+		if (serialInput.startsWith("Aborted ") || serialInput.equals("Stopped")){
+			int running = 0;
+			if (serialInput.startsWith("Aborted ")) {
+				try {
+					running = Integer.parseInt(serialInput.substring(8).trim());
+				} catch (NumberFormatException e) {
+					System.out.println("Could not read abort from Arduino: " + serialInput);
+				}
+			}
+			if (outputStream != null) outputStream.getLatency().retainOldest(running);
+			if (watchdog != null) watchdog.retainOldest(running);
+			taskModel.runEnded(running);
+		}
+		if (serialInput.startsWith("Status ") && watchdog != null){
+			String[] fields = serialInput.substring(7).trim().split(" ");
+			try {
+				if (fields.length < 3) throw new NumberFormatException();
+				watchdog.statusReceived(Long.parseLong(fields[0]), Integer.parseInt(fields[1]),
+						Integer.parseInt(fields[2]));
+			} catch (NumberFormatException e) {
+				System.out.println("Could not read status from Arduino: " + serialInput);
+			}
+		}
+		if (serialInput.startsWith("Buffer ")){
+			if (handshake != null) handshake.answered();
+			try {
+				deviceBufferDepth = Math.max(1, Integer.parseInt(serialInput.substring(7).trim()));
+			} catch (NumberFormatException e) {
+				System.out.println("Could not read buffer size from Arduino: " + serialInput);
+			}
 		}
 	}
 	
 	/**
-	 * @return the OutputStream being used to talk to the Arduino
+	 * Sends a control command on the priority lane, ahead of everything queued for the Arduino, without waiting on a
+	 * "Done". The watchdog holds off while the device is paused.
+	 * @param type - PAUSE, RESUME, ABORT or STOP
+	 * @return false if not connected or the device doesn't take control commands
+	 */
+	public boolean sendControl(CommandType type){
+		if (outputStream == null || !controlSupported) return false;
+		if (watchdog != null) watchdog.setPaused(type == CommandType.PAUSE);
+		try {
+			outputStream.writeControl(type);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the Arduino takes control commands, see sendControl
+	 */
+	public boolean isControlSupported(){
+		return controlSupported;
+	}
+
+	/**
+	 * Called by the watchdog for a "Done" that never arrived, carries on as if it had.
+	 */
+	@Override
+	public void acknowledgementLost() {
+		echo.echo("Lost acknowledgement from Arduino made up for.");
+		if (outputStream != null) outputStream.getLatency().acknowledged();
+		taskModel.executeNext();
+	}
+
+	/**
+	 * Called by the watchdog when it can't get the run going again by itself.
+	 */
+	@Override
+	public void stalled(String reason) {
+		System.out.println("Run stalled: " + reason);
+		if (view != null) SimpleDialogs.popRunStalled(view, reason);
+	}
+
+	/**
+	 * Carries on with a stalled run, taking the commands the Arduino never acknowledged as done.
+	 * @return number of commands taken as done, -1 if nothing is being watched
+	 */
+	public int continueStalledRun(){
+		if (watchdog == null) return -1;
+		return watchdog.skipOutstanding();
+	}
+
+	/**
+	 * @return what watches for commands the Arduino never acknowledges, null when not connected or turned off
+	 */
+	public CommandWatchdog getWatchdog(){
+		return watchdog;
+	}
+
+	/**
+	 * @return decoder for the connected device's responses, with its decode timings, or null when not connected
+	 */
+	public ResponseDecoder getResponseDecoder(){
+		return engine == null ? null : engine.getDecoder();
+	}
+
+	/**
+	 * @return pool of controllers that stages of the experiment can be split over
+	 */
+	public DevicePool getDevicePool(){
+		return devicePool;
+	}
+
+	/**
+	 * @return number of commands the connected device can buffer, 1 if it never told us
+	 */
+	public int getDeviceBufferDepth(){
+		return deviceBufferDepth;
+	}
+
+	/**
+	 * @return where traffic and run reports are echoed to the console, off the thread doing the sending
+	 */
+	public CommandEcho getEcho(){
+		return echo;
+	}
+
+	/**
+	 * @return the OutputStream being used to talk to the Arduino, null when not connected
 	 */
-	public OutputStream getOutputStream(){
+	public CommandOutputStream getOutputStream(){
 		return this.outputStream;
 	}
 
@@ -185,12 +394,10 @@ public class SerialModel implements SerialPortEventListener {
             SimpleDialogs.popBadText(null);
         }
         else {
-            for (int i = 0; i < command.length(); i++){
-                try {
-                    outputStream.write(command.charAt(i));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            try {
+                outputStream.writeText(command);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
 	}
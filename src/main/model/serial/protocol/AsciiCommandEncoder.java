@@ -0,0 +1,98 @@
+package main.model.serial.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder for the original text protocol, where a command is sent as "name(operand,operand)".
+ */
+public class AsciiCommandEncoder implements ICommandEncoder {
+
+    @Override
+    public void encode(CommandType type, int operand0, int operand1, int sequence, ByteBuffer out) {
+        putText(type.getText(), out);
+        out.put((byte) '(');
+        if (type.getOperandCount() > 0) {
+            putFixedPoint(operand0, type.getDecimals(), out);
+        }
+        if (type.getOperandCount() > 1) {
+            out.put((byte) ',');
+            putFixedPoint(operand1, type.getDecimals(), out);
+        }
+        out.put((byte) ')');
+    }
+
+    @Override
+    public void encodeRaw(CharSequence text, int sequence, ByteBuffer out) {
+        putText(text, out);
+    }
+
+    /**
+     * Renders a command as the string the text protocol would send, for printing and for streams that don't go
+     * through an encoder.
+     */
+    public static String render(CommandType type, int operand0, int operand1) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        new AsciiCommandEncoder().encode(type, operand0, operand1, 0, buffer);
+        return new String(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * Writes out each character of the text as a single byte.
+     */
+    private static void putText(CharSequence text, ByteBuffer out) {
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * Writes a fixed-point number in decimal without going through a String. Numbers with decimals are printed the
+     * way Double.toString prints them (at least one decimal digit, no trailing zeros), which is what the firmware has
+     * always been sent.
+     * @param value - number to write, scaled up by 10^decimals
+     * @param decimals - number of decimal places in value
+     */
+    static void putFixedPoint(int value, int decimals, ByteBuffer out) {
+        long magnitude = value;
+        if (magnitude < 0) {
+            out.put((byte) '-');
+            magnitude = -magnitude;
+        }
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+
+        putDigits(magnitude / scale, out);
+        if (decimals == 0) return;
+
+        long fraction = magnitude % scale;
+        out.put((byte) '.');
+        if (fraction == 0) {
+            out.put((byte) '0');
+            return;
+        }
+        //print leading zeros of the fraction, then drop its trailing ones
+        int digits = decimals;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        for (long place = pow10(digits - 1); place > fraction && place > 1; place /= 10) {
+            out.put((byte) '0');
+        }
+        putDigits(fraction, out);
+    }
+
+    /**
+     * Writes a non-negative number in decimal.
+     */
+    private static void putDigits(long value, ByteBuffer out) {
+        if (value >= 10) putDigits(value / 10, out);
+        out.put((byte) ('0' + (value % 10)));
+    }
+
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) result *= 10;
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package main.model.serial.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder for the compact binary protocol. Every command goes out as one frame:
+ *
+ * <pre>
+ *   0xA5 | opcode | sequence (2 bytes) | payload length | payload | CRC-16 (2 bytes)
+ * </pre>
+ *
+ * The payload is each operand as a big-endian 32 bit fixed-point integer, or the text of a raw command. The CRC covers
+ * everything from the opcode to the end of the payload. A move is always 15 bytes framed (up to 25 as text), and
+ * single-operand commands are 11.
+ */
+public class BinaryCommandEncoder implements ICommandEncoder {
+
+    /**
+     * First byte of every frame. Never appears in the text protocol, so the device can tell the two apart.
+     */
+    public static final int SYNC = 0xA5;
+
+    /**
+     * Number of bytes in a frame besides its payload.
+     */
+    public static final int FRAME_OVERHEAD = 7;
+
+    /**
+     * Longest payload a single frame can carry.
+     */
+    public static final int MAX_PAYLOAD = 255;
+
+    @Override
+    public void encode(CommandType type, int operand0, int operand1, int sequence, ByteBuffer out) {
+        int start = beginFrame(type, sequence, 4 * type.getOperandCount(), out);
+        if (type.getOperandCount() > 0) out.putInt(operand0);
+        if (type.getOperandCount() > 1) out.putInt(operand1);
+        endFrame(start, out);
+    }
+
+    @Override
+    public void encodeRaw(CharSequence text, int sequence, ByteBuffer out) {
+        int length = Math.min(text.length(), MAX_PAYLOAD);
+        int start = beginFrame(CommandType.RAW, sequence, length, out);
+        for (int i = 0; i < length; i++) {
+            out.put((byte) text.charAt(i));
+        }
+        endFrame(start, out);
+    }
+
+    /**
+     * Writes the frame header.
+     * @return position of the opcode, where the checksum starts
+     */
+    private int beginFrame(CommandType type, int sequence, int payloadLength, ByteBuffer out) {
+        out.put((byte) SYNC);
+        int start = out.position();
+        out.put((byte) type.getOpcode());
+        out.putShort((short) sequence);
+        out.put((byte) payloadLength);
+        return start;
+    }
+
+    /**
+     * Writes the checksum of everything from start up to the current position.
+     */
+    private void endFrame(int start, ByteBuffer out) {
+        int crc = Crc16.INITIAL;
+        for (int i = start; i < out.position(); i++) {
+            crc = Crc16.update(crc, out.get(i));
+        }
+        out.putShort((short) crc);
+    }
+}
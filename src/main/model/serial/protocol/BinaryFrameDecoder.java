@@ -0,0 +1,89 @@
+package main.model.serial.protocol;
+
+/**
+ * Incremental decoder for binary frames. Bytes are fed in one at a time as they come off the line, and a frame is
+ * handed back once its last byte arrives and its checksum matches. Anything that isn't part of a frame is skipped.
+ */
+public class BinaryFrameDecoder {
+
+    /**
+     * Bytes of the frame currently being read, from the opcode up to the end of the checksum.
+     */
+    private final byte[] frame = new byte[BinaryCommandEncoder.MAX_PAYLOAD + BinaryCommandEncoder.FRAME_OVERHEAD];
+
+    /**
+     * Number of bytes of the current frame read so far, or -1 while waiting for a sync byte.
+     */
+    private int length = -1;
+
+    /**
+     * Number of frames dropped because their checksum was wrong or their opcode unknown.
+     */
+    private long badFrames = 0;
+
+    /**
+     * Sequence number of the last frame that was dropped.
+     */
+    private int lastBadSequence = -1;
+
+    /**
+     * @return true if the decoder is part way through a frame
+     */
+    public boolean inFrame() {
+        return length >= 0;
+    }
+
+    /**
+     * Feeds the next byte from the line into the decoder.
+     * @param b - byte that was received
+     * @return the decoded frame if b completed a valid one, null otherwise
+     */
+    public CommandFrame feed(byte b) {
+        if (length < 0) {
+            if ((b & 0xFF) == BinaryCommandEncoder.SYNC) length = 0;
+            return null;
+        }
+
+        frame[length++] = b;
+        //header is opcode, 2 sequence bytes and the payload length
+        if (length < 4) return null;
+        int payloadLength = frame[3] & 0xFF;
+        if (length < 4 + payloadLength + 2) return null;
+
+        //whole frame is in, check it and start looking for the next one
+        length = -1;
+        int sequence = ((frame[1] & 0xFF) << 8) | (frame[2] & 0xFF);
+        int expectedCrc = ((frame[4 + payloadLength] & 0xFF) << 8) | (frame[5 + payloadLength] & 0xFF);
+        CommandType type = CommandType.fromOpcode(frame[0] & 0xFF);
+        if (Crc16.compute(frame, 0, 4 + payloadLength) != expectedCrc || type == null) {
+            badFrames++;
+            lastBadSequence = sequence;
+            return null;
+        }
+
+        if (type == CommandType.RAW) {
+            return new CommandFrame(type, sequence, new int[0], new String(frame, 4, payloadLength));
+        }
+        int[] operands = new int[type.getOperandCount()];
+        for (int i = 0; i < operands.length && 4 * (i + 1) <= payloadLength; i++) {
+            int at = 4 + 4 * i;
+            operands[i] = ((frame[at] & 0xFF) << 24) | ((frame[at + 1] & 0xFF) << 16)
+                    | ((frame[at + 2] & 0xFF) << 8) | (frame[at + 3] & 0xFF);
+        }
+        return new CommandFrame(type, sequence, operands, null);
+    }
+
+    /**
+     * @return number of frames dropped because they failed their checksum
+     */
+    public long getBadFrames() {
+        return badFrames;
+    }
+
+    /**
+     * @return sequence number of the last dropped frame, -1 if none were dropped
+     */
+    public int getLastBadSequence() {
+        return lastBadSequence;
+    }
+}
@@ -0,0 +1,48 @@
+package main.model.serial.protocol;
+
+/**
+ * A single command decoded from a binary frame.
+ */
+public class CommandFrame {
+
+    /**
+     * Which command this frame holds.
+     */
+    public final CommandType type;
+
+    /**
+     * Sequence number the host gave the command.
+     */
+    public final int sequence;
+
+    /**
+     * Fixed-point operands, as many as the command type takes.
+     */
+    public final int[] operands;
+
+    /**
+     * Text of the command for raw frames, null otherwise.
+     */
+    public final String text;
+
+    public CommandFrame(CommandType type, int sequence, int[] operands, String text) {
+        this.type = type;
+        this.sequence = sequence;
+        this.operands = operands;
+        this.text = text;
+    }
+
+    /**
+     * @return the command as it would look in the text protocol
+     */
+    public String toText() {
+        if (type == CommandType.RAW) return text;
+        int operand0 = operands.length > 0 ? operands[0] : 0;
+        int operand1 = operands.length > 1 ? operands[1] : 0;
+        return AsciiCommandEncoder.render(type, operand0, operand1);
+    }
+
+    public String toString() {
+        return "#" + sequence + " " + toText();
+    }
+}
@@ -0,0 +1,91 @@
+package main.model.serial.protocol;
+
+/**
+ * Every command the host can send to the Arduino. Each knows its name in the text protocol, its opcode in the binary
+ * protocol, how many operands it takes and how many decimal places those operands carry. Operands are always passed
+ * around as fixed-point integers, e.g. a move of 1.25cm is the operand 125.
+ */
+public enum CommandType {
+    MOVE(0x01, "move", 2, 2),
+    DISPENSE(0x02, "dispense", 1, 0),
+    NOZZLE_HEIGHT(0x03, "nozzleHeight", 1, 0),
+    DELAY(0x04, "delay", 1, 0),
+    PUMP_PARAMS(0x05, "pumpParams", 2, 0),
+    CALIBRATE(0x06, "calibrate", 0, 0),
+    BUFFER_SIZE(0x07, "bufferSize", 0, 0),
+    PROTOCOL(0x08, "protocol", 1, 0),
+    STATUS(0x09, "status", 0, 0),
+    PAUSE(0x0A, "pause", 0, 0),
+    RESUME(0x0B, "resume", 0, 0),
+    ABORT(0x0C, "abort", 1, 0),
+    STOP(0x0D, "stop", 1, 0),
+    RAW(0x7F, "", 0, 0);
+
+    /**
+     * Lookup from opcode to command, filled in once when the class loads.
+     */
+    private static final CommandType[] BY_OPCODE = new CommandType[128];
+    static {
+        for (CommandType type : values()) {
+            BY_OPCODE[type.opcode] = type;
+        }
+    }
+
+    private final int opcode;
+    private final String text;
+    private final int operandCount;
+    private final int decimals;
+
+    private CommandType(int opcode, String text, int operandCount, int decimals) {
+        this.opcode = opcode;
+        this.text = text;
+        this.operandCount = operandCount;
+        this.decimals = decimals;
+    }
+
+    /**
+     * @return byte identifying this command in a binary frame
+     */
+    public int getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * @return name of the command in the text protocol, e.g. "move"
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return number of fixed-point operands this command carries
+     */
+    public int getOperandCount() {
+        return operandCount;
+    }
+
+    /**
+     * @return number of decimal places in each operand, 0 for plain integers
+     */
+    public int getDecimals() {
+        return decimals;
+    }
+
+    /**
+     * @return command with the given opcode, or null if there isn't one
+     */
+    public static CommandType fromOpcode(int opcode) {
+        if (opcode < 0 || opcode >= BY_OPCODE.length) return null;
+        return BY_OPCODE[opcode];
+    }
+
+    /**
+     * @return command with the given text name, or null if there isn't one
+     */
+    public static CommandType fromText(String text) {
+        for (CommandType type : values()) {
+            if (type != RAW && type.text.equals(text)) return type;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,42 @@
+package main.model.serial.protocol;
+
+/**
+ * CRC-16/CCITT-FALSE (polynomial 0x1021, initial value 0xFFFF), the checksum on binary frames. Cheap enough to
+ * compute on the Arduino a byte at a time as the frame comes in.
+ */
+public class Crc16 {
+
+    /**
+     * Value to start a checksum from.
+     */
+    public static final int INITIAL = 0xFFFF;
+
+    private Crc16() {
+    }
+
+    /**
+     * Folds one more byte into a running checksum.
+     * @param crc - checksum of the bytes so far
+     * @param b - next byte
+     * @return checksum including b
+     */
+    public static int update(int crc, int b) {
+        crc ^= (b & 0xFF) << 8;
+        for (int i = 0; i < 8; i++) {
+            if ((crc & 0x8000) != 0) crc = (crc << 1) ^ 0x1021;
+            else crc <<= 1;
+        }
+        return crc & 0xFFFF;
+    }
+
+    /**
+     * @return checksum of len bytes of the array, starting at off
+     */
+    public static int compute(byte[] bytes, int off, int len) {
+        int crc = INITIAL;
+        for (int i = off; i < off + len; i++) {
+            crc = update(crc, bytes[i]);
+        }
+        return crc;
+    }
+}
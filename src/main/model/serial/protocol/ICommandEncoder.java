@@ -0,0 +1,28 @@
+package main.model.serial.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns commands into the bytes that go over the serial line.
+ */
+public interface ICommandEncoder {
+
+    /**
+     * Encodes a command with up to two fixed-point operands into the buffer. Operands past the command's operand count
+     * are ignored.
+     * @param type - command to send
+     * @param operand0 - first operand, fixed-point with the command's number of decimals
+     * @param operand1 - second operand, fixed-point with the command's number of decimals
+     * @param sequence - sequence number of this command, used by framed protocols
+     * @param out - buffer to write the encoded command into
+     */
+    public void encode(CommandType type, int operand0, int operand1, int sequence, ByteBuffer out);
+
+    /**
+     * Encodes a raw, user-written command (e.g. a custom Arduino function) into the buffer.
+     * @param text - full text of the command, e.g. "blink(3)"
+     * @param sequence - sequence number of this command, used by framed protocols
+     * @param out - buffer to write the encoded command into
+     */
+    public void encodeRaw(CharSequence text, int sequence, ByteBuffer out);
+}
@@ -0,0 +1,140 @@
+package main.model.serial.protocol;
+
+import java.nio.charset.Charset;
+import java.util.Queue;
+
+/**
+ * Incremental decoder for everything the device sends back. Each call takes whatever bytes were read off the line,
+ * turns every complete line (or binary frame) in them into a response, and keeps any partial line around for the next
+ * call. Also keeps track of how long decoding takes, so slow parsing can't hide behind slow serial.
+ */
+public class ResponseDecoder {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * Bytes of the line currently being read.
+     */
+    private byte[] line = new byte[128];
+
+    /**
+     * Number of bytes of the current line read so far.
+     */
+    private int lineLength = 0;
+
+    /**
+     * Decoder for responses the device sends framed. Frames start with a byte that never shows up in text, and only
+     * between lines.
+     */
+    private final BinaryFrameDecoder frames = new BinaryFrameDecoder();
+
+    private long bytesDecoded = 0;
+
+    private long responsesDecoded = 0;
+
+    private long decodeCalls = 0;
+
+    private long totalDecodeNanos = 0;
+
+    private long maxDecodeNanos = 0;
+
+    /**
+     * Decodes a chunk of bytes from the device.
+     * @param bytes - buffer holding the bytes
+     * @param offset - where the new bytes start
+     * @param length - how many new bytes there are
+     * @param responses - every complete response is added here, without its line ending
+     * @return number of responses added
+     */
+    public int decode(byte[] bytes, int offset, int length, Queue<String> responses) {
+        long start = System.nanoTime();
+        int decoded = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (frames.inFrame() || (lineLength == 0 && (b & 0xFF) == BinaryCommandEncoder.SYNC)) {
+                CommandFrame frame = frames.feed(b);
+                if (frame != null) {
+                    responses.offer(frame.toText());
+                    decoded++;
+                }
+            }
+            else if (b == '\n') {
+                //drop the carriage return the device ends its lines with, and don't bother passing on blank lines
+                int end = lineLength;
+                if (end > 0 && line[end - 1] == '\r') end--;
+                if (end > 0) {
+                    responses.offer(new String(line, 0, end, ASCII));
+                    decoded++;
+                }
+                lineLength = 0;
+            }
+            else {
+                if (lineLength == line.length) {
+                    byte[] larger = new byte[line.length * 2];
+                    System.arraycopy(line, 0, larger, 0, lineLength);
+                    line = larger;
+                }
+                line[lineLength++] = b;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            bytesDecoded += length;
+            responsesDecoded += decoded;
+            decodeCalls++;
+            totalDecodeNanos += elapsed;
+            if (elapsed > maxDecodeNanos) maxDecodeNanos = elapsed;
+        }
+        return decoded;
+    }
+
+    /**
+     * @return true if part of a line or frame has been read and is waiting on the rest
+     */
+    public boolean hasPartial() {
+        return lineLength > 0 || frames.inFrame();
+    }
+
+    public synchronized long getBytesDecoded() {
+        return bytesDecoded;
+    }
+
+    public synchronized long getResponsesDecoded() {
+        return responsesDecoded;
+    }
+
+    public synchronized long getDecodeCalls() {
+        return decodeCalls;
+    }
+
+    /**
+     * @return average time spent in a single decode call, in nanoseconds
+     */
+    public synchronized long getAverageDecodeNanos() {
+        return decodeCalls == 0 ? 0 : totalDecodeNanos / decodeCalls;
+    }
+
+    /**
+     * @return longest time spent in a single decode call, in nanoseconds
+     */
+    public synchronized long getMaxDecodeNanos() {
+        return maxDecodeNanos;
+    }
+
+    /**
+     * @return number of framed responses dropped because they failed their checksum
+     */
+    public long getBadFrames() {
+        return frames.getBadFrames();
+    }
+
+    /**
+     * @return one line summary of the decoding done so far
+     */
+    public synchronized String getSummary() {
+        return String.format("Decoded %d responses from %d bytes in %d reads, %.1f us per read on average, %.1f us at most",
+                responsesDecoded, bytesDecoded, decodeCalls, getAverageDecodeNanos() / 1000.0, maxDecodeNanos / 1000.0);
+    }
+}
@@ -0,0 +1,151 @@
+package main.model.serial.simulation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * In-memory byte channel standing in for one direction of a serial line. Whatever is written to the output side can
+ * be read back, in order, from the input side. Unlike PipedInputStream it does not care which threads write and read.
+ */
+public class BytePipe {
+
+    /**
+     * Circular buffer of bytes that have been written but not read yet. Grows when it fills up.
+     */
+    private byte[] buffer = new byte[1024];
+
+    /**
+     * Index of the next byte to be read.
+     */
+    private int head = 0;
+
+    /**
+     * Number of unread bytes in the buffer.
+     */
+    private int count = 0;
+
+    /**
+     * Set once the pipe is closed, after which reads return end of stream once drained.
+     */
+    private boolean closed = false;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            synchronized (BytePipe.this) {
+                if (!waitForData()) return -1;
+                int b = buffer[head] & 0xFF;
+                head = (head + 1) % buffer.length;
+                count--;
+                return b;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            synchronized (BytePipe.this) {
+                if (!waitForData()) return -1;
+                int toRead = Math.min(len, count);
+                for (int i = 0; i < toRead; i++) {
+                    b[off + i] = buffer[head];
+                    head = (head + 1) % buffer.length;
+                }
+                count -= toRead;
+                return toRead;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (BytePipe.this) {
+                return count;
+            }
+        }
+
+        @Override
+        public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (BytePipe.this) {
+                if (closed) throw new IOException("Pipe is closed.");
+                ensureCapacity(count + len);
+                int tail = (head + count) % buffer.length;
+                for (int i = 0; i < len; i++) {
+                    buffer[tail] = b[off + i];
+                    tail = (tail + 1) % buffer.length;
+                }
+                count += len;
+                BytePipe.this.notifyAll();
+            }
+        }
+
+        @Override
+        public void close() {
+            BytePipe.this.close();
+        }
+    };
+
+    /**
+     * @return side of the pipe to read bytes from
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * @return side of the pipe to write bytes to
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Closes the pipe, waking up anybody blocked reading from it.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Blocks until there is something to read. Must be called holding the lock.
+     * @return false if the pipe was closed and drained, true if data is ready
+     */
+    private boolean waitForData() throws IOException {
+        while (count == 0) {
+            if (closed) return false;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for serial data.");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Grows the circular buffer so it can hold at least the given number of bytes, keeping unread bytes in order.
+     */
+    private void ensureCapacity(int needed) {
+        if (needed <= buffer.length) return;
+        byte[] bigger = new byte[Math.max(needed, buffer.length * 2)];
+        for (int i = 0; i < count; i++) {
+            bigger[i] = buffer[(head + i) % buffer.length];
+        }
+        buffer = bigger;
+        head = 0;
+    }
+}
@@ -0,0 +1,594 @@
+package main.model.serial.simulation;
+
+import main.model.serial.ISerialDataListener;
+import main.model.serial.protocol.BinaryCommandEncoder;
+import main.model.serial.protocol.BinaryFrameDecoder;
+import main.model.serial.protocol.CommandFrame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for the Arduino controller. Speaks the same text protocol as the firmware (move, dispense,
+ * nozzleHeight, delay, pumpParams, calibrate, bufferSize), answering "Done" once each command has "run" and
+ * "Finished Calibration" after a calibration. Once offered it with protocol(1) it also accepts binary frames, which
+ * can be mixed freely with text commands since a frame always starts with a byte text never uses. Firmware that speaks
+ * frames also answers status() straight away, ahead of anything queued, with how many commands it has acknowledged, how
+ * many it has yet to finish and the sequence number of the last frame it got. It acts on the control commands as soon
+ * as they arrive too: pause() holds off starting the next command, resume() carries on, abort(s) throws away
+ * everything not started yet and any frame sent before sequence s that is still on its way, and stop(s) does the same
+ * and cuts the running command short. How long a command takes is modelled from a fixed parse latency plus a motion
+ * time, so runs can be made realistic or as fast as the host can go.
+ */
+public class SimulatedArduino {
+
+    /**
+     * Time the firmware spends reading and parsing a command before acting on it, in ms.
+     */
+    private double commandLatencyMs = 2;
+
+    /**
+     * Speed the gantry travels at, in cm/s. Zero or less means moves are instantaneous.
+     */
+    private double moveSpeedCmPerSec = 10;
+
+    /**
+     * Time the nozzle servo takes to change height, in ms.
+     */
+    private double nozzleMoveMs = 300;
+
+    /**
+     * Multiplier applied to every modelled motion and delay time. 0 runs everything instantly, 1 is real time.
+     */
+    private double timeScale = 1;
+
+    /**
+     * Number of commands the simulated input buffer holds, advertised in answer to bufferSize().
+     */
+    private int bufferDepth = 16;
+
+    /**
+     * Pump speed in steps/s, as last set through pumpParams.
+     */
+    private int pumpSpeed = 1000;
+
+    /**
+     * Pump acceleration in steps/s^2, as last set through pumpParams.
+     */
+    private int pumpAcceleration = 500;
+
+    /**
+     * Whether this device understands binary frames. Turn off to act like older firmware.
+     */
+    private boolean supportsBinary = true;
+
+    /**
+     * Whether this device answers bufferSize(). Turn off to act like older firmware, which takes it for a user-made
+     * function and just says "Done".
+     */
+    private boolean answersBufferSize = true;
+
+    /**
+     * Simulated gantry position, in cm from home.
+     */
+    private double x = 0, y = 0;
+
+    /**
+     * Nozzle height as last set through nozzleHeight, 0 until it is.
+     */
+    private volatile int nozzleHeight = 0;
+
+    /**
+     * Gantry x and y and nozzle height at each dispense, in the order they ran.
+     */
+    private final List<double[]> dispenses = Collections.synchronizedList(new ArrayList<double[]>());
+
+    /**
+     * Number of commands the device has finished.
+     */
+    private volatile long commandsExecuted = 0;
+
+    /**
+     * Number of "Done" answers the device has given, including ones lost on the way back.
+     */
+    private long acknowledgements = 0;
+
+    /**
+     * Number of commands received and not finished yet.
+     */
+    private int unfinished = 0;
+
+    /**
+     * Sequence number of the last frame received, -1 before the first.
+     */
+    private int lastSequence = -1;
+
+    /**
+     * Set by pause() until resume(), the run loop doesn't start anything meanwhile.
+     */
+    private volatile boolean paused = false;
+
+    /**
+     * Set by stop() while the running command is cut short, so it doesn't answer.
+     */
+    private volatile boolean halting = false;
+
+    /**
+     * Set once the running command has answered "Done" and been counted as finished.
+     */
+    private boolean answered = false;
+
+    /**
+     * After an abort or stop, frames with sequence numbers before this one are thrown away as they arrive, until the
+     * first one after it shows up.
+     */
+    private int discardBefore = 0;
+    private boolean discarding = false;
+
+    /**
+     * Number of commands still to be lost on the way in, and of "Done" answers still to be lost on the way out, to
+     * stand in for a noisy link.
+     */
+    private volatile int commandsToLose = 0, acknowledgementsToLose = 0;
+
+    /**
+     * Number of times a command arrived while the input buffer was already full.
+     */
+    private volatile long bufferOverflows = 0;
+
+    /**
+     * Number of bytes that have come in over the receive line.
+     */
+    private volatile long bytesReceived = 0;
+
+    /**
+     * Number of valid binary frames received.
+     */
+    private volatile long framesReceived = 0;
+
+    /**
+     * Decoder for binary frames coming in over the receive line.
+     */
+    private final BinaryFrameDecoder frameDecoder = new BinaryFrameDecoder();
+
+    /**
+     * Commands that have been received but not run yet.
+     */
+    private final LinkedBlockingQueue<String> pending = new LinkedBlockingQueue<String>();
+
+    /**
+     * Characters of the command currently being received.
+     */
+    private final StringBuilder partialCommand = new StringBuilder();
+
+    /**
+     * Pipe replies are written into, read by the host as the device's serial output.
+     */
+    private final BytePipe replies = new BytePipe();
+
+    /**
+     * Told whenever a reply has been written.
+     */
+    private volatile ISerialDataListener listener;
+
+    /**
+     * Thread the device's main loop runs on.
+     */
+    private Thread worker;
+
+    /**
+     * Stream the host writes commands into, standing in for the device's receive line.
+     */
+    private final OutputStream receiveLine = new OutputStream() {
+        @Override
+        public void write(int b) {
+            receive((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = 0; i < len; i++) receive(b[off + i]);
+        }
+    };
+
+    /**
+     * Starts the device's main loop.
+     */
+    public synchronized void start() {
+        if (worker != null) return;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "Simulated Arduino");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops the main loop and closes the reply line.
+     */
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+        replies.close();
+    }
+
+    /**
+     * @return stream the host should write commands to
+     */
+    public OutputStream getReceiveLine() {
+        return receiveLine;
+    }
+
+    /**
+     * @return pipe holding everything the device has sent back
+     */
+    public BytePipe getReplies() {
+        return replies;
+    }
+
+    /**
+     * @param listener - told whenever the device writes a reply
+     */
+    public void setDataListener(ISerialDataListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Handles one byte coming in over the receive line. A closing parenthesis ends a text command, a sync byte starts
+     * a binary frame.
+     */
+    private void receive(byte b) {
+        synchronized (partialCommand) {
+            bytesReceived++;
+            if (frameDecoder.inFrame() || (partialCommand.length() == 0 && (b & 0xFF) == BinaryCommandEncoder.SYNC)) {
+                if (supportsBinary) receiveFrameByte(b);
+                return;
+            }
+
+            char c = (char) (b & 0xFF);
+            if (c == '\r' || c == '\n') return;
+            partialCommand.append(c);
+            if (c == ')') {
+                queueCommand(partialCommand.toString().trim(), -1);
+                partialCommand.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Feeds a byte into the frame decoder, queueing the command once a whole frame is in. Frames that fail their
+     * checksum are reported back to the host instead of being run.
+     */
+    private void receiveFrameByte(byte b) {
+        long badBefore = frameDecoder.getBadFrames();
+        CommandFrame frame = frameDecoder.feed(b);
+        if (frame != null) {
+            framesReceived++;
+            queueCommand(frame.toText(), frame.sequence);
+        }
+        else if (frameDecoder.getBadFrames() != badBefore) {
+            synchronized (replies) {
+                unfinished++;
+            }
+            pending.add("crcError(" + frameDecoder.getLastBadSequence() + ")");
+        }
+    }
+
+    /**
+     * Puts a fully received command in the input buffer.
+     * @param sequence - sequence number of the frame it came in, -1 for a text command
+     */
+    private void queueCommand(String command, int sequence) {
+        synchronized (replies) {
+            //counted and answered under the reply lock, so a status never runs ahead of a "Done" it counts
+            if (supportsBinary && command.equals("status()")) {
+                reply("Status " + acknowledgements + " " + unfinished + " " + lastSequence);
+                return;
+            }
+            if (supportsBinary && control(command)) return;
+            if (discarding && sequence >= 0) {
+                //sent before the abort, just late getting here
+                int before = (discardBefore - sequence) & 0xFFFF;
+                if (before > 0 && before < 0x8000) return;
+                discarding = false;
+            }
+            if (commandsToLose > 0) {
+                commandsToLose--;
+                return;
+            }
+            unfinished++;
+            if (sequence >= 0) lastSequence = sequence;
+        }
+        if (pending.size() >= bufferDepth) bufferOverflows++;
+        pending.add(command);
+    }
+
+    /**
+     * Acts on a control command straight away, called with the reply lock held.
+     * @return true if the command was one
+     */
+    private boolean control(String command) {
+        if (command.equals("pause()")) {
+            paused = true;
+            reply("Paused");
+            return true;
+        }
+        if (command.equals("resume()")) {
+            paused = false;
+            reply("Resumed");
+            return true;
+        }
+        boolean abort = command.startsWith("abort(");
+        if (!abort && !command.startsWith("stop(")) return false;
+
+        discardBefore = (int) parse(command.substring(command.indexOf('(') + 1, command.length() - 1)) & 0xFFFF;
+        discarding = true;
+        unfinished -= pending.drainTo(new ArrayList<String>());
+        paused = false;
+        if (abort) {
+            //whatever is running still finishes and answers
+            reply("Aborted " + unfinished);
+        }
+        else {
+            halting = unfinished > 0;
+            reply("Stopped");
+        }
+        return true;
+    }
+
+    /**
+     * Main loop, runs commands in order as they arrive.
+     */
+    private void runLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (paused) {
+                    LockSupport.parkNanos(1000000);
+                    continue;
+                }
+                String command = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (command != null) {
+                    runCommand(command);
+                    synchronized (replies) {
+                        if (!answered) unfinished--;
+                        answered = false;
+                        halting = false;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            //stopped, just fall out of the loop
+        }
+    }
+
+    /**
+     * Runs a single text command, waiting as long as it would take on the real device and then answering it.
+     */
+    private void runCommand(String command) {
+        int open = command.indexOf('(');
+        int close = command.lastIndexOf(')');
+        String name = open < 0 ? command : command.substring(0, open);
+        String[] args = (open < 0 || close <= open + 1) ? new String[0] : command.substring(open + 1, close).split(",");
+
+        waitMs(commandLatencyMs);
+
+        if (name.equals("bufferSize") && answersBufferSize) {
+            reply("Buffer " + bufferDepth);
+            return;
+        }
+        if (name.equals("protocol") && supportsBinary && args.length == 1 && parse(args[0]) == 1) {
+            reply("Protocol 1");
+            return;
+        }
+        if (name.equals("crcError")) {
+            reply("Error crc " + args[0]);
+            return;
+        }
+        if (name.equals("calibrate")) {
+            waitMs(timeScale * travelTimeMs(x, y));
+            x = 0;
+            y = 0;
+            commandsExecuted++;
+            reply("Finished Calibration");
+            return;
+        }
+
+        if (name.equals("move") && args.length == 2) {
+            double dx = parse(args[0]);
+            double dy = parse(args[1]);
+            waitMs(timeScale * travelTimeMs(dx, dy));
+            x -= dx;
+            y -= dy;
+        }
+        else if (name.equals("dispense") && args.length == 1) {
+            dispenses.add(new double[] {x, y, nozzleHeight});
+            waitMs(timeScale * Math.abs(parse(args[0])) * 1000.0 / Math.max(1, pumpSpeed));
+        }
+        else if (name.equals("nozzleHeight")) {
+            if (args.length == 1) nozzleHeight = (int) parse(args[0]);
+            waitMs(timeScale * nozzleMoveMs);
+        }
+        else if (name.equals("delay") && args.length == 1) {
+            waitMs(timeScale * parse(args[0]));
+        }
+        else if (name.equals("pumpParams") && args.length == 2) {
+            pumpSpeed = (int) parse(args[0]);
+            pumpAcceleration = (int) parse(args[1]);
+        }
+        //anything else is a user-made function on the real device, just acknowledge it
+
+        synchronized (replies) {
+            if (halting) return;
+            commandsExecuted++;
+            acknowledgements++;
+            //finished as it answers, so neither status nor abort ever counts a command that has already answered
+            unfinished--;
+            answered = true;
+            if (acknowledgementsToLose > 0) {
+                acknowledgementsToLose--;
+                return;
+            }
+            reply("Done");
+        }
+    }
+
+    /**
+     * @return time in ms to travel the given distance at the configured speed
+     */
+    private double travelTimeMs(double dx, double dy) {
+        if (moveSpeedCmPerSec <= 0) return 0;
+        return Math.hypot(dx, dy) / moveSpeedCmPerSec * 1000.0;
+    }
+
+    /**
+     * Parses a numeric argument, treating anything unreadable as 0 like the firmware's atof does.
+     */
+    private double parse(String arg) {
+        try {
+            return Double.parseDouble(arg.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Busy-waits (parks) for the given number of milliseconds, doing nothing for zero or less.
+     */
+    private void waitMs(double ms) {
+        if (ms <= 0) return;
+        long deadline = System.nanoTime() + (long) (ms * 1000000);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted() && !halting) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Writes a line back to the host and lets the listener know.
+     */
+    private void reply(String line) {
+        synchronized (replies) {
+            try {
+                byte[] bytes = (line + "\r\n").getBytes("US-ASCII");
+                replies.getOutputStream().write(bytes, 0, bytes.length);
+            } catch (IOException e) {
+                //host has closed the line, nobody left to answer
+                return;
+            }
+        }
+        ISerialDataListener toNotify = listener;
+        if (toNotify != null) toNotify.dataAvailable();
+    }
+
+    /* ---CONFIGURATION AND STATE--- */
+
+    public void setCommandLatencyMs(double commandLatencyMs) {
+        this.commandLatencyMs = commandLatencyMs;
+    }
+
+    public void setMoveSpeedCmPerSec(double moveSpeedCmPerSec) {
+        this.moveSpeedCmPerSec = moveSpeedCmPerSec;
+    }
+
+    public void setNozzleMoveMs(double nozzleMoveMs) {
+        this.nozzleMoveMs = nozzleMoveMs;
+    }
+
+    public void setTimeScale(double timeScale) {
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Loses the next few commands that come in, as if garbled on the way.
+     */
+    public void loseCommands(int count) {
+        commandsToLose = count;
+    }
+
+    /**
+     * Loses the next few "Done" answers, as if garbled on the way back. The commands still run.
+     */
+    public void loseAcknowledgements(int count) {
+        acknowledgementsToLose = count;
+    }
+
+    public void setSupportsBinary(boolean supportsBinary) {
+        this.supportsBinary = supportsBinary;
+    }
+
+    public boolean getSupportsBinary() {
+        return supportsBinary;
+    }
+
+    public void setAnswersBufferSize(boolean answersBufferSize) {
+        this.answersBufferSize = answersBufferSize;
+    }
+
+    public boolean getAnswersBufferSize() {
+        return answersBufferSize;
+    }
+
+    public void setBufferDepth(int bufferDepth) {
+        this.bufferDepth = bufferDepth;
+    }
+
+    public int getBufferDepth() {
+        return bufferDepth;
+    }
+
+    public long getCommandsExecuted() {
+        return commandsExecuted;
+    }
+
+    public long getBufferOverflows() {
+        return bufferOverflows;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public int getPumpSpeed() {
+        return pumpSpeed;
+    }
+
+    public int getPumpAcceleration() {
+        return pumpAcceleration;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public int getNozzleHeight() {
+        return nozzleHeight;
+    }
+
+    /**
+     * @return gantry x, y and nozzle height at each dispense so far, in the order they ran
+     */
+    public List<double[]> getDispenses() {
+        synchronized (dispenses) {
+            return new ArrayList<double[]>(dispenses);
+        }
+    }
+}
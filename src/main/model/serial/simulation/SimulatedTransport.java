@@ -0,0 +1,65 @@
+package main.model.serial.simulation;
+
+import main.model.serial.ISerialDataListener;
+import main.model.serial.ISerialTransport;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Transport that connects the serial model to a simulated Arduino running in the same process instead of a port.
+ */
+public class SimulatedTransport implements ISerialTransport {
+
+    /**
+     * Name the simulated device shows up as in the list of ports.
+     */
+    public static final String PORT_NAME = "Simulated Arduino";
+
+    /**
+     * The device on the other end of this transport.
+     */
+    private SimulatedArduino device;
+
+    /**
+     * Connects to the given simulated device, starting it up if it isn't running yet.
+     * @param device - simulated controller to talk to
+     */
+    public SimulatedTransport(SimulatedArduino device) {
+        this.device = device;
+        device.start();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return device.getReplies().getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return device.getReceiveLine();
+    }
+
+    @Override
+    public void setDataListener(ISerialDataListener listener) {
+        device.setDataListener(listener);
+    }
+
+    @Override
+    public void close() {
+        device.setDataListener(null);
+        device.stop();
+    }
+
+    @Override
+    public String getName() {
+        return PORT_NAME;
+    }
+
+    /**
+     * @return the simulated device, so its timing can be tuned and its counters read
+     */
+    public SimulatedArduino getDevice() {
+        return device;
+    }
+}
@@ -16,4 +16,22 @@ public class UserSettings {
     public int defaultRaiseSteps;
 
     public double stepsTouLFactor;
+
+    public boolean streamCommands;
+
+    public boolean binaryProtocol;
+
+    public boolean echoCommands;
+
+    public boolean optimizeTravel;
+
+    public boolean peepholeOptimize;
+
+    public boolean hostDelays;
+
+    public boolean journalRuns;
+
+    public boolean latencyReport;
+
+    public int ackTimeoutMs;
 }
@@ -0,0 +1,12 @@
+package main.model.tasks;
+
+/**
+ * How the task model feeds decompiled tasks to the Arduino when executing.
+ *
+ * LOCKSTEP sends one command and waits for its "Done" before sending the next. STREAMING keeps as many commands in
+ * flight as the device says it can buffer, topping the window back up every time an acknowledgement comes in.
+ */
+public enum ExecutionMode {
+    LOCKSTEP,
+    STREAMING
+}
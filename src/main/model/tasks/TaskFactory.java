@@ -1,12 +1,7 @@
 package main.model.tasks;
 
-import com.cedarsoftware.util.io.JsonReader;
-import com.cedarsoftware.util.io.JsonWriter;
 import main.model.tasks.basictasks.IExecuteTask;
 import main.model.tasks.basictasks.MultiTask;
-import main.model.tasks.basictasks.NullTask;
-
-import java.io.IOException;
 
 /**
  * Factory that, given a task on creation, makes that task whenever make() is called.
@@ -32,16 +27,8 @@ public class TaskFactory implements ITaskFactory {
      */
     @Override
     public IExecuteTask make() {
-        //return a copy of the input task, using JSON for help
-        try {
-            IExecuteTask copy = (IExecuteTask) JsonReader.jsonToJava(JsonWriter.objectToJson(toMake));
-            copy.resetParents();
-            return copy;
-        } catch (IOException e) {
-            System.out.println("Issue making deep copy of task in premade task factory.");
-            e.printStackTrace();
-            return new NullTask();
-        }
+        //return a copy of the input task
+        return toMake.copy();
     }
 
     /**
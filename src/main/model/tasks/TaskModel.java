@@ -2,18 +2,39 @@ package main.model.tasks;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 
 import main.model.plate.PlateModel;
 import main.model.plate.objects.Well;
+import main.model.serial.CommandLatency;
+import main.model.serial.CommandOutputStream;
+import main.model.serial.Device;
+import main.model.serial.DevicePool;
+import main.model.serial.SerialIOEngine;
 import main.model.serial.SerialModel;
+import main.model.serial.protocol.CommandType;
 import main.model.serialization.SaveType;
 import main.model.serialization.SerializationModel;
 import main.model.tasks.basictasks.*;
-import main.model.tasks.taskvisitors.DecompileVisitor;
+import main.model.tasks.estimation.DurationEstimate;
+import main.model.tasks.estimation.DurationEstimator;
+import main.model.tasks.estimation.MotionModel;
+import main.model.tasks.estimation.RunProgress;
+import main.model.tasks.execution.ExecutionCursor;
+import main.model.tasks.execution.ExecutionJournal;
+import main.model.tasks.execution.ExecutionPlan;
+import main.model.tasks.execution.LeafIterator;
+import main.model.tasks.optimization.PeepholeOptimizer;
+import main.model.tasks.optimization.TravelOptimizer;
+import main.model.tasks.optimization.TravelReport;
+import main.model.tasks.scheduling.StageGraph;
+import main.model.tasks.scheduling.TimerWheel;
 import main.model.tasks.taskvisitors.DrawVisitor;
 import main.model.tasks.taskvisitors.ITaskVisitor;
+import main.model.tasks.taskvisitors.PlanCompileVisitor;
 import main.util.Parser;
 import main.view.panels.MainPanel;
 
@@ -53,19 +74,89 @@ public class TaskModel {
      */
     private DefaultTreeModel taskQueue;
 
-    private ArrayList<ALeafTask> decompiledTasks;
+    private ITaskVisitor drawVisitor;
 
-    private ITaskVisitor decompileVisitor;
+    /**
+     * Compiles the task tree into a plan of ready-to-send commands, created once the plate model is known.
+     */
+    private ITaskVisitor compileVisitor;
 
-    private ITaskVisitor drawVisitor;
+    /**
+     * Where the current run is, over the experiment it was started with plus anything appended since.
+     */
+    private ExecutionCursor cursor = new ExecutionCursor(null);
+
+    /**
+     * Whether executeAll sends commands one at a time or streams them against the device's buffer.
+     */
+    private ExecutionMode executionMode = ExecutionMode.LOCKSTEP;
+
+    /**
+     * Number of commands sent to the Arduino that have not been acknowledged with a "Done" yet.
+     */
+    private int commandsInFlight = 0;
+
+    /**
+     * Waits out delays on the host instead of the device, when the hostDelays setting is on.
+     */
+    private final TimerWheel timerWheel = new TimerWheel(5, 512, SerialIOEngine.EVENT_DISPATCH_THREAD);
+
+    /**
+     * Delay of the current run being waited out on the host, null if there isn't one.
+     */
+    private TimerWheel.Timeout hostDelay = null;
+
+    /**
+     * Cost of each command, fitted to how long the device took with every run's acknowledgements.
+     */
+    private final MotionModel motionModel = new MotionModel();
+
+    /**
+     * How much of the current run is left, null before the first run.
+     */
+    private RunProgress progress = null;
+
+    /**
+     * File runs are journaled to when the journalRuns setting is on.
+     */
+    private static final File JOURNAL_FILE = new File("data/RunJournal.bin");
+
+    /**
+     * File command latencies are written to at the end of a run when the latencyReport setting is on.
+     */
+    private static final File LATENCY_FILE = new File("data/LatencyReport.txt");
+
+    /**
+     * Journal of the current run, null if it isn't being journaled or is over.
+     */
+    private ExecutionJournal journal = null;
+
+    /**
+     * Set while a resumed run waits for the arm to finish homing.
+     */
+    private boolean awaitingCalibration = false;
+
+    /**
+     * Number of commands in flight that put the arm back where a resumed run left off, acknowledged before any of the
+     * run's own.
+     */
+    private int repositionInFlight = 0;
+
+    /**
+     * Set while the run is paused: nothing more is sent, but acknowledgements of what was already sent still count.
+     */
+    private boolean paused = false;
+
+    /**
+     * Set once the run has been aborted or stopped, until everything the device still had is accounted for.
+     */
+    private boolean ending = false;
 
     /**
      * Constructor for TaskModel, takes in adapters to allow the view and other models.
      */
     public TaskModel() {
         taskQueue = new DefaultTreeModel(new MultiTask("Experiment Name (triple click me to rename)"));
-        decompiledTasks = new ArrayList<ALeafTask>();
-        decompileVisitor = new DecompileVisitor();
         drawVisitor = new DrawVisitor();
     }
 
@@ -76,48 +167,606 @@ public class TaskModel {
         this.plateModel = plateModel;
         this.serialCommModel = serialModel;
         this.serializationModel = serializationModel;
+        this.compileVisitor = new PlanCompileVisitor(plateModel);
+
+        if (SerializationModel.userSettings != null && SerializationModel.userSettings.streamCommands) {
+            executionMode = ExecutionMode.STREAMING;
+        }
+    }
+
+    /**
+     * Called by the serial model when word has been received that the Arduino is done with a command. Frees up the
+     * slot that command was using and tops the window of in-flight commands back up.
+     */
+    public synchronized void executeNext() {
+        if (commandsInFlight > 0) {
+            commandsInFlight--;
+            if (repositionInFlight > 0) {
+                repositionInFlight--;
+            }
+            else {
+                if (progress != null) progress.acknowledged();
+                if (journal != null) journal.acknowledged();
+            }
+        }
+        advance();
     }
 
     /**
-     * Called by the serial model when word has been received that the Arduino is ready for the next command.
+     * Called by the timer wheel on the Swing event thread once a delay waited out on the host is over.
      */
-    public void executeNext() {
-        Iterator<ALeafTask> iter = decompiledTasks.iterator();
-        if (iter.hasNext()) {
-            iter.next().execute(plateModel.getArmState(), serialCommModel.getOutputStream());
-            iter.remove();
-        } else {
+    private synchronized void hostDelayOver() {
+        hostDelay = null;
+        if (journal != null) journal.acknowledged();
+        advance();
+    }
+
+    /**
+     * Carries on with the run, or says it is over if there is nothing left to send or wait on.
+     */
+    private void advance() {
+        //the timer picks the run back up once the delay is over, as does the arm once it is homed
+        if (hostDelay != null || awaitingCalibration) return;
+
+        if (!cursor.hasNext() && commandsInFlight == 0 && ending) {
+            //the journal is left open-ended, so the run can be resumed from it
+            ending = false;
+            System.out.println("Run aborted.");
+            reportLatencies();
+            closeJournal();
+        }
+        else if (!cursor.hasNext() && commandsInFlight == 0) {
             System.out.println("Done executing all tasks!");
+            if (cursor.getOptimizer() != null) System.out.println(cursor.getOptimizer());
+            if (timerWheel.getFired() > 0) System.out.println(timerWheel.getSummary());
+            if (motionModel.fit()) System.out.println(motionModel);
+            reportLatencies();
+            if (journal != null) {
+                journal.finished();
+                journal.close();
+                journal = null;
+            }
+        }
+        else {
+            fillCommandWindow();
+        }
+    }
+
+    /**
+     * Sends tasks until as many commands are in flight as the current mode allows. In lock-step mode that is a single
+     * command, in streaming mode it is however many the Arduino said it can buffer. The whole window goes out to the
+     * device in a single write.
+     */
+    private void fillCommandWindow() {
+        int window = 1;
+        if (executionMode == ExecutionMode.STREAMING) {
+            window = serialCommModel.getDeviceBufferDepth();
+        }
+
+        if (paused || commandsInFlight >= window || !cursor.hasNext()) return;
+
+        CommandOutputStream stream = serialCommModel.getOutputStream();
+        if (stream != null) stream.beginBatch();
+        try {
+            while (commandsInFlight < window && cursor.hasNext()) {
+                if (hostDelaysEnabled() && cursor.peekType(0) == CommandType.DELAY) {
+                    //a delay starts once everything before it is done, so wait for the device to catch up first
+                    if (commandsInFlight > 0) break;
+                    hostDelay = timerWheel.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            hostDelayOver();
+                        }
+                    }, cursor.peekOperand0(0));
+                    if (progress != null) progress.skipped(CommandType.DELAY, cursor.peekOperand0(0), 0);
+                    int position = cursor.getPosition();
+                    cursor.skipNext();
+                    if (journal != null) {
+                        journal.sent(position, CommandType.DELAY, 0, plateModel.getArmState(),
+                                cursor.getSentFingerprint());
+                    }
+                    break;
+                }
+                int position = cursor.getPosition();
+                CommandType type = cursor.peekType(0);
+                int operand0 = cursor.peekOperand0(0);
+                if (progress != null) progress.sent(type, operand0, cursor.peekOperand1(0));
+                cursor.sendNext(plateModel.getArmState(), stream);
+                if (journal != null) {
+                    journal.sent(position, type, operand0, plateModel.getArmState(), cursor.getSentFingerprint());
+                }
+                commandsInFlight++;
+            }
+        } finally {
+            endBatch(stream);
+        }
+    }
+
+    /**
+     * Writes out whatever a batch held back, if there is a stream to write it to.
+     */
+    private void endBatch(CommandOutputStream stream) {
+        if (stream == null) return;
+        try {
+            stream.endBatch();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
 	/**
-	 * Executes the tasks normally, ie by sending one command over at a time to Arduino
+	 * Executes the tasks normally, ie by feeding commands to the Arduino as it acknowledges them. Whether one or
+	 * several commands are kept in flight depends on the execution mode.
 	 */
-	public void executeAll() {
+	public synchronized void executeAll() {
 		//make sure we start on a clean slate
-		decompiledTasks.clear();
+        commandsInFlight = 0;
+        repositionInFlight = 0;
+        awaitingCalibration = false;
+        paused = false;
+        ending = false;
+        if (hostDelay != null) hostDelay.cancel();
+        hostDelay = null;
+        closeJournal();
+
+        if (getLatency() != null) getLatency().reset();
+
+        IExecuteTask root = (IExecuteTask) taskQueue.getRoot();
+        IExecuteTask run = root;
+        if (optimizeTravelEnabled()) {
+            //the run gets its own copy to reorder, the experiment stays the way the user laid it out
+            run = root.copy();
+            TravelReport report = new TravelOptimizer(plateModel).optimize(run, armLocation());
+            serialCommModel.getEcho().echo(report.toString());
+        }
+
+		//the tree is compiled a chunk at a time as the run gets to it, so the first commands go out straight away
+        cursor = new ExecutionCursor(compileVisitor);
+        if (peepholeEnabled()) cursor.setOptimizer(new PeepholeOptimizer());
+        cursor.append(run);
+
+        MotionModel.State start = armPosition();
+        progress = new RunProgress(motionModel, start.copy());
+        if (journalEnabled()) startJournal();
 
-		//decompile the specified stage and put the results in the decompiledTasks ArrayList
-        ((IExecuteTask) taskQueue.getRoot()).executeVisitor(decompileVisitor, decompiledTasks);
+		//send the first window of commands to start the chain!
+		fillCommandWindow();
 
-		//execute the first one to start the chain!
-		executeNext();
+        //only then go through the whole run to estimate it, the device is already busy with the window meanwhile
+        DurationEstimate estimate = estimator(peepholeEnabled()).estimate(run, start);
+        System.out.println(estimate);
+        progress.estimated(estimate.getTotalMillis());
 	}
 
+    /**
+     * Prints how long commands took over the run, and writes them out in full if the latencyReport setting is on.
+     */
+    private void reportLatencies() {
+        CommandLatency latency = getLatency();
+        if (latency == null || latency.getAcknowledged() == 0) return;
+        System.out.println(latency.getSummary());
+        if (SerializationModel.userSettings != null && SerializationModel.userSettings.latencyReport) {
+            try {
+                latency.dump(LATENCY_FILE);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return latencies of the commands sent over the main connection, null when not connected
+     */
+    public CommandLatency getLatency() {
+        CommandOutputStream stream = serialCommModel == null ? null : serialCommModel.getOutputStream();
+        return stream == null ? null : stream.getLatency();
+    }
+
+    /**
+     * Starts journaling the run just set up. A run that can't be journaled goes ahead anyway. Nothing is compiled for
+     * it: each step is journaled with a fingerprint of the run so far as it goes out.
+     */
+    private void startJournal() {
+        int flags = (peepholeEnabled() ? ExecutionJournal.PEEPHOLE : 0)
+                | (optimizeTravelEnabled() ? ExecutionJournal.OPTIMIZE_TRAVEL : 0);
+        try {
+            journal = ExecutionJournal.create(JOURNAL_FILE, flags, plateModel.getArmState());
+        } catch (IOException e) {
+            e.printStackTrace();
+            journal = null;
+        }
+    }
+
+    /**
+     * Lets go of the journal of a run that was cut short, leaving it on disk to be resumed.
+     */
+    private void closeJournal() {
+        if (journal == null) return;
+        journal.close();
+        journal = null;
+    }
+
+    /**
+     * Picks up the journaled run where the device left off, after the app or the link died part way through it. The
+     * steps the device already did have to be the same as those of the experiment now, which is checked against the
+     * fingerprint journaled with them. The arm is homed first, then taken back to where it was after the last
+     * acknowledged command, and the run carries on from the first command that wasn't acknowledged.
+     * @return journal of the run being resumed
+     * @throws IOException if there is no journal to resume from
+     * @throws IllegalStateException if a run is going, the journaled run finished, or the experiment has changed
+     */
+    public synchronized ExecutionJournal resumeFromJournal() throws IOException {
+        if (isExecuting()) throw new IllegalStateException("Can't resume while a run is going.");
+
+        IExecuteTask run = (IExecuteTask) taskQueue.getRoot();
+        ExecutionJournal resumed = ExecutionJournal.open(JOURNAL_FILE);
+        if (resumed.isFinished()) {
+            resumed.close();
+            throw new IllegalStateException("The journaled run finished, there is nothing to resume.");
+        }
+        if ((resumed.getFlags() & ExecutionJournal.OPTIMIZE_TRAVEL) != 0) {
+            //travel was optimized on a copy as the run started, and from the same place it comes out the same
+            run = run.copy();
+            new TravelOptimizer(plateModel).optimize(run,
+                    new Point2D.Double(resumed.getOriginX() / 100.0, resumed.getOriginY() / 100.0));
+        }
+
+        //put the run back together the same way, and move past what the device already did
+        ExecutionCursor resumedCursor = new ExecutionCursor(compileVisitor);
+        if ((resumed.getFlags() & ExecutionJournal.PEEPHOLE) != 0) resumedCursor.setOptimizer(new PeepholeOptimizer());
+        resumedCursor.append(run);
+        MotionModel.State state = new MotionModel.State(resumed.getOriginX(), resumed.getOriginY());
+        double done = 0;
+        while (resumedCursor.getPosition() < resumed.getResumePosition() && resumedCursor.hasNext()) {
+            done += motionModel.millis(resumedCursor.peekType(0), resumedCursor.peekOperand0(0),
+                    resumedCursor.peekOperand1(0), state);
+            resumedCursor.skipNext();
+        }
+        if (resumedCursor.getPosition() < resumed.getResumePosition()
+                || resumedCursor.getSentFingerprint() != resumed.getResumeFingerprint()) {
+            resumed.close();
+            throw new IllegalStateException("The experiment has changed since the journaled run, so it can't be resumed.");
+        }
+        cursor = resumedCursor;
+        progress = new RunProgress(motionModel, state);
+
+        commandsInFlight = 0;
+        repositionInFlight = 0;
+        hostDelay = null;
+        journal = resumed;
+        System.out.println(resumed + ", resuming from there once the arm is homed.");
+
+        //the arm can't be trusted to be where the journal says, so home it and go back from there
+        awaitingCalibration = true;
+        CommandOutputStream stream = serialCommModel.getOutputStream();
+        if (stream == null) {
+            System.out.println("No stream selected, but would have sent: calibrate()");
+            calibrationFinished();
+        }
+        else {
+            stream.writeCommand(CommandType.CALIBRATE);
+        }
+
+        //estimated once the arm is on its way home, from where the journaled run started and compiled the same way
+        DurationEstimate estimate = estimator((resumed.getFlags() & ExecutionJournal.PEEPHOLE) != 0)
+                .estimate(run, new MotionModel.State(resumed.getOriginX(), resumed.getOriginY()));
+        progress.estimated(Math.max(0, estimate.getTotalMillis() - Math.round(done)));
+        return resumed;
+    }
+
+    /**
+     * Called by the serial model once the arm has been homed. If a resumed run was waiting on it, sends the arm and
+     * nozzle back to where the run left them and carries on with the run.
+     */
+    public synchronized void calibrationFinished() {
+        if (!awaitingCalibration) return;
+        awaitingCalibration = false;
+
+        ExecutionPlan.Builder reposition = new ExecutionPlan.Builder();
+        reposition.add(CommandType.MOVE, journal.getArmX(), journal.getArmY(), null);
+        if (journal.getNozzle() != ExecutionJournal.UNKNOWN_NOZZLE) {
+            reposition.add(CommandType.NOZZLE_HEIGHT, journal.getNozzle(), 0, null);
+        }
+        ExecutionPlan plan = reposition.build();
+
+        CommandOutputStream stream = serialCommModel.getOutputStream();
+        if (stream != null) stream.beginBatch();
+        try {
+            for (int step = 0; step < plan.size(); step++) {
+                plan.send(step, plateModel.getArmState(), stream);
+                commandsInFlight++;
+                repositionInFlight++;
+            }
+        } finally {
+            endBatch(stream);
+        }
+        fillCommandWindow();
+    }
+
+    /**
+     * Pauses the run. Nothing more is sent, and a device that takes control commands is told to hold off starting the
+     * commands it already has, straight away rather than behind them. The cursor stays where it is, so resume carries on
+     * from exactly there.
+     * @return false if there is no run to pause, or it is already paused
+     */
+    public synchronized boolean pause() {
+        if (!isExecuting() || paused || ending) return false;
+        paused = true;
+        //older firmware just works through what it has, the run still stops once that is done
+        serialCommModel.sendControl(CommandType.PAUSE);
+        return true;
+    }
+
+    /**
+     * Carries on with a paused run from where it stopped.
+     * @return false if the run isn't paused
+     */
+    public synchronized boolean resume() {
+        if (!paused) return false;
+        paused = false;
+        serialCommModel.sendControl(CommandType.RESUME);
+        advance();
+        return true;
+    }
+
+    /**
+     * Aborts the run: nothing more is sent and the device throws away every command it hasn't started. The command it
+     * is on finishes. The journal is left as it is, so the run can be resumed from it later.
+     * @return false if there is no run to abort
+     */
+    public synchronized boolean abort() {
+        if (!isExecuting() || ending) return false;
+        end();
+        //without control commands, the run is over once what was sent is done
+        if (!serialCommModel.sendControl(CommandType.ABORT)) advance();
+        return true;
+    }
+
+    /**
+     * Stops the device dead, cutting short the command it is on as well as throwing away the rest, and ends any run.
+     * Where the arm ended up isn't known afterwards, so it needs calibrating before it is used again.
+     * @return false if the device doesn't take control commands, and so can't be stopped
+     */
+    public synchronized boolean emergencyStop() {
+        if (!serialCommModel.isControlSupported()) return false;
+        if (isExecuting() && !ending) end();
+        serialCommModel.sendControl(CommandType.STOP);
+        System.out.println("Emergency stop: calibrate the arm before running anything else.");
+        return true;
+    }
+
+    /**
+     * Stops sending the current run, and cancels whatever it was waiting on.
+     */
+    private void end() {
+        ending = true;
+        paused = false;
+        cursor = new ExecutionCursor(compileVisitor);
+        awaitingCalibration = false;
+        if (hostDelay != null) hostDelay.cancel();
+        hostDelay = null;
+    }
+
+    /**
+     * Called by the serial model once the device has answered an abort or stop.
+     * @param running - number of commands the device is still finishing and will acknowledge
+     */
+    public synchronized void runEnded(int running) {
+        if (!ending) return;
+        commandsInFlight = Math.min(commandsInFlight, running);
+        repositionInFlight = Math.min(repositionInFlight, commandsInFlight);
+        advance();
+    }
+
+    /**
+     * @return true while the run is paused
+     */
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Executes the experiment over every device in the pool instead of the main connection. Its top level stages are
+     * handed out to the devices as they free up, each once the stages it waits on are done, and each device feeds
+     * itself as it acknowledges commands.
+     * @return graph of the stages being run, with the critical path
+     */
+    public StageGraph executeOnDevices() {
+        StageGraph graph = getStageGraph();
+        getDevicePool().schedule(graph);
+        System.out.println(graph);
+        return graph;
+    }
+
+    /**
+     * @return top level stages of the experiment, with which waits on which
+     */
+    public StageGraph getStageGraph() {
+        return new StageGraph((MultiTask) taskQueue.getRoot(), compileVisitor);
+    }
+
+    /**
+     * Carries on with runs stalled by a watchdog, on the main connection and every pooled device, taking the commands
+     * that were never acknowledged as done. Meant for once someone has checked the devices finished them.
+     * @return number of commands taken as done
+     */
+    public int continueStalledRun() {
+        int skipped = Math.max(0, serialCommModel.continueStalledRun());
+        for (Device device : getDevicePool().getDevices()) {
+            skipped += Math.max(0, device.continueStalledRun());
+        }
+        return skipped;
+    }
+
+    /**
+     * @return pool of controllers the experiment can be split over
+     */
+    public DevicePool getDevicePool() {
+        return serialCommModel.getDevicePool();
+    }
+
+    /**
+     * @return true while there are tasks left to send or commands still waiting on a "Done"
+     */
+    public synchronized boolean isExecuting() {
+        return cursor.hasNext() || commandsInFlight > 0 || hostDelay != null || awaitingCalibration;
+    }
+
+    /**
+     * Rearranges the unordered blocks in a task so the arm travels as little as possible, starting from wherever the
+     * arm is now.
+     * @param task - task to optimize, the whole experiment if it is the root
+     * @return what was changed and how much travel was saved
+     */
+    public TravelReport optimizeTravel(IExecuteTask task) {
+        TravelReport report = new TravelOptimizer(plateModel).optimize(task, armLocation());
+        if (report.blocksReordered > 0) {
+            taskQueue.nodeStructureChanged(task);
+        }
+        return report;
+    }
+
+    /**
+     * Shows what the peephole pass would do to a task without sending anything.
+     * @param task - task to compile, the whole experiment if it is the root
+     * @return listing of the task's commands with removed and changed ones marked
+     */
+    public String previewPeephole(IExecuteTask task) {
+        return new PeepholeOptimizer().diff(compile(task));
+    }
+
+    /**
+     * @return every command of the task compiled into a single plan
+     */
+    private ExecutionPlan compile(IExecuteTask task) {
+        ExecutionPlan.Builder builder = new ExecutionPlan.Builder();
+        LeafIterator leaves = new LeafIterator(task);
+        while (leaves.hasNext()) {
+            ALeafTask leaf = leaves.next();
+            leaf.executeVisitor(compileVisitor, builder, leaves.getBindings());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Works out how long a task will take to run from where the arm is now, stage by stage, without sending anything.
+     * @param task - task to estimate, the whole experiment if it is the root
+     */
+    public DurationEstimate estimateDuration(IExecuteTask task) {
+        return estimator(peepholeEnabled()).estimate(task, armPosition());
+    }
+
+    private DurationEstimator estimator(boolean peephole) {
+        DurationEstimator estimator = new DurationEstimator(compileVisitor, motionModel);
+        if (peephole) estimator.setOptimizer(new PeepholeOptimizer());
+        return estimator;
+    }
+
+    /**
+     * @return how much of the current or last run is left, null if nothing has been run
+     */
+    public synchronized RunProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return cost of each command, as fitted so far
+     */
+    public MotionModel getMotionModel() {
+        return motionModel;
+    }
+
+    /**
+     * @return where the plate model says the arm is, in cm, the origin if it doesn't know
+     */
+    private Point2D armLocation() {
+        if (plateModel.getArmState() == null) return new Point2D.Double(0, 0);
+        return new Point2D.Double(plateModel.getArmState().getX(), plateModel.getArmState().getY());
+    }
+
+    /**
+     * @return state of a device whose arm is where the plate model says it is
+     */
+    private MotionModel.State armPosition() {
+        if (plateModel.getArmState() == null) return new MotionModel.State();
+        return new MotionModel.State((int) Math.round(plateModel.getArmState().getX() * 100),
+                (int) Math.round(plateModel.getArmState().getY() * 100));
+    }
+
+    /**
+     * @return true if runs should be journaled so they can be resumed
+     */
+    private boolean journalEnabled() {
+        return SerializationModel.userSettings != null && SerializationModel.userSettings.journalRuns;
+    }
+
+    /**
+     * @return true if the unordered blocks of an experiment should be rearranged before it runs
+     */
+    private boolean optimizeTravelEnabled() {
+        return SerializationModel.userSettings != null && SerializationModel.userSettings.optimizeTravel;
+    }
+
+    /**
+     * @return true if delays should be waited out on the host instead of being sent to the device
+     */
+    private boolean hostDelaysEnabled() {
+        return SerializationModel.userSettings != null && SerializationModel.userSettings.hostDelays;
+    }
+
+    /**
+     * @return timer wheel host side delays are waited out on, with how accurately they went off
+     */
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * @return true if runs should drop and merge redundant commands before sending them
+     */
+    private boolean peepholeEnabled() {
+        return SerializationModel.userSettings != null && SerializationModel.userSettings.peepholeOptimize;
+    }
+
+    /**
+     * @return position within the current or last run
+     */
+    public synchronized ExecutionCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @param executionMode whether executeAll should run in lock-step or stream against the device buffer
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * @return the mode executeAll currently runs in
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
     /**
      * Executes all stages listed, in order.
      */
     public void debugExecuteAll() {
-        //make sure we start on a clean slate
-        decompiledTasks.clear();
-
-        //run the decompile visitor on all tasks
-        ((IExecuteTask) taskQueue.getRoot()).executeVisitor(decompileVisitor, decompiledTasks);
+        //walk and compile all tasks
+        ExecutionCursor debugRun = new ExecutionCursor(compileVisitor);
+        if (peepholeEnabled()) debugRun.setOptimizer(new PeepholeOptimizer());
+        debugRun.append((IExecuteTask) taskQueue.getRoot());
 
         //execute them all at once by printing them out
-        for (ALeafTask task : decompiledTasks) {
-            task.execute(plateModel.getArmState(), serialCommModel.getOutputStream());
+        CommandOutputStream stream = serialCommModel.getOutputStream();
+        if (stream != null) stream.beginBatch();
+        try {
+            while (debugRun.hasNext()) {
+                debugRun.sendNext(plateModel.getArmState(), stream);
+            }
+        } finally {
+            endBatch(stream);
         }
     }
 
@@ -214,16 +863,20 @@ public class TaskModel {
         //else, make a task for every movement and wrap it in a multitask one level up
         else {
             finalTask = new MultiTask("Move" + startWells.size() + "WellsTo1");
-            //by default, go to each start well, withdraw, then dispense all in the end well
+            //by default, go to each start well, withdraw, then dispense all in the end well. the withdrawals can happen
+            //in any order, so they go in their own block the travel optimizer is free to rearrange
+            MultiTask withdrawals = new MultiTask("Withdraw" + startWells.size() + "Wells");
+            withdrawals.setUnordered(true);
             for (int i = 0; i < startWells.size(); i++) {
                 if (Parser.isNumeric(dispenseAmount)) {
                     String withdraw = String.valueOf(-1*Double.parseDouble(dispenseAmount));
-                    finalTask.addTaskToEnd(makeSingleTransaction(startWells.get(i), withdraw, true));
+                    withdrawals.addTaskToEnd(makeSingleTransaction(startWells.get(i), withdraw, true));
                 }
                 else {
-                    finalTask.addTaskToEnd(makeSingleTransaction(startWells.get(i), dispenseAmount, true));
+                    withdrawals.addTaskToEnd(makeSingleTransaction(startWells.get(i), dispenseAmount, true));
                 }
             }
+            finalTask.addTaskToEnd(withdrawals);
             if (Parser.isNumeric(dispenseAmount)) {
                 String total = String.valueOf(Double.parseDouble(dispenseAmount)*startWells.size());
                 finalTask.addTaskToEnd(makeSingleTransaction(endWell, total, false));
@@ -283,7 +936,8 @@ public class TaskModel {
         MultiTask root = (MultiTask) taskQueue.getRoot();
         taskToAdd.setParent(root);
         root.addTaskToEnd(taskToAdd);
-        taskQueue.nodeStructureChanged(root);
+        //only tell the tree about the one new node, rather than having it rebuild everything under the root
+        taskQueue.nodesWereInserted(root, new int[]{root.getChildCount() - 1});
     }
 
     /**
@@ -294,37 +948,29 @@ public class TaskModel {
     }
 
     /**
-     * Generates a sequence of tasks based on input task, replacing the input one.
+     * Puts the input task inside a loop that runs it once for every value of the variable, replacing the input one.
+     * The passes aren't made until the loop is run, drawn or compiled, so the tree only grows by the loop itself.
      *
      * @param taskToLoop task to repeat
      * @param variable   variable to be overwritten in task
      * @param startVal   start value of variable
      * @param endVal     end value of variable
      * @param incVal     how much to increment variable every time
-     * @return true if tasks were successfully made and added, false otherwise
+     * @return true if the loop was made and added, false otherwise
      */
     public boolean loopGenerateTasks(IExecuteTask taskToLoop, String variable, String startVal, String endVal, String incVal) {
+        if (getLoopValues(startVal, endVal, incVal) == null) return false;
 
-        TaskFactory taskToMake = new TaskFactory(taskToLoop);
-
-        MultiTask accTasks = new MultiTask("Looped" + taskToMake.toString());
+        String name = "Looped" + new TaskFactory(taskToLoop).toString();
+        LoopTask loop = new LoopTask(name, variable, startVal, endVal, incVal);
 
-        ArrayList loopVals = getLoopValues(startVal, endVal, incVal);
-        if (loopVals == null) return false;
-
-        //for each loop value we obtained, make a new task from the factory where we replace the all occurences of the
-        //variable with the value
-        for (Object value : loopVals) {
-            IExecuteTask newTask = taskToMake.make();
-            newTask.replaceAll(variable, value);
-            accTasks.addTaskToEnd(newTask);
-        }
-
-        //insert this new node exactly where the old one was
-        accTasks.setParent((MutableTreeNode) taskToLoop.getParent());
-        taskQueue.insertNodeInto(accTasks, (MutableTreeNode) taskToLoop.getParent(), taskToLoop.getParent().getIndex(taskToLoop));
-        ((MutableTreeNode) taskToLoop.getParent()).remove(taskToLoop);
-        taskQueue.nodeStructureChanged(taskToLoop.getParent());
+        //insert the loop exactly where the old task was, then move the task into it
+        MutableTreeNode parent = (MutableTreeNode) taskToLoop.getParent();
+        loop.setParent(parent);
+        taskQueue.insertNodeInto(loop, parent, parent.getIndex(taskToLoop));
+        parent.remove(taskToLoop);
+        loop.addTaskToEnd(taskToLoop);
+        taskQueue.nodeStructureChanged(parent);
 
         return true;
     }
@@ -362,82 +1008,25 @@ public class TaskModel {
      * @return
      */
     public ArrayList<String> getLoopValues(String startVal, String endVal, String incVal) {
-        ArrayList loopVals = new ArrayList();
-        //if values are letters, get all between them
-        if (startVal.matches("[A-Z]") && endVal.matches("[A-Z]") && Parser.isInteger(incVal)) {
-            int start = (int) startVal.charAt(0);
-            int end = (int) endVal.charAt(0);
-            int inc = Integer.parseInt(incVal);
-
-            if (end > start) {
-                while (start <= end) {
-                    loopVals.add(String.valueOf((char) start));
-                    start += inc;
-                }
-            }
-            else {
-                while (start >= end) {
-                    loopVals.add(String.valueOf((char) start));
-                    start -= inc;
-                }
-            }
-        }
-        //else if values are integers, get all between them
-        else if (Parser.isInteger(startVal) && Parser.isInteger(endVal) && Parser.isInteger(incVal)) {
-            int start = Integer.parseInt(startVal);
-            int end = Integer.parseInt(endVal);
-            int inc = Integer.parseInt(incVal);
-
-            if (end > start) {
-                while (start <= end) {
-                    loopVals.add(String.valueOf(start));
-                    start += inc;
-                }
-            }
-            else {
-                while (start >= end) {
-                    loopVals.add(String.valueOf(start));
-                    start -= inc;
-                }
-            }
-        }
-        //else if all required values are numbers, fill arraylist with all them.
-        else if (Parser.isNumeric(startVal) && Parser.isNumeric(endVal) && Parser.isNumeric(incVal)) {
-            double start = Double.parseDouble(startVal);
-            double end = Double.parseDouble(endVal);
-            double inc = Double.parseDouble(incVal);
-
-            if (end > start) {
-                while (start <= end) {
-                    loopVals.add(String.valueOf(start));
-                    start += inc;
-                }
-            }
-            else {
-                while (start >= end) {
-                    loopVals.add(String.valueOf(start));
-                    start -= inc;
-                }
-            }
-        }
-        //else the values don't correspond to anything we know, don't do anything.
-        else {
-            return null;
-        }
-        return loopVals;
+        return LoopTask.values(startVal, endVal, incVal);
     }
 
 
 
     /**
      * Add a task to the queue from an external program. Adds tasks in such a way that they will be executed at the end
-     * if the program is already executing.
+     * if the program is already executing. Only the new task is walked and compiled, so each submission costs as much as
+     * what was submitted no matter how long the session has been going.
      */
-    public void addExternalTask(IExecuteTask task) {
+    public synchronized void addExternalTask(IExecuteTask task) {
         //add it to the main tree, for visualization purposes
         appendTaskToQueue(task);
-        //also add it to the decompiled list, since that's what is actually being executed now
-        ((IExecuteTask) taskQueue.getRoot()).executeVisitor(decompileVisitor, decompiledTasks);
+        //if a run is going, the new commands get sent once everything already queued is done
+        if (isExecuting() && !ending) {
+            cursor.append(task);
+            //the window may have room already if the run was down to its last few commands, no need to wait on a Done
+            fillCommandWindow();
+        }
     }
 
     /**
@@ -1,5 +1,9 @@
 package main.model.tasks.basictasks;
 
+import main.model.serial.CommandOutputStream;
+import main.model.serial.protocol.AsciiCommandEncoder;
+import main.model.serial.protocol.CommandType;
+
 import javax.swing.tree.MutableTreeNode;
 import javax.swing.tree.TreeNode;
 import java.io.OutputStream;
@@ -20,26 +24,86 @@ public abstract class ALeafTask extends AExecuteTask {
 	private static final long serialVersionUID = -8336180786535595266L;
 
     /**
-     * Writes string to the serial output buffer. Handles exceptions and cases where no stream is selected.
+     * Writes string to the serial output buffer in a single write. Handles exceptions and cases where no stream is
+     * selected.
      * @param string String to write to the buffer
      * @param stream Output stream to write to
      */
 	protected void writeString(String string, OutputStream stream){
 		if (stream == null){
 			System.out.println("No stream selected, but would have sent: " + string);
+			return;
 		}
-		else{
-			System.out.println(string);
-			for (int i = 0; i < string.length(); i++){
-				try {
-					stream.write(string.charAt(i));
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+		try {
+			if (stream instanceof CommandOutputStream) {
+				((CommandOutputStream) stream).writeText(string);
+			}
+			else {
+				stream.write(string.getBytes());
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 
+    /**
+     * Sends a command with no operands to the Arduino.
+     * @param stream Output stream to write to
+     * @param type Command to send
+     */
+    protected void writeCommand(OutputStream stream, CommandType type) {
+        writeCommand(stream, type, 0, 0);
+    }
+
+    /**
+     * Sends a command with a single operand to the Arduino.
+     * @param stream Output stream to write to
+     * @param type Command to send
+     * @param operand0 Fixed-point operand of the command
+     */
+    protected void writeCommand(OutputStream stream, CommandType type, int operand0) {
+        writeCommand(stream, type, operand0, 0);
+    }
+
+    /**
+     * Sends a command to the Arduino. If the stream is connected to the device, the command is encoded with whichever
+     * protocol was negotiated; otherwise it is written out as text.
+     * @param stream Output stream to write to
+     * @param type Command to send
+     * @param operand0 First fixed-point operand, ignored if the command takes none
+     * @param operand1 Second fixed-point operand, ignored if the command takes fewer than two
+     */
+    protected void writeCommand(OutputStream stream, CommandType type, int operand0, int operand1) {
+        if (stream instanceof CommandOutputStream) {
+            try {
+                ((CommandOutputStream) stream).writeCommand(type, operand0, operand1);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        else {
+            writeString(AsciiCommandEncoder.render(type, operand0, operand1), stream);
+        }
+    }
+
+    /**
+     * Sends a raw, user-written command to the Arduino, framing it if the binary protocol is in use.
+     * @param text Full text of the command
+     * @param stream Output stream to write to
+     */
+    protected void writeRaw(String text, OutputStream stream) {
+        if (stream instanceof CommandOutputStream) {
+            try {
+                ((CommandOutputStream) stream).writeRaw(text);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        else {
+            writeString(text, stream);
+        }
+    }
+
     /**
      * Leaf tasks don't have any children, nothing to do.
      */
@@ -0,0 +1,60 @@
+package main.model.tasks.basictasks;
+
+/**
+ * Values given to variables while a task tree is walked, so tasks stay as they were written and the same tree can be
+ * run with different values, or by several runs at once, without being copied. Each loop pass adds a binding over the
+ * ones around it, and the innermost binding of a name wins. Bindings never change once made, so they can be kept and
+ * shared freely.
+ */
+public final class Bindings {
+
+    /**
+     * No variables bound, what a tree is walked with outside of any loop.
+     */
+    public static final Bindings NONE = new Bindings(null, null, null);
+
+    private final Bindings outer;
+    private final String variable;
+    private final TaskParam value;
+
+    private Bindings(Bindings outer, String variable, TaskParam value) {
+        this.outer = outer;
+        this.variable = variable;
+        this.value = value;
+    }
+
+    /**
+     * @return these bindings with the given variable bound to the given value on top
+     */
+    public Bindings bind(String variable, TaskParam value) {
+        return new Bindings(this, variable, value);
+    }
+
+    /**
+     * @return value of the innermost binding of the name, or null if it isn't bound
+     */
+    public TaskParam lookup(String name) {
+        for (Bindings bindings = this; bindings != NONE; bindings = bindings.outer) {
+            if (bindings.variable.equals(name)) return bindings.value;
+        }
+        return null;
+    }
+
+    /**
+     * @return value bound to the parameter's text if it names a bound variable, otherwise the parameter itself
+     */
+    public TaskParam resolve(TaskParam param) {
+        if (this == NONE) return param;
+        TaskParam bound = lookup(param.getText());
+        return bound == null ? param : bound;
+    }
+
+    /**
+     * @return value bound to the text if it names a bound variable, otherwise the text itself
+     */
+    public String resolve(String text) {
+        if (this == NONE) return text;
+        TaskParam bound = lookup(text);
+        return bound == null ? text : bound.getText();
+    }
+}
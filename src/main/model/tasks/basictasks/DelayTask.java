@@ -1,8 +1,10 @@
 package main.model.tasks.basictasks;
 
 import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.CommandType;
 import main.model.serialization.SerializationModel;
 import main.model.tasks.taskvisitors.ITaskVisitor;
+import main.model.tasks.taskvisitors.TaskKind;
 
 import java.io.OutputStream;
 
@@ -18,6 +20,11 @@ public class DelayTask extends ALeafTask {
      */
     private String time = "t";
 
+    /**
+     * Time parsed, made again only when it changes.
+     */
+    private transient TaskParam parsedTime;
+
     /**
      * @param time amount of time (in milliseconds) to delay when this executes
      */
@@ -27,18 +34,80 @@ public class DelayTask extends ALeafTask {
 
     @Override
     public void execute(ArmState armState, OutputStream outputStream) {
-        String cmdString = "delay(" + time + ")";
-        this.writeString(cmdString, outputStream);
+        if (isWholeMs(getTimeParam())) {
+            this.writeCommand(outputStream, CommandType.DELAY, (int) getTimeParam().getValue());
+        }
+        else {
+            //a variable, or a fraction of a ms the delay command can't carry, send it as typed
+            this.writeString("delay(" + time + ")", outputStream);
+        }
     }
 
     @Override
     public Object executeVisitor(ITaskVisitor visitor, Object... params) {
-        return visitor.caseAt("Delay", this, params);
+        return visitor.caseAt(TaskKind.DELAY, this, params);
+    }
+
+    /**
+     * @return TaskKind.DELAY
+     */
+    @Override
+    public int getKind() {
+        return TaskKind.DELAY;
     }
 
+    /**
+     * @return new DelayTask with the same settings, no parent and visible
+     */
+    @Override
+    public IExecuteTask copy() {
+        DelayTask copy = new DelayTask(time);
+        copy.parsedTime = parsedTime;
+        return copy;
+    }
+
+    /**
+     * Sets the time, which must be a whole number of ms or a variable.
+     */
     @Override
     public void setUserObject(Object object) {
-        time = (String) object;
+        String input = (String) object;
+        TaskParam param = new TaskParam(input);
+        if (param.isNumber() && !isWholeMs(param)) {
+            System.out.println("Delays are in whole milliseconds, did not change the delay to " + input + ".");
+            return;
+        }
+        time = input;
+        parsedTime = param;
+    }
+
+    /**
+     * @return true if the time is a number the delay command can carry, a whole number of ms
+     */
+    public static boolean isWholeMs(TaskParam time) {
+        return time.isNumber() && time.getValue() == (int) time.getValue();
+    }
+
+    /**
+     * @return time to wait in ms as entered, a number or a variable
+     */
+    public String getTime() {
+        return time;
+    }
+
+    /**
+     * @return time to wait in ms, parsed
+     */
+    public TaskParam getTimeParam() {
+        if (parsedTime == null) parsedTime = new TaskParam(time);
+        return parsedTime;
+    }
+
+    /**
+     * @return time to wait in ms with any variable it is resolved against the given bindings
+     */
+    public TaskParam getTimeParam(Bindings bindings) {
+        return bindings.resolve(getTimeParam());
     }
 
     public String toString() {
@@ -62,6 +131,7 @@ public class DelayTask extends ALeafTask {
     public boolean replaceOne(String variable, Object newValue) {
         if (time.equals(variable)) {
             time = (String) newValue;
+            parsedTime = null;
             return true;
         }
         else {
@@ -3,9 +3,10 @@ package main.model.tasks.basictasks;
 import java.io.OutputStream;
 
 import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.CommandType;
 import main.model.serialization.SerializationModel;
 import main.model.tasks.taskvisitors.ITaskVisitor;
-import main.util.Parser;
+import main.model.tasks.taskvisitors.TaskKind;
 
 /**
  * Dispense task, tells the robot to dispense the input amount of liquid.
@@ -23,6 +24,11 @@ public class DispenseTask extends ALeafTask {
      */
     private String volume = null;
 
+    /**
+     * Volume parsed, made again only when it changes.
+     */
+    private transient TaskParam parsedVolume;
+
     /**
      * @param volume - amount to dispense, as a string to be parsed when this task needs to be worked with
      */
@@ -35,9 +41,10 @@ public class DispenseTask extends ALeafTask {
 	 * with time to flow liquid and time to flow air, in ms.
 	 */
 	public void execute(ArmState armState, OutputStream outputStream) {
-        int steps = (int) (Double.parseDouble(volume) * SerializationModel.userSettings.stepsTouLFactor);
-		String cmdString = "dispense(" + steps + ")";
-		this.writeString(cmdString, outputStream);
+        //still a variable, nothing to send, as when compiled
+        if (!getVolumeParam().isNumber()) return;
+        int steps = (int) (getVolumeParam().getValue() * SerializationModel.userSettings.stepsTouLFactor);
+		this.writeCommand(outputStream, CommandType.DISPENSE, steps);
 	}
 	
 	/**
@@ -48,7 +55,25 @@ public class DispenseTask extends ALeafTask {
 	 */
 	@Override
 	public Object executeVisitor(ITaskVisitor algo, Object... params) {
-	    return algo.caseAt("Dispense", this, params);
+	    return algo.caseAt(TaskKind.DISPENSE, this, params);
+	}
+
+	/**
+	 * @return TaskKind.DISPENSE
+	 */
+	@Override
+	public int getKind() {
+		return TaskKind.DISPENSE;
+	}
+
+	/**
+	 * @return new DispenseTask with the same settings, no parent and visible
+	 */
+	@Override
+	public IExecuteTask copy() {
+		DispenseTask copy = new DispenseTask(volume);
+		copy.parsedVolume = parsedVolume;
+		return copy;
 	}
 
     /**
@@ -56,10 +81,29 @@ public class DispenseTask extends ALeafTask {
      */
     public double getVolume() {
         //if volume is a number, return that number
-        if (Parser.Singleton.isNumeric(volume)) {
-            return Double.parseDouble(volume);
-        }
-        else return 0;
+        return getVolumeParam().getValue();
+    }
+
+    /**
+     * @return amount to dispense, parsed
+     */
+    public TaskParam getVolumeParam() {
+        if (parsedVolume == null) parsedVolume = new TaskParam(volume);
+        return parsedVolume;
+    }
+
+    /**
+     * @return amount to dispense with any variable it is resolved against the given bindings
+     */
+    public TaskParam getVolumeParam(Bindings bindings) {
+        return bindings.resolve(getVolumeParam());
+    }
+
+    /**
+     * @return amount to dispense as entered, a number or a variable
+     */
+    public String getVolumeText() {
+        return volume;
     }
 	
 	public String toString() {
@@ -77,6 +121,7 @@ public class DispenseTask extends ALeafTask {
         String input = (String) object;
 
         this.volume = input;
+        parsedVolume = null;
     }
 
     /**
@@ -96,6 +141,7 @@ public class DispenseTask extends ALeafTask {
     public boolean replaceOne(String variable, Object newValue) {
         if (volume.equals(variable)) {
             volume = (String) newValue;
+            parsedVolume = null;
             return true;
         }
         else {
@@ -32,6 +32,18 @@ public interface IExecuteTask extends Serializable, MutableTreeNode {
 	   */
 	public Object executeVisitor(ITaskVisitor visitor, Object... params);
 
+	/**
+	 * @return which kind of task this is, see TaskKind
+	 */
+	public int getKind();
+
+	/**
+	 * Deep copy of this task and everything under it, with parents set within the copy. The copy itself has no
+	 * parent and is visible.
+	 * @return the copy
+	 */
+	public IExecuteTask copy();
+
     /**
      * Reset the parents of this tree of tasks, useful for reloading tasks from JSON.
      */
@@ -0,0 +1,277 @@
+package main.model.tasks.basictasks;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import main.model.plate.objects.ArmState;
+import main.model.tasks.taskvisitors.ITaskVisitor;
+import main.model.tasks.taskvisitors.TaskKind;
+import main.util.Parser;
+
+/**
+ * Task that runs its children once for every value a variable takes over a range, with the variable standing for that
+ * value in each pass. Only the children are kept, so the tree is the same size however many times it loops, and saves
+ * as the children plus the range. Walking and compiling bind the variable to each value in turn, see Bindings, and
+ * leave the children as they are; getIteration makes a copy of a pass with the value filled in for anything that
+ * needs one.
+ */
+public class LoopTask extends MultiTask {
+
+    private static final long serialVersionUID = -4215533097625104618L;
+
+    /* Variable the loop sets in each pass. */
+    private String variable;
+
+    /* First and last value of the variable, letters, integers or decimals, and how much it changes each pass. */
+    private String startValue, endValue, increment;
+
+    /* Values the variable takes, worked out from the range when first needed. */
+    private transient ArrayList<String> values;
+
+    /* The same values parsed, made along with them. */
+    private transient TaskParam[] valueParams;
+
+    /**
+     * @param name - name shown in the tree
+     * @param variable - variable to replace in each pass
+     * @param startValue - value of the variable in the first pass
+     * @param endValue - value of the variable in the last pass
+     * @param increment - how much the variable changes each pass
+     */
+    public LoopTask(String name, String variable, String startValue, String endValue, String increment) {
+        super(name);
+        this.variable = variable;
+        this.startValue = startValue;
+        this.endValue = endValue;
+        this.increment = increment;
+    }
+
+    /**
+     * Runs every pass in turn.
+     * @param armState - current position of the arm, when this task is executed
+     * @param outputStream - output stream tasks will execute through
+     */
+    @Override
+    public void execute(ArmState armState, OutputStream outputStream) {
+        for (int i = 0; i < getIterationCount(); i++) {
+            getIteration(i).execute(armState, outputStream);
+        }
+    }
+
+    /**
+     * Calls the "Loop" case of the given algo.
+     * @param visitor The ITaskVisitor algo to use.
+     * @param params vararg list of input parameters
+     * @return the result of running the Loop case of the visitor.
+     */
+    @Override
+    public Object executeVisitor(ITaskVisitor visitor, Object... params) {
+        return visitor.caseAt(TaskKind.LOOP, this, params);
+    }
+
+    /**
+     * @return TaskKind.LOOP
+     */
+    @Override
+    public int getKind() {
+        return TaskKind.LOOP;
+    }
+
+    /**
+     * @return new LoopTask with the same range and settings holding a copy of each child, no parent and visible
+     */
+    @Override
+    public IExecuteTask copy() {
+        return copyInto(new LoopTask(name, variable, startValue, endValue, increment));
+    }
+
+    /**
+     * @return number of passes, 0 if the range isn't one we understand
+     */
+    public int getIterationCount() {
+        return getValues().size();
+    }
+
+    /**
+     * Makes one pass of the loop, a copy of the children with the variable replaced by its value in that pass.
+     * @param index - which pass, counting from 0
+     * @return the pass, with no parent
+     */
+    public MultiTask getIteration(int index) {
+        MultiTask pass = copyInto(new MultiTask(name));
+        pass.replaceAll(variable, getValues().get(index));
+        return pass;
+    }
+
+    /**
+     * @return values the variable takes, one per pass
+     */
+    public ArrayList<String> getValues() {
+        if (values == null) {
+            values = values(startValue, endValue, increment);
+            if (values == null) values = new ArrayList<String>();
+        }
+        return values;
+    }
+
+    /**
+     * @param bindings - values of the variables of any loops around this one, which the range may use
+     * @return values the variable takes, parsed, one per pass
+     */
+    public TaskParam[] getValueParams(Bindings bindings) {
+        String start = bindings.resolve(startValue), end = bindings.resolve(endValue), inc = bindings.resolve(increment);
+        if (start.equals(startValue) && end.equals(endValue) && inc.equals(increment)) {
+            if (valueParams == null) valueParams = toParams(getValues());
+            return valueParams;
+        }
+        //the range depends on an outer loop, so work it out for this pass of that loop
+        return toParams(values(start, end, inc));
+    }
+
+    private static TaskParam[] toParams(ArrayList<String> values) {
+        if (values == null) return new TaskParam[0];
+        TaskParam[] params = new TaskParam[values.size()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = new TaskParam(values.get(i));
+        }
+        return params;
+    }
+
+    public String getVariable() {
+        return variable;
+    }
+
+    public String getStartValue() {
+        return startValue;
+    }
+
+    public String getEndValue() {
+        return endValue;
+    }
+
+    public String getIncrement() {
+        return increment;
+    }
+
+    /**
+     * Replaces the variable in the range and in the children, unless it is the one this loop sets.
+     * @param variable - if the task's "variable" matches this, change value
+     * @param newValue - new value to change to
+     */
+    @Override
+    public void replaceAll(String variable, Object newValue) {
+        replaceInRange(variable, newValue, false);
+        if (!variable.equals(this.variable)) super.replaceAll(variable, newValue);
+    }
+
+    /**
+     * Replaces the first use of the variable in the range or else the children, unless it is the one this loop sets.
+     * @param variable - if the task's "variable" matches this, change value
+     * @param newValue - new value to change to
+     * @return whether or not the value was replaced in this task
+     */
+    @Override
+    public boolean replaceOne(String variable, Object newValue) {
+        if (replaceInRange(variable, newValue, true)) return true;
+        return !variable.equals(this.variable) && super.replaceOne(variable, newValue);
+    }
+
+    private boolean replaceInRange(String variable, Object newValue, boolean onlyFirst) {
+        boolean replaced = false;
+        if (startValue.equals(variable)) {
+            startValue = (String) newValue;
+            replaced = true;
+        }
+        if (endValue.equals(variable) && !(replaced && onlyFirst)) {
+            endValue = (String) newValue;
+            replaced = true;
+        }
+        if (increment.equals(variable) && !(replaced && onlyFirst)) {
+            increment = (String) newValue;
+            replaced = true;
+        }
+        if (replaced) {
+            values = null;
+            valueParams = null;
+        }
+        return replaced;
+    }
+
+    /**
+     * Gets loop values based on input strings. If the values are capital letters, gets every letter between them,
+     * otherwise if they're all numeric just creates a simple list of integers or doubles (as a string).
+     * @param startVal start value of variable
+     * @param endVal end value of variable
+     * @param incVal how far the variable moves towards the end value every time, must be more than 0
+     * @return the values, or null if the strings aren't a range we understand or the increment would never get to the
+     * end value
+     */
+    public static ArrayList<String> values(String startVal, String endVal, String incVal) {
+        ArrayList<String> loopVals = new ArrayList<String>();
+        //if values are letters, get all between them
+        if (Parser.isLetter(startVal) && Parser.isLetter(endVal) && Parser.isInteger(incVal)) {
+            int start = (int) startVal.charAt(0);
+            int end = (int) endVal.charAt(0);
+            int inc = Integer.parseInt(incVal);
+            if (inc <= 0) return null;
+
+            if (end > start) {
+                while (start <= end) {
+                    loopVals.add(String.valueOf((char) start));
+                    start += inc;
+                }
+            }
+            else {
+                while (start >= end) {
+                    loopVals.add(String.valueOf((char) start));
+                    start -= inc;
+                }
+            }
+        }
+        //else if values are integers, get all between them
+        else if (Parser.isInteger(startVal) && Parser.isInteger(endVal) && Parser.isInteger(incVal)) {
+            int start = Integer.parseInt(startVal);
+            int end = Integer.parseInt(endVal);
+            int inc = Integer.parseInt(incVal);
+            if (inc <= 0) return null;
+
+            if (end > start) {
+                while (start <= end) {
+                    loopVals.add(String.valueOf(start));
+                    start += inc;
+                }
+            }
+            else {
+                while (start >= end) {
+                    loopVals.add(String.valueOf(start));
+                    start -= inc;
+                }
+            }
+        }
+        //else if all required values are numbers, fill arraylist with all them.
+        else if (Parser.isNumeric(startVal) && Parser.isNumeric(endVal) && Parser.isNumeric(incVal)) {
+            double start = Double.parseDouble(startVal);
+            double end = Double.parseDouble(endVal);
+            double inc = Double.parseDouble(incVal);
+            if (!(inc > 0)) return null;
+
+            if (end > start) {
+                while (start <= end) {
+                    loopVals.add(String.valueOf(start));
+                    start += inc;
+                }
+            }
+            else {
+                while (start >= end) {
+                    loopVals.add(String.valueOf(start));
+                    start -= inc;
+                }
+            }
+        }
+        //else the values don't correspond to anything we know, don't do anything.
+        else {
+            return null;
+        }
+        return loopVals;
+    }
+}
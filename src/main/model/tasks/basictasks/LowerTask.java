@@ -3,8 +3,10 @@ package main.model.tasks.basictasks;
 import java.io.OutputStream;
 
 import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.CommandType;
 import main.model.serialization.SerializationModel;
 import main.model.tasks.taskvisitors.ITaskVisitor;
+import main.model.tasks.taskvisitors.TaskKind;
 
 /**
  * Lower task, tells the nozzle servo to lower by the specified amount.
@@ -25,8 +27,7 @@ public class LowerTask extends ALeafTask {
 	 * move to a certain height, which is saved to this task in its constructor.
 	 */
 	public void execute(ArmState armState, OutputStream outputStream) {
-		String cmdString = "nozzleHeight(" + SerializationModel.userSettings.defaultLowerSteps + ")";
-		this.writeString(cmdString, outputStream);
+		this.writeCommand(outputStream, CommandType.NOZZLE_HEIGHT, SerializationModel.userSettings.defaultLowerSteps);
 	}
 	
 	/**
@@ -37,7 +38,23 @@ public class LowerTask extends ALeafTask {
 	 */
 	@Override
 	public Object executeVisitor(ITaskVisitor visitor, Object... params) {
-		return visitor.caseAt("Lower", this, params);
+		return visitor.caseAt(TaskKind.LOWER, this, params);
+	}
+
+	/**
+	 * @return TaskKind.LOWER
+	 */
+	@Override
+	public int getKind() {
+		return TaskKind.LOWER;
+	}
+
+	/**
+	 * @return new LowerTask with the same settings, no parent and visible
+	 */
+	@Override
+	public IExecuteTask copy() {
+		return new LowerTask();
 	}
 	
 	/**
@@ -2,12 +2,12 @@ package main.model.tasks.basictasks;
 
 import javafx.scene.shape.MoveTo;
 import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.CommandType;
 import main.model.tasks.taskvisitors.ITaskVisitor;
-import main.util.Parser;
+import main.model.tasks.taskvisitors.TaskKind;
 
 import java.awt.geom.Point2D;
 import java.io.OutputStream;
-import java.math.BigDecimal;
 
 /**
  * Move task, tells the arm to move to specified (absolute) location.
@@ -31,6 +31,11 @@ public class MoveToLocTask extends ALeafTask {
      */
     private String yDestination;
 
+    /**
+     * Destinations parsed, made again only when they change.
+     */
+    private transient TaskParam parsedX, parsedY;
+
     public MoveToLocTask(String x, String y) {
         xDestination = x;
         yDestination = y;
@@ -51,29 +56,27 @@ public class MoveToLocTask extends ALeafTask {
         Double yAbsolute = null;
 
         //if either x or y destination is not a numerical value, return without executing.
-        if (!Parser.isNumeric(xDestination) || !Parser.isNumeric(yDestination)) {
+        if (!getXParam().isNumber() || !getYParam().isNumber()) {
             return;
         }
         else {
-            xAbsolute = Double.parseDouble(xDestination);
-            yAbsolute = Double.parseDouble(yDestination);
+            xAbsolute = getXParam().getValue();
+            yAbsolute = getYParam().getValue();
         }
 
         double xCmToMove = armState.getX() - xAbsolute;
         double yCmToMove = armState.getY() - yAbsolute;
 
-        //round this result using BigDecimals to send over only 2 decimal places
-        xCmToMove = (new BigDecimal(xCmToMove).setScale(2, BigDecimal.ROUND_HALF_DOWN)).doubleValue();
-        yCmToMove = (new BigDecimal(yCmToMove).setScale(2, BigDecimal.ROUND_HALF_DOWN)).doubleValue();
+        //round this result to hundredths of a cm, which is what gets sent over
+        int xHundredths = (int) Math.round(xCmToMove * 100);
+        int yHundredths = (int) Math.round(yCmToMove * 100);
 
-        //construct and send the command
-        String cmdString = "move(" + xCmToMove + "," + yCmToMove + ")";
-        this.writeString(cmdString, outputStream);
+        //send the command, in hundredths of a cm
+        this.writeCommand(outputStream, CommandType.MOVE, xHundredths, yHundredths);
 
         //update the arm location, making sure to only save it to 2 decimal places.
-        BigDecimal roundedX = new BigDecimal(armState.getX() - xCmToMove).setScale(2, BigDecimal.ROUND_HALF_DOWN);
-        BigDecimal roundedY = new BigDecimal(armState.getY() - yCmToMove).setScale(2, BigDecimal.ROUND_HALF_DOWN);
-        armState.setLocation(roundedX.doubleValue(), roundedY.doubleValue());
+        armState.setLocation(Math.round(armState.getX() * 100 - xHundredths) / 100.0,
+                Math.round(armState.getY() * 100 - yHundredths) / 100.0);
     }
 
     /**
@@ -85,7 +88,26 @@ public class MoveToLocTask extends ALeafTask {
      */
     @Override
     public Object executeVisitor(ITaskVisitor visitor, Object... params) {
-        return visitor.caseAt("MoveToLoc", this, params);
+        return visitor.caseAt(TaskKind.MOVE_TO_LOC, this, params);
+    }
+
+    /**
+     * @return TaskKind.MOVE_TO_LOC
+     */
+    @Override
+    public int getKind() {
+        return TaskKind.MOVE_TO_LOC;
+    }
+
+    /**
+     * @return new MoveToLocTask with the same settings, no parent and visible
+     */
+    @Override
+    public IExecuteTask copy() {
+        MoveToLocTask copy = new MoveToLocTask(xDestination, yDestination);
+        copy.parsedX = parsedX;
+        copy.parsedY = parsedY;
+        return copy;
     }
 
     /**
@@ -93,14 +115,58 @@ public class MoveToLocTask extends ALeafTask {
      */
     public Point2D getDestination() {
         //if either are not numeric, return (0,0)
-        if (!Parser.isNumeric(xDestination) || !Parser.isNumeric(yDestination)) {
+        if (!getXParam().isNumber() || !getYParam().isNumber()) {
             return new Point2D.Double(0,0);
         }
         else {
-            return new Point2D.Double(Double.parseDouble(xDestination), Double.parseDouble(yDestination));
+            return new Point2D.Double(getXParam().getValue(), getYParam().getValue());
         }
     }
 
+    /**
+     * @return x location to move to as entered, a number or a variable
+     */
+    public String getXDestination() {
+        return xDestination;
+    }
+
+    /**
+     * @return y location to move to as entered, a number or a variable
+     */
+    public String getYDestination() {
+        return yDestination;
+    }
+
+    /**
+     * @return x location to move to, parsed
+     */
+    public TaskParam getXParam() {
+        if (parsedX == null) parsedX = new TaskParam(xDestination);
+        return parsedX;
+    }
+
+    /**
+     * @return y location to move to, parsed
+     */
+    public TaskParam getYParam() {
+        if (parsedY == null) parsedY = new TaskParam(yDestination);
+        return parsedY;
+    }
+
+    /**
+     * @return x location to move to with any variable it is resolved against the given bindings
+     */
+    public TaskParam getXParam(Bindings bindings) {
+        return bindings.resolve(getXParam());
+    }
+
+    /**
+     * @return y location to move to with any variable it is resolved against the given bindings
+     */
+    public TaskParam getYParam(Bindings bindings) {
+        return bindings.resolve(getYParam());
+    }
+
     /**
      * When somebody changes text on JTree, check if the data is correct and, if it is, set this task's parameters
      * appropriately.
@@ -119,6 +185,8 @@ public class MoveToLocTask extends ALeafTask {
 
         xDestination = halves[0];
         yDestination = halves[1];
+        parsedX = null;
+        parsedY = null;
     }
 
     /**
@@ -138,9 +206,11 @@ public class MoveToLocTask extends ALeafTask {
     public void replaceAll(String variable, Object newValue) {
         if (variable.equals(xDestination)) {
             xDestination = (String) newValue;
+            parsedX = null;
         }
         if (variable.equals(yDestination)) {
             yDestination = (String) newValue;
+            parsedY = null;
         }
     }
 
@@ -155,10 +225,12 @@ public class MoveToLocTask extends ALeafTask {
         boolean result = false;
         if (variable.equals(xDestination)) {
             xDestination = (String) newValue;
+            parsedX = null;
             result = true;
         }
         if (variable.equals(yDestination)) {
             yDestination = (String) newValue;
+            parsedY = null;
             result = true;
         }
         return result;
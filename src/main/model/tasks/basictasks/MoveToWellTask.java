@@ -2,13 +2,13 @@ package main.model.tasks.basictasks;
 
 import java.awt.geom.Point2D;
 import java.io.OutputStream;
-import java.math.BigDecimal;
 import java.util.ArrayList;
 
 import main.model.plate.objects.ArmState;
 import main.model.plate.objects.Well;
+import main.model.serial.protocol.CommandType;
 import main.model.tasks.taskvisitors.ITaskVisitor;
-import main.util.Parser;
+import main.model.tasks.taskvisitors.TaskKind;
 
 /**
  * Move task, tells the arm to move to specified well.
@@ -38,6 +38,11 @@ public class MoveToWellTask extends ALeafTask {
      */
     private String column;
 
+    /**
+     * Row and column together parsed, made again only when either changes.
+     */
+    private transient TaskParam parsedWell;
+
     /**
      * Sets well identifier to move to.
      * @param plate - plate to move to
@@ -67,29 +72,27 @@ public class MoveToWellTask extends ALeafTask {
         Point2D destination = null;
 
         //if the destination identifier is not correct (i.e. is still a variable) do nothing
-        if (!Parser.isIdentifier(row + column)){
+        if (!getWellParam().isIdentifier()){
             return;
         }
         else{
             //find out what absolute location the saved plate and well correspond to
-            destination = armState.getPlateModel().getLocationFromIdentifier(plate, row + column);
+            destination = armState.getPlateModel().getLocationFromIdentifier(plate, getWellParam().getText());
         }
 
 		double xCmToMove = armState.getX() - destination.getX();
 		double yCmToMove = armState.getY() - destination.getY();
 		
-		//round this result using BigDecimals to send over only 2 decimal places
-		xCmToMove = (new BigDecimal(xCmToMove).setScale(2, BigDecimal.ROUND_HALF_DOWN)).doubleValue();
-		yCmToMove = (new BigDecimal(yCmToMove).setScale(2, BigDecimal.ROUND_HALF_DOWN)).doubleValue();
-		
-		//construct and send the command
-		String cmdString = "move(" + xCmToMove + "," + yCmToMove + ")";
-		this.writeString(cmdString, outputStream);
-		
+		//round this result to hundredths of a cm, which is what gets sent over
+		int xHundredths = (int) Math.round(xCmToMove * 100);
+		int yHundredths = (int) Math.round(yCmToMove * 100);
+
+		//send the command, in hundredths of a cm
+		this.writeCommand(outputStream, CommandType.MOVE, xHundredths, yHundredths);
+
 		//update the arm location, making sure to only save it to 2 decimal places.
-		BigDecimal roundedX = new BigDecimal(armState.getX() - xCmToMove).setScale(2, BigDecimal.ROUND_HALF_DOWN);
-		BigDecimal roundedY = new BigDecimal(armState.getY() - yCmToMove).setScale(2, BigDecimal.ROUND_HALF_DOWN);
-		armState.setLocation(roundedX.doubleValue(), roundedY.doubleValue());
+		armState.setLocation(Math.round(armState.getX() * 100 - xHundredths) / 100.0,
+		        Math.round(armState.getY() * 100 - yHundredths) / 100.0);
 		
 	}
 	
@@ -101,7 +104,25 @@ public class MoveToWellTask extends ALeafTask {
 	 */
 	@Override
 	public Object executeVisitor(ITaskVisitor visitor, Object... params) {
-		return visitor.caseAt("MoveToWell", this, params);
+		return visitor.caseAt(TaskKind.MOVE_TO_WELL, this, params);
+	}
+
+	/**
+	 * @return TaskKind.MOVE_TO_WELL
+	 */
+	@Override
+	public int getKind() {
+		return TaskKind.MOVE_TO_WELL;
+	}
+
+	/**
+	 * @return new MoveToWellTask with the same settings, no parent and visible
+	 */
+	@Override
+	public IExecuteTask copy() {
+		MoveToWellTask copy = new MoveToWellTask(plate, row, column);
+		copy.parsedWell = parsedWell;
+		return copy;
 	}
 
     /**
@@ -114,6 +135,46 @@ public class MoveToWellTask extends ALeafTask {
         return destination;
     }
 	
+    /**
+     * @return name of the plate the well is on
+     */
+    public String getPlate() {
+        return plate;
+    }
+
+    /**
+     * @return row of the well, a capital letter or a lowercase variable
+     */
+    public String getRow() {
+        return row;
+    }
+
+    /**
+     * @return column of the well, a number or a lowercase variable
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * @return row and column together, parsed, an identifier once neither is a variable
+     */
+    public TaskParam getWellParam() {
+        if (parsedWell == null) parsedWell = new TaskParam(row + column);
+        return parsedWell;
+    }
+
+    /**
+     * @return row and column together with any variable either is resolved against the given bindings
+     */
+    public TaskParam getWellParam(Bindings bindings) {
+        if (bindings == Bindings.NONE) return getWellParam();
+        TaskParam boundRow = bindings.lookup(row), boundColumn = bindings.lookup(column);
+        if (boundRow == null && boundColumn == null) return getWellParam();
+        return new TaskParam((boundRow == null ? row : boundRow.getText())
+                + (boundColumn == null ? column : boundColumn.getText()));
+    }
+
 	/**
 	 * Define how this task should be printed.
 	 */
@@ -165,10 +226,12 @@ public class MoveToWellTask extends ALeafTask {
     public boolean replaceOne(String variable, Object newValue) {
         if (this.row.equals(variable)) {
             row = (String) newValue;
+            parsedWell = null;
             return true;
         }
         else if (this.column.equals(variable)) {
             column = (String) newValue;
+            parsedWell = null;
             return true;
         }
         else {
@@ -181,6 +244,7 @@ public class MoveToWellTask extends ALeafTask {
      * @param identifier alphanumeric identifier (e.g. A1, B3, etc.)
      */
     public void setIdentifiers(String identifier) {
+        parsedWell = null;
         if (identifier.length() > 3) {
             this.row = "null";
             this.column = "null";
@@ -5,6 +5,7 @@ import java.util.*;
 
 import main.model.plate.objects.ArmState;
 import main.model.tasks.taskvisitors.ITaskVisitor;
+import main.model.tasks.taskvisitors.TaskKind;
 
 import javax.swing.tree.MutableTreeNode;
 import javax.swing.tree.TreeNode;
@@ -23,6 +24,15 @@ public class MultiTask extends AExecuteTask {
     /* Name of this task, also shows what the text file it is saved to will be. */
     public String name = "MultiTask";
 
+    /* Whether the order of this task's children doesn't matter, letting optimizers rearrange them. */
+    private boolean unordered = false;
+
+    /* Device in the pool this task is pinned to when run as a stage, counting from 1, or 0 to let the pool pick. */
+    private int device = 0;
+
+    /* Names of the sibling stages this task has to wait on when run as a stage, or null to work it out from the wells. */
+    private ArrayList<String> dependsOn = null;
+
     /* Empty constructor, does nothing. */
     public MultiTask() {
     }
@@ -68,7 +78,40 @@ public class MultiTask extends AExecuteTask {
 	 */
 	@Override
 	public Object executeVisitor(ITaskVisitor visitor, Object... params) {
-		return visitor.caseAt("Multi", this, params);
+		return visitor.caseAt(TaskKind.MULTI, this, params);
+	}
+
+	/**
+	 * @return TaskKind.MULTI
+	 */
+	@Override
+	public int getKind() {
+		return TaskKind.MULTI;
+	}
+
+	/**
+	 * @return new MultiTask with the same name and settings holding a copy of each child, no parent and visible
+	 */
+	@Override
+	public IExecuteTask copy() {
+		return copyInto(new MultiTask(name));
+	}
+
+	/**
+	 * Gives the given empty MultiTask this one's settings and a copy of each of its children.
+	 * @return the given MultiTask
+	 */
+	protected MultiTask copyInto(MultiTask copy) {
+		copy.unordered = unordered;
+		copy.device = device;
+		if (dependsOn != null) copy.dependsOn = new ArrayList<String>(dependsOn);
+		copy.taskList.ensureCapacity(taskList.size());
+		for (int i = 0; i < taskList.size(); i++) {
+			IExecuteTask child = taskList.get(i).copy();
+			child.setParent(copy);
+			copy.taskList.add(child);
+		}
+		return copy;
 	}
 
     /**
@@ -90,6 +133,66 @@ public class MultiTask extends AExecuteTask {
         task.resetParents();
     }
 
+    /**
+     * @return true if this task's children can be run in any order
+     */
+    public boolean isUnordered() {
+        return unordered;
+    }
+
+    /**
+     * @param unordered - whether this task's children can be run in any order
+     */
+    public void setUnordered(boolean unordered) {
+        this.unordered = unordered;
+    }
+
+    /**
+     * @return device in the pool this task runs on when it is a stage, counting from 1, or 0 if the pool picks
+     */
+    public int getDevice() {
+        return device;
+    }
+
+    /**
+     * @param device - device in the pool to run this task on when it is a stage, counting from 1, or 0 to let the pool
+     *               balance it with the others
+     */
+    public void setDevice(int device) {
+        this.device = Math.max(0, device);
+    }
+
+    /**
+     * @return names of the sibling stages this task waits on when it is a stage, or null if they are worked out from
+     * the wells each stage touches
+     */
+    public List<String> getDependsOn() {
+        return dependsOn;
+    }
+
+    /**
+     * @param dependsOn - names of the sibling stages this task waits on when it is a stage, or null to work them out
+     *                  from the wells each stage touches
+     */
+    public void setDependsOn(List<String> dependsOn) {
+        this.dependsOn = dependsOn == null ? null : new ArrayList<String>(dependsOn);
+    }
+
+    /**
+     * Rearranges this task's children.
+     * @param order - indices of the current children, in the order they should end up in
+     */
+    public void reorderChildren(int[] order) {
+        if (order.length != taskList.size()) {
+            throw new IllegalArgumentException("New order has " + order.length + " children, " + name + " has " + taskList.size());
+        }
+        ArrayList<IExecuteTask> reordered = new ArrayList<IExecuteTask>(taskList.size());
+        for (int index : order) {
+            reordered.add(taskList.get(index));
+        }
+        taskList = reordered;
+    }
+
     /**
      * String representation of a MultiTask, useful for drawing to screen.
      */
@@ -103,7 +206,7 @@ public class MultiTask extends AExecuteTask {
      * Returns the children of the receiver as an <code>Enumeration</code>.
      */
     @Override
-    public Enumeration children() {
+    public Enumeration<? extends TreeNode> children() {
         return Collections.enumeration(taskList);
     }
 
@@ -129,6 +232,16 @@ public class MultiTask extends AExecuteTask {
         }
     }
 
+    /**
+     * Child at the given index, for walks of the tree. Casting what getChildAt returns back to IExecuteTask makes the
+     * JVM check each child against TreeNode and then IExecuteTask, and switching between the two defeats its cache of
+     * the last interface checked, so a full check is made for every node.
+     * @param index index of the task, from 0
+     */
+    public IExecuteTask getTask(int index) {
+        return taskList.get(index);
+    }
+
     /**
 	 * @return number of tasks this MultiTask has.
 	 */
@@ -3,8 +3,9 @@ package main.model.tasks.basictasks;
 import java.io.OutputStream;
 
 import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.CommandType;
 import main.model.tasks.taskvisitors.ITaskVisitor;
-import main.util.Parser;
+import main.model.tasks.taskvisitors.TaskKind;
 
 /**
  * Lower task, tells the nozzle servo to lower by the specified amount.
@@ -19,6 +20,11 @@ public class NozzleHeightTask extends ALeafTask {
 	
 	private String heightToSet;
 
+	/**
+	 * Height parsed, made again only when it changes.
+	 */
+	private transient TaskParam parsedHeight;
+
     /**
      * @param heightToSet height this task moves nozzle to, can be string of a double or a variable
      */
@@ -36,21 +42,19 @@ public class NozzleHeightTask extends ALeafTask {
         Double heightDouble = null;
 
         //if heightToSet is still a variable, return without executing
-        if (!Parser.isNumeric(heightToSet)) {
+        if (!getHeightParam().isNumber()) {
             return;
         }
         else {
-            heightDouble = Double.parseDouble(heightToSet);
+            heightDouble = getHeightParam().getValue();
         }
 
-		String cmdString = "";
 		if (heightDouble > 0){
-			cmdString = "nozzleHeight(" + "1250" + ")";
+			this.writeCommand(outputStream, CommandType.NOZZLE_HEIGHT, 1250);
 		}
 		else if (heightDouble < 0){
-			cmdString = "nozzleHeight(" + "1500" + ")";
+			this.writeCommand(outputStream, CommandType.NOZZLE_HEIGHT, 1500);
 		}
-		this.writeString(cmdString, outputStream);
 	}
 
     /**
@@ -60,7 +64,25 @@ public class NozzleHeightTask extends ALeafTask {
      */
 	@Override
 	public Object executeVisitor(ITaskVisitor visitor, Object... params) {
-		return visitor.caseAt("NozzleHeight", this, params);
+		return visitor.caseAt(TaskKind.NOZZLE_HEIGHT, this, params);
+	}
+
+	/**
+	 * @return TaskKind.NOZZLE_HEIGHT
+	 */
+	@Override
+	public int getKind() {
+		return TaskKind.NOZZLE_HEIGHT;
+	}
+
+	/**
+	 * @return new NozzleHeightTask with the same settings, no parent and visible
+	 */
+	@Override
+	public IExecuteTask copy() {
+		NozzleHeightTask copy = new NozzleHeightTask(heightToSet);
+		copy.parsedHeight = parsedHeight;
+		return copy;
 	}
 
     /**
@@ -72,6 +94,7 @@ public class NozzleHeightTask extends ALeafTask {
     @Override
     public void setUserObject(Object object) {
         heightToSet = (String) object;
+        parsedHeight = null;
     }
 
     /**
@@ -95,6 +118,7 @@ public class NozzleHeightTask extends ALeafTask {
     public boolean replaceOne(String variable, Object newValue) {
         if (variable.equals(heightToSet)) {
             heightToSet = (String) newValue;
+            parsedHeight = null;
             return true;
         }
         else {
@@ -102,6 +126,28 @@ public class NozzleHeightTask extends ALeafTask {
         }
     }
 
+    /**
+     * @return height to set as entered, a number or a variable
+     */
+    public String getHeightToSet() {
+        return heightToSet;
+    }
+
+    /**
+     * @return height to set, parsed
+     */
+    public TaskParam getHeightParam() {
+        if (parsedHeight == null) parsedHeight = new TaskParam(heightToSet);
+        return parsedHeight;
+    }
+
+    /**
+     * @return height to set with any variable it is resolved against the given bindings
+     */
+    public TaskParam getHeightParam(Bindings bindings) {
+        return bindings.resolve(getHeightParam());
+    }
+
     /**
      * Show this task nicely, printing its target height.
      */
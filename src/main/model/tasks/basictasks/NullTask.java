@@ -4,6 +4,7 @@ import java.io.OutputStream;
 
 import main.model.plate.objects.ArmState;
 import main.model.tasks.taskvisitors.ITaskVisitor;
+import main.model.tasks.taskvisitors.TaskKind;
 
 /**
  * NullTask, the task that does nothing.
@@ -34,7 +35,23 @@ public class NullTask extends ALeafTask {
 	 */
 	@Override
 	public Object executeVisitor(ITaskVisitor visitor, Object... params) {
-		return visitor.caseAt("Null", this, params);
+		return visitor.caseAt(TaskKind.NULL, this, params);
+	}
+
+	/**
+	 * @return TaskKind.NULL
+	 */
+	@Override
+	public int getKind() {
+		return TaskKind.NULL;
+	}
+
+	/**
+	 * @return new NullTask with the same settings, no parent and visible
+	 */
+	@Override
+	public IExecuteTask copy() {
+		return new NullTask();
 	}
 
     /**
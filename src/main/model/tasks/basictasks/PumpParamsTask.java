@@ -1,7 +1,9 @@
 package main.model.tasks.basictasks;
 
 import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.CommandType;
 import main.model.tasks.taskvisitors.ITaskVisitor;
+import main.model.tasks.taskvisitors.TaskKind;
 
 import java.io.OutputStream;
 
@@ -35,8 +37,7 @@ public class PumpParamsTask extends ALeafTask {
      */
     @Override
     public void execute(ArmState armState, OutputStream outputStream) {
-        String cmdString = "pumpParams(" + speed + "," + acceleration + ")";
-        this.writeString(cmdString, outputStream);
+        this.writeCommand(outputStream, CommandType.PUMP_PARAMS, speed, acceleration);
     }
 
     /**
@@ -48,7 +49,23 @@ public class PumpParamsTask extends ALeafTask {
      */
     @Override
     public Object executeVisitor(ITaskVisitor visitor, Object... params) {
-        return visitor.caseAt("PumpParams", this, params);
+        return visitor.caseAt(TaskKind.PUMP_PARAMS, this, params);
+    }
+
+    /**
+     * @return TaskKind.PUMP_PARAMS
+     */
+    @Override
+    public int getKind() {
+        return TaskKind.PUMP_PARAMS;
+    }
+
+    /**
+     * @return new PumpParamsTask with the same settings, no parent and visible
+     */
+    @Override
+    public IExecuteTask copy() {
+        return new PumpParamsTask(speed, acceleration);
     }
 
     /**
@@ -70,6 +87,14 @@ public class PumpParamsTask extends ALeafTask {
         acceleration = Integer.parseInt(halves[1]);
     }
 
+    public int getSpeed() {
+        return speed;
+    }
+
+    public int getAcceleration() {
+        return acceleration;
+    }
+
     /**
      * Define how this will be shown to the user.
      */
@@ -2,6 +2,7 @@ package main.model.tasks.basictasks;
 
 import main.model.plate.objects.ArmState;
 import main.model.tasks.taskvisitors.ITaskVisitor;
+import main.model.tasks.taskvisitors.TaskKind;
 
 import java.io.OutputStream;
 
@@ -24,8 +25,7 @@ public class RawTask extends ALeafTask {
      */
     @Override
     public void execute(ArmState armState, OutputStream outputStream) {
-        String cmdString = text;
-        this.writeString(cmdString, outputStream);
+        this.writeRaw(text, outputStream);
     }
 
     /**
@@ -36,7 +36,25 @@ public class RawTask extends ALeafTask {
      */
     @Override
     public Object executeVisitor(ITaskVisitor visitor, Object... params) {
-        return visitor.caseAt("Raw", this, params);
+        return visitor.caseAt(TaskKind.RAW, this, params);
+    }
+
+    /**
+     * @return TaskKind.RAW
+     */
+    @Override
+    public int getKind() {
+        return TaskKind.RAW;
+    }
+
+    /**
+     * @return new RawTask with the same settings, no parent and visible
+     */
+    @Override
+    public IExecuteTask copy() {
+        RawTask copy = new RawTask();
+        copy.text = text;
+        return copy;
     }
 
     /**
@@ -47,6 +65,13 @@ public class RawTask extends ALeafTask {
         this.text = (String) object;
     }
 
+    /**
+     * @return full text of the command, e.g. "blink(3)"
+     */
+    public String getText() {
+        return text;
+    }
+
     /**
      * Display raw tasks as the text string they will send over.
      */
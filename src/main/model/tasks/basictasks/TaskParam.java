@@ -0,0 +1,64 @@
+package main.model.tasks.basictasks;
+
+import main.util.Parser;
+
+/**
+ * A task parameter as it was entered, parsed once into what it stands for: a number, a well identifier, or a variable
+ * that still has to be replaced. Tasks keep one per parameter and make a new one only when the text changes, so
+ * running, drawing and compiling them never parse text.
+ */
+public final class TaskParam {
+
+    private final String text;
+    private final boolean number, identifier;
+    private final double value;
+
+    /**
+     * @param text - parameter as entered, null for one that hasn't been set
+     */
+    public TaskParam(String text) {
+        this.text = text;
+        number = text != null && Parser.isNumeric(text);
+        identifier = text != null && !number && Parser.isIdentifier(text);
+        value = number ? Double.parseDouble(text) : 0;
+    }
+
+    /**
+     * @return parameter as entered
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return true if the parameter is a number, with optional "-" and decimal digits
+     */
+    public boolean isNumber() {
+        return number;
+    }
+
+    /**
+     * @return true if the parameter is a well identifier, a capital letter and a number
+     */
+    public boolean isIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * @return true if the parameter is neither a number nor an identifier, so still has to be replaced
+     */
+    public boolean isVariable() {
+        return !number && !identifier;
+    }
+
+    /**
+     * @return the number, 0 if the parameter isn't one
+     */
+    public double getValue() {
+        return value;
+    }
+
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,80 @@
+package main.model.tasks.estimation;
+
+import main.model.tasks.basictasks.IExecuteTask;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How long an experiment is expected to take, in total and stage by stage. Made by a DurationEstimator.
+ */
+public class DurationEstimate {
+
+    private final List<IExecuteTask> stages;
+    private final long[] stageMillis;
+    private final long totalMillis;
+    private final int commands;
+
+    DurationEstimate(List<IExecuteTask> stages, long[] stageMillis, int commands) {
+        this.stages = Collections.unmodifiableList(stages);
+        this.stageMillis = stageMillis;
+        this.commands = commands;
+        long total = 0;
+        for (long millis : stageMillis) {
+            total += millis;
+        }
+        this.totalMillis = total;
+    }
+
+    /**
+     * @return expected time for the whole experiment, in ms
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @return expected time for the stage at the given index, in ms
+     */
+    public long getStageMillis(int stage) {
+        return stageMillis[stage];
+    }
+
+    public List<IExecuteTask> getStages() {
+        return stages;
+    }
+
+    /**
+     * @return number of commands the estimate was made from
+     */
+    public int getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return readable breakdown, one stage per line with its share of the total
+     */
+    public String describe() {
+        StringBuilder listing = new StringBuilder(toString()).append('\n');
+        for (int stage = 0; stage < stages.size(); stage++) {
+            listing.append(String.format("%s: %s (%.0f%%)%n", stages.get(stage), format(stageMillis[stage]),
+                    totalMillis == 0 ? 0 : 100.0 * stageMillis[stage] / totalMillis));
+        }
+        return listing.toString();
+    }
+
+    public String toString() {
+        return "Expected to take " + format(totalMillis) + " over " + commands + " commands";
+    }
+
+    /**
+     * @return time as h:mm:ss, or m:ss under an hour
+     */
+    public static String format(long millis) {
+        long seconds = Math.max(0, (millis + 500) / 1000);
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+}
@@ -0,0 +1,111 @@
+package main.model.tasks.estimation;
+
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.basictasks.MultiTask;
+import main.model.tasks.execution.ExecutionCursor;
+import main.model.tasks.optimization.PeepholeOptimizer;
+import main.model.tasks.taskvisitors.ITaskVisitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Works out how long an experiment will take before it is run, by compiling it the way a run would and costing every
+ * command with a MotionModel. Stages are costed one after the other, with the arm, pump and nozzle carried over, so
+ * the per stage times add up to the total.
+ *
+ * Like a run, a stage is compiled a chunk at a time through an ExecutionCursor and each step is costed as the cursor
+ * gets to it, so no plan of the whole stage is ever built, however big a loop it holds.
+ */
+public class DurationEstimator {
+
+    private final ITaskVisitor compiler;
+    private final MotionModel model;
+
+    /**
+     * Cleans up each stage's commands first if set, as the run would.
+     */
+    private PeepholeOptimizer optimizer;
+
+    /**
+     * @param compiler - visitor compiling a leaf into an ExecutionPlan.Builder, see PlanCompileVisitor
+     * @param model - cost of each command
+     */
+    public DurationEstimator(ITaskVisitor compiler, MotionModel model) {
+        this.compiler = compiler;
+        this.model = model;
+    }
+
+    /**
+     * @param optimizer - peephole pass the run will put its commands through, null for none
+     */
+    public void setOptimizer(PeepholeOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Estimates an experiment stage by stage. A multitask's children are its stages; anything else is a single stage.
+     * @param start - where the device is before the experiment, left untouched
+     */
+    public DurationEstimate estimate(IExecuteTask experiment, MotionModel.State start) {
+        List<IExecuteTask> stages = new ArrayList<IExecuteTask>();
+        if (experiment instanceof MultiTask) {
+            for (int i = 0; i < experiment.getChildCount(); i++) {
+                stages.add((IExecuteTask) experiment.getChildAt(i));
+            }
+        }
+        else {
+            stages.add(experiment);
+        }
+        return estimate(stages, start);
+    }
+
+    /**
+     * Estimates stages run one after the other.
+     * @param start - where the device is before the first stage, left untouched
+     */
+    public DurationEstimate estimate(List<IExecuteTask> stages, MotionModel.State start) {
+        MotionModel.State state = start.copy();
+        long[] millis = new long[stages.size()];
+        int commands = 0;
+        for (int stage = 0; stage < stages.size(); stage++) {
+            ExecutionCursor steps = steps(stages.get(stage));
+            double stageMillis = 0;
+            while (steps.hasNext()) {
+                stageMillis += model.millis(steps.peekType(0), steps.peekOperand0(0), steps.peekOperand1(0), state);
+                steps.skipNext();
+                commands++;
+            }
+            millis[stage] = Math.round(stageMillis);
+        }
+        return new DurationEstimate(stages, millis, commands);
+    }
+
+    /**
+     * @return expected time for a single task from a device that hasn't done anything yet, in ms
+     */
+    public long estimateMillis(IExecuteTask task) {
+        MotionModel.State state = new MotionModel.State();
+        ExecutionCursor steps = steps(task);
+        double millis = 0;
+        while (steps.hasNext()) {
+            millis += model.millis(steps.peekType(0), steps.peekOperand0(0), steps.peekOperand1(0), state);
+            steps.skipNext();
+        }
+        return Math.round(millis);
+    }
+
+    /**
+     * @return cursor over the commands of the task, compiled as it gets to them
+     */
+    private ExecutionCursor steps(IExecuteTask task) {
+        ExecutionCursor steps = new ExecutionCursor(compiler);
+        steps.setOptimizer(optimizer);
+        steps.append(task);
+        return steps;
+    }
+
+    public MotionModel getModel() {
+        return model;
+    }
+}
@@ -0,0 +1,304 @@
+package main.model.tasks.estimation;
+
+import main.model.serial.protocol.CommandType;
+import main.model.tasks.execution.ExecutionPlan;
+
+/**
+ * How long the device takes to carry out each command. Moves and dispenses follow a trapezoidal velocity profile:
+ * speed up at a constant rate, cruise, slow down at the same rate, or just speed up and slow down if the distance is
+ * too short to reach full speed. Nozzle moves take a fixed time per servo step, delays take what they ask for, and
+ * every command has a fixed cost for the round trip to the device on top.
+ *
+ * The kinematic times are then scaled by coefficients that can be fitted to how long commands really took, see record
+ * and fit, so the model tracks the rig it is used on:
+ * time = perCommand + moveScale * moveTime + dispenseScale * dispenseTime + perNozzleStep * nozzleSteps + delay
+ */
+public class MotionModel {
+
+    /**
+     * Indices of the coefficients, and of the matching features a command is broken down into.
+     */
+    public static final int PER_COMMAND = 0, MOVE_SCALE = 1, DISPENSE_SCALE = 2, PER_NOZZLE_STEP = 3;
+    private static final int COEFFICIENTS = 4;
+
+    /**
+     * Coefficients before any fitting: 30 ms per round trip, kinematic times as they are, half a ms per servo step.
+     */
+    private static final double[] DEFAULTS = {30, 1, 1, 0.5};
+
+    /**
+     * Top speed of the arm in cm per second, and how fast it gets there in cm per second squared.
+     */
+    private static final double ARM_SPEED = 5, ARM_ACCELERATION = 20;
+
+    /**
+     * Pump speed in steps per second and acceleration in steps per second squared, until a run sets its own.
+     */
+    private static final double PUMP_SPEED = 1000, PUMP_ACCELERATION = 2000;
+
+    /**
+     * How strongly fitting keeps to the current coefficients, so a feature no sample exercised keeps its value.
+     */
+    private static final double PRIOR_WEIGHT = 1;
+
+    private final double[] coefficients;
+
+    /**
+     * Sums of the normal equations over every recorded sample, features times features and features times time.
+     */
+    private final double[][] featureProducts = new double[COEFFICIENTS][COEFFICIENTS];
+    private final double[] featureTimes = new double[COEFFICIENTS];
+    private int samples = 0, fittedFrom = 0;
+
+    public MotionModel() {
+        this(DEFAULTS);
+    }
+
+    /**
+     * @param coefficients - per command ms, move scale, dispense scale and ms per nozzle step, e.g. from an earlier
+     *                     fit; null for the defaults
+     */
+    public MotionModel(double[] coefficients) {
+        this.coefficients = coefficients != null && coefficients.length == COEFFICIENTS
+                ? coefficients.clone() : DEFAULTS.clone();
+    }
+
+    /**
+     * Works out how long a command takes from where the device is, and moves the state past it.
+     * @param state - where the arm, pump and nozzle are before the command, updated to after it
+     * @return expected time for the command, in ms
+     */
+    public double millis(CommandType type, int operand0, int operand1, State state) {
+        state.advance(type, operand0, operand1);
+        return predict(state.features, state.fixedMillis);
+    }
+
+    /**
+     * Works out how long a command takes as it is sent to the device, where a move is a distance to go rather than
+     * a place to go to.
+     * @param state - pump and nozzle before the command, updated to after it; the arm's position is left alone
+     * @return expected time for the command, in ms
+     */
+    public double wireMillis(CommandType type, int operand0, int operand1, State state) {
+        if (type != CommandType.MOVE) return millis(type, operand0, operand1, state);
+        double[] features = new double[COEFFICIENTS];
+        features[PER_COMMAND] = 1;
+        features[MOVE_SCALE] = trapezoidMillis(Math.hypot(operand0, operand1) / 100, ARM_SPEED, ARM_ACCELERATION);
+        return predict(features, 0);
+    }
+
+    /**
+     * @return expected time in ms for a command broken down into the given features, plus a part the model doesn't
+     * scale, e.g. the length of a delay
+     */
+    public synchronized double predict(double[] features, double fixedMillis) {
+        double millis = fixedMillis;
+        for (int i = 0; i < COEFFICIENTS; i++) {
+            millis += coefficients[i] * features[i];
+        }
+        return millis;
+    }
+
+    /**
+     * @return expected time for every step of a plan in turn, from the given state, in ms
+     */
+    public double planMillis(ExecutionPlan plan, State state) {
+        double millis = 0;
+        for (int step = 0; step < plan.size(); step++) {
+            millis += millis(plan.getType(step), plan.getOperand0(step), plan.getOperand1(step), state);
+        }
+        return millis;
+    }
+
+    /**
+     * Adds how long a command really took to the samples the next fit is made from.
+     * @param features - the command broken down into features, see State.getFeatures
+     * @param fixedMillis - part of the time the model doesn't scale, taken off before fitting
+     * @param measuredMillis - time from the device starting the command to acknowledging it
+     */
+    public synchronized void record(double[] features, double fixedMillis, double measuredMillis) {
+        double scaled = measuredMillis - fixedMillis;
+        for (int i = 0; i < COEFFICIENTS; i++) {
+            for (int j = 0; j < COEFFICIENTS; j++) {
+                featureProducts[i][j] += features[i] * features[j];
+            }
+            featureTimes[i] += features[i] * scaled;
+        }
+        samples++;
+    }
+
+    /**
+     * Refits the coefficients to every sample recorded so far, by least squares pulled gently towards the current
+     * coefficients. Coefficients never go negative.
+     * @return true if there were new samples to fit to
+     */
+    public synchronized boolean fit() {
+        if (samples == fittedFrom) return false;
+
+        //augmented matrix of the normal equations, each diagonal weighted towards the current value
+        double[][] system = new double[COEFFICIENTS][COEFFICIENTS + 1];
+        for (int i = 0; i < COEFFICIENTS; i++) {
+            System.arraycopy(featureProducts[i], 0, system[i], 0, COEFFICIENTS);
+            system[i][i] += PRIOR_WEIGHT;
+            system[i][COEFFICIENTS] = featureTimes[i] + PRIOR_WEIGHT * coefficients[i];
+        }
+
+        //gaussian elimination with partial pivoting, the prior keeps it from being singular
+        for (int column = 0; column < COEFFICIENTS; column++) {
+            int pivot = column;
+            for (int row = column + 1; row < COEFFICIENTS; row++) {
+                if (Math.abs(system[row][column]) > Math.abs(system[pivot][column])) pivot = row;
+            }
+            double[] swap = system[column];
+            system[column] = system[pivot];
+            system[pivot] = swap;
+            for (int row = column + 1; row < COEFFICIENTS; row++) {
+                double factor = system[row][column] / system[column][column];
+                for (int k = column; k <= COEFFICIENTS; k++) {
+                    system[row][k] -= factor * system[column][k];
+                }
+            }
+        }
+        double[] fitted = new double[COEFFICIENTS];
+        for (int row = COEFFICIENTS - 1; row >= 0; row--) {
+            double sum = system[row][COEFFICIENTS];
+            for (int k = row + 1; k < COEFFICIENTS; k++) {
+                sum -= system[row][k] * fitted[k];
+            }
+            fitted[row] = sum / system[row][row];
+        }
+
+        for (int i = 0; i < COEFFICIENTS; i++) {
+            coefficients[i] = Math.max(0, fitted[i]);
+        }
+        fittedFrom = samples;
+        return true;
+    }
+
+    /**
+     * @return copy of the coefficients: per command ms, move scale, dispense scale and ms per nozzle step
+     */
+    public synchronized double[] getCoefficients() {
+        return coefficients.clone();
+    }
+
+    /**
+     * @return number of measured commands recorded
+     */
+    public synchronized int getSamples() {
+        return samples;
+    }
+
+    public synchronized String toString() {
+        return String.format("Motion model: %.1f ms per command, moves x%.2f, dispenses x%.2f, %.2f ms per nozzle step "
+                        + "(fitted to %d acknowledgements)", coefficients[PER_COMMAND], coefficients[MOVE_SCALE],
+                coefficients[DISPENSE_SCALE], coefficients[PER_NOZZLE_STEP], fittedFrom);
+    }
+
+    /**
+     * @return time in ms to cover a distance starting and ending at rest, speeding up and slowing down at the given
+     * rate and never going faster than the given speed
+     */
+    public static double trapezoidMillis(double distance, double speed, double acceleration) {
+        if (distance <= 0 || speed <= 0 || acceleration <= 0) return 0;
+        //distance covered speeding up to full speed and slowing back down
+        double rampDistance = speed * speed / acceleration;
+        if (distance < rampDistance) {
+            return 2 * Math.sqrt(distance / acceleration) * 1000;
+        }
+        return (distance / speed + speed / acceleration) * 1000;
+    }
+
+    /**
+     * Where the arm, pump and nozzle are as a run goes along, and the breakdown of the last command into features.
+     */
+    public static class State {
+        private int x, y, nozzle;
+        private boolean positioned = false, nozzleKnown = false;
+        private double pumpSpeed = PUMP_SPEED, pumpAcceleration = PUMP_ACCELERATION;
+
+        private final double[] features = new double[COEFFICIENTS];
+        private double fixedMillis;
+
+        /**
+         * State of a device that hasn't done anything yet: the first move is free since there's no telling where the
+         * arm starts, as is the first nozzle move.
+         */
+        public State() {
+        }
+
+        /**
+         * @param x - x of the arm in hundredths of a cm
+         * @param y - y of the arm in hundredths of a cm
+         */
+        public State(int x, int y) {
+            this.x = x;
+            this.y = y;
+            positioned = true;
+        }
+
+        public State copy() {
+            State copy = new State();
+            copy.x = x;
+            copy.y = y;
+            copy.nozzle = nozzle;
+            copy.positioned = positioned;
+            copy.nozzleKnown = nozzleKnown;
+            copy.pumpSpeed = pumpSpeed;
+            copy.pumpAcceleration = pumpAcceleration;
+            return copy;
+        }
+
+        private void advance(CommandType type, int operand0, int operand1) {
+            features[PER_COMMAND] = 1;
+            features[MOVE_SCALE] = 0;
+            features[DISPENSE_SCALE] = 0;
+            features[PER_NOZZLE_STEP] = 0;
+            fixedMillis = 0;
+            if (type == null) return;
+
+            switch (type) {
+                case MOVE:
+                    if (positioned) {
+                        double cm = Math.hypot(operand0 - x, operand1 - y) / 100;
+                        features[MOVE_SCALE] = trapezoidMillis(cm, ARM_SPEED, ARM_ACCELERATION);
+                    }
+                    x = operand0;
+                    y = operand1;
+                    positioned = true;
+                    break;
+                case DISPENSE:
+                    features[DISPENSE_SCALE] = trapezoidMillis(Math.abs(operand0), pumpSpeed, pumpAcceleration);
+                    break;
+                case NOZZLE_HEIGHT:
+                    if (nozzleKnown) features[PER_NOZZLE_STEP] = Math.abs(operand0 - nozzle);
+                    nozzle = operand0;
+                    nozzleKnown = true;
+                    break;
+                case PUMP_PARAMS:
+                    if (operand0 > 0) pumpSpeed = operand0;
+                    if (operand1 > 0) pumpAcceleration = operand1;
+                    break;
+                case DELAY:
+                    fixedMillis = Math.max(0, operand0);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * @return the last command broken down into features, copied so the state can move on
+         */
+        public double[] getFeatures() {
+            return features.clone();
+        }
+
+        /**
+         * @return part of the last command's time the model doesn't scale, in ms
+         */
+        public double getFixedMillis() {
+            return fixedMillis;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package main.model.tasks.estimation;
+
+import main.model.serial.protocol.CommandType;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps track of how much of a run is left while it goes, and times each command as it is acknowledged so the motion
+ * model can be fitted to the rig. Commands are acknowledged in the order they were sent, so the device starts on a
+ * command once it was sent and the one before it was acknowledged, and the time from then to its own acknowledgement
+ * is how long it took.
+ *
+ * Not thread safe, calls are expected under the lock of whatever is running.
+ */
+public class RunProgress {
+
+    private final MotionModel model;
+
+    /**
+     * Where the device will be once every command sent so far is done.
+     */
+    private final MotionModel.State state;
+
+    /**
+     * Commands sent and not acknowledged yet, oldest first.
+     */
+    private final ArrayDeque<Sent> inFlight = new ArrayDeque<Sent>();
+
+    /**
+     * Expected time for the whole run, and for the part not acknowledged or skipped yet, in ms. Both count from 0 until
+     * the run is estimated.
+     */
+    private long totalMillis = 0;
+    private double remainingMillis = 0;
+
+    /**
+     * When the last command was acknowledged, in ns.
+     */
+    private long lastAcknowledged = 0;
+
+    /**
+     * @param model - model to cost commands with and record their measured times into
+     * @param state - where the device is as the run starts, updated as commands are sent
+     * @param totalMillis - expected time for the whole run, see DurationEstimator
+     */
+    public RunProgress(MotionModel model, MotionModel.State state, long totalMillis) {
+        this(model, state);
+        estimated(totalMillis);
+    }
+
+    /**
+     * For a run that starts before it is estimated, see estimated.
+     * @param model - model to cost commands with and record their measured times into
+     * @param state - where the device is as the run starts, updated as commands are sent
+     */
+    public RunProgress(MotionModel model, MotionModel.State state) {
+        this.model = model;
+        this.state = state;
+    }
+
+    /**
+     * Sets the expected time for the whole run, once it is known. Whatever was acknowledged or skipped before then is
+     * already taken off what is left.
+     * @param totalMillis - expected time for the whole run, see DurationEstimator
+     */
+    public void estimated(long totalMillis) {
+        remainingMillis += totalMillis - this.totalMillis;
+        this.totalMillis = totalMillis;
+    }
+
+    /**
+     * Called as a command goes out to the device.
+     */
+    public void sent(CommandType type, int operand0, int operand1) {
+        double expected = model.millis(type, operand0, operand1, state);
+        inFlight.addLast(new Sent(expected, state.getFeatures(), state.getFixedMillis(), System.nanoTime()));
+    }
+
+    /**
+     * Called for a command the host carries out itself instead of sending, e.g. a delay waited out on the host.
+     */
+    public void skipped(CommandType type, int operand0, int operand1) {
+        remainingMillis -= model.millis(type, operand0, operand1, state);
+    }
+
+    /**
+     * Called as the device acknowledges the oldest command in flight, recording how long it took.
+     */
+    public void acknowledged() {
+        Sent done = inFlight.pollFirst();
+        if (done == null) return;
+        long now = System.nanoTime();
+        long started = Math.max(done.sentNanos, lastAcknowledged);
+        lastAcknowledged = now;
+        model.record(done.features, done.fixedMillis, (now - started) / 1e6);
+        remainingMillis -= done.expectedMillis;
+    }
+
+    /**
+     * @return expected time left in the run, in ms
+     */
+    public long getRemainingMillis() {
+        return Math.max(0, Math.round(remainingMillis));
+    }
+
+    /**
+     * @return expected time for the whole run, in ms
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public String toString() {
+        return DurationEstimate.format(getRemainingMillis()) + " left of an expected " + DurationEstimate.format(totalMillis);
+    }
+
+    private static class Sent {
+        private final double expectedMillis;
+        private final double[] features;
+        private final double fixedMillis;
+        private final long sentNanos;
+
+        private Sent(double expectedMillis, double[] features, double fixedMillis, long sentNanos) {
+            this.expectedMillis = expectedMillis;
+            this.features = features;
+            this.fixedMillis = fixedMillis;
+            this.sentNanos = sentNanos;
+        }
+    }
+}
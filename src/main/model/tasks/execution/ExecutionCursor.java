@@ -0,0 +1,291 @@
+package main.model.tasks.execution;
+
+import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.CommandType;
+import main.model.tasks.basictasks.ALeafTask;
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.optimization.PeepholeOptimizer;
+import main.model.tasks.taskvisitors.ITaskVisitor;
+
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Position within a run. A run is one or more task trees sent back to back: the experiment the run was started with,
+ * followed by whatever was appended while it was going. Trees are walked and compiled a chunk of leaves at a time as
+ * the cursor gets to them, so the first command can go out straight away and a run only ever holds the chunk being
+ * sent, the chunks peeked at, and a stack as deep as the tree.
+ *
+ * Since trees are compiled as the cursor reaches them, edits to parts of a tree the run hasn't reached yet are picked
+ * up by the run.
+ */
+public class ExecutionCursor {
+
+    /**
+     * Number of leaves compiled at a time.
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Visitor that compiles a single leaf into a plan builder.
+     */
+    private final ITaskVisitor compiler;
+
+    /**
+     * Walks over trees appended to the run and not yet fully compiled, in order.
+     */
+    private final ArrayDeque<LeafIterator> uncompiled = new ArrayDeque<LeafIterator>();
+
+    /**
+     * Compiled chunks that have steps left to send, the first being the one sending.
+     */
+    private final ArrayDeque<ExecutionPlan> compiled = new ArrayDeque<ExecutionPlan>();
+
+    /**
+     * Index of the next step within the first compiled chunk.
+     */
+    private int step = 0;
+
+    /**
+     * Number of compiled steps not sent yet.
+     */
+    private int compiledAhead = 0;
+
+    /**
+     * Number of steps sent so far over the whole run.
+     */
+    private int position = 0;
+
+    /**
+     * Running fingerprint over every step compiled so far.
+     */
+    private long fingerprint = ExecutionPlan.EMPTY_FINGERPRINT;
+
+    /**
+     * Running fingerprint over every step sent or skipped so far.
+     */
+    private long sentFingerprint = ExecutionPlan.EMPTY_FINGERPRINT;
+
+    /**
+     * Pass each chunk goes through once compiled, or null to send chunks as compiled.
+     */
+    private PeepholeOptimizer optimizer;
+
+    /**
+     * Chunk the last locate call landed in.
+     */
+    private ExecutionPlan located;
+
+    /**
+     * @param compiler - visitor compiling a leaf into an ExecutionPlan.Builder, see PlanCompileVisitor
+     */
+    public ExecutionCursor(ITaskVisitor compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Queues a task to be sent after everything already in the run. Nothing is walked or compiled until the cursor
+     * gets to it.
+     */
+    public void append(IExecuteTask task) {
+        uncompiled.add(new LeafIterator(task));
+    }
+
+    /**
+     * Puts every chunk compiled from here on through a peephole pass before it is sent. The fingerprint then covers
+     * the steps actually sent. Commands are only merged within a chunk, never across two.
+     * @param optimizer - optimizer for this run only, or null to stop optimizing
+     */
+    public void setOptimizer(PeepholeOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * @return optimizer chunks are put through, null if there isn't one
+     */
+    public PeepholeOptimizer getOptimizer() {
+        return optimizer;
+    }
+
+    /**
+     * @return true if there are steps left to send
+     */
+    public boolean hasNext() {
+        return ensureCompiled(0);
+    }
+
+    /**
+     * Sends the next step and moves past it.
+     * @param armState - where the arm is before the step
+     * @param outputStream - stream to the device, or null to just print what would have been sent
+     */
+    public void sendNext(ArmState armState, OutputStream outputStream) {
+        if (!ensureCompiled(0)) throw new NoSuchElementException("Nothing left to send in this run.");
+
+        ExecutionPlan plan = compiled.peekFirst();
+        plan.send(step, armState, outputStream);
+        sentFingerprint = plan.fingerprintStep(sentFingerprint, step);
+        position++;
+        compiledAhead--;
+        if (++step == plan.size()) {
+            compiled.pollFirst();
+            step = 0;
+        }
+    }
+
+    /**
+     * Moves past the next step without sending it, for steps the host carries out itself, e.g. a delay waited out
+     * on the host. Counts as sent for getPosition.
+     */
+    public void skipNext() {
+        if (!ensureCompiled(0)) throw new NoSuchElementException("Nothing left to skip in this run.");
+
+        ExecutionPlan plan = compiled.peekFirst();
+        sentFingerprint = plan.fingerprintStep(sentFingerprint, step);
+        position++;
+        compiledAhead--;
+        if (++step == plan.size()) {
+            compiled.pollFirst();
+            step = 0;
+        }
+    }
+
+    /**
+     * @return number of steps sent so far
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return number of steps compiled and waiting to be sent; the run may have more that aren't compiled yet
+     */
+    public int getCompiledAhead() {
+        return compiledAhead;
+    }
+
+    /**
+     * @return true once every tree in the run has been compiled, at which point getCompiledAhead is all that is left
+     */
+    public boolean isFullyCompiled() {
+        return uncompiled.isEmpty();
+    }
+
+    /**
+     * @return fingerprint over every step compiled so far, the same as the fingerprint of the run compiled as one plan
+     * once it is fully compiled
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return fingerprint over every step sent or skipped so far, built up a step at a time so it only depends on the
+     * steps and not on how they were chunked or appended. Journaled with each step, to check a resumed run has done
+     * the same steps.
+     */
+    public long getSentFingerprint() {
+        return sentFingerprint;
+    }
+
+    /**
+     * @param ahead - how many steps past the next one to look, 0 being the next step
+     * @return command of that step, or null if the run doesn't go that far
+     */
+    public CommandType peekType(int ahead) {
+        int index = locate(ahead);
+        return index < 0 ? null : located.getType(index);
+    }
+
+    /**
+     * @param ahead - how many steps past the next one to look, 0 being the next step
+     * @return first operand of that step, e.g. the time of a delay, or 0 if the run doesn't go that far
+     */
+    public int peekOperand0(int ahead) {
+        int index = locate(ahead);
+        return index < 0 ? 0 : located.getOperand0(index);
+    }
+
+    /**
+     * @param ahead - how many steps past the next one to look, 0 being the next step
+     * @return second operand of that step, or 0 if the run doesn't go that far
+     */
+    public int peekOperand1(int ahead) {
+        int index = locate(ahead);
+        return index < 0 ? 0 : located.getOperand1(index);
+    }
+
+    /**
+     * @param ahead - how many steps past the next one to look, 0 being the next step
+     * @return task that step was compiled from, or null if the run doesn't go that far
+     */
+    public ALeafTask peekSource(int ahead) {
+        int index = locate(ahead);
+        return index < 0 ? null : located.getSource(index);
+    }
+
+    /**
+     * @param ahead - how many steps past the next one to look, 0 being the next step
+     * @return readable form of that step, or null if the run doesn't go that far
+     */
+    public String peekDescription(int ahead) {
+        int index = locate(ahead);
+        return index < 0 ? null : located.describeStep(index);
+    }
+
+    /**
+     * Finds which chunk, and which step in it, lies the given distance ahead, compiling as far as needed.
+     * @return index of the step within the chunk left in located, or -1 if the run doesn't go that far
+     */
+    private int locate(int ahead) {
+        if (ahead < 0 || !ensureCompiled(ahead)) return -1;
+        int index = step + ahead;
+        Iterator<ExecutionPlan> chunks = compiled.iterator();
+        located = chunks.next();
+        while (index >= located.size()) {
+            index -= located.size();
+            located = chunks.next();
+        }
+        return index;
+    }
+
+    /**
+     * Compiles chunks until the step the given distance ahead is compiled.
+     * @return false if the run ends before that step
+     */
+    private boolean ensureCompiled(int ahead) {
+        while (compiledAhead <= ahead) {
+            if (!compileChunk()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles up to a chunk's worth of leaves from the first tree that still has some.
+     * @return false if there was nothing left to compile
+     */
+    private boolean compileChunk() {
+        LeafIterator leaves = uncompiled.peekFirst();
+        if (leaves == null) return false;
+
+        ExecutionPlan.Builder builder = new ExecutionPlan.Builder(fingerprint);
+        for (int i = 0; i < CHUNK_SIZE && leaves.hasNext(); i++) {
+            ALeafTask leaf = leaves.next();
+            leaf.executeVisitor(compiler, builder, leaves.getBindings());
+        }
+        if (!leaves.hasNext()) uncompiled.pollFirst();
+
+        ExecutionPlan chunk = builder.build();
+        if (optimizer != null) {
+            chunk = optimizer.optimize(chunk, new ExecutionPlan.Builder(fingerprint));
+        }
+        fingerprint = chunk.getFingerprint();
+        if (chunk.size() > 0) {
+            compiled.add(chunk);
+            compiledAhead += chunk.size();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,351 @@
+package main.model.tasks.execution;
+
+import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.CommandType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Append-only record of a run on disk, so a run cut short by a crash or a dropped link can be picked back up where
+ * the device left off. The journal holds how the run's commands were put together, then a record for every command as
+ * it is sent and as it is acknowledged, along with where the arm and nozzle are once it is done and a fingerprint of
+ * every step up to and including it. The fingerprint is built up as the steps go out, so nothing has to be compiled
+ * ahead of the run for it, and a resume can check it is about to skip the same steps the device already did.
+ *
+ * The file is memory mapped, so a record is on its way to disk as soon as it is written and survives the program
+ * dying. Making sure it survives the machine dying too means forcing the mapping out, which is slow, so that is done
+ * for a group of records at a time: once enough have built up or enough time has gone by, and when the run ends.
+ *
+ * Records are a fixed size with a checksum, so reading a journal back stops cleanly at a record that was only half
+ * written.
+ */
+public class ExecutionJournal {
+
+    /**
+     * First bytes of every journal file.
+     */
+    private static final long MAGIC = 0x504950524a524e32L;
+
+    /**
+     * Record kinds. The run's flags and where it started come first, then sent and acknowledged commands, then the end
+     * once the run is over.
+     */
+    private static final int START = 1, ORIGIN = 2, SENT = 3, ACKNOWLEDGED = 4, END = 5;
+
+    /**
+     * Flags of the run, saying how its commands were put together so a resume can do the same.
+     */
+    public static final int PEEPHOLE = 1, OPTIMIZE_TRAVEL = 2;
+
+    private static final int HEADER_BYTES = 8, RECORD_BYTES = 32, INITIAL_BYTES = 1 << 20;
+
+    /**
+     * Force the mapping out once this many records are waiting, or once this long has gone by since the last time.
+     */
+    private static final int GROUP_RECORDS = 256;
+    private static final long GROUP_NANOS = 50 * 1000000L;
+
+    /**
+     * Nozzle height for a nozzle that hasn't been moved yet.
+     */
+    public static final int UNKNOWN_NOZZLE = -1;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Number of records written and not forced out yet, and when they last were.
+     */
+    private int unforced = 0;
+    private long lastForced = System.nanoTime();
+
+    /**
+     * Position, arm x and y in hundredths of a cm, nozzle height and fingerprint of the steps so far after each
+     * command sent and not acknowledged yet.
+     */
+    private final ArrayDeque<long[]> inFlight = new ArrayDeque<long[]>();
+
+    /**
+     * Where the nozzle was last sent to.
+     */
+    private int nozzle = UNKNOWN_NOZZLE;
+
+    //what was read back from the file, or written to it so far
+    private int flags = 0;
+    private boolean started = false;
+    private long resumeFingerprint = ExecutionPlan.EMPTY_FINGERPRINT;
+    private int originX, originY;
+    private int acknowledged = 0, armX, armY;
+    private boolean moved = false, finished = false;
+
+    private ExecutionJournal(File path, boolean truncate) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        if (truncate) file.setLength(0);
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_BYTES, channel.size()));
+    }
+
+    /**
+     * Starts a new journal for a run, replacing whatever the file held.
+     * @param flags - how the run's commands are put together, see PEEPHOLE and OPTIMIZE_TRAVEL
+     * @param armState - where the arm is as the run starts, null for the origin
+     */
+    public static ExecutionJournal create(File path, int flags, ArmState armState) throws IOException {
+        ExecutionJournal journal = new ExecutionJournal(path, true);
+        journal.buffer.putLong(0, MAGIC);
+        journal.buffer.position(HEADER_BYTES);
+        journal.append(START, flags, 0, 0, 0, 0);
+        journal.append(ORIGIN, 0, armState == null ? 0 : hundredths(armState.getX()),
+                armState == null ? 0 : hundredths(armState.getY()), UNKNOWN_NOZZLE, 0);
+        journal.read();
+        journal.force();
+        return journal;
+    }
+
+    /**
+     * Opens the journal of an earlier run, to read where it got to and carry on writing it.
+     * @throws IOException if the file isn't a journal or doesn't say how the run started
+     */
+    public static ExecutionJournal open(File path) throws IOException {
+        if (!path.isFile()) throw new IOException("No journal at " + path);
+        ExecutionJournal journal = new ExecutionJournal(path, false);
+        if (journal.buffer.getLong(0) != MAGIC) {
+            journal.close();
+            throw new IOException(path + " is not a run journal.");
+        }
+        journal.read();
+        if (!journal.started) {
+            journal.close();
+            throw new IOException(path + " doesn't say what run it was for.");
+        }
+        return journal;
+    }
+
+    /**
+     * Reads back every whole record, leaving the buffer where the next one goes.
+     */
+    private void read() {
+        int at = HEADER_BYTES;
+        while (at + RECORD_BYTES <= buffer.capacity()) {
+            int kind = buffer.getInt(at);
+            int position = buffer.getInt(at + 4);
+            int x = buffer.getInt(at + 8);
+            int y = buffer.getInt(at + 12);
+            int height = buffer.getInt(at + 16);
+            long fingerprint = buffer.getLong(at + 20);
+            if (kind == 0 || buffer.getInt(at + 28) != checksum(kind, position, x, y, height, fingerprint)) break;
+
+            switch (kind) {
+                case START:
+                    flags = position;
+                    started = true;
+                    break;
+                case ORIGIN:
+                    originX = x;
+                    originY = y;
+                    break;
+                case ACKNOWLEDGED:
+                    acknowledged = position + 1;
+                    if (x != Integer.MIN_VALUE) {
+                        armX = x;
+                        armY = y;
+                        moved = true;
+                    }
+                    nozzle = height;
+                    resumeFingerprint = fingerprint;
+                    break;
+                case END:
+                    finished = true;
+                    break;
+                default:
+                    break;
+            }
+            at += RECORD_BYTES;
+        }
+        buffer.position(at);
+    }
+
+    /**
+     * Records a command going out, or a step the host carries out itself.
+     * @param position - position of the step within the run, see ExecutionCursor.getPosition
+     * @param type - command sent
+     * @param operand0 - its first operand, for the height a nozzle command sets
+     * @param armState - where the arm is once the command is done
+     * @param fingerprint - fingerprint of every step of the run up to and including this one, see
+     * ExecutionCursor.getSentFingerprint
+     */
+    public void sent(int position, CommandType type, int operand0, ArmState armState, long fingerprint) {
+        if (type == CommandType.NOZZLE_HEIGHT) nozzle = operand0;
+        int x = armState == null ? Integer.MIN_VALUE : hundredths(armState.getX());
+        int y = armState == null ? Integer.MIN_VALUE : hundredths(armState.getY());
+        inFlight.addLast(new long[]{position, x, y, nozzle, fingerprint});
+        append(SENT, position, x, y, nozzle, fingerprint);
+    }
+
+    /**
+     * Records the oldest command in flight as done.
+     */
+    public void acknowledged() {
+        long[] done = inFlight.pollFirst();
+        if (done == null) return;
+        append(ACKNOWLEDGED, (int) done[0], (int) done[1], (int) done[2], (int) done[3], done[4]);
+        acknowledged = (int) done[0] + 1;
+        resumeFingerprint = done[4];
+    }
+
+    /**
+     * Records the run as over and forces everything out.
+     */
+    public void finished() {
+        append(END, acknowledged, 0, 0, 0, 0);
+        finished = true;
+        force();
+    }
+
+    private void append(int kind, int position, int x, int y, int height, long fingerprint) {
+        if (buffer.remaining() < 2 * RECORD_BYTES) grow();
+        int at = buffer.position();
+        buffer.position(at + 4);
+        buffer.putInt(position).putInt(x).putInt(y).putInt(height).putLong(fingerprint)
+                .putInt(checksum(kind, position, x, y, height, fingerprint));
+        //kind last, so a record only counts once the rest of it is there
+        buffer.putInt(at, kind);
+        buffer.position(at + RECORD_BYTES);
+        buffer.putInt(buffer.position(), 0);
+
+        unforced++;
+        if (unforced >= GROUP_RECORDS || System.nanoTime() - lastForced >= GROUP_NANOS) force();
+    }
+
+    /**
+     * Maps twice as much of the file, keeping where writing is up to.
+     */
+    private void grow() {
+        int at = buffer.position();
+        try {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * buffer.capacity());
+            buffer.position(at);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Makes sure every record written so far is on disk.
+     */
+    public void force() {
+        buffer.force();
+        unforced = 0;
+        lastForced = System.nanoTime();
+    }
+
+    /**
+     * Forces out what was written and lets go of the file.
+     */
+    public void close() {
+        force();
+        try {
+            channel.close();
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return position of the first step not acknowledged, where a resumed run should carry on from
+     */
+    public int getResumePosition() {
+        return acknowledged;
+    }
+
+    /**
+     * @return true once a command has been acknowledged along with where the arm was, otherwise getArmX and getArmY
+     * are where the run started
+     */
+    public boolean hasMoved() {
+        return moved;
+    }
+
+    /**
+     * @return x of the arm after the last acknowledged command, in hundredths of a cm
+     */
+    public int getArmX() {
+        return moved ? armX : originX;
+    }
+
+    /**
+     * @return y of the arm after the last acknowledged command, in hundredths of a cm
+     */
+    public int getArmY() {
+        return moved ? armY : originY;
+    }
+
+    /**
+     * @return height the nozzle was last set to by an acknowledged command, UNKNOWN_NOZZLE if it never was
+     */
+    public int getNozzle() {
+        return nozzle;
+    }
+
+    /**
+     * @return x of the arm as the run started, in hundredths of a cm
+     */
+    public int getOriginX() {
+        return originX;
+    }
+
+    /**
+     * @return y of the arm as the run started, in hundredths of a cm
+     */
+    public int getOriginY() {
+        return originY;
+    }
+
+    /**
+     * @return fingerprint of every step before the resume position, which a resumed run has to match before it skips
+     * them
+     */
+    public long getResumeFingerprint() {
+        return resumeFingerprint;
+    }
+
+    /**
+     * @return how the run's commands were put together, see PEEPHOLE and OPTIMIZE_TRAVEL
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return true if the run got to the end
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public String toString() {
+        return String.format("Run journal: %d step(s) acknowledged, fingerprint %016x%s", acknowledged,
+                resumeFingerprint, finished ? ", finished" : "");
+    }
+
+    private static int hundredths(double cm) {
+        return (int) Math.round(cm * 100);
+    }
+
+    private static int checksum(int kind, int position, int x, int y, int height, long fingerprint) {
+        int hash = 0x811c9dc5;
+        int[] values = {kind, position, x, y, height, (int) (fingerprint >>> 32), (int) fingerprint};
+        for (int value : values) {
+            hash = (hash ^ value) * 0x01000193;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,323 @@
+package main.model.tasks.execution;
+
+import main.model.plate.objects.ArmState;
+import main.model.serial.CommandOutputStream;
+import main.model.serial.protocol.AsciiCommandEncoder;
+import main.model.serial.protocol.CommandType;
+import main.model.tasks.basictasks.ALeafTask;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An experiment compiled down to exactly the commands that will be sent, built once before a run starts. Each step is
+ * an opcode and two fixed-point operands in flat arrays, with everything already resolved: moves hold the absolute
+ * position they go to in hundredths of a cm, dispenses hold pump steps, and so on. Sending a step is then just an
+ * array read, with no lookups or parsing.
+ *
+ * Moves are kept as absolute targets rather than distances so the plan doesn't care where the arm starts: the
+ * distance is taken against the arm when the step is sent. A plan never changes once built, so it can be inspected,
+ * compared by its fingerprint, and run again.
+ */
+public final class ExecutionPlan {
+
+    /**
+     * Fingerprint of a plan with nothing in it, and where the hash of a new plan starts unless told otherwise.
+     */
+    public static final long EMPTY_FINGERPRINT = 0xcbf29ce484222325L;
+
+    /**
+     * Opcode of each step, see CommandType.
+     */
+    private final int[] opcodes;
+
+    /**
+     * Two operands per step, the second one unused by commands that take fewer.
+     */
+    private final int[] operands;
+
+    /**
+     * Text of each raw step, null for every other step.
+     */
+    private final String[] texts;
+
+    /**
+     * Task each step was compiled from.
+     */
+    private final ALeafTask[] sources;
+
+    /**
+     * 64 bit hash over every opcode, operand and text in the plan.
+     */
+    private final long fingerprint;
+
+    private ExecutionPlan(Builder builder) {
+        int size = builder.size;
+        opcodes = Arrays.copyOf(builder.opcodes, size);
+        operands = Arrays.copyOf(builder.operands, 2 * size);
+        texts = Arrays.copyOf(builder.texts, size);
+        sources = Arrays.copyOf(builder.sources, size);
+        fingerprint = computeFingerprint(builder.seed);
+    }
+
+    /**
+     * @return number of commands in the plan
+     */
+    public int size() {
+        return opcodes.length;
+    }
+
+    public int getOpcode(int step) {
+        return opcodes[step];
+    }
+
+    public CommandType getType(int step) {
+        return CommandType.fromOpcode(opcodes[step]);
+    }
+
+    /**
+     * @return first operand of the step; for moves, the x position to go to in hundredths of a cm
+     */
+    public int getOperand0(int step) {
+        return operands[2 * step];
+    }
+
+    /**
+     * @return second operand of the step; for moves, the y position to go to in hundredths of a cm
+     */
+    public int getOperand1(int step) {
+        return operands[2 * step + 1];
+    }
+
+    /**
+     * @return text of a raw step, null for any other step
+     */
+    public String getText(int step) {
+        return texts[step];
+    }
+
+    /**
+     * @return task the step was compiled from
+     */
+    public ALeafTask getSource(int step) {
+        return sources[step];
+    }
+
+    /**
+     * @return 64 bit hash of the plan's contents, equal for plans that send the same commands. For a plan built as
+     * the continuation of another, the hash covers both, the same as if they had been built as one.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Sends a single step to the device, updating the arm's location if the step moves it.
+     * @param step - index of the step to send
+     * @param armState - where the arm is before the step
+     * @param outputStream - stream to the device, or null to just print what would have been sent
+     */
+    public void send(int step, ArmState armState, OutputStream outputStream) {
+        int opcode = opcodes[step];
+        int operand0 = operands[2 * step];
+        int operand1 = operands[2 * step + 1];
+
+        if (opcode == CommandType.MOVE.getOpcode()) {
+            //the device moves by a distance, positive towards the origin, so take it against where the arm is now
+            int xHundredths = (int) Math.round(armState.getX() * 100) - operand0;
+            int yHundredths = (int) Math.round(armState.getY() * 100) - operand1;
+            write(outputStream, CommandType.MOVE, xHundredths, yHundredths);
+            armState.setLocation(operand0 / 100.0, operand1 / 100.0);
+        }
+        else if (opcode == CommandType.RAW.getOpcode()) {
+            writeRaw(outputStream, texts[step]);
+        }
+        else {
+            write(outputStream, CommandType.fromOpcode(opcode), operand0, operand1);
+        }
+    }
+
+    /**
+     * @return readable listing of the plan, one step per line
+     */
+    public String describe() {
+        StringBuilder listing = new StringBuilder(toString()).append('\n');
+        for (int step = 0; step < size(); step++) {
+            listing.append(step).append(": ").append(describeStep(step))
+                    .append("    <- ").append(sources[step]).append('\n');
+        }
+        return listing.toString();
+    }
+
+    /**
+     * @return readable form of a single step
+     */
+    public String describeStep(int step) {
+        CommandType type = getType(step);
+        if (type == CommandType.MOVE) {
+            return "move to (" + getOperand0(step) / 100.0 + ", " + getOperand1(step) / 100.0 + ")";
+        }
+        if (type == CommandType.RAW) {
+            return texts[step];
+        }
+        return AsciiCommandEncoder.render(type, getOperand0(step), getOperand1(step));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof ExecutionPlan)) return false;
+        ExecutionPlan plan = (ExecutionPlan) other;
+        return fingerprint == plan.fingerprint && Arrays.equals(opcodes, plan.opcodes)
+                && Arrays.equals(operands, plan.operands) && Arrays.equals(texts, plan.texts);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    public String toString() {
+        return String.format("Execution plan of %d commands, fingerprint %016x", size(), fingerprint);
+    }
+
+    /**
+     * Carries a fingerprint on over a single step, the way the plan's own fingerprint is built, so steps hashed one at
+     * a time as they are sent come out the same as the plans they came from however those were split up.
+     * @param hash - fingerprint of everything before the step
+     * @param step - index of the step
+     */
+    public long fingerprintStep(long hash, int step) {
+        hash = mix(hash, opcodes[step]);
+        hash = mix(hash, operands[2 * step]);
+        hash = mix(hash, operands[2 * step + 1]);
+        if (texts[step] != null) {
+            for (int i = 0; i < texts[step].length(); i++) {
+                hash = mix(hash, texts[step].charAt(i));
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * FNV-1a over the opcodes, operands and raw texts, carrying on from the given hash.
+     */
+    private long computeFingerprint(long seed) {
+        long hash = seed;
+        for (int step = 0; step < opcodes.length; step++) {
+            hash = fingerprintStep(hash, step);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash ^= (value >>> shift) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void write(OutputStream outputStream, CommandType type, int operand0, int operand1) {
+        try {
+            if (outputStream instanceof CommandOutputStream) {
+                ((CommandOutputStream) outputStream).writeCommand(type, operand0, operand1);
+            }
+            else if (outputStream == null) {
+                System.out.println("No stream selected, but would have sent: "
+                        + AsciiCommandEncoder.render(type, operand0, operand1));
+            }
+            else {
+                outputStream.write(AsciiCommandEncoder.render(type, operand0, operand1).getBytes());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeRaw(OutputStream outputStream, String text) {
+        try {
+            if (outputStream instanceof CommandOutputStream) {
+                ((CommandOutputStream) outputStream).writeRaw(text);
+            }
+            else if (outputStream == null) {
+                System.out.println("No stream selected, but would have sent: " + text);
+            }
+            else {
+                outputStream.write(text.getBytes());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Collects steps one at a time and then freezes them into a plan.
+     */
+    public static class Builder {
+        private int[] opcodes = new int[64];
+        private int[] operands = new int[128];
+        private String[] texts = new String[64];
+        private ALeafTask[] sources = new ALeafTask[64];
+        private int size = 0;
+        private final long seed;
+
+        /**
+         * Starts a plan of its own.
+         */
+        public Builder() {
+            this(EMPTY_FINGERPRINT);
+        }
+
+        /**
+         * Starts a plan that carries on from another, so the fingerprint covers both.
+         * @param previousFingerprint - fingerprint of the plan this one follows
+         */
+        public Builder(long previousFingerprint) {
+            this.seed = previousFingerprint;
+        }
+
+        /**
+         * Adds a command. For moves, the operands are the absolute position to go to in hundredths of a cm.
+         */
+        public Builder add(CommandType type, int operand0, int operand1, ALeafTask source) {
+            return addStep(type.getOpcode(), operand0, operand1, null, source);
+        }
+
+        /**
+         * Adds a raw, user-written command.
+         */
+        public Builder addRaw(String text, ALeafTask source) {
+            return addStep(CommandType.RAW.getOpcode(), 0, 0, text, source);
+        }
+
+        /**
+         * @return number of steps added so far
+         */
+        public int size() {
+            return size;
+        }
+
+        public ExecutionPlan build() {
+            return new ExecutionPlan(this);
+        }
+
+        private Builder addStep(int opcode, int operand0, int operand1, String text, ALeafTask source) {
+            if (size == opcodes.length) {
+                int capacity = 2 * size;
+                opcodes = Arrays.copyOf(opcodes, capacity);
+                operands = Arrays.copyOf(operands, 2 * capacity);
+                texts = Arrays.copyOf(texts, capacity);
+                sources = Arrays.copyOf(sources, capacity);
+            }
+            opcodes[size] = opcode;
+            operands[2 * size] = operand0;
+            operands[2 * size + 1] = operand1;
+            texts[size] = text;
+            sources[size] = source;
+            size++;
+            return this;
+        }
+    }
+}
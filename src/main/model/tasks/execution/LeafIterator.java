@@ -0,0 +1,189 @@
+package main.model.tasks.execution;
+
+import main.model.tasks.basictasks.ALeafTask;
+import main.model.tasks.basictasks.Bindings;
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.basictasks.LoopTask;
+import main.model.tasks.basictasks.TaskParam;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks a task tree depth first and hands back its leaves in execution order, one at a time, without building a list
+ * of them. Uses an explicit stack with one frame per level it is inside, so it only ever holds as much as the tree is
+ * deep. A loop's children are walked once per pass with the loop's variable bound to that pass's value; the leaves
+ * handed back are the tree's own, never copies, and getBindings says what their variables stand for.
+ *
+ * Each composite's child count is read when the walk first enters it, and children added after that are not visited.
+ * That way tasks appended to the root during a run aren't picked up twice: they get queued on their own instead.
+ */
+public class LeafIterator implements Iterator<ALeafTask> {
+
+    /**
+     * Composite task of each frame.
+     */
+    private IExecuteTask[] parents = new IExecuteTask[8];
+
+    /**
+     * Index of the next child to visit in each frame.
+     */
+    private int[] nextChild = new int[8];
+
+    /**
+     * Number of children each frame's composite had when the walk entered it.
+     */
+    private int[] childCount = new int[8];
+
+    /**
+     * Values of the variable of each loop frame, one per pass, null for other frames.
+     */
+    private TaskParam[][] passValues = new TaskParam[8][];
+
+    /**
+     * Pass each loop frame is on.
+     */
+    private int[] pass = new int[8];
+
+    /**
+     * Bindings in force inside each frame.
+     */
+    private Bindings[] scopes = new Bindings[8];
+
+    /**
+     * Number of frames on the stack.
+     */
+    private int depth = 0;
+
+    /**
+     * Next leaf to hand back, found ahead of time so hasNext can answer, and the bindings in force for it.
+     */
+    private ALeafTask next;
+    private Bindings nextBindings = Bindings.NONE;
+
+    /**
+     * Bindings in force for the leaf last handed back.
+     */
+    private Bindings bindings = Bindings.NONE;
+
+    /**
+     * @param root - task to walk, either a single leaf or a composite
+     */
+    public LeafIterator(IExecuteTask root) {
+        if (root instanceof ALeafTask) {
+            next = (ALeafTask) root;
+        }
+        else {
+            push(root);
+            next = findNext();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public ALeafTask next() {
+        if (next == null) throw new NoSuchElementException();
+        ALeafTask leaf = next;
+        bindings = nextBindings;
+        next = findNext();
+        return leaf;
+    }
+
+    /**
+     * @return values of the variables of the loops the leaf last handed back is in, to resolve its parameters against
+     */
+    public Bindings getBindings() {
+        return bindings;
+    }
+
+    /**
+     * @return how many levels deep the walk currently is
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Leaves can't be removed while walking the tree.");
+    }
+
+    /**
+     * Moves through the tree until it reaches the next leaf, descending into composites and climbing back out of the
+     * ones that are done.
+     */
+    private ALeafTask findNext() {
+        while (depth > 0) {
+            int top = depth - 1;
+            IExecuteTask parent = parents[top];
+            //children may also have been removed since we entered, so never go past what is there now
+            if (nextChild[top] >= Math.min(childCount[top], parent.getChildCount())) {
+                //a loop goes round again with its variable bound to the next value
+                if (passValues[top] != null && ++pass[top] < passValues[top].length) {
+                    scopes[top] = outerScope(top).bind(((LoopTask) parent).getVariable(), passValues[top][pass[top]]);
+                    nextChild[top] = 0;
+                    continue;
+                }
+                parents[top] = null;
+                passValues[top] = null;
+                scopes[top] = null;
+                depth--;
+                continue;
+            }
+
+            IExecuteTask child = (IExecuteTask) parent.getChildAt(nextChild[top]++);
+            if (child instanceof ALeafTask) {
+                nextBindings = scopes[top];
+                return (ALeafTask) child;
+            }
+            push(child);
+        }
+        return null;
+    }
+
+    private void push(IExecuteTask parent) {
+        if (depth == parents.length) {
+            parents = Arrays.copyOf(parents, 2 * depth);
+            nextChild = Arrays.copyOf(nextChild, 2 * depth);
+            childCount = Arrays.copyOf(childCount, 2 * depth);
+            passValues = Arrays.copyOf(passValues, 2 * depth);
+            pass = Arrays.copyOf(pass, 2 * depth);
+            scopes = Arrays.copyOf(scopes, 2 * depth);
+        }
+        Bindings outer = outerScope(depth);
+        parents[depth] = parent;
+        nextChild[depth] = 0;
+        childCount[depth] = parent.getChildCount();
+        if (parent instanceof LoopTask) {
+            LoopTask loop = (LoopTask) parent;
+            TaskParam[] values = loop.getValueParams(outer);
+            passValues[depth] = values;
+            pass[depth] = 0;
+            if (values.length == 0) {
+                //no passes, so nothing in it to visit
+                childCount[depth] = 0;
+                scopes[depth] = outer;
+            }
+            else {
+                scopes[depth] = outer.bind(loop.getVariable(), values[0]);
+            }
+        }
+        else {
+            passValues[depth] = null;
+            scopes[depth] = outer;
+        }
+        depth++;
+    }
+
+    /**
+     * @return bindings in force around the given frame
+     */
+    private Bindings outerScope(int frame) {
+        return frame == 0 ? Bindings.NONE : scopes[frame - 1];
+    }
+}
@@ -0,0 +1,452 @@
+package main.model.tasks.optimization;
+
+import main.model.serial.protocol.CommandType;
+import main.model.tasks.basictasks.ALeafTask;
+import main.model.tasks.execution.ExecutionPlan;
+
+import java.util.EnumSet;
+
+/**
+ * Removes or merges commands in a compiled plan that the device would spend a round trip on for nothing: moves to
+ * where the arm already is, a move immediately overridden by the next one, pump parameters that are already set,
+ * back to back delays, and so on, see PeepholeRule. Each rule only looks at the step being passed and what is known
+ * about the device from the steps before it.
+ *
+ * Every pass is checked before it is used: the optimized steps have to leave the arm, nozzle and pump in the same
+ * state as the original ones, and dispense and wait the same totals. If they don't, the original steps are kept.
+ *
+ * An optimizer remembers what it knows about the device from one plan to the next, so the chunks of a single run
+ * should go through the same optimizer, in order. Raw commands could do anything, so everything known is forgotten
+ * after one.
+ */
+public class PeepholeOptimizer {
+
+    /**
+     * Rules this optimizer applies.
+     */
+    private final EnumSet<PeepholeRule> rules;
+
+    /**
+     * Number of steps each rule has removed, indexed by the rule's ordinal.
+     */
+    private final int[] counts = new int[PeepholeRule.values().length];
+
+    /**
+     * Number of steps passed in and passed out so far.
+     */
+    private int stepsIn = 0, stepsOut = 0;
+
+    /**
+     * Number of plans sent as they were because the pass over them would have changed the device's end state.
+     */
+    private int unverified = 0;
+
+    /**
+     * What is known about the device once everything passed so far has been sent.
+     */
+    private DeviceState known = new DeviceState();
+
+    /**
+     * Optimizer applying every rule.
+     */
+    public PeepholeOptimizer() {
+        this(EnumSet.allOf(PeepholeRule.class));
+    }
+
+    /**
+     * @param rules - rules to apply, the rest are left out
+     */
+    public PeepholeOptimizer(EnumSet<PeepholeRule> rules) {
+        this.rules = EnumSet.copyOf(rules);
+    }
+
+    /**
+     * Optimizes a plan on its own, carrying on from whatever was passed through before it.
+     */
+    public ExecutionPlan optimize(ExecutionPlan plan) {
+        return optimize(plan, new ExecutionPlan.Builder());
+    }
+
+    /**
+     * Optimizes a plan, carrying on from whatever was passed through before it.
+     * @param plan - steps to optimize
+     * @param builder - empty builder to put the optimized steps into, seeded as the caller wants the fingerprint
+     * @return optimized plan, with the same steps as the original if the pass could not be verified
+     */
+    public ExecutionPlan optimize(ExecutionPlan plan, ExecutionPlan.Builder builder) {
+        Pass pass = new Pass(plan, known.copy());
+        pass.run();
+
+        DeviceState expected = known.copy();
+        for (int step = 0; step < plan.size(); step++) {
+            expected.apply(plan.getOpcode(step), plan.getOperand0(step), plan.getOperand1(step));
+        }
+        DeviceState actual = known.copy();
+        for (int k = 0; k < pass.size; k++) {
+            actual.apply(pass.opcodes[k], pass.operands0[k], pass.operands1[k]);
+        }
+
+        stepsIn += plan.size();
+        known = expected;
+        if (!expected.equals(actual)) {
+            //counted and reported in the summary, nothing is printed on the send path
+            unverified++;
+            stepsOut += plan.size();
+            for (int step = 0; step < plan.size(); step++) {
+                if (plan.getType(step) == CommandType.RAW) {
+                    builder.addRaw(plan.getText(step), plan.getSource(step));
+                }
+                else {
+                    builder.add(plan.getType(step), plan.getOperand0(step), plan.getOperand1(step), plan.getSource(step));
+                }
+            }
+            return builder.build();
+        }
+
+        stepsOut += pass.size;
+        for (PeepholeRule rule : pass.removedBy) {
+            if (rule != null) counts[rule.ordinal()]++;
+        }
+        return pass.build(builder);
+    }
+
+    /**
+     * Dry run showing what a pass over a plan would do, starting from nothing known about the device. Doesn't change
+     * what this optimizer knows or has counted.
+     * @return listing of the plan with removed steps marked "-" and changed steps marked "~"
+     */
+    public String diff(ExecutionPlan plan) {
+        Pass pass = new Pass(plan, new DeviceState());
+        pass.run();
+        ExecutionPlan optimized = pass.build(new ExecutionPlan.Builder());
+
+        int[] removed = new int[counts.length];
+        StringBuilder listing = new StringBuilder();
+        for (int step = 0; step < plan.size(); step++) {
+            PeepholeRule rule = pass.removedBy[step];
+            if (rule != null) {
+                removed[rule.ordinal()]++;
+                listing.append("- ").append(step).append(": ").append(plan.describeStep(step))
+                        .append("    [").append(rule.getDescription()).append("]\n");
+                continue;
+            }
+            int out = pass.outputOf[step];
+            if (optimized.getOperand0(out) != plan.getOperand0(step) || optimized.getOperand1(out) != plan.getOperand1(step)) {
+                listing.append("~ ").append(step).append(": ").append(plan.describeStep(step))
+                        .append(" => ").append(optimized.describeStep(out)).append('\n');
+            }
+            else {
+                listing.append("  ").append(step).append(": ").append(plan.describeStep(step)).append('\n');
+            }
+        }
+        return summarize(plan.size(), optimized.size(), removed) + "\n" + listing;
+    }
+
+    /**
+     * @return number of steps the rule has removed so far
+     */
+    public int getCount(PeepholeRule rule) {
+        return counts[rule.ordinal()];
+    }
+
+    /**
+     * @return number of steps passed in so far
+     */
+    public int getStepsIn() {
+        return stepsIn;
+    }
+
+    /**
+     * @return number of steps passed out so far
+     */
+    public int getStepsOut() {
+        return stepsOut;
+    }
+
+    /**
+     * @return number of plans sent unoptimized because the pass over them could not be verified
+     */
+    public int getUnverified() {
+        return unverified;
+    }
+
+    /**
+     * Forgets everything known about the device but keeps the counts, for when something else may have changed it
+     * mid-run.
+     */
+    public void forgetDevice() {
+        known = new DeviceState();
+    }
+
+    /**
+     * Forgets everything known about the device and everything counted, ready for a new run.
+     */
+    public void reset() {
+        known = new DeviceState();
+        stepsIn = stepsOut = 0;
+        unverified = 0;
+        for (int i = 0; i < counts.length; i++) counts[i] = 0;
+    }
+
+    public String toString() {
+        String summary = summarize(stepsIn, stepsOut, counts);
+        if (unverified == 0) return summary;
+        return summary + String.format(" %d chunks were sent as they were, as the pass would have changed the device's "
+                + "end state.", unverified);
+    }
+
+    private static String summarize(int in, int out, int[] removed) {
+        StringBuilder summary = new StringBuilder(String.format("Peephole pass sent %d of %d commands", out, in));
+        String separator = ", removing ";
+        for (PeepholeRule rule : PeepholeRule.values()) {
+            if (removed[rule.ordinal()] == 0) continue;
+            summary.append(separator).append(removed[rule.ordinal()]).append(" x ").append(rule.getDescription());
+            separator = "; ";
+        }
+        return summary.append('.').toString();
+    }
+
+    /**
+     * A single pass over a plan, building up the optimized steps in flat arrays.
+     */
+    private class Pass {
+        private final ExecutionPlan plan;
+        private final DeviceState state;
+
+        private final int[] opcodes, operands0, operands1;
+        private final String[] texts;
+        private final ALeafTask[] sources;
+        private int size = 0;
+
+        /**
+         * Rule that removed each original step, or null if it was kept.
+         */
+        private final PeepholeRule[] removedBy;
+
+        /**
+         * Index each original step that was kept ended up at.
+         */
+        private final int[] outputOf;
+
+        /**
+         * Original step each optimized step came from.
+         */
+        private final int[] inputOf;
+
+        /**
+         * What the state replaced by the last optimized step was, if that step was a move or nozzle height.
+         */
+        private boolean previousKnown;
+        private int previous0, previous1;
+
+        private Pass(ExecutionPlan plan, DeviceState state) {
+            this.plan = plan;
+            this.state = state;
+            int steps = plan.size();
+            opcodes = new int[steps];
+            operands0 = new int[steps];
+            operands1 = new int[steps];
+            texts = new String[steps];
+            sources = new ALeafTask[steps];
+            removedBy = new PeepholeRule[steps];
+            outputOf = new int[steps];
+            inputOf = new int[steps];
+        }
+
+        private void run() {
+            for (int step = 0; step < plan.size(); step++) {
+                int opcode = plan.getOpcode(step);
+                int operand0 = plan.getOperand0(step);
+                int operand1 = plan.getOperand1(step);
+
+                if (opcode == CommandType.MOVE.getOpcode()) {
+                    passMove(step, operand0, operand1);
+                }
+                else if (opcode == CommandType.NOZZLE_HEIGHT.getOpcode()) {
+                    passNozzleHeight(step, operand0);
+                }
+                else if (opcode == CommandType.DELAY.getOpcode()) {
+                    passDelay(step, operand0);
+                }
+                else if (opcode == CommandType.PUMP_PARAMS.getOpcode() && rules.contains(PeepholeRule.DUPLICATE_PUMP_PARAMS)
+                        && state.pumpKnown && state.speed == operand0 && state.acceleration == operand1) {
+                    remove(step, PeepholeRule.DUPLICATE_PUMP_PARAMS);
+                }
+                else {
+                    emit(step);
+                }
+            }
+        }
+
+        private void passMove(int step, int x, int y) {
+            if (rules.contains(PeepholeRule.ZERO_MOVE) && state.positionKnown && state.x == x && state.y == y) {
+                remove(step, PeepholeRule.ZERO_MOVE);
+                return;
+            }
+            if (rules.contains(PeepholeRule.MERGE_MOVES) && lastIs(CommandType.MOVE)) {
+                //the arm never stops at the earlier move's target, so go straight to this one instead
+                size--;
+                remove(inputOf[size], PeepholeRule.MERGE_MOVES);
+                state.positionKnown = previousKnown;
+                state.x = previous0;
+                state.y = previous1;
+                if (rules.contains(PeepholeRule.ZERO_MOVE) && state.positionKnown && state.x == x && state.y == y) {
+                    remove(step, PeepholeRule.ZERO_MOVE);
+                    return;
+                }
+            }
+            previousKnown = state.positionKnown;
+            previous0 = state.x;
+            previous1 = state.y;
+            emit(step);
+        }
+
+        private void passNozzleHeight(int step, int height) {
+            if (rules.contains(PeepholeRule.DUPLICATE_NOZZLE_HEIGHT) && state.heightKnown && state.height == height) {
+                remove(step, PeepholeRule.DUPLICATE_NOZZLE_HEIGHT);
+                return;
+            }
+            if (rules.contains(PeepholeRule.MERGE_NOZZLE_HEIGHTS) && lastIs(CommandType.NOZZLE_HEIGHT)) {
+                size--;
+                remove(inputOf[size], PeepholeRule.MERGE_NOZZLE_HEIGHTS);
+                state.heightKnown = previousKnown;
+                state.height = previous0;
+                if (rules.contains(PeepholeRule.DUPLICATE_NOZZLE_HEIGHT) && state.heightKnown && state.height == height) {
+                    remove(step, PeepholeRule.DUPLICATE_NOZZLE_HEIGHT);
+                    return;
+                }
+            }
+            previousKnown = state.heightKnown;
+            previous0 = state.height;
+            emit(step);
+        }
+
+        private void passDelay(int step, int time) {
+            if (rules.contains(PeepholeRule.ZERO_DELAY) && time == 0) {
+                remove(step, PeepholeRule.ZERO_DELAY);
+            }
+            else if (rules.contains(PeepholeRule.MERGE_DELAYS) && lastIs(CommandType.DELAY)
+                    && (long) operands0[size - 1] + time <= Integer.MAX_VALUE) {
+                operands0[size - 1] += time;
+                state.apply(CommandType.DELAY.getOpcode(), time, 0);
+                remove(step, PeepholeRule.MERGE_DELAYS);
+            }
+            else {
+                emit(step);
+            }
+        }
+
+        private boolean lastIs(CommandType type) {
+            return size > 0 && opcodes[size - 1] == type.getOpcode();
+        }
+
+        private void remove(int step, PeepholeRule rule) {
+            removedBy[step] = rule;
+            outputOf[step] = -1;
+        }
+
+        private void emit(int step) {
+            opcodes[size] = plan.getOpcode(step);
+            operands0[size] = plan.getOperand0(step);
+            operands1[size] = plan.getOperand1(step);
+            texts[size] = plan.getText(step);
+            sources[size] = plan.getSource(step);
+            outputOf[step] = size;
+            inputOf[size] = step;
+            state.apply(opcodes[size], operands0[size], operands1[size]);
+            size++;
+        }
+
+        private ExecutionPlan build(ExecutionPlan.Builder builder) {
+            for (int k = 0; k < size; k++) {
+                if (opcodes[k] == CommandType.RAW.getOpcode()) {
+                    builder.addRaw(texts[k], sources[k]);
+                }
+                else {
+                    builder.add(CommandType.fromOpcode(opcodes[k]), operands0[k], operands1[k], sources[k]);
+                }
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * What is known about the device after a sequence of steps: where the arm and nozzle are and what the pump is
+     * set to, each only once a step has set it, plus how much has been dispensed and waited in total.
+     */
+    private static class DeviceState {
+        private boolean positionKnown, heightKnown, pumpKnown;
+        private int x, y, height, speed, acceleration;
+        private long dispensed, waited;
+
+        private void apply(int opcode, int operand0, int operand1) {
+            CommandType type = CommandType.fromOpcode(opcode);
+            if (type == null) {
+                forget();
+                return;
+            }
+            switch (type) {
+                case MOVE:
+                    positionKnown = true;
+                    x = operand0;
+                    y = operand1;
+                    break;
+                case NOZZLE_HEIGHT:
+                    heightKnown = true;
+                    height = operand0;
+                    break;
+                case PUMP_PARAMS:
+                    pumpKnown = true;
+                    speed = operand0;
+                    acceleration = operand1;
+                    break;
+                case DISPENSE:
+                    dispensed += operand0;
+                    break;
+                case DELAY:
+                    waited += operand0;
+                    break;
+                case RAW:
+                case CALIBRATE:
+                    forget();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void forget() {
+            positionKnown = heightKnown = pumpKnown = false;
+        }
+
+        private DeviceState copy() {
+            DeviceState copy = new DeviceState();
+            copy.positionKnown = positionKnown;
+            copy.heightKnown = heightKnown;
+            copy.pumpKnown = pumpKnown;
+            copy.x = x;
+            copy.y = y;
+            copy.height = height;
+            copy.speed = speed;
+            copy.acceleration = acceleration;
+            copy.dispensed = dispensed;
+            copy.waited = waited;
+            return copy;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof DeviceState)) return false;
+            DeviceState state = (DeviceState) other;
+            return positionKnown == state.positionKnown && (!positionKnown || (x == state.x && y == state.y))
+                    && heightKnown == state.heightKnown && (!heightKnown || height == state.height)
+                    && pumpKnown == state.pumpKnown && (!pumpKnown || (speed == state.speed && acceleration == state.acceleration))
+                    && dispensed == state.dispensed && waited == state.waited;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (31 * dispensed + waited);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package main.model.tasks.optimization;
+
+/**
+ * Every rewrite the peephole optimizer knows. Each one removes or merges commands without changing where the arm,
+ * nozzle and pump end up, how much is dispensed, or how long the device waits in total.
+ */
+public enum PeepholeRule {
+    ZERO_MOVE("move to where the arm already is"),
+    MERGE_MOVES("move straight after another move"),
+    DUPLICATE_PUMP_PARAMS("pump parameters the pump already has"),
+    MERGE_DELAYS("delay straight after another delay"),
+    ZERO_DELAY("delay of no time"),
+    MERGE_NOZZLE_HEIGHTS("nozzle height straight after another nozzle height"),
+    DUPLICATE_NOZZLE_HEIGHT("nozzle height the nozzle is already at");
+
+    private final String description;
+
+    private PeepholeRule(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return what the rule removes, in words
+     */
+    public String getDescription() {
+        return description;
+    }
+}
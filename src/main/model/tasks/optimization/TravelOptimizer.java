@@ -0,0 +1,242 @@
+package main.model.tasks.optimization;
+
+import main.model.plate.PlateModel;
+import main.model.serial.protocol.CommandType;
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.basictasks.LoopTask;
+import main.model.tasks.basictasks.MultiTask;
+import main.model.tasks.execution.ExecutionPlan;
+import main.model.tasks.taskvisitors.ITaskVisitor;
+import main.model.tasks.taskvisitors.PlanCompileVisitor;
+
+import java.awt.geom.Point2D;
+
+/**
+ * Rearranges the children of unordered MultiTasks so the arm travels as little as possible, for example the withdraw
+ * legs of a many-to-one move. Each child is treated as a stop with an entry point (its first move) and an exit point
+ * (its last move); stops are ordered with a nearest-neighbour tour from wherever the arm is when the block starts,
+ * which is then improved with 2-opt. Blocks are only changed when the new order is actually shorter.
+ */
+public class TravelOptimizer {
+
+    /**
+     * Most 2-opt passes over a single block.
+     */
+    private static final int MAX_PASSES = 50;
+
+    /**
+     * Compiles tasks to find out where their moves go.
+     */
+    private final ITaskVisitor compiler;
+
+    /**
+     * @param plateModel - plates to resolve well locations on
+     */
+    public TravelOptimizer(PlateModel plateModel) {
+        this.compiler = new PlanCompileVisitor(plateModel);
+    }
+
+    /**
+     * Reorders every unordered block in the task, in place.
+     * @param task - task to optimize, usually the whole experiment
+     * @param start - where the arm will be when the task starts
+     * @return what was changed and how much travel it saved
+     */
+    public TravelReport optimize(IExecuteTask task, Point2D start) {
+        TravelReport report = new TravelReport();
+        report.cmBefore = measureTravel(task, start);
+        optimize(task, start, report);
+        report.cmAfter = measureTravel(task, start);
+        return report;
+    }
+
+    /**
+     * @return distance in cm the arm moves while running the task, starting from the given point
+     */
+    public double measureTravel(IExecuteTask task, Point2D start) {
+        ExecutionPlan plan = compile(task);
+        double x = start.getX(), y = start.getY(), travel = 0;
+        for (int step = 0; step < plan.size(); step++) {
+            if (plan.getType(step) != CommandType.MOVE) continue;
+            double toX = plan.getOperand0(step) / 100.0;
+            double toY = plan.getOperand1(step) / 100.0;
+            travel += Math.hypot(toX - x, toY - y);
+            x = toX;
+            y = toY;
+        }
+        return travel;
+    }
+
+    /**
+     * Optimizes the task and everything under it.
+     * @return where the arm ends up after the task
+     */
+    private Point2D optimize(IExecuteTask task, Point2D position, TravelReport report) {
+        //a loop's children are run once per pass with different values, so it is left as a whole
+        if (!(task instanceof MultiTask) || task instanceof LoopTask) {
+            Point2D[] ends = endpoints(task);
+            return ends == null ? position : ends[1];
+        }
+
+        MultiTask multi = (MultiTask) task;
+        if (multi.isUnordered() && multi.getChildCount() > 1) {
+            reorder(multi, position, report);
+        }
+        for (int i = 0; i < multi.getChildCount(); i++) {
+            position = optimize((IExecuteTask) multi.getChildAt(i), position, report);
+        }
+        return position;
+    }
+
+    /**
+     * Finds a shorter order for an unordered block's children and applies it.
+     */
+    private void reorder(MultiTask block, Point2D start, TravelReport report) {
+        int n = block.getChildCount();
+        double[] entryX = new double[n], entryY = new double[n], exitX = new double[n], exitY = new double[n];
+        boolean symmetric = true;
+        for (int i = 0; i < n; i++) {
+            Point2D[] ends = endpoints((IExecuteTask) block.getChildAt(i));
+            if (ends == null) {
+                //a child that doesn't move anywhere has no place in a tour, leave the block as the user wrote it
+                report.blocksUnchanged++;
+                return;
+            }
+            entryX[i] = ends[0].getX();
+            entryY[i] = ends[0].getY();
+            exitX[i] = ends[1].getX();
+            exitY[i] = ends[1].getY();
+            symmetric &= ends[0].equals(ends[1]);
+        }
+        Stops stops = new Stops(start, entryX, entryY, exitX, exitY);
+
+        int[] original = new int[n];
+        for (int i = 0; i < n; i++) original[i] = i;
+        int[] order = nearestNeighbour(stops, n);
+        twoOpt(stops, order, symmetric);
+
+        if (stops.pathLength(order) < stops.pathLength(original) - 1e-9) {
+            block.reorderChildren(order);
+            report.blocksReordered++;
+        }
+        else {
+            report.blocksUnchanged++;
+        }
+    }
+
+    /**
+     * Builds a tour by always going to the closest stop not visited yet.
+     */
+    private int[] nearestNeighbour(Stops stops, int n) {
+        int[] order = new int[n];
+        boolean[] visited = new boolean[n];
+        int previous = -1;
+        for (int position = 0; position < n; position++) {
+            int best = -1;
+            double bestDistance = Double.MAX_VALUE;
+            for (int candidate = 0; candidate < n; candidate++) {
+                if (visited[candidate]) continue;
+                double distance = stops.distance(previous, candidate);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = candidate;
+                }
+            }
+            visited[best] = true;
+            order[position] = best;
+            previous = best;
+        }
+        return order;
+    }
+
+    /**
+     * Repeatedly reverses stretches of the tour while that makes it shorter. The start is fixed and the end is free.
+     * When every stop is entered and left at the same point, only the two edges at the ends of a stretch change;
+     * otherwise the edges inside it change direction too and are added up.
+     */
+    private void twoOpt(Stops stops, int[] order, boolean symmetric) {
+        int n = order.length;
+        boolean improved = true;
+        for (int pass = 0; pass < MAX_PASSES && improved; pass++) {
+            improved = false;
+            for (int i = 0; i < n - 1; i++) {
+                int before = i == 0 ? -1 : order[i - 1];
+                for (int j = i + 1; j < n; j++) {
+                    int after = j == n - 1 ? -2 : order[j + 1];
+                    double oldCost = stops.distance(before, order[i]) + (after == -2 ? 0 : stops.distance(order[j], after));
+                    double newCost = stops.distance(before, order[j]) + (after == -2 ? 0 : stops.distance(order[i], after));
+                    if (!symmetric) {
+                        for (int k = i; k < j; k++) {
+                            oldCost += stops.distance(order[k], order[k + 1]);
+                            newCost += stops.distance(order[k + 1], order[k]);
+                        }
+                    }
+                    if (newCost < oldCost - 1e-9) {
+                        for (int a = i, b = j; a < b; a++, b--) {
+                            int swap = order[a];
+                            order[a] = order[b];
+                            order[b] = swap;
+                        }
+                        improved = true;
+                        before = i == 0 ? -1 : order[i - 1];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return where the task's first and last moves go, or null if it doesn't move the arm
+     */
+    private Point2D[] endpoints(IExecuteTask task) {
+        ExecutionPlan plan = compile(task);
+        Point2D first = null, last = null;
+        for (int step = 0; step < plan.size(); step++) {
+            if (plan.getType(step) != CommandType.MOVE) continue;
+            last = new Point2D.Double(plan.getOperand0(step) / 100.0, plan.getOperand1(step) / 100.0);
+            if (first == null) first = last;
+        }
+        return first == null ? null : new Point2D[]{first, last};
+    }
+
+    private ExecutionPlan compile(IExecuteTask task) {
+        ExecutionPlan.Builder builder = new ExecutionPlan.Builder();
+        task.executeVisitor(compiler, builder);
+        return builder.build();
+    }
+
+    /**
+     * Entry and exit points of the stops in one block, plus where the arm starts.
+     */
+    private static class Stops {
+        private final Point2D start;
+        private final double[] entryX, entryY, exitX, exitY;
+
+        Stops(Point2D start, double[] entryX, double[] entryY, double[] exitX, double[] exitY) {
+            this.start = start;
+            this.entryX = entryX;
+            this.entryY = entryY;
+            this.exitX = exitX;
+            this.exitY = exitY;
+        }
+
+        /**
+         * @param from - stop the arm leaves, or -1 for the start
+         * @param to - stop the arm goes to
+         * @return distance from leaving one to entering the other
+         */
+        double distance(int from, int to) {
+            double x = from < 0 ? start.getX() : exitX[from];
+            double y = from < 0 ? start.getY() : exitY[from];
+            return Math.hypot(entryX[to] - x, entryY[to] - y);
+        }
+
+        double pathLength(int[] order) {
+            double length = 0;
+            for (int i = 0; i < order.length; i++) {
+                length += distance(i == 0 ? -1 : order[i - 1], order[i]);
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package main.model.tasks.optimization;
+
+/**
+ * What a travel optimization pass did: how many blocks it reordered and how far the arm travels before and after.
+ */
+public class TravelReport {
+
+    /**
+     * Number of unordered blocks whose children were rearranged.
+     */
+    public int blocksReordered = 0;
+
+    /**
+     * Number of unordered blocks left alone, because some child had no location or no better order was found.
+     */
+    public int blocksUnchanged = 0;
+
+    /**
+     * Total distance moved over the whole optimized task before the pass, in cm.
+     */
+    public double cmBefore = 0;
+
+    /**
+     * Total distance moved over the whole optimized task after the pass, in cm.
+     */
+    public double cmAfter = 0;
+
+    /**
+     * @return distance saved by the pass, in cm
+     */
+    public double getCmSaved() {
+        return cmBefore - cmAfter;
+    }
+
+    public String toString() {
+        return String.format("Reordered %d block(s), left %d as they were. Travel went from %.1f cm to %.1f cm, saving %.1f cm.",
+                blocksReordered, blocksUnchanged, cmBefore, cmAfter, getCmSaved());
+    }
+}
@@ -0,0 +1,152 @@
+package main.model.tasks.scheduling;
+
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.basictasks.MultiTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Hands out the stages of a StageGraph to devices as they become free to run: a stage is ready once every stage it
+ * waits on is done, and a free device takes whichever ready stage heads the longest chain still to go. Stages pinned
+ * to a device only go to that device.
+ *
+ * Only keeps track of what is ready, running and done; whoever drives the devices asks for the next stage when a
+ * device's arm is free and says when a stage is done. A device can have several stages going at once, when the
+ * others are waiting out delays on the host. Not thread safe, callers lock around it.
+ */
+public class DagScheduler {
+
+    private final StageGraph graph;
+
+    /**
+     * Number of stages each stage is still waiting on.
+     */
+    private final int[] waiting;
+
+    /**
+     * Stages free to run and not handed out yet.
+     */
+    private final ArrayList<Integer> ready = new ArrayList<Integer>();
+
+    /**
+     * Device each stage was handed to, -1 for stages not handed out yet.
+     */
+    private final int[] deviceOf;
+
+    /**
+     * Number of stages each device has going.
+     */
+    private final int[] running;
+
+    private int done = 0;
+
+    /**
+     * Time the first stage was handed out, and the last one was done.
+     */
+    private long startNanos = 0, endNanos = 0;
+
+    /**
+     * @param graph - stages to run
+     * @param devices - number of devices running them
+     */
+    public DagScheduler(StageGraph graph, int devices) {
+        this.graph = graph;
+        waiting = new int[graph.size()];
+        for (int stage = 0; stage < graph.size(); stage++) {
+            waiting[stage] = graph.getPredecessors(stage).size();
+            if (waiting[stage] == 0) ready.add(stage);
+        }
+        deviceOf = new int[graph.size()];
+        Arrays.fill(deviceOf, -1);
+        running = new int[devices];
+    }
+
+    /**
+     * Picks the stage a device should run next, and marks it running on that device.
+     * @param device - index of the device, whose arm is free
+     * @return stage to run, or -1 if nothing ready can go on the device
+     */
+    public int next(int device) {
+        int best = -1;
+        for (int stage : ready) {
+            if (!canRunOn(stage, device)) continue;
+            if (best < 0 || graph.getBottomLevel(stage) > graph.getBottomLevel(best)) best = stage;
+        }
+        if (best >= 0) {
+            if (startNanos == 0) startNanos = System.nanoTime();
+            ready.remove(Integer.valueOf(best));
+            deviceOf[best] = device;
+            running[device]++;
+        }
+        return best;
+    }
+
+    /**
+     * Marks a stage as done, freeing up the stages that were waiting on it.
+     * @return device the stage ran on
+     */
+    public int finished(int stage) {
+        int device = deviceOf[stage];
+        if (device < 0) throw new IllegalStateException("Stage " + graph.getStage(stage) + " was never handed out.");
+        deviceOf[stage] = -1;
+        running[device]--;
+        done++;
+        for (int successor : graph.getSuccessors(stage)) {
+            if (--waiting[successor] == 0) ready.add(successor);
+        }
+        if (isFinished()) endNanos = System.nanoTime();
+        return device;
+    }
+
+    /**
+     * @return number of stages the device has going
+     */
+    public int getRunningCount(int device) {
+        return running[device];
+    }
+
+    /**
+     * @return true once every stage is done
+     */
+    public boolean isFinished() {
+        return done == graph.size();
+    }
+
+    /**
+     * @return number of stages done
+     */
+    public int getDone() {
+        return done;
+    }
+
+    public StageGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return task of the given stage
+     */
+    public IExecuteTask getStage(int stage) {
+        return graph.getStage(stage);
+    }
+
+    /**
+     * @return time from the first stage being handed out to the last one being done, or until now if not finished, in ms
+     */
+    public long getElapsedMillis() {
+        if (startNanos == 0) return 0;
+        return ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1000000;
+    }
+
+    private boolean canRunOn(int stage, int device) {
+        IExecuteTask task = graph.getStage(stage);
+        int pinned = task instanceof MultiTask ? ((MultiTask) task).getDevice() : 0;
+        return pinned <= 0 || pinned > running.length || pinned == device + 1;
+    }
+
+    public String toString() {
+        return String.format("Ran %d of %d stage(s) in %.1f s, critical path estimate %.1f s.", done, graph.size(),
+                getElapsedMillis() / 1000.0, graph.getCriticalPathMillis() / 1000.0);
+    }
+}
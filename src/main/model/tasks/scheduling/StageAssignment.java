@@ -0,0 +1,65 @@
+package main.model.tasks.scheduling;
+
+/**
+ * Which device each stage of an experiment runs on, and how long each device is expected to be kept busy.
+ */
+public class StageAssignment {
+
+    /**
+     * Index of the device each stage goes to, in stage order.
+     */
+    private final int[] deviceOf;
+
+    /**
+     * Estimated time each device spends on the stages it was given, in ms.
+     */
+    private final long[] loads;
+
+    public StageAssignment(int[] deviceOf, long[] loads) {
+        this.deviceOf = deviceOf;
+        this.loads = loads;
+    }
+
+    /**
+     * @return index of the device the stage goes to
+     */
+    public int getDevice(int stage) {
+        return deviceOf[stage];
+    }
+
+    /**
+     * @return number of stages assigned
+     */
+    public int getStageCount() {
+        return deviceOf.length;
+    }
+
+    /**
+     * @return estimated time the device spends on its stages, in ms
+     */
+    public long getLoad(int device) {
+        return loads[device];
+    }
+
+    /**
+     * @return estimated time until the last device is done, in ms
+     */
+    public long getMakespan() {
+        long makespan = 0;
+        for (long load : loads) makespan = Math.max(makespan, load);
+        return makespan;
+    }
+
+    public String toString() {
+        StringBuilder description = new StringBuilder(String.format("%d stage(s) over %d device(s), done in about %.1f s:",
+                deviceOf.length, loads.length, getMakespan() / 1000.0));
+        for (int device = 0; device < loads.length; device++) {
+            int stages = 0;
+            for (int of : deviceOf) {
+                if (of == device) stages++;
+            }
+            description.append(String.format(" device %d gets %d stage(s), %.1f s;", device + 1, stages, loads[device] / 1000.0));
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package main.model.tasks.scheduling;
+
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.basictasks.MultiTask;
+import main.model.tasks.estimation.DurationEstimator;
+import main.model.tasks.estimation.MotionModel;
+import main.model.tasks.taskvisitors.ITaskVisitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits the stages of an experiment over several identical devices so they all finish at about the same time.
+ * Stages pinned to a device go there; the rest are handed out longest first, each to whichever device is free
+ * soonest (longest processing time first). With nothing pinned, that finishes within a third of the best possible
+ * split.
+ *
+ * How long a stage takes is estimated from its compiled commands with a MotionModel.
+ */
+public class StageBalancer {
+
+    /**
+     * Costs each stage from its compiled commands.
+     */
+    private final DurationEstimator estimator;
+
+    /**
+     * @param compiler - visitor compiling a leaf into an ExecutionPlan.Builder, see PlanCompileVisitor
+     */
+    public StageBalancer(ITaskVisitor compiler) {
+        this(compiler, new MotionModel());
+    }
+
+    /**
+     * @param compiler - visitor compiling a leaf into an ExecutionPlan.Builder, see PlanCompileVisitor
+     * @param model - cost of each command, e.g. one fitted to the devices
+     */
+    public StageBalancer(ITaskVisitor compiler, MotionModel model) {
+        this.estimator = new DurationEstimator(compiler, model);
+    }
+
+    /**
+     * @param stages - stages to run, in the order they appear in the experiment
+     * @param devices - number of devices to spread them over
+     * @return device each stage should run on
+     */
+    public StageAssignment balance(List<IExecuteTask> stages, int devices) {
+        if (devices < 1) throw new IllegalArgumentException("Need at least one device to run stages on.");
+
+        final long[] costs = new long[stages.size()];
+        int[] deviceOf = new int[stages.size()];
+        long[] loads = new long[devices];
+        ArrayList<Integer> free = new ArrayList<Integer>();
+
+        for (int stage = 0; stage < stages.size(); stage++) {
+            costs[stage] = estimateMillis(stages.get(stage));
+            int pinned = pinnedDevice(stages.get(stage));
+            if (pinned > 0 && pinned <= devices) {
+                deviceOf[stage] = pinned - 1;
+                loads[pinned - 1] += costs[stage];
+            }
+            else {
+                free.add(stage);
+            }
+        }
+
+        //longest first, ties in experiment order so the same experiment always splits the same way
+        Collections.sort(free, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (costs[a] != costs[b]) return costs[a] > costs[b] ? -1 : 1;
+                return a - b;
+            }
+        });
+        for (int stage : free) {
+            int leastLoaded = 0;
+            for (int device = 1; device < devices; device++) {
+                if (loads[device] < loads[leastLoaded]) leastLoaded = device;
+            }
+            deviceOf[stage] = leastLoaded;
+            loads[leastLoaded] += costs[stage];
+        }
+        return new StageAssignment(deviceOf, loads);
+    }
+
+    /**
+     * @return expected time the device takes to run the task on its own, in ms
+     */
+    public long estimateMillis(IExecuteTask task) {
+        return estimator.estimateMillis(task);
+    }
+
+    private static int pinnedDevice(IExecuteTask stage) {
+        return stage instanceof MultiTask ? ((MultiTask) stage).getDevice() : 0;
+    }
+}
@@ -0,0 +1,265 @@
+package main.model.tasks.scheduling;
+
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.basictasks.MultiTask;
+import main.model.tasks.taskvisitors.ITaskVisitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The top level stages of an experiment as a graph of which stage has to wait on which, so stages that don't depend
+ * on each other can run at the same time. A stage waits on the siblings named in its dependencies if it has any, or
+ * otherwise on every earlier stage it conflicts with over a well, see WellAccess.
+ *
+ * Each stage is weighted by its estimated run time, which gives the critical path: the longest chain of stages that
+ * have to run one after the other, and so the shortest the experiment can take however many devices run it.
+ */
+public class StageGraph {
+
+    private final List<IExecuteTask> stages;
+
+    /**
+     * Estimated run time of each stage, in ms.
+     */
+    private final long[] costs;
+
+    private final List<List<Integer>> predecessors = new ArrayList<List<Integer>>();
+    private final List<List<Integer>> successors = new ArrayList<List<Integer>>();
+
+    /**
+     * Stages in an order that has every stage after the ones it waits on, as close to experiment order as possible.
+     */
+    private final int[] order;
+
+    /**
+     * Time from each stage starting to the end of the longest chain of stages after it, itself included, in ms.
+     */
+    private final long[] bottomLevels;
+
+    /**
+     * Stages on the critical path, first to last.
+     */
+    private final List<Integer> criticalPath = new ArrayList<Integer>();
+
+    private long criticalPathMillis = 0;
+
+    /**
+     * Builds the graph of an experiment's top level stages.
+     * @param experiment - experiment whose children are the stages
+     * @param compiler - visitor compiling a leaf into an ExecutionPlan.Builder, used to estimate run times
+     * @throws IllegalStateException if the stages' dependencies go round in a circle
+     */
+    public StageGraph(MultiTask experiment, ITaskVisitor compiler) {
+        stages = new ArrayList<IExecuteTask>();
+        for (int i = 0; i < experiment.getChildCount(); i++) {
+            stages.add((IExecuteTask) experiment.getChildAt(i));
+        }
+        int count = stages.size();
+
+        StageBalancer estimator = new StageBalancer(compiler);
+        costs = new long[count];
+        WellAccess[] accesses = new WellAccess[count];
+        for (int stage = 0; stage < count; stage++) {
+            costs[stage] = estimator.estimateMillis(stages.get(stage));
+            accesses[stage] = WellAccess.of(stages.get(stage));
+            predecessors.add(new ArrayList<Integer>());
+            successors.add(new ArrayList<Integer>());
+        }
+
+        for (int stage = 0; stage < count; stage++) {
+            List<String> named = stages.get(stage) instanceof MultiTask ? ((MultiTask) stages.get(stage)).getDependsOn() : null;
+            if (named != null) {
+                for (String name : named) {
+                    boolean found = false;
+                    for (int other = 0; other < count; other++) {
+                        if (other != stage && stages.get(other).toString().equals(name)) {
+                            addEdge(other, stage);
+                            found = true;
+                        }
+                    }
+                    if (!found) System.out.println("Stage " + stages.get(stage) + " waits on " + name + ", which isn't a stage.");
+                }
+            }
+            else {
+                for (int earlier = 0; earlier < stage; earlier++) {
+                    if (accesses[earlier].conflictsWith(accesses[stage])) addEdge(earlier, stage);
+                }
+            }
+        }
+
+        order = topologicalOrder();
+        bottomLevels = new long[count];
+        for (int i = count - 1; i >= 0; i--) {
+            int stage = order[i];
+            long after = 0;
+            for (int successor : successors.get(stage)) after = Math.max(after, bottomLevels[successor]);
+            bottomLevels[stage] = costs[stage] + after;
+        }
+        findCriticalPath();
+    }
+
+    private void addEdge(int from, int to) {
+        if (successors.get(from).contains(to)) return;
+        successors.get(from).add(to);
+        predecessors.get(to).add(from);
+    }
+
+    /**
+     * Kahn's algorithm, always taking the earliest stage in the experiment that is free to go.
+     */
+    private int[] topologicalOrder() {
+        int count = stages.size();
+        int[] waiting = new int[count];
+        PriorityQueue<Integer> free = new PriorityQueue<Integer>();
+        for (int stage = 0; stage < count; stage++) {
+            waiting[stage] = predecessors.get(stage).size();
+            if (waiting[stage] == 0) free.add(stage);
+        }
+        int[] sorted = new int[count];
+        int placed = 0;
+        while (!free.isEmpty()) {
+            int stage = free.poll();
+            sorted[placed++] = stage;
+            for (int successor : successors.get(stage)) {
+                if (--waiting[successor] == 0) free.add(successor);
+            }
+        }
+        if (placed < count) throw new IllegalStateException("Stage dependencies go round in a circle.");
+        return sorted;
+    }
+
+    private void findCriticalPath() {
+        int stage = -1;
+        for (int candidate = 0; candidate < stages.size(); candidate++) {
+            if (predecessors.get(candidate).isEmpty() && (stage < 0 || bottomLevels[candidate] > bottomLevels[stage])) {
+                stage = candidate;
+            }
+        }
+        if (stage < 0) return;
+        criticalPathMillis = bottomLevels[stage];
+        while (stage >= 0) {
+            criticalPath.add(stage);
+            int next = -1;
+            for (int successor : successors.get(stage)) {
+                if (next < 0 || bottomLevels[successor] > bottomLevels[next]) next = successor;
+            }
+            stage = next;
+        }
+    }
+
+    /**
+     * @return number of stages
+     */
+    public int size() {
+        return stages.size();
+    }
+
+    public IExecuteTask getStage(int stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * @return index of the given stage, or -1 if it isn't one of this graph's stages
+     */
+    public int indexOf(IExecuteTask task) {
+        for (int stage = 0; stage < stages.size(); stage++) {
+            if (stages.get(stage) == task) return stage;
+        }
+        return -1;
+    }
+
+    /**
+     * @return estimated run time of the stage, in ms
+     */
+    public long getCost(int stage) {
+        return costs[stage];
+    }
+
+    /**
+     * @return stages the given one waits on
+     */
+    public List<Integer> getPredecessors(int stage) {
+        return Collections.unmodifiableList(predecessors.get(stage));
+    }
+
+    /**
+     * @return stages waiting on the given one
+     */
+    public List<Integer> getSuccessors(int stage) {
+        return Collections.unmodifiableList(successors.get(stage));
+    }
+
+    /**
+     * @return time from the stage starting to the end of the longest chain of stages after it, in ms. Running the
+     * stages with the highest first keeps the critical path moving.
+     */
+    public long getBottomLevel(int stage) {
+        return bottomLevels[stage];
+    }
+
+    /**
+     * @return stages in an order that has every stage after the ones it waits on
+     */
+    public int[] getOrder() {
+        return order.clone();
+    }
+
+    /**
+     * @return stages on the longest chain through the graph, first to last
+     */
+    public List<Integer> getCriticalPath() {
+        return Collections.unmodifiableList(criticalPath);
+    }
+
+    /**
+     * @return estimated length of the critical path, the least time the experiment can take, in ms
+     */
+    public long getCriticalPathMillis() {
+        return criticalPathMillis;
+    }
+
+    /**
+     * @return estimated time to run every stage one after the other, in ms
+     */
+    public long getSequentialMillis() {
+        long total = 0;
+        for (long cost : costs) total += cost;
+        return total;
+    }
+
+    /**
+     * @return readable listing of the stages, what each waits on, and the critical path
+     */
+    public String describe() {
+        StringBuilder listing = new StringBuilder(String.format(
+                "%d stage(s), %.1f s one after the other, critical path %.1f s:",
+                stages.size(), getSequentialMillis() / 1000.0, criticalPathMillis / 1000.0));
+        String separator = " ";
+        for (int stage : criticalPath) {
+            listing.append(separator).append(stages.get(stage));
+            separator = " -> ";
+        }
+        listing.append('\n');
+        for (int stage : order) {
+            listing.append(String.format("%s (%.1f s)", stages.get(stage), costs[stage] / 1000.0));
+            if (!predecessors.get(stage).isEmpty()) {
+                listing.append(" after");
+                separator = " ";
+                for (int predecessor : predecessors.get(stage)) {
+                    listing.append(separator).append(stages.get(predecessor));
+                    separator = ", ";
+                }
+            }
+            listing.append('\n');
+        }
+        return listing.toString();
+    }
+
+    public String toString() {
+        return String.format("Stage graph of %d stage(s), critical path %.1f s of %.1f s", stages.size(),
+                criticalPathMillis / 1000.0, getSequentialMillis() / 1000.0);
+    }
+}
@@ -0,0 +1,245 @@
+package main.model.tasks.scheduling;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs tasks after a delay, for waits handled on the host rather than on the device. Timers are kept in a hashed
+ * wheel: a ring of slots, one per tick, that a single thread steps through. Adding or cancelling a timer costs the
+ * same however many are pending, and a timer fires on the first tick at or after its deadline, so at most a tick
+ * late plus however long the executor takes to get to it.
+ *
+ * How late timers really run is measured where they run, and how far the ticking thread has fallen behind its own
+ * schedule is kept as its drift.
+ */
+public class TimerWheel {
+
+    /**
+     * Length of a tick, in ns.
+     */
+    private final long tickNanos;
+
+    /**
+     * Timers due in each slot, this lap or a later one. Only touched by the ticking thread.
+     */
+    private final ArrayList<ArrayList<Timeout>> slots;
+
+    /**
+     * Timers added since the last tick, moved into their slots by the ticking thread.
+     */
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * Where expired timers' tasks are run.
+     */
+    private final Executor executor;
+
+    private Thread thread;
+    private volatile boolean running = false;
+    private boolean stopped = false;
+
+    /**
+     * Time the wheel started, ticks are counted from here.
+     */
+    private long startNanos;
+
+    private final Object statsLock = new Object();
+    private long fired = 0, totalLateNanos = 0, maxLateNanos = 0;
+    private volatile long driftNanos = 0, maxDriftNanos = 0;
+
+    /**
+     * @param tickMillis - length of a tick, and so how late a timer can fire, in ms
+     * @param slotCount - number of slots in the wheel; a lap is this many ticks
+     * @param executor - where to run the tasks of timers that expire
+     */
+    public TimerWheel(int tickMillis, int slotCount, Executor executor) {
+        this.tickNanos = Math.max(1, tickMillis) * 1000000L;
+        this.executor = executor;
+        slots = new ArrayList<ArrayList<Timeout>>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<Timeout>());
+        }
+    }
+
+    /**
+     * Runs a task once the given time has passed, starting the wheel if it isn't going yet.
+     * @param task - task to run on the executor
+     * @param delayMillis - how long to wait, in ms
+     * @return handle to cancel the timer or see when it is due
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        start();
+        Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, delayMillis) * 1000000L);
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Starts the ticking thread, if it isn't going already.
+     */
+    public synchronized void start() {
+        if (running || stopped) return;
+        running = true;
+        startNanos = System.nanoTime();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tickLoop();
+            }
+        }, "Host delay timer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the ticking thread for good. Pending timers never go off.
+     */
+    public synchronized void stop() {
+        running = false;
+        stopped = true;
+        if (thread != null) LockSupport.unpark(thread);
+        thread = null;
+    }
+
+    private void tickLoop() {
+        long tick = 0;
+        while (running) {
+            //sleep until this tick's time, measured from the start so sleeping late doesn't add up
+            long due = startNanos + (tick + 1) * tickNanos;
+            long now = System.nanoTime();
+            while (now < due && running) {
+                LockSupport.parkNanos(due - now);
+                now = System.nanoTime();
+            }
+            driftNanos = now - due;
+            if (driftNanos > maxDriftNanos) maxDriftNanos = driftNanos;
+
+            Timeout timeout;
+            while ((timeout = added.poll()) != null) {
+                if (timeout.cancelled) continue;
+                long ticksAway = Math.max(0, (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos - tick - 1);
+                timeout.rounds = ticksAway / slots.size();
+                slots.get((int) ((tick + ticksAway) % slots.size())).add(timeout);
+            }
+
+            Iterator<Timeout> bucket = slots.get((int) (tick % slots.size())).iterator();
+            while (bucket.hasNext()) {
+                final Timeout expired = bucket.next();
+                if (expired.cancelled) {
+                    bucket.remove();
+                }
+                else if (expired.rounds > 0) {
+                    expired.rounds--;
+                }
+                else {
+                    bucket.remove();
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            record(System.nanoTime() - expired.deadlineNanos);
+                            expired.task.run();
+                        }
+                    });
+                }
+            }
+            tick++;
+        }
+    }
+
+    private void record(long lateNanos) {
+        synchronized (statsLock) {
+            fired++;
+            totalLateNanos += Math.max(0, lateNanos);
+            maxLateNanos = Math.max(maxLateNanos, lateNanos);
+        }
+    }
+
+    /**
+     * @return number of timers that have gone off
+     */
+    public long getFired() {
+        synchronized (statsLock) {
+            return fired;
+        }
+    }
+
+    /**
+     * @return average time timers ran after their deadline, in ms
+     */
+    public double getMeanLateMillis() {
+        synchronized (statsLock) {
+            return fired == 0 ? 0 : totalLateNanos / 1e6 / fired;
+        }
+    }
+
+    /**
+     * @return longest any timer ran after its deadline, in ms
+     */
+    public double getMaxLateMillis() {
+        synchronized (statsLock) {
+            return maxLateNanos / 1e6;
+        }
+    }
+
+    /**
+     * @return how far behind its schedule the ticking thread was on its last tick, in ms
+     */
+    public double getDriftMillis() {
+        return driftNanos / 1e6;
+    }
+
+    /**
+     * @return how far behind its schedule the ticking thread has ever been, in ms
+     */
+    public double getMaxDriftMillis() {
+        return maxDriftNanos / 1e6;
+    }
+
+    /**
+     * @return readable summary of how accurately timers have gone off
+     */
+    public String getSummary() {
+        return String.format("Host timers: %d fired, %.2f ms late on average, %.2f ms at worst; tick drift %.2f ms now, %.2f ms at worst.",
+                getFired(), getMeanLateMillis(), getMaxLateMillis(), getDriftMillis(), getMaxDriftMillis());
+    }
+
+    /**
+     * A pending timer.
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private volatile boolean cancelled = false;
+
+        /**
+         * Number of full laps of the wheel left before the timer is due. Only touched by the ticking thread.
+         */
+        private long rounds;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Stops the timer from going off, if it hasn't already.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return System.nanoTime the timer is due at
+         */
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
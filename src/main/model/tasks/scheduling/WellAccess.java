@@ -0,0 +1,95 @@
+package main.model.tasks.scheduling;
+
+import main.model.tasks.basictasks.*;
+import main.model.tasks.execution.LeafIterator;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Which wells a task takes liquid out of and which it puts liquid into, worked out from the well each dispense
+ * happens over. A negative dispense is a withdrawal and reads the well, anything else writes it.
+ *
+ * Whatever can't be pinned to a well makes the task a barrier that conflicts with everything: raw commands, and
+ * dispenses over a plain location or a well named by a variable.
+ */
+public class WellAccess {
+
+    /**
+     * Wells withdrawn from, as "plate/A1".
+     */
+    private final Set<String> reads = new HashSet<String>();
+
+    /**
+     * Wells dispensed into, as "plate/A1".
+     */
+    private final Set<String> writes = new HashSet<String>();
+
+    /**
+     * True if the task does something whose effect on the wells isn't known.
+     */
+    private boolean barrier = false;
+
+    /**
+     * Works out the wells the given task touches.
+     */
+    public static WellAccess of(IExecuteTask task) {
+        WellAccess access = new WellAccess();
+        //well the nozzle is over, null while over no well we know of
+        String well = null;
+        LeafIterator leaves = new LeafIterator(task);
+        while (leaves.hasNext()) {
+            ALeafTask leaf = leaves.next();
+            if (leaf instanceof MoveToWellTask) {
+                TaskParam identifier = ((MoveToWellTask) leaf).getWellParam(leaves.getBindings());
+                well = identifier.isIdentifier() ? ((MoveToWellTask) leaf).getPlate() + "/" + identifier.getText() : null;
+            }
+            else if (leaf instanceof MoveToLocTask) {
+                well = null;
+            }
+            else if (leaf instanceof RawTask) {
+                access.barrier = true;
+            }
+            else if (leaf instanceof DispenseTask) {
+                TaskParam volume = ((DispenseTask) leaf).getVolumeParam(leaves.getBindings());
+                if (well == null) {
+                    access.barrier = true;
+                }
+                else if (volume.isNumber() && volume.getText().startsWith("-")) {
+                    access.reads.add(well);
+                }
+                else {
+                    access.writes.add(well);
+                }
+            }
+        }
+        return access;
+    }
+
+    /**
+     * @return true if running this and the other task in a different order could give a different result: one writes a
+     * well the other touches, or either is a barrier
+     */
+    public boolean conflictsWith(WellAccess other) {
+        if (barrier || other.barrier) return true;
+        for (String well : writes) {
+            if (other.reads.contains(well) || other.writes.contains(well)) return true;
+        }
+        for (String well : other.writes) {
+            if (reads.contains(well)) return true;
+        }
+        return false;
+    }
+
+    public Set<String> getReads() {
+        return reads;
+    }
+
+    public Set<String> getWrites() {
+        return writes;
+    }
+
+    public boolean isBarrier() {
+        return barrier;
+    }
+}
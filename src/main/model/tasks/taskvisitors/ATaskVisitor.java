@@ -1,26 +1,34 @@
 package main.model.tasks.taskvisitors;
 
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Map;
 
 import main.model.tasks.basictasks.IExecuteTask;
 
 /**
- * Command-based implementation of ITaskVisitor that uses ITaskVisitorCmds stored in a hash table.
+ * Command-based implementation of ITaskVisitor. Commands for the built in kinds of task are ITaskKindCmds kept in an
+ * array indexed by TaskKind, so a visit is an array load and a call with the host and its params as they came.
+ * Commands added by id go in a map; one added under the name of a built in kind is also put in the array, behind an
+ * adapter that hands it the name.
  * @author cah6
  *
  */
 public abstract class ATaskVisitor implements ITaskVisitor {
-	
+
 	/**
-	 * The default command to use when caseAt is called with an ID that is not in the hashtable as a key.
+	 * The default command to use when caseAt is called with an ID or kind no command was added for.
 	 */
 	private ITaskVisitorCmd defaultCmd;
-	
+
+	/**
+	 * Commands for the built in kinds of task, indexed by kind, null where none was added.
+	 */
+	private final ITaskKindCmd[] byKind = new ITaskKindCmd[TaskKind.COUNT];
+
 	/**
-	 * The dictionary of commands, implemented using a hash table.
+	 * Commands added by id. Filled in while the visitor is built, only read after.
 	 */
-	private Map<String, ITaskVisitorCmd> cmds = new Hashtable<String, ITaskVisitorCmd>();
+	private final Map<String, ITaskVisitorCmd> cmds = new HashMap<String, ITaskVisitorCmd>();
 
 	/**
 	 * Constructor that installs a default cmd that throws an IllegalArgumentException on any unknown host.
@@ -43,7 +51,24 @@ public abstract class ATaskVisitor implements ITaskVisitor {
 	}
 
 	/**
-	 * Runs the command associated with the given id, passing along the given host and vararg parameters.  
+	 * Runs the command associated with the given kind of host, passing along the host and vararg parameters. If no cmd
+	 * was added for the kind, then use the default cmd.
+	 * @param kind The TaskKind of the host
+	 * @param host The host IExecuteTask object
+	 * @param params  parameters that might be used, passed on as they are.
+	 * @return the result of executing the associated cmd.
+	 */
+	public Object caseAt(int kind, IExecuteTask host, Object[] params) {
+		ITaskKindCmd cmd = byKind[kind];
+		if (cmd != null) {
+			return cmd.apply(host, params);
+		} else {
+			return defaultCmd.apply(TaskKind.nameOf(kind), host, params);
+		}
+	}
+
+	/**
+	 * Runs the command associated with the given id, passing along the given host and vararg parameters.
 	 * If there is no cmd associated with the given id in the dictionary, then use the default cmd.
 	 * @param id The ID value that identifies the host
 	 * @param host The host IExecuteTask object
@@ -51,20 +76,46 @@ public abstract class ATaskVisitor implements ITaskVisitor {
 	 * @return the result of executing the associated cmd.
 	 */
 	public Object caseAt(String id, IExecuteTask host, Object... params) {
-		if (cmds.containsKey(id)) {
-			return cmds.get(id).apply(id, host, params);
+		ITaskVisitorCmd cmd = cmds.get(id);
+		if (cmd != null) {
+			return cmd.apply(id, host, params);
+		}
+		//a command added by kind can still be reached by its name
+		int kind = TaskKind.of(id);
+		if (kind >= 0) {
+			return caseAt(kind, host, params);
 		} else {
 			return defaultCmd.apply(id, host, params);
 		}
 	}
 
 	/**
-	 * Add the given command to the dictionary, associated with the given id value.
+	 * Add the given command for the given kind of task.
+	 * @param kind The TaskKind of the hosts that will use this command
+	 * @param cmd The command that will be run when the host calls for it.
+	 */
+	public void addCmd(int kind, ITaskKindCmd cmd) {
+		byKind[kind] = cmd;
+		//replaces one added under the kind's name too
+		cmds.remove(TaskKind.nameOf(kind));
+	}
+
+	/**
+	 * Add the given command to the dictionary, associated with the given id value. If the id is the name of a built
+	 * in kind of task, the command is also run for hosts of that kind.
 	 * @param id The id of the host that will use this command
 	 * @param cmd The command that will be run when the host calls for it.
 	 */
-	public void addCmd(String id, ITaskVisitorCmd cmd) {
+	public void addCmd(final String id, final ITaskVisitorCmd cmd) {
 		cmds.put(id, cmd);
+		int kind = TaskKind.of(id);
+		if (kind >= 0) {
+			byKind[kind] = new ITaskKindCmd() {
+				public Object apply(IExecuteTask host, Object[] params) {
+					return cmd.apply(id, host, params);
+				}
+			};
+		}
 	}
 
 }
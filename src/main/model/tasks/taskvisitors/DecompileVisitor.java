@@ -1,87 +1,110 @@
 package main.model.tasks.taskvisitors;
 
 import java.util.ArrayList;
-import java.util.Collections;
 
 import main.model.tasks.basictasks.*;
 import main.model.tasks.basictasks.ALeafTask;
 
+/**
+ * Flattens a task tree into its leaves, in the order they would run, by visiting every node. Pass it the ArrayList the
+ * leaves go into. Runs walk the tree with a LeafIterator instead; this stays as a plain visitor over the whole tree,
+ * which tests check loops against and the dispatch benchmark times.
+ */
 public class DecompileVisitor extends ATaskVisitor {
 
 	public DecompileVisitor(){
-		addCmd("Multi", new ITaskVisitorCmd(){
+		addCmd(TaskKind.MULTI, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
+			public Object apply(IExecuteTask host, Object[] params) {
 				MultiTask multiHost = (MultiTask) host;
-				ArrayList<IExecuteTask> subtasks = Collections.list(multiHost.children());
-				for (IExecuteTask task : subtasks){
-					task.executeVisitor(DecompileVisitor.this, params[0]);
+				//params go straight through to each child, nothing is allocated per node
+				for (int i = 0; i < multiHost.getChildCount(); i++){
+					multiHost.getTask(i).executeVisitor(DecompileVisitor.this, params);
 				}
 				return null;
 			}
 		});
-		addCmd("Dispense", new ITaskVisitorCmd(){
+		addCmd(TaskKind.LOOP, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
-				((ArrayList<ALeafTask>) params[0]).add((DispenseTask) host);
+			public Object apply(IExecuteTask host, Object[] params) {
+				LoopTask loopHost = (LoopTask) host;
+				//each pass is made only as it is decompiled
+				for (int i = 0; i < loopHost.getIterationCount(); i++){
+					loopHost.getIteration(i).executeVisitor(DecompileVisitor.this, params);
+				}
 				return null;
 			}
 		});
-		addCmd("MoveToWell", new ITaskVisitorCmd(){
+		addCmd(TaskKind.DISPENSE, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
-				((ArrayList<ALeafTask>) params[0]).add((MoveToWellTask) host);
+			public Object apply(IExecuteTask host, Object[] params) {
+				leaves(params).add((DispenseTask) host);
 				return null;
 			}
 		});
-        addCmd("MoveToLoc", new ITaskVisitorCmd(){
+		addCmd(TaskKind.MOVE_TO_WELL, new ITaskKindCmd(){
+			@Override
+			public Object apply(IExecuteTask host, Object[] params) {
+				leaves(params).add((MoveToWellTask) host);
+				return null;
+			}
+		});
+        addCmd(TaskKind.MOVE_TO_LOC, new ITaskKindCmd(){
             @Override
-            public Object apply(String id, IExecuteTask host, Object... params) {
-                ((ArrayList<ALeafTask>) params[0]).add((MoveToWellTask) host);
+            public Object apply(IExecuteTask host, Object[] params) {
+                leaves(params).add((MoveToLocTask) host);
                 return null;
             }
         });
-		addCmd("NozzleHeight", new ITaskVisitorCmd(){
+		addCmd(TaskKind.NOZZLE_HEIGHT, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
-				((ArrayList<ALeafTask>) params[0]).add((NozzleHeightTask) host);
+			public Object apply(IExecuteTask host, Object[] params) {
+				leaves(params).add((NozzleHeightTask) host);
 				return null;
 			}
 		});
-		addCmd("Lower", new ITaskVisitorCmd(){
+		addCmd(TaskKind.LOWER, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
-				((ArrayList<ALeafTask>) params[0]).add((LowerTask) host);
+			public Object apply(IExecuteTask host, Object[] params) {
+				leaves(params).add((LowerTask) host);
 				return null;
 			}
 		});
-		addCmd("Raise", new ITaskVisitorCmd(){
+		addCmd(TaskKind.RAISE, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
-				((ArrayList<ALeafTask>) params[0]).add((RaiseTask) host);
+			public Object apply(IExecuteTask host, Object[] params) {
+				leaves(params).add((RaiseTask) host);
 				return null;
 			}
 		});
-        addCmd("PumpParams", new ITaskVisitorCmd(){
+        addCmd(TaskKind.PUMP_PARAMS, new ITaskKindCmd(){
             @Override
-            public Object apply(String id, IExecuteTask host, Object... params) {
-                ((ArrayList<ALeafTask>) params[0]).add((PumpParamsTask) host);
+            public Object apply(IExecuteTask host, Object[] params) {
+                leaves(params).add((PumpParamsTask) host);
                 return null;
             }
         });
-        addCmd("Raw", new ITaskVisitorCmd(){
+        addCmd(TaskKind.RAW, new ITaskKindCmd(){
             @Override
-            public Object apply(String id, IExecuteTask host, Object... params) {
-                ((ArrayList<ALeafTask>) params[0]).add((RawTask) host);
+            public Object apply(IExecuteTask host, Object[] params) {
+                leaves(params).add((RawTask) host);
                 return null;
             }
         });
-        addCmd("Delay", new ITaskVisitorCmd(){
+        addCmd(TaskKind.DELAY, new ITaskKindCmd(){
             @Override
-            public Object apply(String id, IExecuteTask host, Object... params) {
-                ((ArrayList<ALeafTask>) params[0]).add((DelayTask) host);
+            public Object apply(IExecuteTask host, Object[] params) {
+                leaves(params).add((DelayTask) host);
                 return null;
             }
         });
 	}
+
+	/**
+	 * @return the list the leaves go into
+	 */
+	@SuppressWarnings("unchecked") //params can only be Objects, and callers always pass an ArrayList<ALeafTask>
+	private static ArrayList<ALeafTask> leaves(Object[] params) {
+		return (ArrayList<ALeafTask>) params[0];
+	}
 }
@@ -7,11 +7,9 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 
 import main.model.plate.objects.Plate;
 import main.model.tasks.basictasks.*;
-import main.util.Parser;
 
 import javax.imageio.ImageIO;
 
@@ -40,13 +38,14 @@ public class DrawVisitor extends ATaskVisitor {
             e.printStackTrace();
         }
 
-		addCmd("Multi", new ITaskVisitorCmd(){
+		addCmd(TaskKind.MULTI, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
+			public Object apply(IExecuteTask host, Object[] params) {
 				MultiTask multiHost = (MultiTask) host;
 
-				ArrayList<IExecuteTask> subtasks = Collections.list(multiHost.children());
-				for (IExecuteTask task : subtasks){
+				//params go straight through to each child, nothing is allocated per node
+				for (int i = 0; i < multiHost.getChildCount(); i++){
+					IExecuteTask task = multiHost.getTask(i);
 					Point2D result = (Point2D) task.executeVisitor(DrawVisitor.this, params);
                     if (result != null) params[2] = result;
 				}
@@ -54,10 +53,29 @@ public class DrawVisitor extends ATaskVisitor {
 			}
 		});
 
+        //draw a loop by drawing its children once per pass with the variable bound, never copying them
+		addCmd(TaskKind.LOOP, new ITaskKindCmd(){
+			@Override
+			public Object apply(IExecuteTask host, Object[] params) {
+				LoopTask loopHost = (LoopTask) host;
+				Bindings outer = bindings(params);
+				Object[] inner = {params[0], params[1], params[2], params[3], null};
+				for (TaskParam value : loopHost.getValueParams(outer)){
+					inner[4] = outer.bind(loopHost.getVariable(), value);
+					for (int i = 0; i < loopHost.getChildCount(); i++){
+						Point2D result = (Point2D) loopHost.getTask(i).executeVisitor(DrawVisitor.this, inner);
+						if (result != null) inner[2] = result;
+					}
+				}
+				params[2] = inner[2];
+				return null;
+			}
+		});
+
         //draw a dispense task by drawing an arrow up or down
-		addCmd("Dispense", new ITaskVisitorCmd(){
+		addCmd(TaskKind.DISPENSE, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
+			public Object apply(IExecuteTask host, Object[] params) {
                 DispenseTask dispenseHost = (DispenseTask) host;
 
                 //stop immedietely if this task should not be drawn
@@ -66,13 +84,14 @@ public class DrawVisitor extends ATaskVisitor {
                 Graphics2D g2d = (Graphics2D) params[0];
                 double sF = (double) params[1];
                 Point2D destination = (Point2D) params[2];
+                double volume = dispenseHost.getVolumeParam(bindings(params)).getValue();
 
                 int scale = 8;
 
                 //only draw if we've actually moved a little
                 if (destination.distance(0,0) != 0) {
                     //actually draw the task, drawing a different icon for withdrawing and dispensing
-                    if (dispenseHost.getVolume() < 0) { //if withdrawing, draw an arrow going up
+                    if (volume < 0) { //if withdrawing, draw an arrow going up
                         g2d.drawImage(dispenseIcon,
                                 (int)(destination.getX()*sF - scale), //top-left x coordinate
                                 (int)(destination.getY()*sF - scale), //top-left y coorinate
@@ -80,7 +99,7 @@ public class DrawVisitor extends ATaskVisitor {
                                 scale*2,                //height
                                 null);
                     }
-                    else if (dispenseHost.getVolume() < 0) {          //otherwise, draw an arrow going down
+                    else if (volume < 0) {          //otherwise, draw an arrow going down
                         g2d.drawImage(withdrawIcon,
                                 (int)(destination.getX()*sF - scale), //top-left x coordinate
                                 (int)(destination.getY()*sF - scale), //top-left y coorinate
@@ -102,9 +121,9 @@ public class DrawVisitor extends ATaskVisitor {
 			}
 		});
         //draw move tasks by drawing a line from current location to destination
-		addCmd("MoveToWell", new ITaskVisitorCmd(){
+		addCmd(TaskKind.MOVE_TO_WELL, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
+			public Object apply(IExecuteTask host, Object[] params) {
                 MoveToWellTask moveToWellHost = (MoveToWellTask) host;
 
                 Graphics2D g2d = (Graphics2D) params[0];
@@ -112,15 +131,15 @@ public class DrawVisitor extends ATaskVisitor {
                 double sF = (double) params[1];
                 Point2D start = (Point2D) params[2];
                 ArrayList<Plate> plates = (ArrayList<Plate>) params[3];
-                ArrayList<String> identifiers = moveToWellHost.getDestination();
+                TaskParam well = moveToWellHost.getWellParam(bindings(params));
 
                 //if well is not an idenfitifer
-                if (!Parser.isIdentifier(identifiers.get(1))) return start;
+                if (!well.isIdentifier()) return start;
 
                 Point2D destination = null;
                 for (Plate plate : plates) {
-                    if (plate.getName().equals(identifiers.get(0)))
-                        destination = plate.getWellLocation(identifiers.get(1));
+                    if (plate.getName().equals(moveToWellHost.getPlate()))
+                        destination = plate.getWellLocation(well.getText());
                 }
                 if (destination == null) return start;
 
@@ -133,16 +152,18 @@ public class DrawVisitor extends ATaskVisitor {
                 return destination; //return the final location
 			}
 		});
-        addCmd("MoveToLoc", new ITaskVisitorCmd(){
+        addCmd(TaskKind.MOVE_TO_LOC, new ITaskKindCmd(){
             @Override
-            public Object apply(String id, IExecuteTask host, Object... params) {
+            public Object apply(IExecuteTask host, Object[] params) {
                 MoveToLocTask moveToLocHost = (MoveToLocTask) host;
 
                 Graphics2D g2d = (Graphics2D) params[0];
                 g2d.setColor(Color.black);
                 double sF = (double) params[1];
                 Point2D start = (Point2D) params[2];
-                Point2D destination = moveToLocHost.getDestination();
+                TaskParam x = moveToLocHost.getXParam(bindings(params)), y = moveToLocHost.getYParam(bindings(params));
+                Point2D destination = x.isNumber() && y.isNumber()
+                        ? new Point2D.Double(x.getValue(), y.getValue()) : new Point2D.Double(0, 0);
 
                 //actually draw the task
                 if (destination != null && moveToLocHost.getVisibility()){
@@ -154,32 +175,39 @@ public class DrawVisitor extends ATaskVisitor {
                 return destination; //return the final location
             }
         });
-		addCmd("NozzleHeight", new ITaskVisitorCmd(){
+		addCmd(TaskKind.NOZZLE_HEIGHT, new ITaskKindCmd(){
 			@Override
-			public Object apply(String id, IExecuteTask host, Object... params) {
+			public Object apply(IExecuteTask host, Object[] params) {
 				return null;
 			}
 		});
-        addCmd("Lower", new ITaskVisitorCmd(){
+        addCmd(TaskKind.LOWER, new ITaskKindCmd(){
             @Override
-            public Object apply(String id, IExecuteTask host, Object... params) {
+            public Object apply(IExecuteTask host, Object[] params) {
                 return null;
             }
         });
-        addCmd("Raise", new ITaskVisitorCmd(){
+        addCmd(TaskKind.RAISE, new ITaskKindCmd(){
             @Override
-            public Object apply(String id, IExecuteTask host, Object... params) {
+            public Object apply(IExecuteTask host, Object[] params) {
                 return null;
             }
         });
-        addCmd("PumpParams", new ITaskVisitorCmd(){
+        addCmd(TaskKind.PUMP_PARAMS, new ITaskKindCmd(){
             @Override
-            public Object apply(String id, IExecuteTask host, Object... params) {
+            public Object apply(IExecuteTask host, Object[] params) {
                 return null;
             }
         });
 	}
 
+    /**
+     * @return bindings passed after the plates, or none if there weren't any
+     */
+    private static Bindings bindings(Object[] params) {
+        return params.length > 4 ? (Bindings) params[4] : Bindings.NONE;
+    }
+
     /**
      * Draw arrows along line formed by two input points.
      */
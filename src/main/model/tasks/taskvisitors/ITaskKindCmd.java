@@ -0,0 +1,18 @@
+package main.model.tasks.taskvisitors;
+
+import main.model.tasks.basictasks.IExecuteTask;
+
+/**
+ * The command ATaskVisitor runs for one kind of task, found by the host's TaskKind. It gets the host and the params it
+ * was visited with as they are, with no id and no varargs array made for the call.
+ */
+public interface ITaskKindCmd {
+
+	/**
+	 * The method called when the ATaskVisitor delegates its caseAt call to this command.
+	 * @param host the host itself
+	 * @param params input parameters the host was visited with
+	 * @return the result of this processing of the host.
+	 */
+	public Object apply(IExecuteTask host, Object[] params);
+}
@@ -16,4 +16,13 @@ public interface ITaskVisitor {
 	 * @return the result of running the associated processing for the host.
 	 */
 	public Object caseAt(String id, IExecuteTask host, Object...params);
+
+	/**
+	 * Called by the host to run the appropriate processing for that host, found by its kind rather than its id.
+	 * @param kind The TaskKind of the host
+	 * @param host The host itself
+	 * @param params input parameters that the algo might use, as the host was visited with them.
+	 * @return the result of running the associated processing for the host.
+	 */
+	public Object caseAt(int kind, IExecuteTask host, Object[] params);
 }
@@ -0,0 +1,165 @@
+package main.model.tasks.taskvisitors;
+
+import java.awt.geom.Point2D;
+
+import main.model.plate.PlateModel;
+import main.model.serial.protocol.CommandType;
+import main.model.serialization.SerializationModel;
+import main.model.tasks.basictasks.*;
+import main.model.tasks.execution.ExecutionPlan;
+
+/**
+ * Compiles tasks into an ExecutionPlan, resolving everything each leaf would otherwise work out as it is sent: well
+ * locations, pump steps for a volume, nozzle heights. Takes an ExecutionPlan.Builder as its parameter, and optionally
+ * the Bindings to resolve the variables of loops around the task against. Leaves that would send nothing, like a move
+ * whose well is still a variable, are left out of the plan entirely.
+ */
+public class PlanCompileVisitor extends ATaskVisitor {
+
+	public PlanCompileVisitor(final PlateModel plateModel){
+		addCmd(TaskKind.MULTI, new ITaskKindCmd(){
+			@Override
+			public Object apply(IExecuteTask host, Object[] params) {
+				MultiTask multiHost = (MultiTask) host;
+				//params go straight through to each child, nothing is allocated per node
+				for (int i = 0; i < multiHost.getChildCount(); i++){
+					multiHost.getTask(i).executeVisitor(PlanCompileVisitor.this, params);
+				}
+				return null;
+			}
+		});
+		addCmd(TaskKind.LOOP, new ITaskKindCmd(){
+			@Override
+			public Object apply(IExecuteTask host, Object[] params) {
+				LoopTask loopHost = (LoopTask) host;
+				Bindings outer = bindings(params);
+				//the children are compiled once per pass with the variable bound, never copied
+				Object[] inner = {params[0], null};
+				for (TaskParam value : loopHost.getValueParams(outer)){
+					inner[1] = outer.bind(loopHost.getVariable(), value);
+					for (int i = 0; i < loopHost.getChildCount(); i++){
+						loopHost.getTask(i).executeVisitor(PlanCompileVisitor.this, inner);
+					}
+				}
+				return null;
+			}
+		});
+		addCmd(TaskKind.DISPENSE, new ITaskKindCmd(){
+			@Override
+			public Object apply(IExecuteTask host, Object[] params) {
+				DispenseTask dispense = (DispenseTask) host;
+				TaskParam volume = dispense.getVolumeParam(bindings(params));
+				if (volume.isNumber()) {
+					int steps = (int) (volume.getValue() * SerializationModel.userSettings.stepsTouLFactor);
+					((ExecutionPlan.Builder) params[0]).add(CommandType.DISPENSE, steps, 0, dispense);
+				}
+				return null;
+			}
+		});
+		addCmd(TaskKind.MOVE_TO_WELL, new ITaskKindCmd(){
+			@Override
+			public Object apply(IExecuteTask host, Object[] params) {
+				MoveToWellTask move = (MoveToWellTask) host;
+				TaskParam well = move.getWellParam(bindings(params));
+				if (!well.isIdentifier()) return null;
+
+				Point2D destination = plateModel.getLocationFromIdentifier(move.getPlate(), well.getText());
+				if (destination != null) {
+					((ExecutionPlan.Builder) params[0]).add(CommandType.MOVE, (int) Math.round(destination.getX() * 100),
+							(int) Math.round(destination.getY() * 100), move);
+				}
+				return null;
+			}
+		});
+        addCmd(TaskKind.MOVE_TO_LOC, new ITaskKindCmd(){
+            @Override
+            public Object apply(IExecuteTask host, Object[] params) {
+                MoveToLocTask move = (MoveToLocTask) host;
+                TaskParam x = move.getXParam(bindings(params)), y = move.getYParam(bindings(params));
+                if (x.isNumber() && y.isNumber()) {
+                    ((ExecutionPlan.Builder) params[0]).add(CommandType.MOVE,
+                            (int) Math.round(x.getValue() * 100), (int) Math.round(y.getValue() * 100), move);
+                }
+                return null;
+            }
+        });
+		addCmd(TaskKind.NOZZLE_HEIGHT, new ITaskKindCmd(){
+			@Override
+			public Object apply(IExecuteTask host, Object[] params) {
+				NozzleHeightTask nozzle = (NozzleHeightTask) host;
+				TaskParam heightParam = nozzle.getHeightParam(bindings(params));
+				if (!heightParam.isNumber()) return null;
+
+				double height = heightParam.getValue();
+				if (height > 0) {
+					((ExecutionPlan.Builder) params[0]).add(CommandType.NOZZLE_HEIGHT, 1250, 0, nozzle);
+				}
+				else if (height < 0) {
+					((ExecutionPlan.Builder) params[0]).add(CommandType.NOZZLE_HEIGHT, 1500, 0, nozzle);
+				}
+				return null;
+			}
+		});
+		addCmd(TaskKind.LOWER, new ITaskKindCmd(){
+			@Override
+			public Object apply(IExecuteTask host, Object[] params) {
+				((ExecutionPlan.Builder) params[0]).add(CommandType.NOZZLE_HEIGHT,
+						SerializationModel.userSettings.defaultLowerSteps, 0, (LowerTask) host);
+				return null;
+			}
+		});
+		addCmd(TaskKind.RAISE, new ITaskKindCmd(){
+			@Override
+			public Object apply(IExecuteTask host, Object[] params) {
+				((ExecutionPlan.Builder) params[0]).add(CommandType.NOZZLE_HEIGHT,
+						SerializationModel.userSettings.defaultRaiseSteps, 0, (RaiseTask) host);
+				return null;
+			}
+		});
+        addCmd(TaskKind.PUMP_PARAMS, new ITaskKindCmd(){
+            @Override
+            public Object apply(IExecuteTask host, Object[] params) {
+                PumpParamsTask pump = (PumpParamsTask) host;
+                ((ExecutionPlan.Builder) params[0]).add(CommandType.PUMP_PARAMS, pump.getSpeed(), pump.getAcceleration(), pump);
+                return null;
+            }
+        });
+        addCmd(TaskKind.RAW, new ITaskKindCmd(){
+            @Override
+            public Object apply(IExecuteTask host, Object[] params) {
+                RawTask raw = (RawTask) host;
+                ((ExecutionPlan.Builder) params[0]).addRaw(raw.getText(), raw);
+                return null;
+            }
+        });
+        addCmd(TaskKind.DELAY, new ITaskKindCmd(){
+            @Override
+            public Object apply(IExecuteTask host, Object[] params) {
+                DelayTask delay = (DelayTask) host;
+                TaskParam time = delay.getTimeParam(bindings(params));
+                if (DelayTask.isWholeMs(time)) {
+                    ((ExecutionPlan.Builder) params[0]).add(CommandType.DELAY, (int) time.getValue(), 0, delay);
+                }
+                else {
+                    //a variable, or a fraction of a ms the delay command can't carry, send it as typed
+                    ((ExecutionPlan.Builder) params[0]).addRaw("delay(" + time.getText() + ")", delay);
+                }
+                return null;
+            }
+        });
+        addCmd(TaskKind.NULL, new ITaskKindCmd(){
+            @Override
+            public Object apply(IExecuteTask host, Object[] params) {
+                //nothing to send
+                return null;
+            }
+        });
+	}
+
+	/**
+	 * @return bindings passed after the builder, or none if there weren't any
+	 */
+	private static Bindings bindings(Object[] params) {
+		return params.length > 1 ? (Bindings) params[1] : Bindings.NONE;
+	}
+}
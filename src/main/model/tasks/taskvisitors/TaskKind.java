@@ -0,0 +1,54 @@
+package main.model.tasks.taskvisitors;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Small integer identifying each kind of task, which a host passes to its visitor so the visitor can find the
+ * matching command by indexing an array rather than looking a string up. Each kind also has a fixed name, the id its
+ * host used before kinds, so commands added by name with addCmd still land in the right place.
+ */
+public final class TaskKind {
+
+    public static final int MULTI = 0, DISPENSE = 1, MOVE_TO_WELL = 2, MOVE_TO_LOC = 3, NOZZLE_HEIGHT = 4, LOWER = 5,
+            RAISE = 6, PUMP_PARAMS = 7, RAW = 8, DELAY = 9, NULL = 10, LOOP = 11;
+
+    /**
+     * Names of the kinds, indexed by kind.
+     */
+    private static final String[] NAMES = {"Multi", "Dispense", "MoveToWell", "MoveToLoc", "NozzleHeight", "Lower",
+            "Raise", "PumpParams", "Raw", "Delay", "Null", "Loop"};
+
+    /**
+     * Number of kinds, and so the size of a visitor's command array.
+     */
+    public static final int COUNT = NAMES.length;
+
+    /**
+     * Kinds by name, filled in once when the class loads.
+     */
+    private static final Map<String, Integer> BY_NAME = new HashMap<String, Integer>();
+    static {
+        for (int kind = 0; kind < COUNT; kind++) {
+            BY_NAME.put(NAMES[kind], kind);
+        }
+    }
+
+    private TaskKind() {
+    }
+
+    /**
+     * @return kind registered under the given name, -1 if there isn't one
+     */
+    public static int of(String name) {
+        Integer kind = BY_NAME.get(name);
+        return kind == null ? -1 : kind;
+    }
+
+    /**
+     * @return fixed name of the given kind, the id commands for it can be added under with addCmd
+     */
+    public static String nameOf(int kind) {
+        return NAMES[kind];
+    }
+}
@@ -1,7 +1,8 @@
 package main.util;
 
 /**
- * Utility class that supplies operations that will be used in various parts of program.
+ * Utility class that supplies operations that will be used in various parts of program. Checks are hand-written
+ * scanners rather than regular expressions, as they are called for every task parameter that gets parsed.
  */
 public class Parser {
 
@@ -15,20 +16,55 @@ public class Parser {
      */
     public static boolean isNumeric(String str)
     {
-        return str.matches("-?\\d+(\\.\\d+)?");  //match a number with optional '-' and decimal.
+        //a number with optional '-' and decimal, as in -?\d+(\.\d+)?
+        int i = skipSign(str);
+        int digits = skipDigits(str, i);
+        if (digits == i) return false;
+        if (digits == str.length()) return true;
+        if (str.charAt(digits) != '.') return false;
+        int decimals = skipDigits(str, digits + 1);
+        return decimals > digits + 1 && decimals == str.length();
     }
 
     /**
      * Checks whether input string is a well "identifier" -- an alphanumeric value.
      */
     public static boolean isIdentifier(String str) {
-        return str.matches("[A-Z][0-9]+");
+        //a capital letter then digits, as in [A-Z][0-9]+
+        if (str.length() < 2 || str.charAt(0) < 'A' || str.charAt(0) > 'Z') return false;
+        return skipDigits(str, 1) == str.length();
+    }
+
+    /**
+     * Checks whether input string is a single capital letter, like a plate row.
+     */
+    public static boolean isLetter(String str) {
+        //as in [A-Z]
+        return str.length() == 1 && str.charAt(0) >= 'A' && str.charAt(0) <= 'Z';
     }
 
     /**
      * Checks whether input string is an integer.
      */
     public static boolean isInteger(String str) {
-        return str.matches("-?[0-9]+");
+        //digits with optional '-', as in -?[0-9]+
+        int i = skipSign(str);
+        return i < str.length() && skipDigits(str, i) == str.length();
+    }
+
+    /**
+     * @return index just past a leading '-', if there is one
+     */
+    private static int skipSign(String str) {
+        return str.length() > 0 && str.charAt(0) == '-' ? 1 : 0;
+    }
+
+    /**
+     * @return index of the first character at or after from that isn't a digit
+     */
+    private static int skipDigits(String str, int from) {
+        int i = from;
+        while (i < str.length() && str.charAt(i) >= '0' && str.charAt(i) <= '9') i++;
+        return i;
     }
 }
@@ -1,5 +1,6 @@
 package main.view;
 
+import main.model.serial.simulation.SimulatedTransport;
 import main.model.serialization.SerializationModel;
 import main.model.tasks.TaskModel;
 import main.model.tasks.basictasks.AExecuteTask;
@@ -15,6 +16,8 @@ import javax.swing.*;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
@@ -58,7 +61,11 @@ public class TreeRightClickListener extends MouseAdapter {
 
             private static final long serialVersionUID = -3142513178293086540L;
 
-            JMenuItem saveTask, saveExperiment, delete, show, hide, replaceInc, replaceAll, loop;
+            JMenuItem saveTask, saveExperiment, delete, show, hide, replaceInc, replaceAll, loop, optimizeTravel, previewPeephole,
+                    addDevice, runOnDevices, pinToDevice, showStages, waitsOn, estimateDuration,
+                    resumeRun, showLatencies, continueStalled, pauseRun, resumePaused, abortRun, emergencyStop;
+
+            JCheckBoxMenuItem anyOrder;
 
             {
                 saveTask = new JMenuItem("Save Task");
@@ -69,6 +76,22 @@ public class TreeRightClickListener extends MouseAdapter {
                 replaceInc = new JMenuItem("Replace: Incremental");
                 replaceAll = new JMenuItem("Replace: All");
                 loop = new JMenuItem("Loop Task");
+                optimizeTravel = new JMenuItem("Optimize Travel");
+                previewPeephole = new JMenuItem("Preview Command Cleanup");
+                addDevice = new JMenuItem("Add Device to Pool...");
+                runOnDevices = new JMenuItem("Run on Device Pool");
+                pinToDevice = new JMenuItem("Run on Device...");
+                showStages = new JMenuItem("Stage Dependencies");
+                waitsOn = new JMenuItem("Waits On...");
+                anyOrder = new JCheckBoxMenuItem("Any Order");
+                estimateDuration = new JMenuItem("Estimate Duration");
+                resumeRun = new JMenuItem("Resume Run from Journal");
+                showLatencies = new JMenuItem("Command Latencies");
+                continueStalled = new JMenuItem("Continue Stalled Run");
+                pauseRun = new JMenuItem("Pause Run");
+                resumePaused = new JMenuItem("Resume Paused Run");
+                abortRun = new JMenuItem("Abort Run");
+                emergencyStop = new JMenuItem("Emergency Stop");
 
                 /* Only allow saving on multitasks. Saves it as the multitask's current name. */
                 saveTask.addActionListener(new ActionListener() {
@@ -204,18 +227,238 @@ public class TreeRightClickListener extends MouseAdapter {
                     }
                 });
 
+                /* Let the travel optimizer rearrange this multitask's children, or stop it from doing so. */
+                anyOrder.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        MultiTask selected = (MultiTask) selPath.getLastPathComponent();
+                        selected.setUnordered(anyOrder.isSelected());
+                    }
+                });
+
+                /* Rearrange any-order blocks in the selected multitask to cut down on travel, and say how much it saved. */
+                optimizeTravel.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        IExecuteTask selected = (IExecuteTask) selPath.getLastPathComponent();
+                        String report = taskModel.optimizeTravel(selected).toString();
+                        taskModel.repaint();
+                        SimpleDialogs.popTravelReport(taskTree, report);
+                    }
+                });
+
+                /* Show which of the selected multitask's commands the peephole pass would drop or merge. */
+                previewPeephole.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        IExecuteTask selected = (IExecuteTask) selPath.getLastPathComponent();
+                        SimpleDialogs.popListing(taskTree, "Command Cleanup", taskModel.previewPeephole(selected));
+                    }
+                });
+
+                /* Show how long the task should take, and how much of the current run is left. */
+                estimateDuration.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        IExecuteTask selected = (IExecuteTask) selPath.getLastPathComponent();
+                        String listing = taskModel.estimateDuration(selected).describe();
+                        if (taskModel.isExecuting() && taskModel.getProgress() != null) {
+                            listing += "\nCurrent run: " + taskModel.getProgress() + "\n";
+                        }
+                        SimpleDialogs.popListing(taskTree, "Duration Estimate", listing + "\n" + taskModel.getMotionModel());
+                    }
+                });
+
+                /* Pick a run cut short by a crash back up where the device left off. */
+                resumeRun.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        try {
+                            taskModel.resumeFromJournal();
+                        } catch (IOException ex) {
+                            JOptionPane.showMessageDialog(taskTree, "Could not read the run journal: " + ex.getMessage());
+                        } catch (IllegalStateException ex) {
+                            JOptionPane.showMessageDialog(taskTree, ex.getMessage());
+                        }
+                    }
+                });
+
+                /* Show how long each kind of command has been taking to come back, on the host and on the device. */
+                showLatencies.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        if (taskModel.getLatency() == null) {
+                            SimpleDialogs.popNoSerialConnection(taskTree);
+                            return;
+                        }
+                        SimpleDialogs.popListing(taskTree, "Command Latencies", taskModel.getLatency().describe());
+                    }
+                });
+
+                /* Once the device has been checked, carry on past commands it never acknowledged. */
+                continueStalled.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        int skipped = taskModel.continueStalledRun();
+                        JOptionPane.showMessageDialog(taskTree, skipped == 0 ? "Nothing was waiting on the device."
+                                : "Carried on past " + skipped + " unacknowledged command(s).");
+                    }
+                });
+
+                /* Hold the run where it is, the device stops before its next command. */
+                pauseRun.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        if (!taskModel.pause()) JOptionPane.showMessageDialog(taskTree, "There is no run to pause.");
+                    }
+                });
+
+                resumePaused.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        if (!taskModel.resume()) JOptionPane.showMessageDialog(taskTree, "The run isn't paused.");
+                    }
+                });
+
+                /* End the run once the current command is done, it can be picked back up from the journal. */
+                abortRun.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        if (!taskModel.abort()) JOptionPane.showMessageDialog(taskTree, "There is no run to abort.");
+                    }
+                });
+
+                /* Stop the device dead, whatever it is doing. */
+                emergencyStop.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        if (taskModel.emergencyStop()) {
+                            JOptionPane.showMessageDialog(taskTree, "Device stopped. Calibrate the arm before running anything else.");
+                        }
+                        else {
+                            JOptionPane.showMessageDialog(taskTree, "The device doesn't take control commands, it can't be stopped from here.");
+                        }
+                    }
+                });
+
+                /* Connect another controller to run stages of the experiment on. */
+                addDevice.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        String port = JOptionPane.showInputDialog(taskTree, "Port to add to the device pool:",
+                                SimulatedTransport.PORT_NAME);
+                        if (port == null) return;
+                        try {
+                            taskModel.getDevicePool().connect(port.trim());
+                        } catch (IOException ex) {
+                            ex.printStackTrace();
+                            SimpleDialogs.popNoSerialConnection(taskTree);
+                        }
+                    }
+                });
+
+                /* Split the experiment's stages over every device in the pool and start them all. */
+                runOnDevices.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        if (taskModel.getDevicePool().size() == 0) {
+                            SimpleDialogs.popNoSerialConnection(taskTree);
+                            return;
+                        }
+                        try {
+                            JOptionPane.showMessageDialog(taskTree, taskModel.executeOnDevices().toString());
+                        } catch (IllegalStateException ex) {
+                            JOptionPane.showMessageDialog(taskTree, ex.getMessage());
+                        }
+                    }
+                });
+
+                /* Pin a stage to one device of the pool, or 0 to let the pool balance it. */
+                pinToDevice.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        MultiTask selected = (MultiTask) selPath.getLastPathComponent();
+                        String device = JOptionPane.showInputDialog(taskTree,
+                                "Device to run this stage on (0 for any):", selected.getDevice());
+                        if (device == null) return;
+                        if (!Parser.isInteger(device.trim())) {
+                            SimpleDialogs.popBadInput(taskTree);
+                            return;
+                        }
+                        selected.setDevice(Integer.parseInt(device.trim()));
+                    }
+                });
+
+                /* Show which stages wait on which, and the longest chain of them. */
+                showStages.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        try {
+                            SimpleDialogs.popListing(taskTree, "Stage Dependencies", taskModel.getStageGraph().describe());
+                        } catch (IllegalStateException ex) {
+                            JOptionPane.showMessageDialog(taskTree, ex.getMessage());
+                        }
+                    }
+                });
+
+                /* Name the stages this one waits on, or leave it blank to work them out from the wells. */
+                waitsOn.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        MultiTask selected = (MultiTask) selPath.getLastPathComponent();
+                        String current = "";
+                        if (selected.getDependsOn() != null) {
+                            for (String name : selected.getDependsOn()) {
+                                current += current.isEmpty() ? name : ", " + name;
+                            }
+                        }
+                        String names = JOptionPane.showInputDialog(taskTree,
+                                "Stages this one waits on, separated by commas (blank to go by wells):", current);
+                        if (names == null) return;
+                        if (names.trim().isEmpty()) {
+                            selected.setDependsOn(null);
+                            return;
+                        }
+                        ArrayList<String> dependsOn = new ArrayList<String>();
+                        for (String name : names.split(",")) {
+                            if (!name.trim().isEmpty()) dependsOn.add(name.trim());
+                        }
+                        selected.setDependsOn(dependsOn);
+                    }
+                });
+
                 //make a different menu for multitasks and other tasks
                 if (selPath.getLastPathComponent() instanceof MultiTask){
                     //if we selected the root, add button for saving experiment
                     if (selPath.getLastPathComponent() == taskTree.getModel().getRoot()) {
                         add(saveExperiment);
+                        add(addDevice);
+                        add(runOnDevices);
+                        add(showStages);
+                        add(resumeRun);
+                        add(showLatencies);
+                        add(continueStalled);
+                        add(pauseRun);
+                        add(resumePaused);
+                        add(abortRun);
+                        add(emergencyStop);
                     }
                     //else, we selected a different multitask, add button for just saving regular tasks
                     else {
                         add(saveTask);
+                        anyOrder.setSelected(((MultiTask) selPath.getLastPathComponent()).isUnordered());
+                        add(anyOrder);
+                        //only top level stages get split over devices
+                        if (((MultiTask) selPath.getLastPathComponent()).getParent() == taskTree.getModel().getRoot()) {
+                            add(pinToDevice);
+                            add(waitsOn);
+                        }
                     }
                     add(replaceInc);
                     add(replaceAll);
+                    add(optimizeTravel);
+                    add(previewPeephole);
+                    add(estimateDuration);
                 }
                 add(loop);
                 add(delete);
@@ -1,7 +1,5 @@
 package main.view;
 
-import com.cedarsoftware.util.io.JsonReader;
-import com.cedarsoftware.util.io.JsonWriter;
 import main.model.tasks.basictasks.IExecuteTask;
 
 import javax.swing.*;
@@ -11,7 +9,6 @@ import javax.swing.tree.TreePath;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -154,17 +151,10 @@ class TreeTransferHandler extends TransferHandler {
 
         //make a copy of the node and insert it into right place
         for (int i = 0; i < nodes.length; i++) {
-            try {
-                //make a copy of the node, and set its parent to be correct (or else the hierachy falls apart)
-                IExecuteTask deepCopy = (IExecuteTask) JsonReader.jsonToJava(JsonWriter.objectToJson(nodes[i]));
-                deepCopy.setParent(parent);
-                deepCopy.resetParents();
-                model.insertNodeInto(deepCopy, parent, index++);
-            } catch (IOException e) {
-                System.out.println("Could not make a copy of the node we are moving.");
-                e.printStackTrace();
-                return false;
-            }
+            //make a copy of the node, and set its parent to be correct (or else the hierachy falls apart)
+            IExecuteTask deepCopy = ((IExecuteTask) nodes[i]).copy();
+            deepCopy.setParent(parent);
+            model.insertNodeInto(deepCopy, parent, index++);
         }
         return true;
     }
@@ -80,4 +80,36 @@ public class SimpleDialogs {
         JOptionPane.showMessageDialog(parent, "Serial text not formatted correctly, write in form \"method(parameters)\"");
     }
 
+    /**
+     * Simple dialog for telling user what the travel optimizer did.
+     * @param parent component to pop on top of
+     * @param report description of what was reordered and how much travel was saved
+     */
+    public static void popTravelReport(Component parent, String report) {
+        JOptionPane.showMessageDialog(parent, report);
+    }
+
+    /**
+     * Simple dialog for telling user that a run stopped because the device stopped acknowledging commands.
+     * @param parent component to pop on top of
+     * @param reason what the watchdog found
+     */
+    public static void popRunStalled(Component parent, String reason) {
+        JOptionPane.showMessageDialog(parent, reason + "\nOnce the device is done, use \"Continue Stalled Run\" to carry on.",
+                "Run stalled", JOptionPane.WARNING_MESSAGE);
+    }
+
+    /**
+     * Dialog showing a long listing, e.g. what the peephole pass would do to a task, in a scrollable box.
+     * @param parent component to pop on top of
+     * @param title title of the dialog
+     * @param listing text to show
+     */
+    public static void popListing(Component parent, String title, String listing) {
+        JTextArea text = new JTextArea(listing, 25, 70);
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JOptionPane.showMessageDialog(parent, new JScrollPane(text), title, JOptionPane.PLAIN_MESSAGE);
+    }
+
 }
@@ -96,6 +96,14 @@ public class TaskCreationPanel extends JPanel {
             }
         });
 
+        /* Tell backend model to execute the task queue, feeding the Arduino as it acknowledges commands. */
+        executeAllBtn.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                taskModel.executeAll();
+            }
+        });
+
         /* Tell backend model to execute the task queue in debug mode. */
         debugExecuteBtn.addActionListener(new ActionListener() {
             @Override
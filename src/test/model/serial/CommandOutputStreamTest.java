@@ -0,0 +1,114 @@
+package test.model.serial;
+
+import main.model.serial.CommandOutputStream;
+import main.model.serial.protocol.CommandType;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CommandOutputStreamTest {
+
+    /**
+     * Device stream that counts how many writes it was handed.
+     */
+    private static class CountingStream extends ByteArrayOutputStream {
+        int writes = 0;
+
+        @Override
+        public synchronized void write(int b) {
+            writes++;
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+    }
+
+    /**
+     * Device stream that notes if two threads ever write to it at once, as the I/O engine's ring only takes one writer.
+     */
+    private static class SingleWriterStream extends OutputStream {
+        private final AtomicInteger writers = new AtomicInteger();
+        volatile boolean overlapped = false;
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (writers.incrementAndGet() > 1) overlapped = true;
+            Thread.yield();
+            writers.decrementAndGet();
+        }
+    }
+
+    @Test
+    public void testEachCommandIsOneWrite() throws IOException {
+        CountingStream device = new CountingStream();
+        CommandOutputStream stream = new CommandOutputStream(device);
+        stream.writeCommand(CommandType.MOVE, 125, -50);
+        stream.writeCommand(CommandType.NOZZLE_HEIGHT, 1325);
+        stream.writeText("bufferSize()");
+        assertEquals(3, device.writes);
+        assertEquals("move(1.25,-0.5)nozzleHeight(1325)bufferSize()", device.toString());
+    }
+
+    @Test
+    public void testBatchIsOneWrite() throws IOException {
+        CountingStream device = new CountingStream();
+        CommandOutputStream stream = new CommandOutputStream(device);
+        stream.beginBatch();
+        for (int i = 0; i < 16; i++) {
+            stream.writeCommand(CommandType.DISPENSE, i);
+        }
+        assertEquals(0, device.writes);
+        stream.endBatch();
+        assertEquals(1, device.writes);
+        assertEquals(16, stream.getCommandsWritten());
+        assertTrue(device.toString().startsWith("dispense(0)dispense(1)"));
+    }
+
+    @Test
+    public void testLargeBatchKeepsEverything() throws IOException {
+        CountingStream device = new CountingStream();
+        CommandOutputStream stream = new CommandOutputStream(device);
+        StringBuilder expected = new StringBuilder();
+        stream.beginBatch();
+        for (int i = 0; i < 2000; i++) {
+            stream.writeCommand(CommandType.MOVE, i, -i);
+            expected.append("move(").append(i / 100.0).append(',').append(-i / 100.0).append(')');
+        }
+        stream.endBatch();
+        assertTrue(device.writes > 1);
+        assertEquals(expected.toString(), device.toString());
+    }
+
+    @Test
+    public void testControlWithoutLaneWaitsItsTurn() throws Exception {
+        final SingleWriterStream device = new SingleWriterStream();
+        final CommandOutputStream stream = new CommandOutputStream(device);
+        Thread sender = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 20000; i++) stream.writeCommand(CommandType.DISPENSE, i);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        sender.start();
+        while (sender.isAlive()) stream.writeControl(CommandType.PAUSE);
+        sender.join();
+        assertFalse(device.overlapped);
+    }
+}
@@ -0,0 +1,66 @@
+package test.model.serial;
+
+import main.model.serial.CommandRing;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class CommandRingTest {
+
+    @Test
+    public void testCapacityRoundsUpToPowerOfTwo() {
+        assertEquals(8, new CommandRing(5, 16).capacity());
+        assertEquals(1, new CommandRing(1, 16).capacity());
+    }
+
+    @Test
+    public void testFullRingRefusesUntilDrained() throws Exception {
+        CommandRing ring = new CommandRing(4, 16);
+        byte[] command = "done".getBytes();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(command, 0, command.length));
+        }
+        assertFalse(ring.offer(command, 0, command.length));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(4, ring.drainTo(out));
+        assertTrue(ring.isEmpty());
+        assertEquals("donedonedonedone", out.toString());
+        assertTrue(ring.offer(command, 0, command.length));
+    }
+
+    @Test
+    public void testOrderKeptAcrossThreads() throws Exception {
+        final CommandRing ring = new CommandRing(8, 16);
+        final int count = 20000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] value = new byte[4];
+                for (int i = 0; i < count; i++) {
+                    value[0] = (byte) (i >>> 24);
+                    value[1] = (byte) (i >>> 16);
+                    value[2] = (byte) (i >>> 8);
+                    value[3] = (byte) i;
+                    while (!ring.offer(value, 0, 4)) Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (out.size() < count * 4) {
+            if (ring.drainTo(out) == 0) Thread.yield();
+        }
+        producer.join();
+
+        byte[] bytes = out.toByteArray();
+        for (int i = 0; i < count; i++) {
+            int value = ((bytes[4 * i] & 0xFF) << 24) | ((bytes[4 * i + 1] & 0xFF) << 16)
+                    | ((bytes[4 * i + 2] & 0xFF) << 8) | (bytes[4 * i + 3] & 0xFF);
+            assertEquals(i, value);
+        }
+    }
+}
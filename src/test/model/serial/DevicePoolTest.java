@@ -0,0 +1,278 @@
+package test.model.serial;
+
+import main.model.plate.PlateModel;
+import main.model.serial.CommandEcho;
+import main.model.serial.Device;
+import main.model.serial.DevicePool;
+import main.model.serial.simulation.SimulatedArduino;
+import main.model.serial.simulation.SimulatedTransport;
+import main.model.serialization.SerializationModel;
+import main.model.serialization.UserSettings;
+import main.model.tasks.basictasks.DelayTask;
+import main.model.tasks.basictasks.DispenseTask;
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.basictasks.LowerTask;
+import main.model.tasks.basictasks.MoveToLocTask;
+import main.model.tasks.basictasks.MultiTask;
+import main.model.tasks.basictasks.PumpParamsTask;
+import main.model.tasks.scheduling.DagScheduler;
+import main.model.tasks.scheduling.StageAssignment;
+import main.model.tasks.scheduling.StageBalancer;
+import main.model.tasks.scheduling.StageGraph;
+import main.model.tasks.taskvisitors.PlanCompileVisitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DevicePoolTest {
+
+    private SimulatedArduino first, second;
+    private DevicePool pool;
+
+    @Before
+    public void setUp() {
+        SerializationModel.userSettings = new UserSettings();
+        SerializationModel.userSettings.stepsTouLFactor = 13.072;
+        SerializationModel.userSettings.streamCommands = true;
+
+        first = simulated();
+        second = simulated();
+        pool = new DevicePool(new PlateModel(), new CommandEcho(false));
+    }
+
+    @After
+    public void tearDown() {
+        pool.disconnectAll();
+    }
+
+    private static SimulatedArduino simulated() {
+        SimulatedArduino device = new SimulatedArduino();
+        device.setCommandLatencyMs(0);
+        device.setTimeScale(0);
+        device.setBufferDepth(8);
+        return device;
+    }
+
+    /**
+     * Stage of the given number of one second delays.
+     */
+    private static MultiTask stage(String name, int delays) {
+        MultiTask stage = new MultiTask(name);
+        for (int i = 0; i < delays; i++) {
+            stage.addTaskToEnd(new DelayTask("1000"));
+        }
+        return stage;
+    }
+
+    @Test
+    public void testLongestStagesAreSpreadFirst() {
+        ArrayList<IExecuteTask> stages = new ArrayList<IExecuteTask>(Arrays.<IExecuteTask>asList(
+                stage("a", 3), stage("b", 3), stage("c", 2), stage("d", 2), stage("e", 2)));
+        StageAssignment assignment = new StageBalancer(new PlanCompileVisitor(new PlateModel())).balance(stages, 2);
+
+        //longest first puts a and b apart, then c and d, then e anywhere: 7 against 5
+        assertNotEquals(assignment.getDevice(0), assignment.getDevice(1));
+        assertNotEquals(assignment.getDevice(2), assignment.getDevice(3));
+        assertEquals(7000, assignment.getMakespan(), 500);
+
+        MultiTask pinned = stage("f", 1);
+        pinned.setDevice(2);
+        stages.add(pinned);
+        assignment = new StageBalancer(new PlanCompileVisitor(new PlateModel())).balance(stages, 2);
+        assertEquals(1, assignment.getDevice(5));
+    }
+
+    @Test
+    public void testDevicesRunTheirSharesSideBySide() throws Exception {
+        final Device one = pool.add(new SimulatedTransport(first));
+        final Device two = pool.add(new SimulatedTransport(second));
+        waitFor(new Condition() {
+            public boolean met() {
+                return one.getBufferDepth() == 8 && two.getBufferDepth() == 8;
+            }
+        });
+
+        MultiTask experiment = new MultiTask("Experiment");
+        int total = 0;
+        for (int i = 0; i < 6; i++) {
+            MultiTask stage = new MultiTask("Stage" + i);
+            for (int j = 0; j < 50 * (i + 1); j++) {
+                stage.addTaskToEnd(new DispenseTask("1"));
+            }
+            total += 50 * (i + 1);
+            experiment.addTaskToEnd(stage);
+        }
+        StageAssignment assignment = pool.run(experiment);
+        waitFor(new Condition() {
+            public boolean met() {
+                return !pool.isExecuting();
+            }
+        });
+
+        long[] expected = new long[2];
+        for (int i = 0; i < 6; i++) {
+            expected[assignment.getDevice(i)] += 50 * (i + 1);
+        }
+        assertEquals(expected[0], first.getCommandsExecuted());
+        assertEquals(expected[1], second.getCommandsExecuted());
+        assertEquals(total, first.getCommandsExecuted() + second.getCommandsExecuted());
+        assertTrue(first.getCommandsExecuted() > 0 && second.getCommandsExecuted() > 0);
+        assertEquals(0, first.getBufferOverflows() + second.getBufferOverflows());
+    }
+
+    @Test
+    public void testGraphRunsOverDevices() throws Exception {
+        final Device one = pool.add(new SimulatedTransport(first));
+        final Device two = pool.add(new SimulatedTransport(second));
+        waitFor(new Condition() {
+            public boolean met() {
+                return one.getBufferDepth() == 8 && two.getBufferDepth() == 8;
+            }
+        });
+
+        MultiTask experiment = new MultiTask("Experiment");
+        for (int i = 0; i < 5; i++) {
+            MultiTask stage = new MultiTask("Stage" + i);
+            for (int j = 0; j < 100; j++) {
+                stage.addTaskToEnd(new DispenseTask("1"));
+            }
+            //the last stage waits on the first, the rest are free to go
+            stage.setDependsOn(i == 4 ? Arrays.asList("Stage0") : new ArrayList<String>());
+            experiment.addTaskToEnd(stage);
+        }
+        experiment.addTaskToEnd(new MultiTask("Empty"));
+        final DagScheduler scheduler = pool.schedule(new StageGraph(experiment, new PlanCompileVisitor(new PlateModel())));
+        waitFor(new Condition() {
+            public boolean met() {
+                return !pool.isExecuting();
+            }
+        });
+
+        assertTrue(scheduler.isFinished());
+        assertEquals(500, first.getCommandsExecuted() + second.getCommandsExecuted());
+        assertTrue(first.getCommandsExecuted() > 0 && second.getCommandsExecuted() > 0);
+    }
+
+    @Test
+    public void testDeviceGetsOnWithOtherStagesDuringHostDelay() throws Exception {
+        SerializationModel.userSettings.hostDelays = true;
+        final Device one = pool.add(new SimulatedTransport(first));
+        waitFor(new Condition() {
+            public boolean met() {
+                return one.getBufferDepth() == 8;
+            }
+        });
+
+        MultiTask experiment = new MultiTask("Experiment");
+        MultiTask incubation = new MultiTask("Incubation", new DispenseTask("1"), new DelayTask("300"), new DispenseTask("1"));
+        incubation.setDependsOn(new ArrayList<String>());
+        experiment.addTaskToEnd(incubation);
+        MultiTask other = new MultiTask("Other");
+        for (int i = 0; i < 50; i++) {
+            other.addTaskToEnd(new DispenseTask("1"));
+        }
+        other.setDependsOn(new ArrayList<String>());
+        experiment.addTaskToEnd(other);
+
+        final DagScheduler scheduler = pool.schedule(new StageGraph(experiment, new PlanCompileVisitor(new PlateModel())));
+        //the other stage runs while the incubation waits, so it is done well before the delay is over
+        waitFor(new Condition() {
+            public boolean met() {
+                return scheduler.getDone() > 0;
+            }
+        });
+        assertEquals(1, scheduler.getDone());
+        assertTrue(pool.isExecuting());
+        waitFor(new Condition() {
+            public boolean met() {
+                return !pool.isExecuting();
+            }
+        });
+
+        assertEquals(52, first.getCommandsExecuted());
+        assertEquals(1, pool.getTimerWheel().getFired());
+        assertTrue(one.getResumeSummary(), one.getResumeSummary().contains(": 1 run(s)"));
+    }
+
+    @Test
+    public void testRunGetsTheArmBackWhereItLeftIt() throws Exception {
+        SerializationModel.userSettings.hostDelays = true;
+        SerializationModel.userSettings.peepholeOptimize = true;
+        SerializationModel.userSettings.defaultRaiseSteps = 1500;
+        SerializationModel.userSettings.defaultLowerSteps = 1325;
+        final Device one = pool.add(new SimulatedTransport(first));
+        waitFor(new Condition() {
+            public boolean met() {
+                return one.getBufferDepth() == 8;
+            }
+        });
+
+        //the incubation waits with the nozzle lowered into its well, the other stage moves away meanwhile
+        MultiTask incubation = new MultiTask("Incubation", new PumpParamsTask(800, 400), new MoveToLocTask("5", "5"),
+                new LowerTask(), new DelayTask("300"), new DispenseTask("1"));
+        MultiTask other = new MultiTask("Other", new PumpParamsTask(1200, 600), new MoveToLocTask("8", "2"));
+        for (int i = 0; i < 20; i++) {
+            other.addTaskToEnd(new DispenseTask("1"));
+        }
+        assertTrue(one.run(Arrays.<IExecuteTask>asList(incubation)));
+        assertTrue(one.run(Arrays.<IExecuteTask>asList(other)));
+        waitFor(new Condition() {
+            public boolean met() {
+                return !one.isExecuting();
+            }
+        });
+
+        //the other stage raised the nozzle before moving, the incubation went back and lowered it again
+        List<double[]> dispenses = first.getDispenses();
+        assertEquals(21, dispenses.size());
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(new double[] {8, 2, 1500}, dispenses.get(i), 1e-9);
+        }
+        assertArrayEquals(new double[] {5, 5, 1325}, dispenses.get(20), 1e-9);
+        assertEquals(800, first.getPumpSpeed());
+        assertEquals(400, first.getPumpAcceleration());
+    }
+
+    @Test
+    public void testHandshakeDoneFromOlderFirmwareIsNotAnAcknowledgement() throws Exception {
+        SerializationModel.userSettings.binaryProtocol = true;
+        first.setAnswersBufferSize(false);
+        first.setSupportsBinary(false);
+        first.setCommandLatencyMs(5);
+        final Device one = pool.add(new SimulatedTransport(first));
+
+        //the run starts before the handshake is answered, taking either "Done" for a dispense would have it over while
+        //the device still had commands to go
+        MultiTask stage = new MultiTask("Stage");
+        for (int i = 0; i < 10; i++) {
+            stage.addTaskToEnd(new DispenseTask("1"));
+        }
+        assertTrue(one.run(Arrays.<IExecuteTask>asList(stage)));
+        waitFor(new Condition() {
+            public boolean met() {
+                return !one.isExecuting();
+            }
+        });
+        assertEquals(12, first.getCommandsExecuted());
+        assertEquals(10, first.getDispenses().size());
+        assertEquals(1, one.getBufferDepth());
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!condition.met()) {
+            assertTrue("Timed out waiting on the simulated devices.", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package test.model.serial;
+
+import main.model.serial.CommandLatency;
+import main.model.serial.LatencyHistogram;
+import main.model.serial.protocol.CommandType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        //1 to 10000 us, so the n-th percentile is n * 100 us
+        for (int micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros * 1000L);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(5.0, histogram.getPercentileMillis(50), 5.0 * 0.016);
+        assertEquals(9.9, histogram.getPercentileMillis(99), 9.9 * 0.016);
+        assertEquals(10.0, histogram.getMaxMillis(), 0);
+        assertEquals(0.001, histogram.getMinMillis(), 0);
+        assertEquals(5.0005, histogram.getMeanMillis(), 1e-9);
+
+        //small values are kept exactly
+        LatencyHistogram small = new LatencyHistogram();
+        small.record(42000);
+        assertEquals(0.042, small.getPercentileMillis(100), 0);
+    }
+
+    @Test
+    public void testAcknowledgementsMatchWritesInOrder() throws Exception {
+        CommandLatency latency = new CommandLatency();
+        latency.queued(CommandType.MOVE);
+        latency.queued(CommandType.BUFFER_SIZE);
+        latency.queued(CommandType.DISPENSE);
+        //not written yet, so a "Done" now can't be for either
+        latency.acknowledged();
+        latency.written(20);
+        Thread.sleep(5);
+        latency.acknowledged();
+        latency.acknowledged();
+
+        assertEquals(2, latency.getAcknowledged());
+        assertEquals(1, latency.getRoundTrip(CommandType.MOVE).getCount());
+        assertEquals(1, latency.getRoundTrip(CommandType.DISPENSE).getCount());
+        assertNull(latency.getRoundTrip(CommandType.BUFFER_SIZE));
+        assertTrue(latency.getRoundTrip(CommandType.MOVE).getMinMillis() >= 5);
+        //the dispense could only start once the move was done
+        assertTrue(latency.getDeviceTime(CommandType.DISPENSE).getMaxMillis() < 5);
+        assertTrue(latency.describe(), latency.describe().contains("1 \"Done\"(s) with nothing written to match"));
+    }
+}
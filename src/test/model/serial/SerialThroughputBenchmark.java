@@ -0,0 +1,63 @@
+package test.model.serial;
+
+import main.model.plate.PlateModel;
+import main.model.serial.SerialModel;
+import main.model.serial.simulation.SimulatedArduino;
+import main.model.serial.simulation.SimulatedTransport;
+import main.model.serialization.SerializationModel;
+import main.model.serialization.UserSettings;
+import main.model.tasks.ExecutionMode;
+import main.model.tasks.TaskModel;
+import main.model.tasks.basictasks.DelayTask;
+import main.model.tasks.basictasks.DispenseTask;
+import main.model.tasks.basictasks.PumpParamsTask;
+
+/**
+ * Measures host-side overhead of executing an experiment by running it against a simulated Arduino that takes no
+ * time at all, so everything measured is time spent on our side of the serial line. Not a unit test, run it by hand:
+ * first argument is the number of commands (default 100000), second is LOCKSTEP or STREAMING (default STREAMING).
+ */
+public class SerialThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        ExecutionMode mode = args.length > 1 ? ExecutionMode.valueOf(args[1]) : ExecutionMode.STREAMING;
+
+        SerializationModel.userSettings = new UserSettings();
+        SerializationModel.userSettings.stepsTouLFactor = 13.072;
+
+        SimulatedArduino device = new SimulatedArduino();
+        device.setCommandLatencyMs(0);
+        device.setTimeScale(0);
+
+        PlateModel plateModel = new PlateModel();
+        SerialModel serialModel = new SerialModel();
+        TaskModel taskModel = new TaskModel();
+        serialModel.start(null, taskModel, plateModel);
+        taskModel.start(null, plateModel, serialModel, null);
+        taskModel.setExecutionMode(mode);
+
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0: taskModel.getTasks().addTaskToEnd(new DispenseTask("1.5")); break;
+                case 1: taskModel.getTasks().addTaskToEnd(new DelayTask("0")); break;
+                default: taskModel.getTasks().addTaskToEnd(new PumpParamsTask(1000, 500)); break;
+            }
+        }
+
+        serialModel.connect(new SimulatedTransport(device));
+        while (serialModel.getDeviceBufferDepth() != device.getBufferDepth()) Thread.sleep(1);
+
+        long start = System.nanoTime();
+        taskModel.executeAll();
+        while (taskModel.isExecuting()) Thread.sleep(1);
+        long elapsed = System.nanoTime() - start;
+        String decodeSummary = serialModel.getResponseDecoder().getSummary();
+
+        serialModel.disconnectPort();
+        System.err.println(String.format("%s: %d commands in %.1f ms, %.0f commands/s, %.2f us/command",
+                mode, device.getCommandsExecuted(), elapsed / 1e6,
+                device.getCommandsExecuted() / (elapsed / 1e9), elapsed / 1e3 / device.getCommandsExecuted()));
+        System.err.println(decodeSummary);
+    }
+}
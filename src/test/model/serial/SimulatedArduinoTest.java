@@ -0,0 +1,274 @@
+package test.model.serial;
+
+import main.model.plate.PlateModel;
+import main.model.serial.CommandOutputStream;
+import main.model.serial.SerialModel;
+import main.model.serial.protocol.BinaryCommandEncoder;
+import main.model.serial.simulation.SimulatedArduino;
+import main.model.serial.simulation.SimulatedTransport;
+import main.model.serialization.SerializationModel;
+import main.model.serialization.UserSettings;
+import main.model.serial.protocol.CommandType;
+import main.model.tasks.ExecutionMode;
+import main.model.tasks.TaskModel;
+import main.model.tasks.basictasks.DelayTask;
+import main.model.tasks.basictasks.DispenseTask;
+import main.model.tasks.basictasks.PumpParamsTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class SimulatedArduinoTest {
+
+    private SimulatedArduino device;
+
+    /**
+     * Commands and "Done" answers for the device to lose once the handshake is over.
+     */
+    private int commandsToLose = 0, acknowledgementsToLose = 0;
+
+    /**
+     * Done to a run once it has started, null for nothing.
+     */
+    private RunAction duringRun = null;
+
+    @Before
+    public void setUp() {
+        device = new SimulatedArduino();
+        device.setCommandLatencyMs(0);
+        device.setTimeScale(0);
+        device.setBufferDepth(8);
+
+        SerializationModel.userSettings = new UserSettings();
+        SerializationModel.userSettings.stepsTouLFactor = 13.072;
+    }
+
+    @After
+    public void tearDown() {
+        device.stop();
+    }
+
+    @Test
+    public void testAnswersProtocol() throws Exception {
+        device.start();
+        OutputStream toDevice = device.getReceiveLine();
+        BufferedReader fromDevice = new BufferedReader(new InputStreamReader(device.getReplies().getInputStream()));
+
+        toDevice.write("bufferSize()".getBytes("US-ASCII"));
+        assertEquals("Buffer 8", fromDevice.readLine());
+
+        toDevice.write("move(-1.5,2.0)pumpParams(800,400)".getBytes("US-ASCII"));
+        assertEquals("Done", fromDevice.readLine());
+        assertEquals("Done", fromDevice.readLine());
+        assertEquals(1.5, device.getX(), 1e-9);
+        assertEquals(-2.0, device.getY(), 1e-9);
+        assertEquals(800, device.getPumpSpeed());
+
+        toDevice.write("calibrate()".getBytes("US-ASCII"));
+        assertEquals("Finished Calibration", fromDevice.readLine());
+        assertEquals(0, device.getX(), 1e-9);
+    }
+
+    @Test
+    public void testAcceptsBinaryFrames() throws Exception {
+        device.start();
+        OutputStream toDevice = device.getReceiveLine();
+        BufferedReader fromDevice = new BufferedReader(new InputStreamReader(device.getReplies().getInputStream()));
+
+        toDevice.write("protocol(1)".getBytes("US-ASCII"));
+        assertEquals("Protocol 1", fromDevice.readLine());
+
+        CommandOutputStream framed = new CommandOutputStream(toDevice);
+        framed.setEncoder(new BinaryCommandEncoder());
+        framed.writeCommand(CommandType.MOVE, -150, 200);
+        toDevice.write("delay(0)".getBytes("US-ASCII"));
+        assertEquals("Done", fromDevice.readLine());
+        assertEquals("Done", fromDevice.readLine());
+        assertEquals(1.5, device.getX(), 1e-9);
+        assertEquals(1, device.getFramesReceived());
+    }
+
+    @Test
+    public void testLockStepRun() throws Exception {
+        assertEquals(500, runExperiment(ExecutionMode.LOCKSTEP, 500));
+    }
+
+    @Test
+    public void testStreamingRunStaysInsideBuffer() throws Exception {
+        assertEquals(2000, runExperiment(ExecutionMode.STREAMING, 2000));
+        assertEquals(0, device.getBufferOverflows());
+    }
+
+    @Test
+    public void testExternalTasksJoinRunningExperiment() throws Exception {
+        assertEquals(550, runExperiment(ExecutionMode.STREAMING, 500, 50));
+        assertEquals(0, device.getBufferOverflows());
+    }
+
+    @Test
+    public void testHostDelaysAreNotSent() throws Exception {
+        SerializationModel.userSettings.hostDelays = true;
+        //every third task is a delay, waited out on the host instead
+        assertEquals(200, runExperiment(ExecutionMode.STREAMING, 300));
+        assertEquals(0, device.getBufferOverflows());
+    }
+
+    @Test
+    public void testBinaryRunIsNegotiated() throws Exception {
+        SerializationModel.userSettings.binaryProtocol = true;
+        assertEquals(1000, runExperiment(ExecutionMode.STREAMING, 1000));
+        assertEquals(1000, device.getFramesReceived());
+    }
+
+    @Test
+    public void testOldFirmwareFallsBackToText() throws Exception {
+        SerializationModel.userSettings.binaryProtocol = true;
+        device.setSupportsBinary(false);
+        //old firmware acknowledges the protocol offer like any other unknown command
+        assertEquals(301, runExperiment(ExecutionMode.STREAMING, 300));
+        assertEquals(0, device.getFramesReceived());
+    }
+
+    @Test
+    public void testLostAcknowledgementsAreMadeUpFor() throws Exception {
+        SerializationModel.userSettings.binaryProtocol = true;
+        SerializationModel.userSettings.ackTimeoutMs = 200;
+        acknowledgementsToLose = 2;
+        assertEquals(30, runExperiment(ExecutionMode.LOCKSTEP, 30));
+    }
+
+    @Test
+    public void testLostCommandIsSentAgain() throws Exception {
+        SerializationModel.userSettings.binaryProtocol = true;
+        SerializationModel.userSettings.ackTimeoutMs = 200;
+        commandsToLose = 1;
+        //the lost command runs once it is sent again, and nothing runs twice
+        assertEquals(30, runExperiment(ExecutionMode.LOCKSTEP, 30));
+    }
+
+    @Test
+    public void testPauseHoldsRunUntilResumed() throws Exception {
+        SerializationModel.userSettings.binaryProtocol = true;
+        device.setCommandLatencyMs(1);
+        duringRun = new RunAction() {
+            public void run(SerialModel serial, TaskModel tasks) throws Exception {
+                waitFor(new Condition() {
+                    public boolean met(SerialModel serial, TaskModel tasks) {
+                        return device.getCommandsExecuted() >= 20;
+                    }
+                }, serial, tasks);
+                assertTrue(tasks.pause());
+                //the device stops before its next command, with the rest of its buffer still waiting
+                Thread.sleep(50);
+                long held = device.getCommandsExecuted();
+                Thread.sleep(100);
+                assertEquals(held, device.getCommandsExecuted());
+                assertTrue(tasks.isExecuting());
+                assertTrue(tasks.resume());
+            }
+        };
+        assertEquals(300, runExperiment(ExecutionMode.STREAMING, 300));
+    }
+
+    @Test
+    public void testAbortThrowsAwayWhatIsQueued() throws Exception {
+        SerializationModel.userSettings.binaryProtocol = true;
+        device.setCommandLatencyMs(1);
+        duringRun = new RunAction() {
+            public void run(SerialModel serial, TaskModel tasks) throws Exception {
+                waitFor(new Condition() {
+                    public boolean met(SerialModel serial, TaskModel tasks) {
+                        return device.getCommandsExecuted() >= 20;
+                    }
+                }, serial, tasks);
+                assertTrue(tasks.abort());
+            }
+        };
+        long executed = runExperiment(ExecutionMode.STREAMING, 300);
+        assertTrue(executed < 300);
+        Thread.sleep(50);
+        assertEquals(executed, device.getCommandsExecuted());
+    }
+
+    /**
+     * Runs an experiment of the given size against the simulated device.
+     * @return number of commands the device ran
+     */
+    private long runExperiment(ExecutionMode mode, int count) throws Exception {
+        return runExperiment(mode, count, 0);
+    }
+
+    /**
+     * Runs an experiment of the given size against the simulated device, submitting more tasks the way an external
+     * program would once it has started.
+     * @return number of commands the device ran
+     */
+    private long runExperiment(ExecutionMode mode, int count, int external) throws Exception {
+        PlateModel plateModel = new PlateModel();
+        SerialModel serialModel = new SerialModel();
+        TaskModel taskModel = new TaskModel();
+        serialModel.start(null, taskModel, plateModel);
+        taskModel.start(null, plateModel, serialModel, null);
+        taskModel.setExecutionMode(mode);
+
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0: taskModel.getTasks().addTaskToEnd(new DispenseTask("1.5")); break;
+                case 1: taskModel.getTasks().addTaskToEnd(new DelayTask("0")); break;
+                default: taskModel.getTasks().addTaskToEnd(new PumpParamsTask(1000, 500)); break;
+            }
+        }
+
+        serialModel.connect(new SimulatedTransport(device));
+        //wait for the connect handshake to finish before running anything
+        final boolean offered = SerializationModel.userSettings.binaryProtocol;
+        final boolean framed = offered && device.getSupportsBinary();
+        waitFor(new Condition() {
+            public boolean met(SerialModel serial, TaskModel tasks) {
+                boolean switched = serial.getOutputStream().getEncoder() instanceof BinaryCommandEncoder;
+                return serial.getDeviceBufferDepth() == device.getBufferDepth()
+                        && switched == framed
+                        && (!offered || framed || device.getCommandsExecuted() == 1)
+                        && (!framed || serial.getWatchdog() == null || serial.getWatchdog().hasBaseline());
+            }
+        }, serialModel, taskModel);
+        device.loseCommands(commandsToLose);
+        device.loseAcknowledgements(acknowledgementsToLose);
+
+        taskModel.executeAll();
+        for (int i = 0; i < external; i++) {
+            taskModel.addExternalTask(new DispenseTask("1"));
+        }
+        if (duringRun != null) duringRun.run(serialModel, taskModel);
+        waitFor(new Condition() {
+            public boolean met(SerialModel serial, TaskModel tasks) {
+                return !tasks.isExecuting();
+            }
+        }, serialModel, taskModel);
+
+        serialModel.disconnectPort();
+        return device.getCommandsExecuted();
+    }
+
+    private interface Condition {
+        boolean met(SerialModel serial, TaskModel tasks);
+    }
+
+    private interface RunAction {
+        void run(SerialModel serial, TaskModel tasks) throws Exception;
+    }
+
+    private void waitFor(Condition condition, SerialModel serial, TaskModel tasks) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!condition.met(serial, tasks)) {
+            assertTrue("Timed out waiting on the simulated device.", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
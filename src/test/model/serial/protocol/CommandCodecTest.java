@@ -0,0 +1,145 @@
+package test.model.serial.protocol;
+
+import main.model.serial.protocol.AsciiCommandEncoder;
+import main.model.serial.protocol.BinaryCommandEncoder;
+import main.model.serial.protocol.BinaryFrameDecoder;
+import main.model.serial.protocol.CommandFrame;
+import main.model.serial.protocol.CommandType;
+import main.model.serial.protocol.ResponseDecoder;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.*;
+
+public class CommandCodecTest {
+
+    @Test
+    public void testAsciiMatchesTextProtocol() throws Exception {
+        assertEquals("move(1.25,-0.5)", AsciiCommandEncoder.render(CommandType.MOVE, 125, -50));
+        assertEquals("move(0.0,0.05)", AsciiCommandEncoder.render(CommandType.MOVE, 0, 5));
+        assertEquals("move(-223.46,10.1)", AsciiCommandEncoder.render(CommandType.MOVE, -22346, 1010));
+        assertEquals("dispense(-1960)", AsciiCommandEncoder.render(CommandType.DISPENSE, -1960, 0));
+        assertEquals("nozzleHeight(1325)", AsciiCommandEncoder.render(CommandType.NOZZLE_HEIGHT, 1325, 0));
+        assertEquals("pumpParams(1000,500)", AsciiCommandEncoder.render(CommandType.PUMP_PARAMS, 1000, 500));
+        assertEquals("calibrate()", AsciiCommandEncoder.render(CommandType.CALIBRATE, 0, 0));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        BinaryCommandEncoder encoder = new BinaryCommandEncoder();
+        int[][] cases = {{125, -50}, {Integer.MIN_VALUE, Integer.MAX_VALUE}, {0, 0}};
+        int sequence = 65530;
+        for (CommandType type : CommandType.values()) {
+            if (type == CommandType.RAW) continue;
+            for (int[] operands : cases) {
+                ByteBuffer buffer = ByteBuffer.allocate(64);
+                encoder.encode(type, operands[0], operands[1], sequence, buffer);
+                assertEquals(BinaryCommandEncoder.FRAME_OVERHEAD + 4 * type.getOperandCount(), buffer.position());
+
+                CommandFrame frame = decodeAll(new BinaryFrameDecoder(), buffer);
+                assertNotNull(frame);
+                assertEquals(type, frame.type);
+                assertEquals(sequence, frame.sequence);
+                for (int i = 0; i < type.getOperandCount(); i++) {
+                    assertEquals(operands[i], frame.operands[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRawFrame() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        new BinaryCommandEncoder().encodeRaw("blink(3)", 7, buffer);
+        CommandFrame frame = decodeAll(new BinaryFrameDecoder(), buffer);
+        assertEquals(CommandType.RAW, frame.type);
+        assertEquals("blink(3)", frame.toText());
+    }
+
+    @Test
+    public void testCorruptFrameIsDropped() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        new BinaryCommandEncoder().encode(CommandType.MOVE, 125, -50, 3, buffer);
+        buffer.put(6, (byte) (buffer.get(6) ^ 0x10));
+
+        BinaryFrameDecoder decoder = new BinaryFrameDecoder();
+        assertNull(decodeAll(decoder, buffer));
+        assertEquals(1, decoder.getBadFrames());
+        assertEquals(3, decoder.getLastBadSequence());
+    }
+
+    @Test
+    public void testDecoderSkipsNoiseBetweenFrames() throws Exception {
+        BinaryCommandEncoder encoder = new BinaryCommandEncoder();
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte) 'x').put((byte) 0);
+        encoder.encode(CommandType.DISPENSE, 1960, 0, 1, buffer);
+        buffer.put((byte) '\n');
+        encoder.encode(CommandType.DELAY, 500, 0, 2, buffer);
+
+        BinaryFrameDecoder decoder = new BinaryFrameDecoder();
+        int found = 0;
+        for (int i = 0; i < buffer.position(); i++) {
+            CommandFrame frame = decoder.feed(buffer.get(i));
+            if (frame != null) {
+                found++;
+                assertEquals(found == 1 ? "dispense(1960)" : "delay(500)", frame.toText());
+            }
+        }
+        assertEquals(2, found);
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanText() throws Exception {
+        ByteBuffer text = ByteBuffer.allocate(64);
+        ByteBuffer framed = ByteBuffer.allocate(64);
+        new AsciiCommandEncoder().encode(CommandType.MOVE, -12345, 6789, 0, text);
+        new BinaryCommandEncoder().encode(CommandType.MOVE, -12345, 6789, 0, framed);
+        assertTrue(framed.position() < text.position());
+    }
+
+    /**
+     * Feeds every byte written to the buffer into the decoder, returning the last frame it produced.
+     */
+    private CommandFrame decodeAll(BinaryFrameDecoder decoder, ByteBuffer buffer) {
+        CommandFrame last = null;
+        for (int i = 0; i < buffer.position(); i++) {
+            CommandFrame frame = decoder.feed(buffer.get(i));
+            if (frame != null) last = frame;
+        }
+        return last;
+    }
+
+    @Test
+    public void testResponsesDecodedAcrossReads() throws Exception {
+        ResponseDecoder decoder = new ResponseDecoder();
+        ArrayDeque<String> responses = new ArrayDeque<String>();
+        byte[] burst = "Done\r\nDone\r\nBuffer 16\r\nDo".getBytes("US-ASCII");
+        assertEquals(3, decoder.decode(burst, 0, burst.length, responses));
+        assertTrue(decoder.hasPartial());
+
+        byte[] rest = "ne\r\n".getBytes("US-ASCII");
+        assertEquals(1, decoder.decode(rest, 0, rest.length, responses));
+        assertFalse(decoder.hasPartial());
+        assertEquals("[Done, Done, Buffer 16, Done]", responses.toString());
+        assertEquals(4, decoder.getResponsesDecoded());
+        assertEquals(2, decoder.getDecodeCalls());
+    }
+
+    @Test
+    public void testFramedResponsesBetweenLines() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put("Done\r\n".getBytes("US-ASCII"));
+        new BinaryCommandEncoder().encodeRaw("Done", 3, buffer);
+        buffer.put("Finished Calibration\r\n".getBytes("US-ASCII"));
+
+        ResponseDecoder decoder = new ResponseDecoder();
+        ArrayDeque<String> responses = new ArrayDeque<String>();
+        for (int i = 0; i < buffer.position(); i++) {
+            decoder.decode(buffer.array(), i, 1, responses);
+        }
+        assertEquals("[Done, Done, Finished Calibration]", responses.toString());
+    }
+}
@@ -0,0 +1,81 @@
+package test.model.tasks;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+import main.model.plate.objects.Plate;
+import main.model.tasks.basictasks.ALeafTask;
+import main.model.tasks.basictasks.DispenseTask;
+import main.model.tasks.basictasks.LowerTask;
+import main.model.tasks.basictasks.MoveToLocTask;
+import main.model.tasks.basictasks.MultiTask;
+import main.model.tasks.basictasks.PumpParamsTask;
+import main.model.tasks.basictasks.RaiseTask;
+import main.model.tasks.taskvisitors.DecompileVisitor;
+import main.model.tasks.taskvisitors.DrawVisitor;
+
+/**
+ * Measures how long the decompile and draw visitors take per node on a large task tree, which is mostly the cost of
+ * dispatching each node to its command and walking the children. Tasks are hidden so draw time isn't spent in
+ * Graphics2D. Not a unit test, run it by hand: first argument is the number of nodes (default 100000), second the
+ * number of timed passes (default 20).
+ */
+public class VisitorDispatchBenchmark {
+
+    private static final int CHILDREN = 100;
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        //stages of CHILDREN leaves each under one root
+        MultiTask root = new MultiTask("Benchmark");
+        int count = 1;
+        while (count < nodes) {
+            MultiTask stage = new MultiTask("Stage");
+            count++;
+            for (int i = 0; i < CHILDREN - 1 && count < nodes; i++, count++) {
+                switch (i % 5) {
+                    case 0: stage.addTaskToEnd(new MoveToLocTask("1.0", "2.0")); break;
+                    case 1: stage.addTaskToEnd(new LowerTask()); break;
+                    case 2: stage.addTaskToEnd(new DispenseTask("1.5")); break;
+                    case 3: stage.addTaskToEnd(new RaiseTask()); break;
+                    default: stage.addTaskToEnd(new PumpParamsTask(1000, 500)); break;
+                }
+            }
+            root.addTaskToEnd(stage);
+        }
+        root.setVisibilityDown(false);
+
+        DecompileVisitor decompileVisitor = new DecompileVisitor();
+        DrawVisitor drawVisitor = new DrawVisitor();
+        Graphics2D g = new BufferedImage(800, 600, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        ArrayList<Plate> plates = new ArrayList<Plate>();
+
+        long decompileNanos = 0, drawNanos = 0;
+        int leaves = 0;
+        for (int pass = -passes; pass < passes; pass++) {
+            ArrayList<ALeafTask> decompiled = new ArrayList<ALeafTask>(nodes);
+            long start = System.nanoTime();
+            root.executeVisitor(decompileVisitor, decompiled);
+            long middle = System.nanoTime();
+            root.executeVisitor(drawVisitor, g, 1.0, new Point2D.Double(0, 0), plates);
+            long end = System.nanoTime();
+
+            //first half of the passes are warmup
+            if (pass >= 0) {
+                decompileNanos += middle - start;
+                drawNanos += end - middle;
+            }
+            leaves = decompiled.size();
+        }
+
+        System.err.println(String.format("%d nodes, %d leaves, %d passes after %d warmup", count, leaves, passes, passes));
+        System.err.println(String.format("decompile: %.2f ms/pass, %.1f ns/node",
+                decompileNanos / 1e6 / passes, (double) decompileNanos / passes / count));
+        System.err.println(String.format("draw:      %.2f ms/pass, %.1f ns/node",
+                drawNanos / 1e6 / passes, (double) drawNanos / passes / count));
+    }
+}
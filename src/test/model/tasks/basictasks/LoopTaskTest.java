@@ -0,0 +1,90 @@
+package test.model.tasks.basictasks;
+
+import com.cedarsoftware.util.io.JsonReader;
+import com.cedarsoftware.util.io.JsonWriter;
+import main.model.tasks.basictasks.*;
+import main.model.tasks.execution.LeafIterator;
+import main.model.tasks.taskvisitors.DecompileVisitor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class LoopTaskTest {
+
+    private String resolve(ALeafTask leaf, Bindings bindings) {
+        return leaf instanceof MoveToWellTask ? ((MoveToWellTask) leaf).getWellParam(bindings).getText()
+                : ((DispenseTask) leaf).getVolumeParam(bindings).getText();
+    }
+
+    private String walk(IExecuteTask task) {
+        StringBuilder leaves = new StringBuilder();
+        LeafIterator iterator = new LeafIterator(task);
+        while (iterator.hasNext()) {
+            ALeafTask leaf = iterator.next();
+            leaves.append(resolve(leaf, iterator.getBindings())).append(' ');
+        }
+        return leaves.toString().trim();
+    }
+
+    @Test
+    public void testPassesAreMadeAsTheLoopIsWalked() throws Exception {
+        LoopTask loop = new LoopTask("Rows", "r", "A", "C", "1");
+        loop.addTaskToEnd(new MoveToWellTask("Plate1", "r", "1"));
+        loop.addTaskToEnd(new DispenseTask("5"));
+        MultiTask experiment = new MultiTask("Experiment", loop);
+
+        assertEquals(2, loop.getChildCount());
+        assertEquals(3, loop.getIterationCount());
+        assertEquals("A1 5 B1 5 C1 5", walk(experiment));
+        assertEquals("r", ((MoveToWellTask) loop.getChildAt(0)).getRow());
+
+        ArrayList<ALeafTask> decompiled = new ArrayList<ALeafTask>();
+        experiment.executeVisitor(new DecompileVisitor(), decompiled);
+        assertEquals(6, decompiled.size());
+        assertEquals("C", ((MoveToWellTask) decompiled.get(4)).getRow());
+
+        IExecuteTask loaded = (IExecuteTask) JsonReader.jsonToJava(JsonWriter.objectToJson(experiment));
+        loaded.resetParents();
+        assertEquals("A1 5 B1 5 C1 5", walk(loaded));
+    }
+
+    @Test
+    public void testInnerLoopCanUseOuterVariable() {
+        LoopTask inner = new LoopTask("Columns", "c", "1", "r", "1");
+        inner.addTaskToEnd(new MoveToWellTask("Plate1", "A", "c"));
+        LoopTask outer = new LoopTask("Counts", "r", "3", "1", "1");
+        outer.addTaskToEnd(inner);
+
+        assertEquals("A1 A2 A3 A1 A2 A1", walk(outer));
+        assertEquals("A1 A2 A3 A1 A2 A1", walk(outer.copy()));
+        assertEquals(0, new LoopTask("Bad", "x", "A", "3", "1").getIterationCount());
+        assertEquals("", walk(new MultiTask("Empty", new LoopTask("Bad", "x", "A", "3", "1"))));
+
+        //an increment that would never get to the end value makes no passes, whether written or bound
+        assertEquals(0, new LoopTask("Stuck", "x", "A", "C", "0").getIterationCount());
+        assertEquals(0, new LoopTask("Backwards", "x", "3", "1", "-1").getIterationCount());
+        assertEquals(0, new LoopTask("Backwards", "x", "1", "3", "-0.5").getIterationCount());
+        LoopTask stepped = new LoopTask("Columns", "c", "1", "2", "s");
+        stepped.addTaskToEnd(new MoveToWellTask("Plate1", "A", "c"));
+        LoopTask steps = new LoopTask("Steps", "s", "0", "1", "1");
+        steps.addTaskToEnd(stepped);
+        assertEquals("A1 A2", walk(steps));
+    }
+
+    @Test
+    public void testOneTemplateFeedsSeveralWalks() {
+        LoopTask loop = new LoopTask("Volumes", "v", "1", "3", "1");
+        loop.addTaskToEnd(new DispenseTask("v"));
+
+        //two walks over the same tree at once keep their own values, and the tree is left as written
+        LeafIterator first = new LeafIterator(loop), second = new LeafIterator(loop);
+        assertEquals("1", resolve(first.next(), first.getBindings()));
+        assertSame(loop.getChildAt(0), second.next());
+        assertEquals("2", resolve(second.next(), second.getBindings()));
+        assertEquals("2", resolve(first.next(), first.getBindings()));
+        assertEquals("3", resolve(second.next(), second.getBindings()));
+        assertEquals("v", ((DispenseTask) loop.getChildAt(0)).getVolumeText());
+    }
+}
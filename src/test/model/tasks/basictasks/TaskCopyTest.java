@@ -0,0 +1,52 @@
+package test.model.tasks.basictasks;
+
+import com.cedarsoftware.util.io.JsonWriter;
+import main.model.tasks.basictasks.*;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TaskCopyTest {
+
+    private MultiTask everyKind() {
+        MultiTask stage = new MultiTask("Stage", new MoveToWellTask("Plate1", "A", "1"), new LowerTask(),
+                new DispenseTask("v"), new RaiseTask(), new MoveToLocTask("1.5", "2"), new NozzleHeightTask("1200"),
+                new PumpParamsTask(1000, 500), new DelayTask("250"), new RawTask(), new NullTask());
+        stage.setUnordered(true);
+        stage.setDevice(2);
+        stage.setDependsOn(Arrays.asList("Setup"));
+        return new MultiTask("Experiment", new MultiTask("Setup", new DispenseTask("1")), stage);
+    }
+
+    @Test
+    public void testCopySavesTheSameAsTheOriginal() throws Exception {
+        MultiTask original = everyKind();
+        IExecuteTask copy = original.copy();
+
+        assertNotSame(original, copy);
+        assertEquals(JsonWriter.objectToJson(original), JsonWriter.objectToJson(copy));
+    }
+
+    @Test
+    public void testCopyIsIndependentOfTheOriginal() throws Exception {
+        MultiTask original = everyKind();
+        String saved = JsonWriter.objectToJson(original);
+        original.setVisibilityDown(false);
+
+        MultiTask copy = (MultiTask) original.copy();
+        assertNull(copy.getParent());
+        assertTrue(copy.getVisibility());
+        MultiTask stage = (MultiTask) copy.getChildAt(1);
+        assertSame(copy, stage.getParent());
+        assertSame(stage, stage.getChildAt(0).getParent());
+        assertNotSame(original.getChildAt(1), stage);
+
+        copy.replaceAll("v", "3");
+        stage.addTaskToEnd(new DelayTask("10"));
+        stage.getDependsOn().add("Other");
+        original.setVisibilityDown(true);
+        assertEquals(saved, JsonWriter.objectToJson(original));
+    }
+}
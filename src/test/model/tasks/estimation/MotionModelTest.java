@@ -0,0 +1,86 @@
+package test.model.tasks.estimation;
+
+import main.model.plate.PlateModel;
+import main.model.serial.protocol.CommandType;
+import main.model.serialization.SerializationModel;
+import main.model.serialization.UserSettings;
+import main.model.tasks.basictasks.DelayTask;
+import main.model.tasks.basictasks.DispenseTask;
+import main.model.tasks.basictasks.MultiTask;
+import main.model.tasks.basictasks.PumpParamsTask;
+import main.model.tasks.estimation.DurationEstimate;
+import main.model.tasks.estimation.DurationEstimator;
+import main.model.tasks.estimation.MotionModel;
+import main.model.tasks.taskvisitors.PlanCompileVisitor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MotionModelTest {
+
+    @Before
+    public void setUp() {
+        SerializationModel.userSettings = new UserSettings();
+        SerializationModel.userSettings.stepsTouLFactor = 10;
+    }
+
+    @Test
+    public void testTrapezoid() {
+        //long enough to cruise: 10 cm at 5 cm/s, plus a quarter second each way to get up to speed and back down
+        assertEquals(2250, MotionModel.trapezoidMillis(10, 5, 20), 1e-9);
+        //too short to get up to speed: speed up for half, slow down for half
+        assertEquals(2 * Math.sqrt(0.5 / 20) * 1000, MotionModel.trapezoidMillis(0.5, 5, 20), 1e-9);
+        assertEquals(0, MotionModel.trapezoidMillis(0, 5, 20), 0);
+    }
+
+    @Test
+    public void testFitRecoversTheRig() {
+        double[] truth = {12, 1.5, 0.8, 2};
+        MotionModel model = new MotionModel();
+        MotionModel.State state = new MotionModel.State(0, 0);
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            switch (i % 3) {
+                case 0:
+                    model.millis(CommandType.MOVE, random.nextInt(5000), random.nextInt(5000), state);
+                    break;
+                case 1:
+                    model.millis(CommandType.DISPENSE, random.nextInt(3000), 0, state);
+                    break;
+                default:
+                    model.millis(CommandType.NOZZLE_HEIGHT, 1200 + random.nextInt(400), 0, state);
+                    break;
+            }
+            double[] features = state.getFeatures();
+            double measured = 0;
+            for (int k = 0; k < truth.length; k++) {
+                measured += truth[k] * features[k];
+            }
+            model.record(features, state.getFixedMillis(), measured);
+        }
+
+        assertTrue(model.fit());
+        assertFalse(model.fit());
+        //the pull towards the defaults costs a little accuracy
+        assertArrayEquals(truth, model.getCoefficients(), 0.25);
+    }
+
+    @Test
+    public void testStagesAddUpToTheTotal() {
+        MultiTask experiment = new MultiTask("Experiment",
+                new MultiTask("Fill", new PumpParamsTask(500, 1000), new DispenseTask("100")),
+                new MultiTask("Wait", new DelayTask("2000")));
+        DurationEstimator estimator = new DurationEstimator(new PlanCompileVisitor(new PlateModel()), new MotionModel());
+        DurationEstimate estimate = estimator.estimate(experiment, new MotionModel.State());
+
+        //two round trips, then 1000 steps at 500 steps/s after half a second each way getting up to speed
+        assertEquals(60 + 2500, estimate.getStageMillis(0));
+        assertEquals(30 + 2000, estimate.getStageMillis(1));
+        assertEquals(estimate.getStageMillis(0) + estimate.getStageMillis(1), estimate.getTotalMillis());
+        assertEquals(3, estimate.getCommands());
+        assertEquals("0:05", DurationEstimate.format(estimate.getTotalMillis()));
+    }
+}
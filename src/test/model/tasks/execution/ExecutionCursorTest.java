@@ -0,0 +1,139 @@
+package test.model.tasks.execution;
+
+import main.model.plate.PlateModel;
+import main.model.plate.objects.ArmState;
+import main.model.serial.CommandOutputStream;
+import main.model.serial.protocol.CommandType;
+import main.model.serialization.SerializationModel;
+import main.model.serialization.UserSettings;
+import main.model.tasks.basictasks.DispenseTask;
+import main.model.tasks.basictasks.IExecuteTask;
+import main.model.tasks.basictasks.MultiTask;
+import main.model.tasks.execution.ExecutionCursor;
+import main.model.tasks.execution.ExecutionPlan;
+import main.model.tasks.execution.LeafIterator;
+import main.model.tasks.taskvisitors.PlanCompileVisitor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ExecutionCursorTest {
+
+    private PlanCompileVisitor compiler;
+
+    @Before
+    public void setUp() {
+        SerializationModel.userSettings = new UserSettings();
+        SerializationModel.userSettings.stepsTouLFactor = 1;
+        compiler = new PlanCompileVisitor(new PlateModel());
+    }
+
+    private MultiTask dispenses(int first, int count) {
+        MultiTask multi = new MultiTask("Dispenses");
+        for (int i = first; i < first + count; i++) {
+            multi.addTaskToEnd(new DispenseTask(Integer.toString(i)));
+        }
+        return multi;
+    }
+
+    @Test
+    public void testAppendedTasksRunAfterTheFirst() {
+        ExecutionCursor cursor = new ExecutionCursor(compiler);
+        cursor.append(dispenses(0, 2));
+        ArmState arm = new ArmState(new Point2D.Double(0, 0), null);
+        ByteArrayOutputStream device = new ByteArrayOutputStream();
+        CommandOutputStream stream = new CommandOutputStream(device);
+
+        cursor.sendNext(arm, stream);
+        cursor.append(dispenses(2, 0));
+        cursor.append(dispenses(2, 3));
+        assertEquals(1, cursor.getPosition());
+
+        while (cursor.hasNext()) cursor.sendNext(arm, stream);
+        assertEquals("dispense(0)dispense(1)dispense(2)dispense(3)dispense(4)", device.toString());
+        assertEquals(5, cursor.getPosition());
+        assertTrue(cursor.isFullyCompiled());
+    }
+
+    @Test
+    public void testPeekLooksAcrossTrees() {
+        ExecutionCursor cursor = new ExecutionCursor(compiler);
+        cursor.append(dispenses(0, 2));
+        cursor.append(dispenses(2, 2));
+        cursor.sendNext(new ArmState(new Point2D.Double(0, 0), null), new ByteArrayOutputStream());
+
+        assertEquals("dispense(1)", cursor.peekDescription(0));
+        assertEquals("dispense(3)", cursor.peekDescription(2));
+        assertEquals(CommandType.DISPENSE, cursor.peekType(1));
+        assertEquals("Dispense:2uL", cursor.peekSource(1).toString());
+        assertNull(cursor.peekType(3));
+    }
+
+    @Test
+    public void testLargeRunIsCompiledLazily() {
+        //1000 loops of 100 dispenses, nested a few levels deep
+        MultiTask root = new MultiTask("Experiment");
+        for (int i = 0; i < 1000; i++) {
+            root.addTaskToEnd(new MultiTask("Loop " + i, new MultiTask("Body", dispenses(0, 100))));
+        }
+        ExecutionCursor cursor = new ExecutionCursor(compiler);
+        cursor.append(root);
+
+        assertTrue(cursor.hasNext());
+        assertTrue(cursor.getCompiledAhead() <= 256);
+        assertFalse(cursor.isFullyCompiled());
+
+        ByteArrayOutputStream device = new ByteArrayOutputStream();
+        ArmState arm = new ArmState(new Point2D.Double(0, 0), null);
+        while (cursor.hasNext()) {
+            cursor.sendNext(arm, device);
+            assertTrue(cursor.getCompiledAhead() <= 256);
+        }
+        assertEquals(100000, cursor.getPosition());
+
+        //compiling as it goes ends up with the same fingerprint as compiling everything at once
+        ExecutionPlan.Builder builder = new ExecutionPlan.Builder();
+        root.executeVisitor(compiler, builder);
+        assertEquals(builder.build().getFingerprint(), cursor.getFingerprint());
+    }
+
+    @Test
+    public void testSentFingerprintDoesNotDependOnChunks() {
+        //the same steps sent from one tree, or split over two with the second skipped rather than sent
+        ExecutionCursor whole = new ExecutionCursor(compiler);
+        whole.append(dispenses(0, 300));
+        ExecutionCursor split = new ExecutionCursor(compiler);
+        split.append(dispenses(0, 10));
+        split.append(dispenses(10, 290));
+
+        ByteArrayOutputStream device = new ByteArrayOutputStream();
+        ArmState arm = new ArmState(new Point2D.Double(0, 0), null);
+        while (whole.hasNext()) whole.sendNext(arm, device);
+        while (split.getPosition() < 10) split.sendNext(arm, device);
+        while (split.hasNext()) split.skipNext();
+
+        assertEquals(whole.getFingerprint(), whole.getSentFingerprint());
+        assertEquals(whole.getSentFingerprint(), split.getSentFingerprint());
+        assertFalse(whole.getSentFingerprint() == ExecutionPlan.EMPTY_FINGERPRINT);
+    }
+
+    @Test
+    public void testLeafIteratorSkipsChildrenAddedAfterEntering() {
+        MultiTask root = dispenses(0, 2);
+        LeafIterator leaves = new LeafIterator(root);
+        root.addTaskToEnd(new DispenseTask("9"));
+
+        int count = 0;
+        while (leaves.hasNext()) {
+            IExecuteTask leaf = leaves.next();
+            assertFalse("Dispense:9uL".equals(leaf.toString()));
+            count++;
+        }
+        assertEquals(2, count);
+        assertEquals(0, leaves.getDepth());
+    }
+}
@@ -0,0 +1,92 @@
+package test.model.tasks.execution;
+
+import main.model.plate.PlateModel;
+import main.model.plate.objects.ArmState;
+import main.model.serial.protocol.CommandType;
+import main.model.tasks.execution.ExecutionJournal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class ExecutionJournalTest {
+
+    private File file;
+    private ArmState arm;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("journal", ".bin");
+        arm = new ArmState(new Point2D.Double(1, 2), new PlateModel());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testResumesAfterLastAcknowledged() throws IOException {
+        ExecutionJournal journal = ExecutionJournal.create(file, ExecutionJournal.PEEPHOLE, arm);
+        arm.setLocation(10.5, 2);
+        journal.sent(0, CommandType.MOVE, 1050, arm, 0x1234L);
+        journal.sent(1, CommandType.NOZZLE_HEIGHT, 1325, arm, 0xfedcba9876543210L);
+        arm.setLocation(3.25, 4);
+        journal.sent(2, CommandType.MOVE, 325, arm, 0x5678L);
+        journal.acknowledged();
+        journal.acknowledged();
+        //the app dies here, with the third command never acknowledged
+        journal.close();
+
+        ExecutionJournal reopened = ExecutionJournal.open(file);
+        //the fingerprint of the last step acknowledged covers everything a resume skips
+        assertEquals(0xfedcba9876543210L, reopened.getResumeFingerprint());
+        assertEquals(ExecutionJournal.PEEPHOLE, reopened.getFlags());
+        assertEquals(100, reopened.getOriginX());
+        assertEquals(200, reopened.getOriginY());
+        assertEquals(2, reopened.getResumePosition());
+        assertEquals(1050, reopened.getArmX());
+        assertEquals(200, reopened.getArmY());
+        assertEquals(1325, reopened.getNozzle());
+        assertFalse(reopened.isFinished());
+
+        //carries on where it left off, and says so once over
+        reopened.sent(2, CommandType.MOVE, 325, arm, 0x5678L);
+        reopened.acknowledged();
+        reopened.finished();
+        reopened.close();
+        ExecutionJournal over = ExecutionJournal.open(file);
+        assertEquals(3, over.getResumePosition());
+        assertEquals(325, over.getArmX());
+        assertEquals(0x5678L, over.getResumeFingerprint());
+        assertTrue(over.isFinished());
+        over.close();
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        ExecutionJournal journal = ExecutionJournal.create(file, 0, arm);
+        journal.sent(0, CommandType.DISPENSE, 15, arm, 1);
+        journal.acknowledged();
+        journal.sent(1, CommandType.DISPENSE, 15, arm, 2);
+        journal.acknowledged();
+        journal.close();
+
+        //scribble over the middle of the last record, as if the machine died while writing it
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(8 + 5 * 32 + 8);
+        raw.writeInt(42);
+        raw.close();
+
+        ExecutionJournal reopened = ExecutionJournal.open(file);
+        assertEquals(1, reopened.getResumePosition());
+        assertEquals(1, reopened.getResumeFingerprint());
+        reopened.close();
+    }
+}
@@ -0,0 +1,108 @@
+package test.model.tasks.execution;
+
+import main.model.plate.PlateModel;
+import main.model.plate.objects.ArmState;
+import main.model.serial.CommandOutputStream;
+import main.model.serial.protocol.CommandType;
+import main.model.serialization.SerializationModel;
+import main.model.serialization.UserSettings;
+import main.model.tasks.basictasks.*;
+import main.model.tasks.execution.ExecutionPlan;
+import main.model.tasks.taskvisitors.PlanCompileVisitor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ExecutionPlanTest {
+
+    private PlanCompileVisitor compiler;
+
+    @Before
+    public void setUp() {
+        SerializationModel.userSettings = new UserSettings();
+        SerializationModel.userSettings.stepsTouLFactor = 10;
+        SerializationModel.userSettings.defaultLowerSteps = 1325;
+        compiler = new PlanCompileVisitor(new PlateModel());
+    }
+
+    private MultiTask experiment() {
+        MultiTask root = new MultiTask("Experiment");
+        root.addTaskToEnd(new MoveToLocTask("10.5", "2"));
+        root.addTaskToEnd(new DispenseTask("1.5"));
+        root.addTaskToEnd(new NozzleHeightTask("0"));
+        root.addTaskToEnd(new MoveToLocTask("x", "2"));
+        root.addTaskToEnd(new LowerTask());
+        root.addTaskToEnd(new DelayTask("t"));
+        root.addTaskToEnd(new MoveToLocTask("3.25", "4"));
+        return root;
+    }
+
+    private ExecutionPlan compile(IExecuteTask root) {
+        ExecutionPlan.Builder builder = new ExecutionPlan.Builder();
+        root.executeVisitor(compiler, builder);
+        return builder.build();
+    }
+
+    @Test
+    public void testCompileResolvesAndSkipsUnresolved() {
+        ExecutionPlan plan = compile(experiment());
+        //the zero nozzle height and the move to a variable send nothing, so they are not in the plan
+        assertEquals(5, plan.size());
+        assertEquals(CommandType.MOVE, plan.getType(0));
+        assertEquals(1050, plan.getOperand0(0));
+        assertEquals(200, plan.getOperand1(0));
+        assertEquals(CommandType.DISPENSE, plan.getType(1));
+        assertEquals(15, plan.getOperand0(1));
+        assertEquals(1325, plan.getOperand0(2));
+        assertEquals("delay(t)", plan.getText(3));
+        assertTrue(plan.getSource(4) instanceof MoveToLocTask);
+    }
+
+    @Test
+    public void testDelaysKeepTheirTime() {
+        MultiTask root = new MultiTask("Delays");
+        root.addTaskToEnd(new DelayTask("250"));
+        root.addTaskToEnd(new DelayTask("0.5"));
+        ExecutionPlan plan = compile(root);
+        assertEquals(CommandType.DELAY, plan.getType(0));
+        assertEquals(250, plan.getOperand0(0));
+        //a fraction of a ms can't go in a delay command, so it goes out as it was typed rather than rounded
+        assertEquals("delay(0.5)", plan.getText(1));
+
+        DelayTask edited = new DelayTask("250");
+        edited.setUserObject("1.5");
+        assertEquals("250", edited.getTime());
+        edited.setUserObject("t");
+        assertEquals("t", edited.getTime());
+    }
+
+    @Test
+    public void testSameTreeSamePlan() {
+        ExecutionPlan first = compile(experiment());
+        ExecutionPlan second = compile(experiment());
+        assertEquals(first, second);
+        assertEquals(first.getFingerprint(), second.getFingerprint());
+
+        MultiTask changed = experiment();
+        changed.addTaskToEnd(new DispenseTask("1"));
+        assertFalse(first.getFingerprint() == compile(changed).getFingerprint());
+    }
+
+    @Test
+    public void testMovesAreSentRelativeToArm() {
+        ExecutionPlan plan = compile(experiment());
+        ArmState arm = new ArmState(new Point2D.Double(20, 5), null);
+        ByteArrayOutputStream device = new ByteArrayOutputStream();
+        CommandOutputStream stream = new CommandOutputStream(device);
+        for (int step = 0; step < plan.size(); step++) {
+            plan.send(step, arm, stream);
+        }
+        assertEquals("move(9.5,3.0)dispense(15)nozzleHeight(1325)delay(t)move(7.25,-2.0)", device.toString());
+        assertEquals(3.25, arm.getX(), 0);
+        assertEquals(4, arm.getY(), 0);
+    }
+}
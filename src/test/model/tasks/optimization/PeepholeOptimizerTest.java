@@ -0,0 +1,106 @@
+package test.model.tasks.optimization;
+
+import main.model.serial.protocol.CommandType;
+import main.model.tasks.execution.ExecutionPlan;
+import main.model.tasks.optimization.PeepholeOptimizer;
+import main.model.tasks.optimization.PeepholeRule;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.*;
+
+public class PeepholeOptimizerTest {
+
+    private static ExecutionPlan.Builder plan() {
+        return new ExecutionPlan.Builder();
+    }
+
+    @Test
+    public void testMovesMergeAndVanish() {
+        ExecutionPlan original = plan()
+                .add(CommandType.MOVE, 100, 100, null)
+                .add(CommandType.DISPENSE, 50, 0, null)
+                .add(CommandType.MOVE, 100, 100, null)      //already there
+                .add(CommandType.MOVE, 300, 300, null)      //overridden by the next move
+                .add(CommandType.MOVE, 100, 100, null)      //back where it started, so nothing moves at all
+                .add(CommandType.MOVE, 200, 200, null)
+                .build();
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        ExecutionPlan optimized = optimizer.optimize(original);
+
+        assertEquals(3, optimized.size());
+        assertEquals(CommandType.MOVE, optimized.getType(2));
+        assertEquals(200, optimized.getOperand0(2));
+        assertEquals(2, optimizer.getCount(PeepholeRule.ZERO_MOVE));
+        assertEquals(1, optimizer.getCount(PeepholeRule.MERGE_MOVES));
+        assertEquals(6, optimizer.getStepsIn());
+        assertEquals(3, optimizer.getStepsOut());
+    }
+
+    @Test
+    public void testDelaysPumpAndNozzle() {
+        ExecutionPlan original = plan()
+                .add(CommandType.PUMP_PARAMS, 800, 400, null)
+                .add(CommandType.NOZZLE_HEIGHT, 1500, 0, null)
+                .add(CommandType.NOZZLE_HEIGHT, 1325, 0, null)
+                .add(CommandType.DELAY, 100, 0, null)
+                .add(CommandType.DELAY, 0, 0, null)
+                .add(CommandType.DELAY, 250, 0, null)
+                .add(CommandType.PUMP_PARAMS, 800, 400, null)
+                .add(CommandType.NOZZLE_HEIGHT, 1325, 0, null)
+                .add(CommandType.DISPENSE, 20, 0, null)
+                .build();
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        ExecutionPlan optimized = optimizer.optimize(original);
+
+        assertEquals(4, optimized.size());
+        assertEquals(1325, optimized.getOperand0(1));
+        assertEquals(CommandType.DELAY, optimized.getType(2));
+        assertEquals(350, optimized.getOperand0(2));
+        assertEquals(1, optimizer.getCount(PeepholeRule.DUPLICATE_PUMP_PARAMS));
+        assertEquals(1, optimizer.getCount(PeepholeRule.MERGE_NOZZLE_HEIGHTS));
+        assertEquals(1, optimizer.getCount(PeepholeRule.DUPLICATE_NOZZLE_HEIGHT));
+        assertEquals(1, optimizer.getCount(PeepholeRule.MERGE_DELAYS));
+        assertEquals(1, optimizer.getCount(PeepholeRule.ZERO_DELAY));
+    }
+
+    @Test
+    public void testRawStepsAreBarriers() {
+        ExecutionPlan original = plan()
+                .add(CommandType.MOVE, 100, 100, null)
+                .addRaw("home()", null)
+                .add(CommandType.MOVE, 100, 100, null)
+                .build();
+        assertEquals(3, new PeepholeOptimizer().optimize(original).size());
+    }
+
+    @Test
+    public void testKnowledgeCarriesAcrossChunks() {
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        optimizer.optimize(plan().add(CommandType.MOVE, 100, 100, null).build());
+        assertEquals(0, optimizer.optimize(plan().add(CommandType.MOVE, 100, 100, null).build()).size());
+
+        optimizer.reset();
+        assertEquals(1, optimizer.optimize(plan().add(CommandType.MOVE, 100, 100, null).build()).size());
+    }
+
+    @Test
+    public void testDisabledRulesAndDiff() {
+        ExecutionPlan original = plan()
+                .add(CommandType.DELAY, 100, 0, null)
+                .add(CommandType.DELAY, 100, 0, null)
+                .add(CommandType.MOVE, 100, 100, null)
+                .add(CommandType.MOVE, 200, 200, null)
+                .build();
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(EnumSet.of(PeepholeRule.MERGE_MOVES));
+        assertEquals(3, optimizer.optimize(original).size());
+
+        String diff = new PeepholeOptimizer().diff(original);
+        assertTrue(diff, diff.startsWith("Peephole pass sent 2 of 4 commands"));
+        assertTrue(diff, diff.contains("~ 0: "));
+        assertTrue(diff, diff.contains("- 1: "));
+        assertTrue(diff, diff.contains("- 2: "));
+        assertTrue(diff, diff.contains("  3: "));
+    }
+}
@@ -0,0 +1,97 @@
+package test.model.tasks.optimization;
+
+import main.model.plate.PlateModel;
+import main.model.serialization.SerializationModel;
+import main.model.serialization.UserSettings;
+import main.model.tasks.basictasks.*;
+import main.model.tasks.optimization.TravelOptimizer;
+import main.model.tasks.optimization.TravelReport;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class TravelOptimizerTest {
+
+    private TravelOptimizer optimizer;
+
+    @Before
+    public void setUp() {
+        SerializationModel.userSettings = new UserSettings();
+        optimizer = new TravelOptimizer(new PlateModel());
+    }
+
+    private MultiTask visit(double x, double y) {
+        return new MultiTask("Visit" + x + "," + y, new MoveToLocTask(Double.toString(x), Double.toString(y)),
+                new LowerTask(), new DispenseTask("-1"), new RaiseTask());
+    }
+
+    /**
+     * Block visiting a 4 by 4 grid column by column, alternating ends of the deck each time.
+     */
+    private MultiTask zigZag(boolean unordered) {
+        MultiTask block = new MultiTask("Withdrawals");
+        block.setUnordered(unordered);
+        for (int i = 0; i < 16; i++) {
+            int column = i % 4;
+            int row = i / 4;
+            block.addTaskToEnd(visit(column * 10, row * 10));
+        }
+        return block;
+    }
+
+    @Test
+    public void testUnorderedBlockGetsShorter() {
+        MultiTask block = zigZag(true);
+        HashSet<String> before = new HashSet<String>();
+        for (int i = 0; i < block.getChildCount(); i++) before.add(block.getChildAt(i).toString());
+
+        TravelReport report = optimizer.optimize(block, new Point2D.Double(0, 0));
+        assertEquals(1, report.blocksReordered);
+        assertTrue(report.getCmSaved() > 0);
+        assertEquals(report.cmAfter, optimizer.measureTravel(block, new Point2D.Double(0, 0)), 1e-9);
+        //a 4 by 4 grid 10 cm apart can be covered in 15 hops of 10 cm
+        assertEquals(150, report.cmAfter, 1e-6);
+
+        HashSet<String> after = new HashSet<String>();
+        for (int i = 0; i < block.getChildCount(); i++) after.add(block.getChildAt(i).toString());
+        assertEquals(before, after);
+    }
+
+    @Test
+    public void testOrderedBlockIsLeftAlone() {
+        MultiTask block = zigZag(false);
+        String first = block.getChildAt(1).toString();
+        TravelReport report = optimizer.optimize(block, new Point2D.Double(0, 0));
+        assertEquals(0, report.blocksReordered);
+        assertEquals(0, report.getCmSaved(), 0);
+        assertEquals(first, block.getChildAt(1).toString());
+    }
+
+    @Test
+    public void testNestedBlockStartsWhereArmIs() {
+        MultiTask experiment = new MultiTask("Experiment");
+        experiment.addTaskToEnd(visit(30, 30));
+        MultiTask block = new MultiTask("Withdrawals");
+        block.setUnordered(true);
+        block.addTaskToEnd(visit(0, 0));
+        block.addTaskToEnd(visit(30, 20));
+        experiment.addTaskToEnd(block);
+
+        TravelReport report = optimizer.optimize(experiment, new Point2D.Double(0, 0));
+        assertEquals(1, report.blocksReordered);
+        assertEquals("Visit30.0,20.0", block.getChildAt(0).toString());
+    }
+
+    @Test
+    public void testBlockWithStationaryChildIsLeftAlone() {
+        MultiTask block = zigZag(true);
+        block.addTaskToEnd(new DelayTask("100"));
+        TravelReport report = optimizer.optimize(block, new Point2D.Double(0, 0));
+        assertEquals(0, report.blocksReordered);
+        assertEquals(1, report.blocksUnchanged);
+    }
+}
@@ -0,0 +1,101 @@
+package test.model.tasks.scheduling;
+
+import main.model.plate.PlateModel;
+import main.model.serialization.SerializationModel;
+import main.model.serialization.UserSettings;
+import main.model.tasks.basictasks.*;
+import main.model.tasks.scheduling.DagScheduler;
+import main.model.tasks.scheduling.StageGraph;
+import main.model.tasks.taskvisitors.PlanCompileVisitor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class StageGraphTest {
+
+    private PlanCompileVisitor compiler;
+
+    @Before
+    public void setUp() {
+        SerializationModel.userSettings = new UserSettings();
+        SerializationModel.userSettings.stepsTouLFactor = 13.072;
+        compiler = new PlanCompileVisitor(new PlateModel());
+    }
+
+    /**
+     * Stage that moves over a well, dispenses the given volume into it and then waits.
+     */
+    private static MultiTask stage(String name, String well, String volume, int waitMs) {
+        return new MultiTask(name, new MoveToWellTask("P", well.substring(0, 1), well.substring(1)),
+                new DispenseTask(volume), new DelayTask(Integer.toString(waitMs)));
+    }
+
+    @Test
+    public void testEdgesFromWells() {
+        MultiTask experiment = new MultiTask("Experiment");
+        experiment.addTaskToEnd(stage("fill", "A1", "10", 1000));
+        experiment.addTaskToEnd(stage("sampleOne", "A1", "-2", 5000));
+        experiment.addTaskToEnd(stage("sampleTwo", "A1", "-2", 2000));
+        experiment.addTaskToEnd(stage("other", "B2", "10", 1000));
+        StageGraph graph = new StageGraph(experiment, compiler);
+
+        //both samples wait on the fill but not on each other, the other well waits on nothing
+        assertEquals(Collections.singletonList(0), graph.getPredecessors(1));
+        assertEquals(Collections.singletonList(0), graph.getPredecessors(2));
+        assertTrue(graph.getPredecessors(3).isEmpty());
+        assertEquals(Arrays.asList(0, 1), graph.getCriticalPath());
+        assertTrue(graph.getCriticalPathMillis() >= 6000 && graph.getCriticalPathMillis() < graph.getSequentialMillis());
+    }
+
+    @Test
+    public void testNamedDependenciesAndBarriers() {
+        MultiTask experiment = new MultiTask("Experiment");
+        experiment.addTaskToEnd(stage("first", "A1", "10", 0));
+        MultiTask raw = new MultiTask("raw", new RawTask());
+        experiment.addTaskToEnd(raw);
+        MultiTask named = stage("named", "C3", "10", 0);
+        named.setDependsOn(Collections.singletonList("first"));
+        experiment.addTaskToEnd(named);
+        StageGraph graph = new StageGraph(experiment, compiler);
+
+        assertEquals(Collections.singletonList(0), graph.getPredecessors(1));
+        assertEquals(Collections.singletonList(0), graph.getPredecessors(2));
+
+        MultiTask loop = (MultiTask) experiment.getChildAt(0);
+        loop.setDependsOn(Collections.singletonList("named"));
+        try {
+            new StageGraph(experiment, compiler);
+            fail("A circle of dependencies should not make a graph.");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testSchedulerFollowsDependencies() {
+        MultiTask experiment = new MultiTask("Experiment");
+        experiment.addTaskToEnd(stage("fill", "A1", "10", 1000));
+        experiment.addTaskToEnd(stage("sample", "A1", "-2", 5000));
+        experiment.addTaskToEnd(stage("other", "B2", "10", 1000));
+        MultiTask pinned = stage("pinned", "C3", "10", 1000);
+        pinned.setDevice(1);
+        experiment.addTaskToEnd(pinned);
+        DagScheduler scheduler = new DagScheduler(new StageGraph(experiment, compiler), 2);
+
+        //the fill heads the longest chain, so it goes first; the pinned stage can only go on the first device
+        assertEquals(0, scheduler.next(0));
+        assertEquals(2, scheduler.next(1));
+        assertEquals(1, scheduler.finished(2));
+        assertEquals(-1, scheduler.next(1));
+        assertEquals(0, scheduler.finished(0));
+        assertEquals(1, scheduler.next(1));
+        assertEquals(3, scheduler.next(0));
+        assertEquals(1, scheduler.getRunningCount(0));
+        scheduler.finished(3);
+        scheduler.finished(1);
+        assertTrue(scheduler.isFinished());
+    }
+}
@@ -0,0 +1,63 @@
+package test.model.tasks.scheduling;
+
+import main.model.tasks.scheduling.TimerWheel;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    //small wheel so timers have to go round it more than once
+    private final TimerWheel wheel = new TimerWheel(2, 16, DIRECT);
+
+    @After
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    public void testTimersGoOffInDeadlineOrder() throws Exception {
+        final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(3);
+        int[] delays = {120, 10, 60};
+        for (final int delay : delays) {
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fired.add(delay);
+                    latch.countDown();
+                }
+            }, delay);
+        }
+        TimerWheel.Timeout cancelled = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                fired.add(-1);
+            }
+        }, 30);
+        cancelled.cancel();
+
+        long start = System.nanoTime();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= 110 * 1000000L);
+        assertEquals(java.util.Arrays.asList(10, 60, 120), fired);
+        assertEquals(3, wheel.getFired());
+        assertTrue(wheel.getMeanLateMillis() >= 0);
+        assertTrue(wheel.getSummary(), wheel.getSummary().startsWith("Host timers: 3 fired"));
+    }
+}
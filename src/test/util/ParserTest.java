@@ -0,0 +1,51 @@
+package test.util;
+
+import main.model.tasks.basictasks.TaskParam;
+import main.util.Parser;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ParserTest {
+
+    private static final char[] ALPHABET = {'-', '.', '0', '7', 'A', 'Z', 'r', ' '};
+
+    private void check(String str) {
+        assertEquals(str, str.matches("-?\\d+(\\.\\d+)?"), Parser.isNumeric(str));
+        assertEquals(str, str.matches("[A-Z][0-9]+"), Parser.isIdentifier(str));
+        assertEquals(str, str.matches("-?[0-9]+"), Parser.isInteger(str));
+        assertEquals(str, str.matches("[A-Z]"), Parser.isLetter(str));
+    }
+
+    @Test
+    public void testScannersAgreeWithPatterns() {
+        //every string of up to 5 characters from a small alphabet covering each case
+        int strings = 1;
+        for (int length = 1; length <= 5; length++) strings = strings * ALPHABET.length + 1;
+        for (int n = 0; n < strings; n++) {
+            StringBuilder str = new StringBuilder();
+            for (int code = n; code > 0; code = (code - 1) / ALPHABET.length) {
+                str.append(ALPHABET[(code - 1) % ALPHABET.length]);
+            }
+            check(str.toString());
+        }
+        check("12.345");
+        check("H12");
+        check("\u0663");
+    }
+
+    @Test
+    public void testTaskParamIsParsedOnce() {
+        TaskParam number = new TaskParam("-2.5");
+        assertTrue(number.isNumber());
+        assertEquals(-2.5, number.getValue(), 0);
+
+        TaskParam well = new TaskParam("B12");
+        assertTrue(well.isIdentifier());
+        assertFalse(well.isNumber());
+
+        assertTrue(new TaskParam("x").isVariable());
+        assertTrue(new TaskParam(null).isVariable());
+        assertEquals(0, new TaskParam("x").getValue(), 0);
+    }
+}